@@ -46,6 +46,24 @@ import version2.prototype.util.FileSystem;
     private static final String OUTPUT_KEY = "Output";
     private static final String TEMPORAL_SUMMARY_COMPOSITION_STRATEGY_KEY = "TemporalSummaryCompositionStrategy";
     private static final String SUMMARY_CALCULATION_KEY = "SummaryCalculation";
+    private static final String ZONE_RASTER_CACHE_DIR_KEY = "ZoneRasterCacheDir";
+    private static final String SHARED_ZONAL_RESULTS_DIR_KEY = "SharedZonalResultsDir";
+    // Processor section (optional)
+    private static final String PROCESSOR_KEY = "Processor";
+    private static final String INTERMEDIATE_MEMORY_DIR_KEY = "IntermediateMemoryDir";
+    private static final String INTERMEDIATE_MEMORY_LIMIT_MB_KEY = "IntermediateMemoryLimitMB";
+    private static final String REPROJECTION_CACHE_DIR_KEY = "ReprojectionCacheDir";
+    // GeoTiff section (optional)
+    private static final String GEOTIFF_KEY = "GeoTiff";
+    private static final String PROCESSOR_PROFILE_KEY = "ProcessorProfile";
+    private static final String INDICES_PROFILE_KEY = "IndicesProfile";
+    private static final String SUMMARY_PROFILE_KEY = "SummaryProfile";
+    private static final String LOG_STATISTICS_KEY = "LogStatistics";
+    private static final String DEFAULT_PROCESSOR_PROFILE = "TILED";
+    private static final String DEFAULT_INDICES_PROFILE = "DEFLATE";
+    private static final String DEFAULT_SUMMARY_PROFILE = "DEFLATE";
+    private static final String DEFAULT_INTERMEDIATE_MEMORY_DIR = "/dev/shm";
+    private static final long DEFAULT_INTERMEDIATE_MEMORY_LIMIT_MB = 512;
     // Instance
     private static Config instance = null;
     private static Boolean instanceLock = new Boolean(true);        // Value doesn't matter
@@ -74,6 +92,15 @@ import version2.prototype.util.FileSystem;
     private final Integer maxNumOfConnectionsPerInstance;
     private final ArrayList<String> summaryTempCompStrategies;
     private final ArrayList<String> summaryCalculations;
+    private final String intermediateMemoryDir;
+    private final long intermediateMemoryLimitMB;
+    private final String reprojectionCacheDir;
+    private final String zoneRasterCacheDir;
+    private final String sharedZonalResultsDir;
+    private final String processorProfile;
+    private final String indicesProfile;
+    private final String summaryProfile;
+    private final boolean logStatistics;
 
     private Config(String xmlPath)
     {
@@ -95,6 +122,15 @@ import version2.prototype.util.FileSystem;
         Integer maxNumOfConnectionsPerInstanceTemp = null;
         ArrayList<String> tempSummaryCompStrategiesTemp = null;
         ArrayList<String> summaryCalculationsTemp = null;
+        String intermediateMemoryDirTemp = DEFAULT_INTERMEDIATE_MEMORY_DIR;
+        long intermediateMemoryLimitMBTemp = DEFAULT_INTERMEDIATE_MEMORY_LIMIT_MB;
+        String reprojectionCacheDirTemp = "";
+        String zoneRasterCacheDirTemp = "";
+        String sharedZonalResultsDirTemp = "";
+        String processorProfileTemp = DEFAULT_PROCESSOR_PROFILE;
+        String indicesProfileTemp = DEFAULT_INDICES_PROFILE;
+        String summaryProfileTemp = DEFAULT_SUMMARY_PROFILE;
+        boolean logStatisticsTemp = false;
 
         File fXmlFile = new File(xmlPath);
         DocumentBuilderFactory dbFactory = DocumentBuilderFactory.newInstance();
@@ -135,6 +171,58 @@ import version2.prototype.util.FileSystem;
             for(int i=0; i < summaryList.getLength(); i++) {
                 summaryCalculationsTemp.add(summaryList.item(i).getTextContent());
             }
+
+            // Node: ZoneRasterCacheDir (optional)
+            Node zoneRasterCacheDirNode = ((Element) outputNode).getElementsByTagName(ZONE_RASTER_CACHE_DIR_KEY).item(0);
+            if(zoneRasterCacheDirNode != null) {
+                zoneRasterCacheDirTemp = zoneRasterCacheDirNode.getTextContent().trim();
+            }
+
+            // Node: SharedZonalResultsDir (optional)
+            Node sharedZonalResultsDirNode = ((Element) outputNode).getElementsByTagName(SHARED_ZONAL_RESULTS_DIR_KEY).item(0);
+            if(sharedZonalResultsDirNode != null) {
+                sharedZonalResultsDirTemp = sharedZonalResultsDirNode.getTextContent().trim();
+            }
+
+            // Node: Processor (optional, defaults are used when missing)
+            Element processor = (Element) doc.getElementsByTagName(PROCESSOR_KEY).item(0);
+            if(processor != null) {
+                Node memoryDir = processor.getElementsByTagName(INTERMEDIATE_MEMORY_DIR_KEY).item(0);
+                if(memoryDir != null) {
+                    intermediateMemoryDirTemp = memoryDir.getTextContent().trim();
+                }
+                Node memoryLimit = processor.getElementsByTagName(INTERMEDIATE_MEMORY_LIMIT_MB_KEY).item(0);
+                if(memoryLimit != null) {
+                    intermediateMemoryLimitMBTemp = Long.parseLong(memoryLimit.getTextContent().trim());
+                }
+                Node reprojectionCacheDirNode = processor.getElementsByTagName(REPROJECTION_CACHE_DIR_KEY).item(0);
+                if(reprojectionCacheDirNode != null) {
+                    reprojectionCacheDirTemp = reprojectionCacheDirNode.getTextContent().trim();
+                }
+            }
+
+            // Node: GeoTiff (optional, defaults are used when missing)
+            Element geoTiff = (Element) doc.getElementsByTagName(GEOTIFF_KEY).item(0);
+            if(geoTiff != null) {
+                Node profile = geoTiff.getElementsByTagName(PROCESSOR_PROFILE_KEY).item(0);
+                if(profile != null) {
+                    processorProfileTemp = profile.getTextContent().trim();
+                }
+                profile = geoTiff.getElementsByTagName(INDICES_PROFILE_KEY).item(0);
+                if(profile != null) {
+                    indicesProfileTemp = profile.getTextContent().trim();
+                }
+                profile = geoTiff.getElementsByTagName(SUMMARY_PROFILE_KEY).item(0);
+                if(profile != null) {
+                    summaryProfileTemp = profile.getTextContent().trim();
+                }
+            }
+
+            // Node: LogStatistics (optional)
+            Node logStatisticsNode = doc.getElementsByTagName(LOG_STATISTICS_KEY).item(0);
+            if(logStatisticsNode != null) {
+                logStatisticsTemp = Boolean.parseBoolean(logStatisticsNode.getTextContent().trim());
+            }
         } catch (ParserConfigurationException | SAXException | IOException e) {
             ErrorLog.add("Problem getting Config instance", e);
         } catch (Exception e) {
@@ -152,6 +240,15 @@ import version2.prototype.util.FileSystem;
         summaryTempCompStrategies = tempSummaryCompStrategiesTemp;
         summaryCalculations = summaryCalculationsTemp;
         maxNumOfConnectionsPerInstance = maxNumOfConnectionsPerInstanceTemp;
+        intermediateMemoryDir = intermediateMemoryDirTemp;
+        intermediateMemoryLimitMB = intermediateMemoryLimitMBTemp;
+        reprojectionCacheDir = reprojectionCacheDirTemp;
+        zoneRasterCacheDir = zoneRasterCacheDirTemp;
+        sharedZonalResultsDir = sharedZonalResultsDirTemp;
+        processorProfile = processorProfileTemp;
+        indicesProfile = indicesProfileTemp;
+        summaryProfile = summaryProfileTemp;
+        logStatistics = logStatisticsTemp;
     }
 
     @SuppressWarnings("unchecked")
@@ -169,6 +266,15 @@ import version2.prototype.util.FileSystem;
         this.maxNumOfConnectionsPerInstance = maxNumOfConnectionsPerInstance;
         this.summaryTempCompStrategies = (ArrayList<String>) summaryTempCompStrategies.clone();
         this.summaryCalculations = (ArrayList<String>) summaryCalculations.clone();
+        intermediateMemoryDir = DEFAULT_INTERMEDIATE_MEMORY_DIR;
+        intermediateMemoryLimitMB = DEFAULT_INTERMEDIATE_MEMORY_LIMIT_MB;
+        reprojectionCacheDir = "";
+        zoneRasterCacheDir = "";
+        sharedZonalResultsDir = "";
+        processorProfile = DEFAULT_PROCESSOR_PROFILE;
+        indicesProfile = DEFAULT_INDICES_PROFILE;
+        summaryProfile = DEFAULT_SUMMARY_PROFILE;
+        logStatistics = false;
     }
 
     /**
@@ -265,6 +371,110 @@ import version2.prototype.util.FileSystem;
         return (ArrayList<String>) summaryCalculations.clone();
     }
 
+    /**
+     * Gets the memory backed directory (e.g. a tmpfs mount) the processor keeps intermediate step outputs in. Defaults to /dev/shm, which only
+     * exists on Linux; elsewhere intermediates go to disk unless a RAM disk is configured.
+     *
+     * @return the directory path, or an empty string if intermediates always go to disk
+     */
+    public String getIntermediateMemoryDir() {
+        return intermediateMemoryDir;
+    }
+
+    /**
+     * Gets the most intermediate data, in MB, the processor keeps in the memory backed directory at once. Intermediates that would exceed it
+     * are written to disk.
+     *
+     * @return the limit in MB, 0 if intermediates always go to disk
+     */
+    public long getIntermediateMemoryLimitMB() {
+        return intermediateMemoryLimitMB;
+    }
+
+    /**
+     * Gets the directory reprojection lookup tables are kept in between runs. Defaults to "ReprojectionCache" in the download directory, next
+     * to the data the tables are computed for.
+     *
+     * @return the directory path, or null if there is no download directory to default to
+     */
+    public String getReprojectionCacheDir() {
+        if(reprojectionCacheDir != null && !reprojectionCacheDir.isEmpty()) {
+            return FileSystem.CheckDirPath(reprojectionCacheDir);
+        }
+        if(downloadDir == null) {
+            return null;
+        }
+        return getDownloadDir() + "ReprojectionCache\\";
+    }
+
+    /**
+     * Gets the directory rasterized zone grids of the summary shapefiles are kept in, shared by every project on this host. Defaults to
+     * "ZoneRasterCache" in the download directory.
+     *
+     * @return the directory path, or null if there is no download directory to default to
+     */
+    public String getZoneRasterCacheDir() {
+        if(zoneRasterCacheDir != null && !zoneRasterCacheDir.isEmpty()) {
+            return FileSystem.CheckDirPath(zoneRasterCacheDir);
+        }
+        if(downloadDir == null) {
+            return null;
+        }
+        return getDownloadDir() + "ZoneRasterCache\\";
+    }
+
+    /**
+     * Gets the directory zonal summary results are shared between projects in, so a project summarizing the same plugin, index and
+     * shapefile as another one imports its results instead of computing them again. Defaults to "SharedZonalResults" in the download directory.
+     *
+     * @return the directory path, or null if there is no download directory to default to
+     */
+    public String getSharedZonalResultsDir() {
+        if(sharedZonalResultsDir != null && !sharedZonalResultsDir.isEmpty()) {
+            return FileSystem.CheckDirPath(sharedZonalResultsDir);
+        }
+        if(downloadDir == null) {
+            return null;
+        }
+        return getDownloadDir() + "SharedZonalResults\\";
+    }
+
+    /**
+     * Gets the name of the GeoTIFF profile (see GeoTiffProfile) used for the files the processor steps write.
+     *
+     * @return profile name
+     */
+    public String getProcessorGeoTiffProfile() {
+        return processorProfile;
+    }
+
+    /**
+     * Gets the name of the GeoTIFF profile (see GeoTiffProfile) used for the index rasters.
+     *
+     * @return profile name
+     */
+    public String getIndicesGeoTiffProfile() {
+        return indicesProfile;
+    }
+
+    /**
+     * Gets the name of the GeoTIFF profile (see GeoTiffProfile) used for the temporal summary composites.
+     *
+     * @return profile name
+     */
+    public String getSummaryGeoTiffProfile() {
+        return summaryProfile;
+    }
+
+    /**
+     * Gets whether workers print the statistics of the process wide caches and writers when they finish.
+     *
+     * @return true if the statistics are printed, false by default
+     */
+    public boolean getLogStatistics() {
+        return logStatistics;
+    }
+
     public boolean WriteConfigFile(Document doc)
     {
         File theDir = new File(System.getProperty("user.dir") + "\\config\\" + "config.xml" );
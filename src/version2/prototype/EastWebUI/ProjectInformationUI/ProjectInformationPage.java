@@ -51,9 +51,9 @@ import version2.prototype.ProjectInfoMetaData.ProjectInfoCollection;
 import version2.prototype.ProjectInfoMetaData.ProjectInfoFile;
 import version2.prototype.ProjectInfoMetaData.ProjectInfoPlugin;
 import version2.prototype.ProjectInfoMetaData.ProjectInfoSummary;
+import version2.prototype.util.GdalContext;
 
 import org.gdal.gdal.Dataset;
-import org.gdal.gdal.gdal;
 import org.gdal.gdalconst.gdalconstConstants;
 import org.w3c.dom.Attr;
 import org.w3c.dom.Document;
@@ -557,20 +557,20 @@ public class ProjectInformationPage {
             String pszFilename = maskFile.getText();
             String res="";
 
-            gdal.AllRegister();
+            try (GdalContext gdalContext = GdalContext.open()) {
+                hDataset = gdalContext.open(pszFilename, gdalconstConstants.GA_ReadOnly);
 
-            hDataset = gdal.Open(pszFilename, gdalconstConstants.GA_ReadOnly);
-
-            if (hDataset != null)
-            {
-                hDataset.GetGeoTransform(adfGeoTransform);
+                if (hDataset != null)
                 {
-                    if (adfGeoTransform[2] == 0.0 && adfGeoTransform[4] == 0.0) {
-                        res = "" + ((int) (adfGeoTransform[1] + 0.5));
+                    hDataset.GetGeoTransform(adfGeoTransform);
+                    {
+                        if (adfGeoTransform[2] == 0.0 && adfGeoTransform[4] == 0.0) {
+                            res = "" + ((int) (adfGeoTransform[1] + 0.5));
+                        }
                     }
-                }
 
-                hDataset.delete();
+                    hDataset.delete();
+                }
             }
 
             Element resolution = doc.createElement("Resolution");
@@ -8,6 +8,8 @@ import version2.prototype.ProjectInfoMetaData.ProjectInfoFile;
 import version2.prototype.ProjectInfoMetaData.ProjectInfoPlugin;
 import version2.prototype.util.DataFileMetaData;
 import version2.prototype.util.DatabaseCache;
+import version2.prototype.util.DirectBufferPool;
+import version2.prototype.util.GdalContext;
 
 /**
  * Abstract framework worker class. Frameworks are to use a concrete class that extends this class to handle doing their required processing work.
@@ -87,6 +89,14 @@ public abstract class ProcessWorker implements Callable<ProcessWorkerReturn> {
             // Common prep code
             ProcessWorkerReturn retVal = process();
             // Common cleanup code
+            String gdalLockStatistics = GdalContext.drainThreadLockStatistics();
+            if(gdalLockStatistics != null) {
+                System.out.println(processWorkerName + " (" + pluginMetaData.Title + "): " + gdalLockStatistics);
+            }
+            String bufferPoolStatistics = DirectBufferPool.drainThreadStatistics();
+            if(bufferPoolStatistics != null) {
+                System.out.println(processWorkerName + " (" + pluginMetaData.Title + "): " + bufferPoolStatistics);
+            }
             return retVal;
         } else {
             return null;
@@ -499,6 +499,8 @@ import version2.prototype.ZonalSummary;
             String areaValueField;
             String areaNameField;
             String temporalSummaryCompositionStrategyClassName;
+            Integer rollUpFromSummaryID;
+            String parentCodeField;
 
             String summary;
             for(int i=0; i < summaryStrings.size(); i++)
@@ -507,6 +509,7 @@ import version2.prototype.ZonalSummary;
                 ID = Integer.parseInt(((Element)summaryList.item(i)).getAttribute("ID"));
                 // Shape File Path: C:\Users\sufi\Desktop\shapefile\shapefile.shp; Field: COUNTYNS10; Temporal Summary: GregorianWeeklyStrategy
                 // Shape File Path: C:\Users\sufi\Desktop\shapefile\shapefile.shp; COUNTYNS10
+                // ...; AreaCodeField: STATEFP; Roll Up From Summary: 1; Parent Code Field: STATEFP; Temporal Summary: GregorianWeeklyStrategy
 
                 areaNameField = summary.substring(summary.indexOf(ProjectInfoSummary.AREA_NAME_FIELD_TAG + ": ") + String.valueOf(ProjectInfoSummary.AREA_NAME_FIELD_TAG + ": ").length(),
                         summary.indexOf(";"));
@@ -516,23 +519,14 @@ import version2.prototype.ZonalSummary;
                 {
                     shapefile = System.getProperty("user.dir") + shapefile;
                 }
+                areaValueField = ReadSummaryTag(summary, ProjectInfoSummary.AREA_CODE_FIELD_TAG);
                 if(summary.indexOf(ProjectInfoSummary.TEMPORAL_SUMMARY_TAG) == -1)
                 {
-                    areaValueField = summary.substring(summary.indexOf(ProjectInfoSummary.AREA_CODE_FIELD_TAG + ": ") + String.valueOf(ProjectInfoSummary.AREA_CODE_FIELD_TAG + ": ").length());
-                    if(areaValueField.endsWith(";")) {
-                        areaValueField = areaValueField.substring(0, areaValueField.length() - 1);
-                    }
                     temporalSummaryCompositionStrategyClassName = null;
                 }
                 else
                 {
-                    areaValueField = summary.substring(summary.indexOf(ProjectInfoSummary.AREA_CODE_FIELD_TAG + ": ") + String.valueOf(ProjectInfoSummary.AREA_CODE_FIELD_TAG + ": ").length(),
-                            summary.indexOf(";", summary.indexOf(ProjectInfoSummary.AREA_CODE_FIELD_TAG + ": ")));
-                    temporalSummaryCompositionStrategyClassName = summary.substring(summary.indexOf(ProjectInfoSummary.TEMPORAL_SUMMARY_TAG + ": ") +
-                            String.valueOf(ProjectInfoSummary.TEMPORAL_SUMMARY_TAG + ": ").length());
-                    if(temporalSummaryCompositionStrategyClassName.endsWith(";")) {
-                        temporalSummaryCompositionStrategyClassName = temporalSummaryCompositionStrategyClassName.substring(0, temporalSummaryCompositionStrategyClassName.length() - 1);
-                    }
+                    temporalSummaryCompositionStrategyClassName = ReadSummaryTag(summary, ProjectInfoSummary.TEMPORAL_SUMMARY_TAG);
 
                     boolean valid = false;
                     for(String strategyName : configInstance.getSummaryTempCompStrategies())
@@ -546,12 +540,52 @@ import version2.prototype.ZonalSummary;
                         temporalSummaryCompositionStrategyClassName = null;
                     }
                 }
-                summaries.add(new ProjectInfoSummary(new ZonalSummary(shapefile, areaValueField, areaNameField), temporalSummaryCompositionStrategyClassName, ID));
+
+                rollUpFromSummaryID = null;
+                parentCodeField = null;
+                if(summary.indexOf(ProjectInfoSummary.ROLL_UP_FROM_SUMMARY_TAG) != -1)
+                {
+                    String rollUpFrom = ReadSummaryTag(summary, ProjectInfoSummary.ROLL_UP_FROM_SUMMARY_TAG);
+                    try {
+                        rollUpFromSummaryID = Integer.parseInt(rollUpFrom == null ? "" : rollUpFrom.trim());
+                    } catch(NumberFormatException e) {
+                        errorMsg.add("Summary " + ID + " has an invalid " + ProjectInfoSummary.ROLL_UP_FROM_SUMMARY_TAG + " value '" + rollUpFrom + "'.");
+                    }
+                    parentCodeField = ReadSummaryTag(summary, ProjectInfoSummary.PARENT_CODE_FIELD_TAG);
+                    if(rollUpFromSummaryID == null) {
+                        parentCodeField = null;
+                    }
+                    else if(parentCodeField == null || parentCodeField.isEmpty()) {
+                        errorMsg.add("Summary " + ID + " rolls up from summary " + rollUpFromSummaryID + " but has no " + ProjectInfoSummary.PARENT_CODE_FIELD_TAG + ".");
+                        rollUpFromSummaryID = null;
+                        parentCodeField = null;
+                    }
+                }
+                summaries.add(new ProjectInfoSummary(new ZonalSummary(shapefile, areaValueField, areaNameField), temporalSummaryCompositionStrategyClassName, ID, rollUpFromSummaryID,
+                        parentCodeField));
             }
         }
         return summaries;
     }
 
+    /**
+     * Reads the value of a tag of a summary element, from after "tag: " up to the next ';' or the end of the element.
+     *
+     * @param summary  - value of the summary element
+     * @param tag  - tag to read, one of the ProjectInfoSummary tags
+     * @return the tag's value, or null if the summary doesn't have the tag
+     */
+    private String ReadSummaryTag(String summary, String tag)
+    {
+        int start = summary.indexOf(tag + ": ");
+        if(start == -1) {
+            return null;
+        }
+        start += String.valueOf(tag + ": ").length();
+        int end = summary.indexOf(";", start);
+        return end == -1 ? summary.substring(start) : summary.substring(start, end);
+    }
+
     /**
      * Used to get the NodeList object pertaining to an element containing the list of elements desired. Used even if desired element does not
      * contain a list of elements but only the value desired. Send the returned NodeList object into {@link #GetNodeListValues(NodeList, String)
@@ -14,9 +14,13 @@ import version2.prototype.ZonalSummary;
     public static final String SHAPE_FILE_TAG = "Shape File Path";
     public static final String AREA_CODE_FIELD_TAG = "AreaCodeField";
     public static final String TEMPORAL_SUMMARY_TAG = "Temporal Summary";
+    public static final String ROLL_UP_FROM_SUMMARY_TAG = "Roll Up From Summary";
+    public static final String PARENT_CODE_FIELD_TAG = "Parent Code Field";
     private final ZonalSummary zonalSummary;
     private final String temporalSummaryCompositionStrategyClassName;
     private final int ID;
+    private final Integer rollUpFromSummaryID;
+    private final String parentCodeField;
 
     /**
      * Create an instance of ProjectInfoSummary to contain all information from ProjectInfoFile relevant for the Summary framework.
@@ -26,10 +30,27 @@ import version2.prototype.ZonalSummary;
      * @param summaryID
      */
     public ProjectInfoSummary(ZonalSummary zonalSummary, String temporalSummaryCompositionStrategyClassName, int summaryID)
+    {
+        this(zonalSummary, temporalSummaryCompositionStrategyClassName, summaryID, null, null);
+    }
+
+    /**
+     * Create an instance of ProjectInfoSummary for a zonal summary whose areas group the areas of another, finer summary of the project (e.g.
+     * states grouping counties). Its results can then be rolled up from the finer summary's instead of computed from the rasters.
+     *
+     * @param zonalSummary  - ZonalSummary object representing zonal data from a project metadata xml
+     * @param temporalSummaryCompositionStrategyClassName  - class name of the used TemporalSummaryCompositionStrategy in making the filestore parameter
+     * @param summaryID
+     * @param rollUpFromSummaryID  - ID of the finer summary, null if this summary isn't rolled up
+     * @param parentCodeField  - field of the finer summary's shape file holding the area code of this summary's area containing each feature
+     */
+    public ProjectInfoSummary(ZonalSummary zonalSummary, String temporalSummaryCompositionStrategyClassName, int summaryID, Integer rollUpFromSummaryID, String parentCodeField)
     {
         this.zonalSummary = zonalSummary;
         this.temporalSummaryCompositionStrategyClassName = temporalSummaryCompositionStrategyClassName;
         ID = summaryID;
+        this.rollUpFromSummaryID = rollUpFromSummaryID;
+        this.parentCodeField = parentCodeField;
     }
 
     /**
@@ -53,14 +74,32 @@ import version2.prototype.ZonalSummary;
      */
     public int GetID() { return ID; }
 
+    /**
+     * Gets the ID of the finer summary this summary's results are rolled up from.
+     *
+     * @return the finer summary's ID, or null if this summary is computed from the rasters
+     */
+    public Integer GetRollUpFromSummaryID() { return rollUpFromSummaryID; }
+
+    /**
+     * Gets the field of the finer summary's shape file that holds, for each of its features, the area code of the area of this summary containing it.
+     *
+     * @return the parent code field, or null if this summary isn't rolled up
+     */
+    public String GetParentCodeField() { return parentCodeField; }
+
     @Override
     public String toString() {
+        String rollUp = "";
+        if(rollUpFromSummaryID != null) {
+            rollUp = "; " + ROLL_UP_FROM_SUMMARY_TAG + ": " + rollUpFromSummaryID + "; " + PARENT_CODE_FIELD_TAG + ": " + parentCodeField;
+        }
         if(temporalSummaryCompositionStrategyClassName != null && !temporalSummaryCompositionStrategyClassName.isEmpty()) {
             return AREA_NAME_FIELD_TAG + ": " + zonalSummary.GetAreaNameField() + "; " + SHAPE_FILE_TAG + ": " + zonalSummary.GetShapeFile() + "; " + AREA_CODE_FIELD_TAG + ": " +
-                    zonalSummary.GetAreaCodeField() + "; " + TEMPORAL_SUMMARY_TAG + ": " + temporalSummaryCompositionStrategyClassName;
+                    zonalSummary.GetAreaCodeField() + rollUp + "; " + TEMPORAL_SUMMARY_TAG + ": " + temporalSummaryCompositionStrategyClassName;
         } else {
             return AREA_NAME_FIELD_TAG + ": " + zonalSummary.GetAreaNameField() + "; " + SHAPE_FILE_TAG + ": " + zonalSummary.GetShapeFile() + "; " + AREA_CODE_FIELD_TAG + ": " +
-                    zonalSummary.GetAreaCodeField();
+                    zonalSummary.GetAreaCodeField() + rollUp;
         }
     }
 }
@@ -44,6 +44,7 @@ import version2.prototype.util.FileSystem;
 import version2.prototype.util.GeneralUIEventObject;
 import version2.prototype.util.DatabaseConnector;
 import version2.prototype.util.ProgressUpdater;
+import version2.prototype.util.SchemaIDCache;
 import version2.prototype.util.Schemas;
 
 /**
@@ -460,6 +461,8 @@ public class Scheduler {
             }
             stmt.executeBatch();
             stmt.close();
+            SchemaIDCache.invalidate(configInstance.getGlobalSchema(), "ProjectSummary");
+            SchemaIDCache.invalidate(configInstance.getGlobalSchema(), "Project");
         } catch(SQLException e) {
             ErrorLog.add(this, "Problem while deleting project, \"" + projectInfoFile.GetProjectName() + "\".", e);
         } catch (IOException e) {
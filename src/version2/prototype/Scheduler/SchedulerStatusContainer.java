@@ -140,7 +140,8 @@ public class SchedulerStatusContainer {
         this.pluginMetaDataCollection = pluginMetaDataCollection;
         ArrayList<ProjectInfoSummary> summariesTemp = new ArrayList<ProjectInfoSummary>();
         for(ProjectInfoSummary pfs : projectMetaData.GetSummaries()) {
-            summariesTemp.add(new ProjectInfoSummary(pfs.GetZonalSummary(), pfs.GetTemporalSummaryCompositionStrategyClassName(), pfs.GetID()));
+            summariesTemp.add(new ProjectInfoSummary(pfs.GetZonalSummary(), pfs.GetTemporalSummaryCompositionStrategyClassName(), pfs.GetID(), pfs.GetRollUpFromSummaryID(),
+                    pfs.GetParentCodeField()));
         }
         this.state = state;
         log = Collections.synchronizedList(new ArrayList<String>(1));
@@ -7,10 +7,13 @@ import java.util.List;
 import org.apache.commons.io.FileUtils;
 import org.gdal.gdal.Band;
 import org.gdal.gdal.Dataset;
-import org.gdal.gdal.gdal;
 import org.gdal.gdalconst.gdalconstConstants;
 
+import version2.prototype.util.GdalContext;
 import version2.prototype.util.GdalUtils;
+import version2.prototype.util.GeoTiffProfile;
+import version2.prototype.util.RasterBlockStream;
+import version2.prototype.util.RasterBuffer;
 
 /**
  * Indicies Framework;
@@ -47,7 +50,7 @@ public abstract class IndicesFramework implements IndexCalculator {
 
 
         FileUtils.forceMkdir(mOutputFile.getParentFile());
-        Dataset outputDS = gdal.GetDriverByName("GTiff").Create(
+        Dataset outputDS = GeoTiffProfile.forStage(GeoTiffProfile.Stage.INDICES).create(
                 mOutputFile.getPath(),
                 inputs[0].GetRasterXSize(),
                 inputs[0].GetRasterYSize(),
@@ -62,16 +65,19 @@ public abstract class IndicesFramework implements IndexCalculator {
         return outputDS;
     }
 
+    // closes the output file created by createOutput, writing it in the configured GeoTIFF profile
+    protected void finishOutput(Dataset outputDS) {
+        GeoTiffProfile.forStage(GeoTiffProfile.Stage.INDICES).finish(outputDS);
+    }
+
     @Override
     public void calculate() throws Exception {
-        GdalUtils.register();
-
-        synchronized (GdalUtils.lockObject) {
+        try (GdalContext gdalContext = GdalContext.open()) {
             // Setup the output and inputs
             Dataset[] inputs = new Dataset[mInputFiles.length];
 
             for (int i = 0; i < mInputFiles.length; i++) {
-                Dataset temp = gdal.Open(mInputFiles[i].getPath());
+                Dataset temp = gdalContext.open(mInputFiles[i].getPath());
                 inputs[i] = temp;
             }
 
@@ -105,36 +111,41 @@ public abstract class IndicesFramework implements IndexCalculator {
                 input.delete();
             }
 
-            outputDS.delete();
+            finishOutput(outputDS);
         }
         //event.fire(String.format("%s is Complete", className()), 100, className());
     }
 
     protected void process(Dataset[] inputs, Dataset output) throws Exception {
-        int xSize = inputs[0].GetRasterXSize();
-        int ySize = inputs[0].GetRasterYSize();
-        double[][] inputsArray = new double[inputs.length][xSize * ySize];
-        double[] outputArray = new double[xSize * ySize];
-
-        // Read in all of the data for each input
+        Band[] inputBands = new Band[inputs.length];
         for (int i = 0; i < inputs.length; i++) {
-            inputs[i].GetRasterBand(1).ReadRaster(0, 0, xSize, ySize, inputsArray[i]);
+            inputBands[i] = inputs[i].GetRasterBand(1);
         }
 
-        // For all of the data in each array, calculate the pixel value
-        for (int x = 0; x < (xSize*ySize); x++) {
-            double[] values = new double[inputs.length];
-
+        // Stream the inputs and output a block-aligned window at a time
+        // Inputs are read in their native type (Int16 for MODIS, Float32 for NLDAS) and the Float32 output is written as such
+        try (RasterBlockStream stream = new RasterBlockStream(inputBands, new Band[] {output.GetRasterBand(1)})) {
+            RasterBuffer[] inputBuffers = new RasterBuffer[inputs.length];
             for (int i = 0; i < inputs.length; i++) {
-                values[i] = inputsArray[i][x];
+                inputBuffers[i] = stream.getInput(i);
             }
+            double[] values = new double[inputs.length];
+            RasterBuffer outputBuffer = stream.getOutput(0);
 
-            outputArray[x] = calculatePixelValue(values);
-        }
+            while (stream.next()) {
+                int size = stream.getWindow().size();
+
+                // For all of the data in the window, calculate the pixel value
+                for (int x = 0; x < size; x++) {
+                    for (int i = 0; i < inputs.length; i++) {
+                        values[i] = inputBuffers[i].get(x);
+                    }
 
-        // Write the whole array to the output
-        if(output.GetRasterBand(1).WriteRaster(0, 0, xSize, ySize, outputArray) == 3) {
-            throw new Exception("Error when writing raster during IndicesFramework process.");
+                    outputBuffer.set(x, calculatePixelValue(values));
+                }
+
+                stream.write();
+            }
         }
     }
 
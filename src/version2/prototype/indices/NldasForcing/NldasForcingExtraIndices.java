@@ -14,13 +14,13 @@ import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
 
 import org.gdal.gdal.Dataset;
-import org.gdal.gdal.gdal;
 import org.gdal.gdalconst.gdalconstConstants;
 
 import version2.prototype.Config;
 import version2.prototype.DataDate;
 import version2.prototype.ErrorLog;
-import version2.prototype.util.GdalUtils;
+import version2.prototype.util.GdalContext;
+import version2.prototype.util.GeoTiffProfile;
 import version2.prototype.util.Schemas;
 
 public class NldasForcingExtraIndices {
@@ -277,15 +277,14 @@ public class NldasForcingExtraIndices {
 
         System.out.println(prefix);
 
-        GdalUtils.register();
-        synchronized (GdalUtils.lockObject) {
+        try (GdalContext gdalContext = GdalContext.open()) {
 
             if(!(new File(inputFolder).exists())){
                 return;
             }
 
 
-            Dataset inputDS = gdal.Open(input.getPath());
+            Dataset inputDS = gdalContext.open(input.getPath());
 
             int rasterX = inputDS.GetRasterXSize();
             int rasterY = inputDS.GetRasterYSize();
@@ -339,7 +338,8 @@ public class NldasForcingExtraIndices {
                 }
             }
 
-            Dataset outputDS = gdal.GetDriverByName("GTiff").Create(
+            GeoTiffProfile profile = GeoTiffProfile.forStage(GeoTiffProfile.Stage.INDICES);
+            Dataset outputDS = profile.create(
                     input.getPath(),
                     rasterX, rasterY,
                     1,
@@ -353,7 +353,7 @@ public class NldasForcingExtraIndices {
             outputDS.GetRasterBand(1).SetNoDataValue(noDataValue);
             outputDS.GetRasterBand(1).ComputeStatistics(true);
 
-            outputDS.delete();
+            profile.finish(outputDS);
             inputDS.delete();
         }
     }
@@ -414,12 +414,15 @@ public class NldasForcingExtraIndices {
         }
 
         if(yesterdayFile != null) {
-            Dataset ds = gdal.Open(yesterdayFile.getPath());
-            int rasterX = ds.GetRasterXSize();
-            int rasterY = ds.GetRasterYSize();
-
-            cumulative = new double[rasterX * rasterY];
-            ds.GetRasterBand(1).ReadRaster(0, 0, rasterX, rasterY, cumulative);
+            try (GdalContext gdalContext = GdalContext.open()) {
+                Dataset ds = gdalContext.open(yesterdayFile.getPath());
+                int rasterX = ds.GetRasterXSize();
+                int rasterY = ds.GetRasterYSize();
+
+                cumulative = new double[rasterX * rasterY];
+                ds.GetRasterBand(1).ReadRaster(0, 0, rasterX, rasterY, cumulative);
+                ds.delete();
+            }
         }
 
         return cumulative;
@@ -6,7 +6,6 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.nio.file.Files;
 import java.util.List;
 
 import org.apache.commons.io.FileUtils;
@@ -14,6 +13,7 @@ import org.apache.commons.io.FileUtils;
 import version2.prototype.Config;
 import version2.prototype.ErrorLog;
 import version2.prototype.indices.IndicesFramework;
+import version2.prototype.util.FileHandOff;
 
 public class NldasForcingLymeDiseaseIndex extends IndicesFramework {
 
@@ -31,7 +31,7 @@ public class NldasForcingLymeDiseaseIndex extends IndicesFramework {
             {
                 FileUtils.forceMkdir(mOutputFile.getParentFile());
                 if(!mOutputFile.exists()) {
-                    Files.copy(input.toPath(), mOutputFile.toPath());
+                    FileHandOff.link(input, mOutputFile, false);
                 }
 
                 break;
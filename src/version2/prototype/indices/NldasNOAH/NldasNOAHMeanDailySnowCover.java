@@ -14,7 +14,7 @@ import org.gdal.gdal.gdal;
 
 
 import version2.prototype.indices.IndicesFramework;
-import version2.prototype.util.GdalUtils;
+import version2.prototype.util.GdalContext;
 
 public class NldasNOAHMeanDailySnowCover extends IndicesFramework{
 
@@ -27,9 +27,7 @@ public class NldasNOAHMeanDailySnowCover extends IndicesFramework{
 
     @Override
     public void calculate() throws Exception {
-        GdalUtils.register();
-
-        synchronized (GdalUtils.lockObject) {
+        try (GdalContext gdalContext = GdalContext.open()) {
 
             Dataset[] inputs = new Dataset[1];
 
@@ -37,7 +35,7 @@ public class NldasNOAHMeanDailySnowCover extends IndicesFramework{
             {
                 if(inputFile.getName().contains("Band43"))
                 {
-                    inputs[0] = gdal.Open(inputFile.getAbsolutePath());
+                    inputs[0] = gdalContext.open(inputFile.getAbsolutePath());
                 }
             }
 
@@ -55,7 +53,7 @@ public class NldasNOAHMeanDailySnowCover extends IndicesFramework{
                 input.delete();
             }
 
-            outputDS.delete();
+            finishOutput(outputDS);
         }
     }
 
@@ -13,7 +13,7 @@ import org.gdal.gdal.gdal;
 
 
 import version2.prototype.indices.IndicesFramework;
-import version2.prototype.util.GdalUtils;
+import version2.prototype.util.GdalContext;
 
 public class NldasNOAHMeanDailySnowDepth extends IndicesFramework{
 
@@ -26,9 +26,7 @@ public class NldasNOAHMeanDailySnowDepth extends IndicesFramework{
 
     @Override
     public void calculate() throws Exception {
-        GdalUtils.register();
-
-        synchronized (GdalUtils.lockObject) {
+        try (GdalContext gdalContext = GdalContext.open()) {
 
             Dataset[] inputs = new Dataset[1];
 
@@ -36,7 +34,7 @@ public class NldasNOAHMeanDailySnowDepth extends IndicesFramework{
             {
                 if(inputFile.getName().contains("Band42"))
                 {
-                    inputs[0] = gdal.Open(inputFile.getAbsolutePath());
+                    inputs[0] = gdalContext.open(inputFile.getAbsolutePath());
                 }
             }
 
@@ -54,7 +52,7 @@ public class NldasNOAHMeanDailySnowDepth extends IndicesFramework{
                 input.delete();
             }
 
-            outputDS.delete();
+            finishOutput(outputDS);
         }
     }
 
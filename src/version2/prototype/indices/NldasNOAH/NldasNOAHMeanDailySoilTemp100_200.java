@@ -12,7 +12,7 @@ import org.gdal.gdal.gdal;
 
 
 import version2.prototype.indices.IndicesFramework;
-import version2.prototype.util.GdalUtils;
+import version2.prototype.util.GdalContext;
 
 /*
  * Degrees Celsius = Kelvin - 273.15
@@ -30,9 +30,7 @@ public class NldasNOAHMeanDailySoilTemp100_200 extends IndicesFramework{
 
     @Override
     public void calculate() throws Exception {
-        GdalUtils.register();
-
-        synchronized (GdalUtils.lockObject) {
+        try (GdalContext gdalContext = GdalContext.open()) {
 
             Dataset[] inputs = new Dataset[1];
 
@@ -40,7 +38,7 @@ public class NldasNOAHMeanDailySoilTemp100_200 extends IndicesFramework{
             {
                 if(inputFile.getName().contains("Band22"))
                 {
-                    inputs[0] = gdal.Open(inputFile.getAbsolutePath());
+                    inputs[0] = gdalContext.open(inputFile.getAbsolutePath());
                 }
             }
 
@@ -58,7 +56,7 @@ public class NldasNOAHMeanDailySoilTemp100_200 extends IndicesFramework{
                 input.delete();
             }
 
-            outputDS.delete();
+            finishOutput(outputDS);
         }
     }
 
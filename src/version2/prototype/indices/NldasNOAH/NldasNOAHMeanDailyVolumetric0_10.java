@@ -13,7 +13,7 @@ import org.gdal.gdal.gdal;
 
 
 import version2.prototype.indices.IndicesFramework;
-import version2.prototype.util.GdalUtils;
+import version2.prototype.util.GdalContext;
 
 
 /*
@@ -32,9 +32,7 @@ public class NldasNOAHMeanDailyVolumetric0_10 extends IndicesFramework{
 
     @Override
     public void calculate() throws Exception {
-        GdalUtils.register();
-
-        synchronized (GdalUtils.lockObject) {
+        try (GdalContext gdalContext = GdalContext.open()) {
 
             Dataset[] inputs = new Dataset[1];
 
@@ -42,7 +40,7 @@ public class NldasNOAHMeanDailyVolumetric0_10 extends IndicesFramework{
             {
                 if(inputFile.getName().contains("Band30"))
                 {
-                    inputs[0] = gdal.Open(inputFile.getAbsolutePath());
+                    inputs[0] = gdalContext.open(inputFile.getAbsolutePath());
                 }
             }
 
@@ -60,7 +58,7 @@ public class NldasNOAHMeanDailyVolumetric0_10 extends IndicesFramework{
                 input.delete();
             }
 
-            outputDS.delete();
+            finishOutput(outputDS);
         }
     }
 
@@ -13,7 +13,7 @@ import org.gdal.gdal.gdal;
 
 
 import version2.prototype.indices.IndicesFramework;
-import version2.prototype.util.GdalUtils;
+import version2.prototype.util.GdalContext;
 
 /*
  * Volumetric40_100: originalValue * (1/0.6) = ANS
@@ -31,9 +31,7 @@ public class NldasNOAHMeanDailyVolumetric40_100 extends IndicesFramework{
 
     @Override
     public void calculate() throws Exception {
-        GdalUtils.register();
-
-        synchronized (GdalUtils.lockObject) {
+        try (GdalContext gdalContext = GdalContext.open()) {
 
             Dataset[] inputs = new Dataset[1];
 
@@ -41,7 +39,7 @@ public class NldasNOAHMeanDailyVolumetric40_100 extends IndicesFramework{
             {
                 if(inputFile.getName().contains("Band32"))
                 {
-                    inputs[0] = gdal.Open(inputFile.getAbsolutePath());
+                    inputs[0] = gdalContext.open(inputFile.getAbsolutePath());
                 }
             }
 
@@ -59,7 +57,7 @@ public class NldasNOAHMeanDailyVolumetric40_100 extends IndicesFramework{
                 input.delete();
             }
 
-            outputDS.delete();
+            finishOutput(outputDS);
         }
     }
 
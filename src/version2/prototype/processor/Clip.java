@@ -15,7 +15,10 @@ import org.gdal.ogr.Layer;
 import org.gdal.ogr.ogr;
 
 import version2.prototype.ErrorLog;
+import version2.prototype.util.FileHandOff;
+import version2.prototype.util.GdalContext;
 import version2.prototype.util.GdalUtils;
+import version2.prototype.util.GeoTiffProfile;
 
 public class Clip
 {
@@ -77,7 +80,12 @@ public class Clip
                 if(oF.exists()) {
                     oF.delete();
                 }
-                FileUtils.copyFileToDirectory(f, outputDir);
+                // the input is only passed along, so move it if it is deleted afterwards anyway and link it otherwise
+                if(deleteInputDirectory) {
+                    FileHandOff.moveToDirectory(f, outputDir);
+                } else {
+                    FileHandOff.linkToDirectory(f, outputDir, false);
+                }
             }
         }
         // remove the input folder
@@ -98,82 +106,91 @@ public class Clip
 
 
     // clip all the files in the input folder
+    @SuppressWarnings("try")
     protected void clipFiles() throws Exception
     {
-        GdalUtils.register();
-
-        synchronized (GdalUtils.lockObject)
+        try (GdalContext gdalContext = GdalContext.open())
         {
             for (File mInput : inputFiles)
             {
                 String filename = mInput.getName();
                 File mOutput = new File(outputFolder,filename);
                 // System.out.println("clip :" + mInput.getPath());
-                Dataset rasterDS = gdal.Open(mInput.getPath());
-                DataSource featureDS = ogr.Open(shapeFile.getPath());
-                Layer featureLyr = featureDS.GetLayer(0);
+                Dataset rasterDS = gdalContext.open(mInput.getPath());
                 // System.out.println("clip : " + rasterDS.GetGeoTransform());
                 // System.out.println("rasterDS: " + Arrays.toString(rasterDS.GetGeoTransform()));
                 final int pixelSize = (int) Math.abs(rasterDS.GetGeoTransform()[1]); // FIXME: getting pixel size won't work for some datasets
                 System.out.println("PIXEL SIZE: " + pixelSize);
 
-                double[] featureExtent = featureLyr.GetExtent();
-                //System.out.println(Arrays.toString(featureExtent));
-
-                Dataset outputDS = gdal.GetDriverByName("GTiff").Create(
-                        mOutput.getPath(),
-                        (int) Math.ceil((featureExtent[1]-featureExtent[0])/pixelSize),
-                        (int) Math.ceil((featureExtent[3]-featureExtent[2])/pixelSize),
-                        1,
-                        gdalconstConstants.GDT_Float32
-                        );
-
-                try{
-                    GdalUtils.errorCheck();
-                } catch (IOException | IllegalArgumentException | UnsupportedOperationException e) {
-                    ErrorLog.add("GDAL problem while running clipping.", e);
-                }
+                GeoTiffProfile profile = GeoTiffProfile.forStage(GeoTiffProfile.Stage.PROCESSOR);
+                Dataset outputDS;
+                Dataset maskDS;
+
+                // OGR access and rasterizing the shapefile aren't reentrant
+                try (GdalContext.Exclusive lock = GdalContext.exclusive())
+                {
+                    DataSource featureDS = ogr.Open(shapeFile.getPath());
+                    Layer featureLyr = featureDS.GetLayer(0);
+
+                    double[] featureExtent = featureLyr.GetExtent();
+                    //System.out.println(Arrays.toString(featureExtent));
+
+                    outputDS = gdalContext.track(profile.create(
+                            mOutput.getPath(),
+                            (int) Math.ceil((featureExtent[1]-featureExtent[0])/pixelSize),
+                            (int) Math.ceil((featureExtent[3]-featureExtent[2])/pixelSize),
+                            1,
+                            gdalconstConstants.GDT_Float32
+                            ));
+
+                    try{
+                        GdalUtils.errorCheck();
+                    } catch (IOException | IllegalArgumentException | UnsupportedOperationException e) {
+                        ErrorLog.add("GDAL problem while running clipping.", e);
+                    }
 
-                outputDS.SetProjection(featureLyr.GetSpatialRef().ExportToWkt());
-                outputDS.SetGeoTransform(new double[] {
-                        featureExtent[0], pixelSize, 0,
-                        featureExtent[2] + outputDS.GetRasterYSize()*pixelSize, 0, -pixelSize
-                });
+                    outputDS.SetProjection(featureLyr.GetSpatialRef().ExportToWkt());
+                    outputDS.SetGeoTransform(new double[] {
+                            featureExtent[0], pixelSize, 0,
+                            featureExtent[2] + outputDS.GetRasterYSize()*pixelSize, 0, -pixelSize
+                    });
 
-                System.out.println(Arrays.toString(outputDS.GetGeoTransform()));
+                    System.out.println(Arrays.toString(outputDS.GetGeoTransform()));
 
-                // Get pixel coordinate in output raster of corner of zone raster
-                Transformer transformer = new Transformer(outputDS, rasterDS, null);
+                    // Get pixel coordinate in output raster of corner of zone raster
+                    Transformer transformer = new Transformer(outputDS, rasterDS, null);
 
-                double[] point = new double[] {-0.5, -0.5, 0}; // Location of corner of first zone raster pixel
+                    double[] point = new double[] {-0.5, -0.5, 0}; // Location of corner of first zone raster pixel
 
-                transformer.TransformPoint(0, point);
-                //int xOffset = (int) Math.round(point[0]);
-                //int yOffset = (int) Math.round(point[1]);
+                    transformer.TransformPoint(0, point);
+                    //int xOffset = (int) Math.round(point[0]);
+                    //int yOffset = (int) Math.round(point[1]);
 
-                Dataset maskDS = gdal.GetDriverByName("MEM").Create(
-                        "",
-                        (int) Math.ceil((featureExtent[1]-featureExtent[0])/pixelSize),
-                        (int) Math.ceil((featureExtent[3]-featureExtent[2])/pixelSize),
-                        1,
-                        gdalconstConstants.GDT_Float32);
+                    maskDS = gdalContext.track(gdal.GetDriverByName("MEM").Create(
+                            "",
+                            (int) Math.ceil((featureExtent[1]-featureExtent[0])/pixelSize),
+                            (int) Math.ceil((featureExtent[3]-featureExtent[2])/pixelSize),
+                            1,
+                            gdalconstConstants.GDT_Float32));
 
-                try{
-                    GdalUtils.errorCheck();
-                } catch (IOException | IllegalArgumentException | UnsupportedOperationException e) {
-                    ErrorLog.add("GDAL problem while running clipping.", e);
-                }
+                    try{
+                        GdalUtils.errorCheck();
+                    } catch (IOException | IllegalArgumentException | UnsupportedOperationException e) {
+                        ErrorLog.add("GDAL problem while running clipping.", e);
+                    }
 
-                maskDS.SetProjection(featureLyr.GetSpatialRef().ExportToWkt());
-                //zoneDS.SetProjection(rasterDS.GetProjection());
-                maskDS.SetGeoTransform(new double[] {
-                        featureExtent[0], pixelSize, 0,
-                        featureExtent[2] + outputDS.GetRasterYSize()*pixelSize, 0, -pixelSize
-                });
+                    maskDS.SetProjection(featureLyr.GetSpatialRef().ExportToWkt());
+                    //zoneDS.SetProjection(rasterDS.GetProjection());
+                    maskDS.SetGeoTransform(new double[] {
+                            featureExtent[0], pixelSize, 0,
+                            featureExtent[2] + outputDS.GetRasterYSize()*pixelSize, 0, -pixelSize
+                    });
 
-                maskDS.GetRasterBand(1).Fill(0); // FIXME: necessary?
+                    maskDS.GetRasterBand(1).Fill(0); // FIXME: necessary?
 
-                gdal.RasterizeLayer(maskDS, new int[] {1}, featureLyr);
+                    gdal.RasterizeLayer(maskDS, new int[] {1}, featureLyr);
+                    featureDS.delete();
+                }
 
                 int[] maskArray = new int[maskDS.GetRasterXSize()];
                 double[] rasterArray = new double[maskDS.GetRasterXSize()];
@@ -212,7 +229,7 @@ public class Clip
 
                 maskDS.delete();
                 rasterDS.delete();
-                outputDS.delete();
+                profile.finish(outputDS);
             }
         }
     }
@@ -0,0 +1,217 @@
+package version2.prototype.processor;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.commons.io.FileUtils;
+import org.gdal.gdal.Band;
+import org.gdal.gdal.Dataset;
+import org.gdal.gdalconst.gdalconstConstants;
+
+import version2.prototype.ErrorLog;
+import version2.prototype.util.FileHandOff;
+import version2.prototype.util.GdalContext;
+import version2.prototype.util.GdalUtils;
+import version2.prototype.util.GeoTiffProfile;
+import version2.prototype.util.RasterBlockIterator;
+import version2.prototype.util.RasterBuffer;
+import version2.prototype.util.RasterWindow;
+
+/**
+ * Mask and Clip in one processor step. Mask applies the masking file and Clip then crops to the project shapefile; done separately every
+ * file is written and read back in between, and the shapefile is rasterized again for every file. Here the combined pixel mask comes from
+ * {@link ClipMaskCache}, built once per input grid, and each input is read and written once, window by window.
+ *
+ * Masking is applied under the same condition as {@link Mask} (a masking file is given and its resolution equals the projection's) and
+ * clipping under the same condition as {@link Clip}. When neither applies the files are passed through unchanged.
+ */
+public class ClipMask
+{
+    //locations for the input files. for this step, will only use inputFolders[0]
+    protected String[] inputFolders;
+    //location for the output file
+    protected String outputFolder;
+    protected File inputFolder;
+    // the files in the input folder
+    protected File [] inputFiles;
+    // shapefile to clip to
+    protected File shapeFile;
+    protected Boolean clipOrNot;
+    // mask file
+    protected File maskFile;
+    // mask file resolution
+    protected Integer maskRes;
+    // data file resolution;
+    protected Integer projRes;
+    protected final Boolean deleteInputDirectory;
+    private Integer noDataValue;
+
+    public ClipMask(ProcessData data, Boolean deleteInputDirectory)
+    {
+        inputFolders = data.getInputFolders();
+        outputFolder = data.getOutputFolder();
+        clipOrNot = data.getClipOrNot();
+
+        //check if there are more than one input file in the given folder
+        inputFolder = new File(inputFolders[0]);
+        File[] listOfFiles = inputFolder.listFiles();
+        assert (listOfFiles.length >= 1);
+
+        //set the input files
+        //We assume that each file is a GDAL supported raster file with one band
+        inputFiles = listOfFiles;
+
+        shapeFile = new File(data.getShapefile());
+        if (data.getMaskfile() != null) {
+            maskFile = new File(data.getMaskfile()) ;
+        } else {
+            maskFile = null;
+        }
+
+        // the mask resolution with the projection resolution
+        maskRes = data.getMaskResolution();
+        projRes = data.getProjection().getPixelSize();
+
+        this.deleteInputDirectory = deleteInputDirectory;
+        noDataValue = data.getNoDataValue();
+    }
+
+    // run method for the scheduler
+    public void run() throws Exception
+    {
+        //create outputDirectory
+        File outputDir = new File(outputFolder);
+        if (!outputDir.exists())
+        {   FileUtils.forceMkdir(outputDir);   }
+
+        // do masking only when a mask file exist and the mask resolution equals to the the projection resolution
+        boolean maskOrNot = (maskFile != null) && maskRes != null && maskRes.compareTo(projRes) == 0;
+
+        if (clipOrNot || maskOrNot)
+        {
+            for (File mInput : inputFiles) {
+                File f = new File(outputFolder, mInput.getName());
+                if(f.exists()) {
+                    f.delete();
+                }
+            }
+            clipMaskFiles(clipOrNot ? shapeFile : null, maskOrNot ? maskFile : null);
+        }
+        else    // skip clipping and masking
+        {
+            for (File f: inputFiles) {
+                File oF = new File(outputFolder, f.getName());
+                if(oF.exists()) {
+                    oF.delete();
+                }
+                // the input is only passed along, so move it if it is deleted afterwards anyway and link it otherwise
+                if(deleteInputDirectory) {
+                    FileHandOff.moveToDirectory(f, outputDir);
+                } else {
+                    FileHandOff.linkToDirectory(f, outputDir, false);
+                }
+            }
+        }
+
+        // remove the input folder
+        if(deleteInputDirectory)
+        {
+            File deleteDir = inputFolder;
+            if(deleteDir != null && deleteDir.exists())
+            {
+                if(deleteDir.isFile()) {
+                    deleteDir = deleteDir.getParentFile();
+                }
+                if(deleteDir != null && deleteDir.exists()) {
+                    FileUtils.deleteDirectory(deleteDir);
+                }
+            }
+        }
+    }
+
+    // clip and mask all the files in the input folder
+    protected void clipMaskFiles(File clipShapeFile, File clipMaskFile) throws IOException
+    {
+        GeoTiffProfile profile = GeoTiffProfile.forStage(GeoTiffProfile.Stage.PROCESSOR);
+        try (GdalContext gdalContext = GdalContext.open())
+        {
+            for (File mInput : inputFiles)
+            {
+                File mOutput = new File(outputFolder, mInput.getName());
+                Dataset rasterDS = gdalContext.open(mInput.getPath());
+                if(rasterDS == null) {
+                    continue;
+                }
+                ClipMaskCache.Entry mask = ClipMaskCache.get(gdalContext, rasterDS, clipShapeFile, clipMaskFile);
+                Band rasterBand = rasterDS.GetRasterBand(1);
+
+                // Clip has always written Float32, masking alone keeps the input's type
+                int dataType = clipShapeFile != null ? gdalconstConstants.GDT_Float32 : rasterBand.getDataType();
+                Dataset outputDS = gdalContext.track(profile.create(mOutput.getPath(), mask.xSize, mask.ySize, 1, dataType));
+
+                try{
+                    GdalUtils.errorCheck();
+                } catch (IOException | IllegalArgumentException | UnsupportedOperationException e) {
+                    ErrorLog.add("GDAL problem while running clipping and masking.", e);
+                }
+
+                outputDS.SetProjection(mask.projection);
+                outputDS.SetGeoTransform(mask.geoTransform);
+                Band outputBand = outputDS.GetRasterBand(1);
+
+                applyMask(rasterBand, outputBand, mask);
+
+                outputBand.SetNoDataValue(noDataValue);
+                outputBand.ComputeStatistics(false);
+
+                rasterDS.delete();
+                profile.finish(outputDS);
+            }
+        }
+    }
+
+    // Copies the input to the output window by window, setting no data where the mask is 0 and where the output grid extends past the
+    // input. Output pixel (x, y) is input pixel (x, y): the input has already been reprojected onto the shapefile's extent.
+    private void applyMask(Band rasterBand, Band outputBand, ClipMaskCache.Entry mask) throws IOException
+    {
+        int inXSize = rasterBand.getXSize();
+        int inYSize = rasterBand.getYSize();
+        RasterBlockIterator windows = new RasterBlockIterator(outputBand);
+        RasterBuffer input = RasterBuffer.forBand(rasterBand, windows.getMaxWindowSize());
+        RasterBuffer output = RasterBuffer.forBand(outputBand, windows.getMaxWindowSize());
+
+        try {
+            for (RasterWindow window : windows)
+            {
+                // part of the window covered by the input
+                int readWidth = Math.max(0, Math.min(window.width, inXSize - window.xOff));
+                int readHeight = Math.max(0, Math.min(window.height, inYSize - window.yOff));
+                if(readWidth > 0 && readHeight > 0
+                        && input.read(rasterBand, new RasterWindow(window.xOff, window.yOff, readWidth, readHeight)) != gdalconstConstants.CE_None) {
+                    throw new IOException("Failed to read window " + window + " of the input.");
+                }
+
+                for (int y=0; y < window.height; y++)
+                {
+                    int maskRow = (window.yOff + y) * mask.xSize + window.xOff;
+                    for (int x=0; x < window.width; x++)
+                    {
+                        int i = y * window.width + x;
+                        if (x < readWidth && y < readHeight && mask.keep[maskRow + x] != 0) {
+                            output.set(i, input.get(y * readWidth + x));
+                        } else {
+                            output.set(i, noDataValue);
+                        }
+                    }
+                }
+
+                if(output.write(outputBand, window) != gdalconstConstants.CE_None) {
+                    throw new IOException("Failed to write window " + window + " of the output.");
+                }
+            }
+        } finally {
+            input.release();
+            output.release();
+        }
+    }
+}
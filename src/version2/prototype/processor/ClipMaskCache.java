@@ -0,0 +1,280 @@
+package version2.prototype.processor;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.gdal.gdal.Band;
+import org.gdal.gdal.Dataset;
+import org.gdal.gdal.Transformer;
+import org.gdal.gdal.gdal;
+import org.gdal.gdalconst.gdalconstConstants;
+import org.gdal.ogr.DataSource;
+import org.gdal.ogr.Layer;
+import org.gdal.ogr.ogr;
+
+import version2.prototype.util.GdalContext;
+
+/**
+ * Process wide cache of the pixel masks used by {@link ClipMask}. Every date of a plugin arrives on the same grid, so the project shapefile
+ * is rasterized and the masking file aligned once per input grid (size, geotransform and projection) instead of once per file. A cached mask
+ * tells for each output pixel whether it is kept or set to no data, together with the output grid the clip produces.
+ *
+ * The shapefile and masking file are part of the key by path, size and modification time, so replacing either one rebuilds the mask. The
+ * least recently used masks are dropped once the cache holds more than {@link #MAX_CACHED_BYTES}.
+ */
+public final class ClipMaskCache {
+    /**
+     * Largest number of mask bytes kept in memory.
+     */
+    public static final long MAX_CACHED_BYTES = 128L << 20;
+
+    private static final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+    private static long cachedBytes = 0;
+    private static final AtomicLong hits = new AtomicLong();
+    private static final AtomicLong misses = new AtomicLong();
+
+    private ClipMaskCache()
+    {
+    }
+
+    /**
+     * Output grid and pixel mask for one input grid.
+     */
+    public static final class Entry {
+        /**
+         * Output width in pixels.
+         */
+        public final int xSize;
+        /**
+         * Output height in lines.
+         */
+        public final int ySize;
+        /**
+         * Output geotransform.
+         */
+        public final double[] geoTransform;
+        /**
+         * Output projection as WKT.
+         */
+        public final String projection;
+        /**
+         * One value per output pixel, row major: non-zero where the input value is kept, 0 where it is set to no data.
+         */
+        public final byte[] keep;
+
+        private Entry(int xSize, int ySize, double[] geoTransform, String projection, byte[] keep)
+        {
+            this.xSize = xSize;
+            this.ySize = ySize;
+            this.geoTransform = geoTransform;
+            this.projection = projection;
+            this.keep = keep;
+        }
+    }
+
+    /**
+     * Gets the mask for the grid of the given input raster, building and caching it if needed.
+     *
+     * @param gdalContext  - context of the calling step, used to open the shapefile and masking file
+     * @param inputDS  - input raster, only its grid is used
+     * @param shapeFile  - project shapefile to clip to, or null to keep the input grid
+     * @param maskFile  - masking raster on the input's grid resolution, or null for no masking
+     * @return the mask for the input's grid
+     * @throws IOException  if the shapefile or masking file can't be read
+     */
+    public static Entry get(GdalContext gdalContext, Dataset inputDS, File shapeFile, File maskFile) throws IOException
+    {
+        String key = key(inputDS, shapeFile, maskFile);
+        synchronized(entries) {
+            Entry entry = entries.get(key);
+            if(entry != null) {
+                hits.incrementAndGet();
+                return entry;
+            }
+        }
+
+        // Build outside the lock, another worker building the same mask at the same time only costs the duplicate work
+        misses.incrementAndGet();
+        Entry entry = build(gdalContext, inputDS, shapeFile, maskFile);
+        synchronized(entries) {
+            Entry old = entries.put(key, entry);
+            if(old != null) {
+                cachedBytes -= old.keep.length;
+            }
+            cachedBytes += entry.keep.length;
+
+            Iterator<Entry> it = entries.values().iterator();
+            while(cachedBytes > MAX_CACHED_BYTES && it.hasNext()) {
+                Entry eldest = it.next();
+                if(eldest != entry) {
+                    cachedBytes -= eldest.keep.length;
+                    it.remove();
+                }
+            }
+        }
+        return entry;
+    }
+
+    /**
+     * Drops every cached mask.
+     */
+    public static void clear()
+    {
+        synchronized(entries) {
+            entries.clear();
+            cachedBytes = 0;
+        }
+    }
+
+    /**
+     * Gets the number of lookups answered from the cache since startup.
+     *
+     * @return cache hits
+     */
+    public static long getHits()
+    {
+        return hits.get();
+    }
+
+    /**
+     * Gets the number of masks built since startup.
+     *
+     * @return cache misses
+     */
+    public static long getMisses()
+    {
+        return misses.get();
+    }
+
+    /**
+     * Summarizes the cache usage since startup.
+     *
+     * @return human readable summary
+     */
+    public static String getStatistics()
+    {
+        synchronized(entries) {
+            return String.format("Clip/mask cache: %d hits, %d masks built, %d cached (%d MB)", getHits(), getMisses(), entries.size(), cachedBytes >> 20);
+        }
+    }
+
+    private static String key(Dataset inputDS, File shapeFile, File maskFile)
+    {
+        StringBuilder key = new StringBuilder();
+        key.append(inputDS.GetRasterXSize()).append('x').append(inputDS.GetRasterYSize());
+        key.append('|').append(Arrays.toString(inputDS.GetGeoTransform()));
+        key.append('|').append(inputDS.GetProjectionRef());
+        key.append('|').append(fileKey(shapeFile));
+        key.append('|').append(fileKey(maskFile));
+        return key.toString();
+    }
+
+    private static String fileKey(File file)
+    {
+        if(file == null) {
+            return "none";
+        }
+        return file.getAbsolutePath() + ":" + file.length() + ":" + file.lastModified();
+    }
+
+    @SuppressWarnings("try")
+    private static Entry build(GdalContext gdalContext, Dataset inputDS, File shapeFile, File maskFile) throws IOException
+    {
+        int xSize = inputDS.GetRasterXSize();
+        int ySize = inputDS.GetRasterYSize();
+        double[] geoTransform = inputDS.GetGeoTransform();
+        String projection = inputDS.GetProjectionRef();
+        byte[] keep;
+
+        if(shapeFile != null)
+        {
+            final int pixelSize = (int) Math.abs(geoTransform[1]); // FIXME: getting pixel size won't work for some datasets
+
+            // OGR access and rasterizing the shapefile aren't reentrant
+            try (GdalContext.Exclusive lock = GdalContext.exclusive())
+            {
+                DataSource featureDS = ogr.Open(shapeFile.getPath());
+                if(featureDS == null) {
+                    throw new IOException("Failed to open shapefile '" + shapeFile.getPath() + "'.");
+                }
+                Layer featureLyr = featureDS.GetLayer(0);
+                double[] featureExtent = featureLyr.GetExtent();
+
+                xSize = (int) Math.ceil((featureExtent[1]-featureExtent[0])/pixelSize);
+                ySize = (int) Math.ceil((featureExtent[3]-featureExtent[2])/pixelSize);
+                geoTransform = new double[] {
+                        featureExtent[0], pixelSize, 0,
+                        featureExtent[2] + ySize*pixelSize, 0, -pixelSize
+                };
+                projection = featureLyr.GetSpatialRef().ExportToWkt();
+
+                Dataset maskDS = gdalContext.track(gdal.GetDriverByName("MEM").Create("", xSize, ySize, 1, gdalconstConstants.GDT_Byte));
+                maskDS.SetProjection(projection);
+                maskDS.SetGeoTransform(geoTransform);
+                maskDS.GetRasterBand(1).Fill(0);
+                gdal.RasterizeLayer(maskDS, new int[] {1}, featureLyr);
+                featureDS.delete();
+
+                keep = new byte[xSize * ySize];
+                if(maskDS.GetRasterBand(1).ReadRaster(0, 0, xSize, ySize, keep) != gdalconstConstants.CE_None) {
+                    maskDS.delete();
+                    throw new IOException("Failed to rasterize shapefile '" + shapeFile.getPath() + "'.");
+                }
+                maskDS.delete();
+            }
+        }
+        else
+        {
+            keep = new byte[xSize * ySize];
+            Arrays.fill(keep, (byte) 1);
+        }
+
+        if(maskFile != null) {
+            applyMaskFile(gdalContext, inputDS, maskFile, xSize, ySize, keep);
+        }
+
+        return new Entry(xSize, ySize, geoTransform, projection, keep);
+    }
+
+    // Clears the pixels the masking file marks with 0. The output grid shares the input's pixel origin, as Clip has always assumed, so the
+    // masking file is aligned to the input and output pixels alike.
+    private static void applyMaskFile(GdalContext gdalContext, Dataset inputDS, File maskFile, int xSize, int ySize, byte[] keep) throws IOException
+    {
+        Dataset maskDS = gdalContext.open(maskFile.getPath());
+        if(maskDS == null) {
+            throw new IOException("Failed to open masking file '" + maskFile.getPath() + "'.");
+        }
+
+        Transformer transformer = new Transformer(maskDS, inputDS, null);
+        double[] point = new double[] {-0.5, -0.5, 0}; // Location of corner of first mask pixel
+        transformer.TransformPoint(0, point);
+
+        int maskX = (int) Math.round(point[0]);
+        int maskY = (int) Math.round(point[1]);
+        int intersectX = Math.max(0, maskX);
+        int intersectY = Math.max(0, maskY);
+        int intersectWidth = Math.min(xSize, maskX + maskDS.GetRasterXSize()) - intersectX;
+        int intersectHeight = Math.min(ySize, maskY + maskDS.GetRasterYSize()) - intersectY;
+
+        if(intersectWidth > 0 && intersectHeight > 0)
+        {
+            Band maskBand = maskDS.GetRasterBand(1);
+            double[] mask = new double[intersectWidth];
+            for(int y=0; y < intersectHeight; y++) {
+                maskBand.ReadRaster(intersectX - maskX, intersectY - maskY + y, intersectWidth, 1, mask);
+                int row = (intersectY + y) * xSize + intersectX;
+                for(int x=0; x < intersectWidth; x++) {
+                    if(mask[x] == 0) {
+                        keep[row + x] = 0;
+                    }
+                }
+            }
+        }
+        maskDS.delete();
+    }
+}
@@ -9,15 +9,13 @@ import org.gdal.gdal.gdal;
 
 
 
-import version2.prototype.util.GdalUtils;
+import version2.prototype.util.GdalContext;
 
 public class CompareTiffFiles
 {
     public static void main(String args[])
     {
-        GdalUtils.register();
-
-        synchronized (GdalUtils.lockObject)
+        try (GdalContext gdalContext = GdalContext.open())
         {
 
             System.out.println (LocalDate.of(2014, 3, 18).getDayOfYear());
@@ -27,8 +25,8 @@ public class CompareTiffFiles
             //            String baseFile = "C:\\Users\\yi.liu\\Desktop\\tw_618\\reprojected\\modis-lst\\2014\\081\\LST_Day_1km.tif";
             //            String file2 = "D:\\testProjects\\TW2\\Projects\\Project_TW2\\ModisLST\\Processor\\Temp\\Reproject\\2014\\081\\day.tif";
 
-            Dataset baseDS= gdal.Open(baseFile);
-            Dataset DS2 = gdal.Open(file2);
+            Dataset baseDS= gdalContext.open(baseFile);
+            Dataset DS2 = gdalContext.open(file2);
 
             Band baseBand = baseDS.GetRasterBand(1);
             Band band2 = DS2.GetRasterBand(1);
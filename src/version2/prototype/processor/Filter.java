@@ -2,10 +2,14 @@ package version2.prototype.processor;
 
 import java.io.File;
 import org.apache.commons.io.FileUtils;
+import org.gdal.gdal.Band;
 import org.gdal.gdal.Dataset;
-import org.gdal.gdal.gdal;
 
+import version2.prototype.util.GdalContext;
 import version2.prototype.util.GdalUtils;
+import version2.prototype.util.GeoTiffProfile;
+import version2.prototype.util.RasterBlockStream;
+import version2.prototype.util.RasterBuffer;
 
 // Modified and commented by Y.L. on June 2nd 2015
 
@@ -119,43 +123,37 @@ public abstract class Filter {
     }
 
     public void filterByValue() throws Exception {
-        GdalUtils.register();
-
-        synchronized (GdalUtils.lockObject) {
+        GeoTiffProfile profile = GeoTiffProfile.forStage(GeoTiffProfile.Stage.PROCESSOR);
+        try (GdalContext gdalContext = GdalContext.open()) {
             for (File mInput : inputFiles){
 
-                Dataset inputDS = gdal.Open(mInput.getPath());
+                Dataset inputDS = gdalContext.open(mInput.getPath());
                 assert(inputDS.GetRasterCount() == 1);
+                Band inputBand = inputDS.GetRasterBand(1);
 
                 // name the output file as the same as the input's
-                Dataset outputDS =
-                        gdal.GetDriverByName("GTiff").CreateCopy(outputFolder + File.separator + mInput.getName(), inputDS);
-
-                int xSize = outputDS.GetRasterXSize();
-                int ySize = outputDS.GetRasterYSize();
-
-                //FIXME: assume the dataset is double.  If not, need to define different array type and buf-type.
-                // maybe in an abstract class?
-                double[] array = new double[xSize * ySize];
-
-                // read the whole raster out into the array
-                int readReturn = outputDS.GetRasterBand(1).ReadRaster(0, 0, xSize, ySize, array);
-                if (readReturn != 0) {
-                    throw new Exception("Can't read the Raster band : " + mInput.getPath());
-                }
-
-                // get each unit out and filter it
-                for (int y=0; y<ySize; y++) {
-                    for (int x=0; x<xSize; x++) {
-                        int index = y * xSize + x;
-                        array[index] = filterValue(array[index]);
+                Dataset outputDS = gdalContext.track(profile.create(outputFolder + File.separator + mInput.getName(),
+                        inputDS.GetRasterXSize(), inputDS.GetRasterYSize(), 1, inputBand.getDataType()));
+                outputDS.SetGeoTransform(inputDS.GetGeoTransform());
+                outputDS.SetProjection(inputDS.GetProjection());
+                outputDS.SetMetadata(inputDS.GetMetadata_Dict());
+                GeoTiffProfile.copyBandProperties(inputBand, outputDS.GetRasterBand(1));
+
+                // filter the raster a block-aligned window at a time, keeping the input's native data type
+                try (RasterBlockStream stream = new RasterBlockStream(new Band[] {inputBand}, new Band[] {outputDS.GetRasterBand(1)})) {
+                    RasterBuffer array = stream.getInput(0);
+                    RasterBuffer filtered = stream.getOutput(0);
+                    while (stream.next()) {
+                        int size = stream.getWindow().size();
+                        for (int index = 0; index < size; index++) {
+                            filtered.set(index, filterValue(array.get(index)));
+                        }
+                        stream.write();
                     }
                 }
 
-                outputDS.GetRasterBand(1).WriteRaster(0, 0, xSize, ySize, array);
-
                 inputDS.delete();
-                outputDS.delete();
+                profile.finish(outputDS);
             }
         }
         GdalUtils.errorCheck();
@@ -9,14 +9,14 @@ import java.util.Hashtable;
 import org.apache.commons.io.FilenameUtils;
 import org.gdal.gdal.Band;
 import org.gdal.gdal.Dataset;
-import org.gdal.gdal.gdal;
 import org.gdal.gdalconst.gdalconstConstants;
 
 import version2.prototype.Config;
 import version2.prototype.ErrorLog;
 import version2.prototype.processor.Convert;
 import version2.prototype.processor.ProcessData;
-import version2.prototype.util.GdalUtils;
+import version2.prototype.util.GdalContext;
+import version2.prototype.util.GeoTiffProfile;
 import version2.prototype.util.UnGunZip;
 
 public class IMERGConvert extends Convert
@@ -41,8 +41,7 @@ public class IMERGConvert extends Convert
     // scale the precipitation rate
     public void convertFiles() throws Exception
     {
-        GdalUtils.register();
-        synchronized (GdalUtils.lockObject)
+        try (GdalContext gdalContext = GdalContext.open())
         {
 
             if (inputFiles == null)
@@ -63,7 +62,7 @@ public class IMERGConvert extends Convert
                     new UnGunZip(orgfile, fName);
                 }
 
-                inputDS = gdal.Open(fName);
+                inputDS = gdalContext.open(fName);
 
                 Band b = inputDS.GetRasterBand(1);
 
@@ -94,7 +93,8 @@ public class IMERGConvert extends Convert
                     ErrorLog.add(Config.getInstance(), "IMERG.convert error while creating new file.", e);
                 }
 
-                Dataset outputDS = gdal.GetDriverByName("GTiff").Create(
+                GeoTiffProfile profile = GeoTiffProfile.forStage(GeoTiffProfile.Stage.PROCESSOR);
+                Dataset outputDS = profile.create(
                         outputFile.getAbsolutePath(),
                         xSize, ySize,
                         1,
@@ -107,7 +107,7 @@ public class IMERGConvert extends Convert
 
                 outputDS.GetRasterBand(1).SetNoDataValue(noDataValue);
                 outputDS.GetRasterBand(1).ComputeStatistics(false);
-                outputDS.delete();
+                profile.finish(outputDS);
 
                 dis.close();
             }
@@ -1,24 +1,30 @@
 package version2.prototype.processor;
 
+import java.io.IOException;
+
 import org.gdal.gdal.Band;
+import org.gdal.gdalconst.gdalconstConstants;
 
-import version2.prototype.util.GdalUtils;
+import version2.prototype.util.RasterBlockStream;
+import version2.prototype.util.RasterBuffer;
+import version2.prototype.util.RasterWindow;
 
 public class ImageArray {
     private double [] array;
     private int xSize;
     private int ySize;
 
-    public ImageArray(Band band){
-        GdalUtils.register();
-
-        synchronized (GdalUtils.lockObject) {
-            xSize=band.getXSize();
-            ySize=band.getYSize();
-            array=new double[xSize*ySize];
+    // Band backed arrays read rows a block row at a time and only load the whole raster if getArray() or setRow(...) is called
+    private Band band;
+    private double[] blockRows;
+    private int blockRowsOff;
+    private int blockRowsCount;
 
-            band.ReadRaster(0, 0, xSize, ySize, array);
-        }
+    public ImageArray(Band band) throws IOException{
+        this.band = band;
+        xSize=band.getXSize();
+        ySize=band.getYSize();
+        array=null;
     }
 
     public ImageArray(int x, int y){
@@ -35,14 +41,19 @@ public class ImageArray {
     }
 
     public double[] getArray(){
+        if(array == null) {
+            array = readArray();
+        }
         return array;
     }
 
     public double[] getRow(int rowNumber){
-        if(rowNumber<0 || rowNumber>ySize){
+        if(rowNumber<0 || rowNumber>=ySize){
             System.out.println("row number out of range: "+ rowNumber);
 
             return null;
+        }else if(array == null){
+            return readRow(rowNumber);
         }else{
             double[] row=new double[xSize];
 
@@ -55,8 +66,60 @@ public class ImageArray {
     }
 
     public void setRow(int rowNumber, double[] rowValue){
+        getArray();
         for(int i=rowNumber*xSize, j=0; i<(rowNumber+1)*xSize; i++, j++){
             array[i]=rowValue[j];
         }
     }
+
+    // Reads a row from the band, through a cache of the block row holding it
+    private double[] readRow(int rowNumber){
+        if(blockRows == null || rowNumber < blockRowsOff || rowNumber >= blockRowsOff + blockRowsCount) {
+            int blockYSize = Math.max(1, band.GetBlockYSize());
+            blockRowsOff = rowNumber - rowNumber % blockYSize;
+            blockRowsCount = Math.min(blockYSize, ySize - blockRowsOff);
+            RasterWindow window = new RasterWindow(0, blockRowsOff, xSize, blockRowsCount);
+            RasterBuffer buffer = RasterBuffer.forBand(band, window.size());
+            try {
+                if(buffer.read(band, window) != gdalconstConstants.CE_None) {
+                    System.out.println("failed to read rows " + blockRowsOff + " to " + (blockRowsOff + blockRowsCount - 1));
+                    blockRows = null;
+                    return null;
+                }
+                if(blockRows == null || blockRows.length < window.size()) {
+                    blockRows = new double[window.size()];
+                }
+                for(int i=0; i < window.size(); i++) {
+                    blockRows[i] = buffer.get(i);
+                }
+            } finally {
+                buffer.release();
+            }
+        }
+
+        double[] row=new double[xSize];
+        System.arraycopy(blockRows, (rowNumber - blockRowsOff) * xSize, row, 0, xSize);
+        return row;
+    }
+
+    // Reads the whole band, in block-aligned windows placed into the full array
+    private double[] readArray(){
+        double[] full=new double[xSize*ySize];
+        try (RasterBlockStream stream = new RasterBlockStream(new Band[] {band}, null)) {
+            RasterBuffer window = stream.getInput(0);
+            while (stream.next()) {
+                RasterWindow w = stream.getWindow();
+                for (int row = 0; row < w.height; row++) {
+                    int start = (w.yOff + row) * xSize + w.xOff;
+                    for (int col = 0; col < w.width; col++) {
+                        full[start + col] = window.get(row * w.width + col);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            System.out.println("failed to read band: " + e.getMessage());
+        }
+        blockRows = null;
+        return full;
+    }
 }
\ No newline at end of file
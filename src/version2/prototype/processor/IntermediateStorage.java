@@ -0,0 +1,234 @@
+package version2.prototype.processor;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.io.FileUtils;
+
+import version2.prototype.Config;
+import version2.prototype.ErrorLog;
+
+/**
+ * Keeps the intermediate outputs of a ProcessorWorker's steps in a memory backed directory (a tmpfs mount such as /dev/shm) instead of the
+ * project's temp folders on disk, so a step's output is read back by the next step from RAM and only the final step writes to disk.
+ *
+ * The steps find their inputs by listing folders, and GDAL's /vsimem/ isn't visible to java.io.File, so a memory backed directory is used
+ * instead: steps and GDAL see ordinary paths. Each intermediate folder is placed in memory only if its estimated size fits under the
+ * configured limit (shared by all workers in the process) and the free space of the memory directory; otherwise it stays on disk where
+ * PrepareProcessTask put it. Steps that expand their data (e.g. mosaicking or reprojecting) can write more than estimated, so once a step is
+ * done its folder is measured and moved to disk if it doesn't fit after all. Memory folders are deleted as soon as the step reading them is
+ * done.
+ *
+ * Not thread safe, each ProcessorWorker uses its own instance.
+ */
+public class IntermediateStorage {
+    // Bytes of intermediate data currently held in memory by all workers
+    private static final AtomicLong reservedBytes = new AtomicLong();
+    // Whether the missing memory directory was reported, it is reported once per process
+    private static final AtomicBoolean unavailableReported = new AtomicBoolean();
+
+    private final File memoryDir;
+    private final File memoryRoot;
+    private final long limitBytes;
+    private final Map<String, File> memoryFolders;     // <disk folder, memory folder>
+    private final Map<String, Long> reservations;      // <disk folder, reserved bytes>
+    private int folderCount;
+
+    /**
+     * Creates an IntermediateStorage for one day of one plugin.
+     *
+     * @param configInstance  - Config giving the memory directory and limit
+     * @param scope  - unique name for this worker's folders, e.g. project, plugin and day
+     */
+    public IntermediateStorage(Config configInstance, String scope)
+    {
+        String dir = configInstance.getIntermediateMemoryDir();
+        if(dir != null && !dir.isEmpty() && configInstance.getIntermediateMemoryLimitMB() > 0 && new File(dir).isDirectory()) {
+            memoryDir = new File(dir);
+            memoryRoot = new File(new File(memoryDir, "EASTWeb"), scope.replaceAll("[^A-Za-z0-9_.-]", "_"));
+        } else {
+            memoryDir = null;
+            memoryRoot = null;
+            if(dir != null && !dir.isEmpty() && configInstance.getIntermediateMemoryLimitMB() > 0 && !unavailableReported.getAndSet(true)) {
+                // e.g. the default /dev/shm on Windows, which has no tmpfs
+                ErrorLog.add(configInstance, "Intermediate memory directory '" + dir + "' doesn't exist, intermediate step outputs are written to disk.", null);
+            }
+        }
+        limitBytes = configInstance.getIntermediateMemoryLimitMB() << 20;
+        memoryFolders = new HashMap<String, File>();
+        reservations = new HashMap<String, Long>();
+        folderCount = 0;
+    }
+
+    /**
+     * Gets whether intermediates can be kept in memory at all.
+     *
+     * @return true if a memory directory is configured and available
+     */
+    public boolean isEnabled()
+    {
+        return memoryRoot != null;
+    }
+
+    /**
+     * Decides where an intermediate folder lives before the step writing it runs. The folder is placed in memory if the estimated size fits
+     * under the limit and in the memory directory's free space, otherwise it stays on disk.
+     *
+     * @param diskFolder  - folder PrepareProcessTask gave for the intermediate output
+     * @param estimatedBytes  - expected size of the output
+     * @return true if the folder was placed in memory
+     */
+    public boolean place(String diskFolder, long estimatedBytes)
+    {
+        if(memoryRoot == null || memoryFolders.containsKey(diskFolder)) {
+            return memoryFolders.containsKey(diskFolder);
+        }
+
+        long reserved = reservedBytes.addAndGet(estimatedBytes);
+        if(reserved > limitBytes || memoryDir.getUsableSpace() < estimatedBytes * 2) {
+            reservedBytes.addAndGet(-estimatedBytes);
+            System.out.println("Intermediate folder '" + diskFolder + "' (~" + (estimatedBytes >> 20) + " MB) written to disk, memory limit reached.");
+            return false;
+        }
+
+        File folder = new File(memoryRoot, Integer.toString(++folderCount));
+        if(folder.exists()) {
+            FileUtils.deleteQuietly(folder);
+        }
+        memoryFolders.put(diskFolder, folder);
+        reservations.put(diskFolder, estimatedBytes);
+        return true;
+    }
+
+    /**
+     * Replaces the estimate for an in-memory folder by its actual size once the step writing it has finished. If the actual size doesn't fit
+     * under the limit or in the memory directory's free space, the folder's files are moved to the disk folder and its reservation released.
+     *
+     * @param diskFolder  - folder given to {@link #place(String, long)}
+     * @return true if the folder is still in memory
+     * @throws IOException  if the files couldn't be moved to disk, the folder then stays in memory
+     */
+    public boolean settle(String diskFolder) throws IOException
+    {
+        File folder = memoryFolders.get(diskFolder);
+        if(folder == null) {
+            return false;
+        }
+        long actual = folder.exists() ? FileUtils.sizeOfDirectory(folder) : 0;
+        long reserved = reservedBytes.addAndGet(actual - reservations.get(diskFolder));
+        reservations.put(diskFolder, actual);
+        if(reserved <= limitBytes && memoryDir.getUsableSpace() >= actual) {
+            return true;
+        }
+
+        System.out.println("Intermediate folder '" + diskFolder + "' (" + (actual >> 20) + " MB) moved to disk, memory limit reached.");
+        File diskDir = new File(diskFolder);
+        diskDir.mkdirs();
+        File[] files = folder.listFiles();
+        if(files != null) {
+            for(File f : files) {
+                File target = new File(diskDir, f.getName());
+                if(target.exists()) {
+                    FileUtils.forceDelete(target);
+                }
+                FileUtils.moveToDirectory(f, diskDir, true);
+            }
+        }
+        release(diskFolder);
+        return false;
+    }
+
+    /**
+     * Gets the folder a step should really use.
+     *
+     * @param diskFolder  - folder given by PrepareProcessTask
+     * @return the memory folder if it was placed in memory, otherwise diskFolder
+     */
+    public String getFolder(String diskFolder)
+    {
+        File folder = diskFolder != null ? memoryFolders.get(diskFolder) : null;
+        return folder != null ? folder.getPath() : diskFolder;
+    }
+
+    /**
+     * Gets the folders a step should really use.
+     *
+     * @param diskFolders  - folders given by PrepareProcessTask
+     * @return the folders with in-memory ones replaced
+     */
+    public String[] getFolders(String[] diskFolders)
+    {
+        if(diskFolders == null) {
+            return null;
+        }
+        String[] folders = new String[diskFolders.length];
+        for(int i=0; i < diskFolders.length; i++) {
+            folders[i] = getFolder(diskFolders[i]);
+        }
+        return folders;
+    }
+
+    /**
+     * Gets the total size of the files in the given folders, as they are really stored.
+     *
+     * @param diskFolders  - folders given by PrepareProcessTask
+     * @return size in bytes
+     */
+    public long sizeOf(String[] diskFolders)
+    {
+        long size = 0;
+        if(diskFolders != null) {
+            for(String folder : getFolders(diskFolders)) {
+                File f = new File(folder);
+                if(f.isDirectory()) {
+                    size += FileUtils.sizeOfDirectory(f);
+                }
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Deletes an in-memory folder once nothing reads it anymore. Folders on disk are left alone.
+     *
+     * @param diskFolder  - folder given to {@link #place(String, long)}
+     */
+    public void release(String diskFolder)
+    {
+        File folder = memoryFolders.remove(diskFolder);
+        if(folder == null) {
+            return;
+        }
+        FileUtils.deleteQuietly(folder);
+        reservedBytes.addAndGet(-reservations.remove(diskFolder));
+    }
+
+    /**
+     * Deletes every remaining in-memory folder of this worker.
+     *
+     * @throws IOException  if the worker's memory directory can't be removed
+     */
+    public void close() throws IOException
+    {
+        for(String diskFolder : memoryFolders.keySet().toArray(new String[0])) {
+            release(diskFolder);
+        }
+        if(memoryRoot != null && memoryRoot.exists()) {
+            FileUtils.deleteDirectory(memoryRoot);
+        }
+    }
+
+    /**
+     * Gets the bytes of intermediate data all workers currently hold in memory.
+     *
+     * @return reserved bytes
+     */
+    public static long getReservedBytes()
+    {
+        return reservedBytes.get();
+    }
+}
@@ -7,7 +7,8 @@ import org.gdal.gdal.Dataset;
 import org.gdal.gdal.Transformer;
 import org.gdal.gdal.gdal;
 
-import version2.prototype.util.GdalUtils;
+import version2.prototype.util.FileHandOff;
+import version2.prototype.util.GdalContext;
 
 import org.apache.commons.io.FileUtils;
 
@@ -82,7 +83,12 @@ public class Mask {
                 if(oF.exists()) {
                     oF.delete();
                 }
-                FileUtils.copyFileToDirectory(f, outputDir);
+                // the input is only passed along, so move it if it is deleted afterwards anyway and link it otherwise
+                if(deleteInputDirectory) {
+                    FileHandOff.moveToDirectory(f, outputDir);
+                } else {
+                    FileHandOff.linkToDirectory(f, outputDir, false);
+                }
             }
         }
 
@@ -104,10 +110,10 @@ public class Mask {
 
     protected void maskFiles() throws IOException
     {
-        synchronized (GdalUtils.lockObject) {
+        try (GdalContext gdalContext = GdalContext.open()) {
             for (File mInput : inputFiles){
-                Dataset mInputDS = gdal.Open(mInput.getPath());
-                Dataset mMaskDS = gdal.Open(maskFile.getPath());
+                Dataset mInputDS = gdalContext.open(mInput.getPath());
+                Dataset mMaskDS = gdalContext.open(maskFile.getPath());
                 String filename = mInput.getName();
                 File mOutput = new File(outputFolder,filename);
 
@@ -2,18 +2,19 @@ package version2.prototype.processor.ModisNBARV6;
 
 import java.io.File;
 import java.nio.file.Paths;
-import java.util.ArrayList;
-import java.util.Hashtable;
 
 import org.apache.commons.io.FilenameUtils;
 import org.gdal.gdal.Band;
 import org.gdal.gdal.Dataset;
-import org.gdal.gdal.gdal;
 import org.gdal.gdalconst.gdalconstConstants;
 
 import version2.prototype.processor.Filter;
 import version2.prototype.processor.ProcessData;
+import version2.prototype.util.GdalContext;
 import version2.prototype.util.GdalUtils;
+import version2.prototype.util.GeoTiffProfile;
+import version2.prototype.util.RasterBlockStream;
+import version2.prototype.util.RasterBuffer;
 
 public class ModisNBARV6Filter extends Filter{
     private Integer noDataValue;
@@ -47,93 +48,95 @@ public class ModisNBARV6Filter extends Filter{
      */
     protected void filterByQCFlag(String qcLevel) throws Exception
     {
-        GdalUtils.register();
-
-        synchronized (GdalUtils.lockObject)
+        try (GdalContext gdalContext = GdalContext.open())
         {
+            GeoTiffProfile profile = GeoTiffProfile.forStage(GeoTiffProfile.Stage.PROCESSOR);
             Dataset dataDS = null;
             Dataset qcDS = null;
 
             String dPath = Paths.get(inputFiles[0].getAbsolutePath()).getParent().toString();
             String qcPath = Paths.get(qcFiles[0].getAbsolutePath()).getParent().toString();
 
+            /*Highest (QA flag = 0)
+              Moderate (QA flag = 0 or 1)
+              Low (QA flag = 0,1,or 2)
+              NoScreening (QA flag = 0,1,2,or 3)
+             */
+            int maxQCFlag;
+            switch (qcLevel)
+            {
+            case "NoScreening (QA flag = 0,1,2,or 3)":
+                maxQCFlag = 3;
+                break;
+            case "Low (QA flag = 0,1,or 2)":
+                maxQCFlag = 2;
+                break;
+            case "Moderate (QA flag = 0 or 1)":
+                maxQCFlag = 1;
+                break;
+            case "Highest (QA flag = 0)":
+                maxQCFlag = 0;
+                break;
+            default:
+                maxQCFlag = Integer.MAX_VALUE;
+                break;
+            }
+
+            // Valid reflectances are 1 to 32766, so the output stays Int16 unless the no data value doesn't fit
+            int outputType = (noDataValue >= Short.MIN_VALUE && noDataValue <= Short.MAX_VALUE) ? gdalconstConstants.GDT_Int16 : gdalconstConstants.GDT_Int32;
+
             for (int i = 0;  i < 7; i++)
             {
-                dataDS = gdal.Open(String.format
+                dataDS = gdalContext.open(String.format
                         ("%s" + File.separator + "%s", dPath, "Band"+dataBands[i]+".tif"));
-                qcDS = gdal.Open(String.format
+                qcDS = gdalContext.open(String.format
                         ("%s" + File.separator + "%s", qcPath, "Band"+qcBands[i]+".tif"));
 
                 Band dataBand = dataDS.GetRasterBand(1);
                 Band qcBand = qcDS.GetRasterBand(1);
 
-                double [] gTrans = dataDS.GetGeoTransform();
-                String proj = dataDS.GetProjection();
-                Hashtable<?, ?> mData = dataDS.GetMetadata_Dict();
-
                 int xSize = dataBand.getXSize();
                 int ySize = dataBand.getYSize();
 
-                int [] data = new int[xSize * ySize];
-                dataBand.ReadRaster(0, 0, xSize, ySize, data);
-
-                int [] qc = new int[xSize * ySize];
-                qcBand.ReadRaster(0, 0, xSize, ySize, qc);
-
-                dataDS.delete();
-                qcDS.delete();
-
                 // change the names to Band1.tif, Band2.tif, and such for the indix calc
-                Dataset outputDS =
-                        gdal.GetDriverByName("GTiff").Create
+                Dataset outputDS = gdalContext.track(
+                        profile.create
                         (outputFolder + File.separator + "Band"+(i+1)+".tif",
-                                xSize, ySize, 1, gdalconstConstants.GDT_Int32);
+                                xSize, ySize, 1, outputType));
 
-                outputDS.SetGeoTransform(gTrans);
-                outputDS.SetProjection(proj);
-                outputDS.SetMetadata(mData);
+                outputDS.SetGeoTransform(dataDS.GetGeoTransform());
+                outputDS.SetProjection(dataDS.GetProjection());
+                outputDS.SetMetadata(dataDS.GetMetadata_Dict());
+                Band outputBand = outputDS.GetRasterBand(1);
 
-                for (int k = 0; k < xSize * ySize; k++)
-                {
-                    /*Highest (QA flag = 0)
-                      Moderate (QA flag = 0 or 1)
-                      Low (QA flag = 0,1,or 2)
-                      NoScreening (QA flag = 0,1,2,or 3)
-                     */
+                // Data and QC are read in their native types (Int16 and Byte) a block-aligned window at a time
+                try (RasterBlockStream stream = new RasterBlockStream(new Band[] {dataBand, qcBand}, new Band[] {outputBand})) {
+                    RasterBuffer data = stream.getInput(0);
+                    RasterBuffer qc = stream.getInput(1);
+                    RasterBuffer filtered = stream.getOutput(0);
 
-                    switch (qcLevel)
+                    while (stream.next())
                     {
-                    case "NoScreening (QA flag = 0,1,2,or 3)":
-                        if (qc[k] > 3) {
-                            data[k] = noDataValue;
-                        }
-                        break;
-                    case "Low (QA flag = 0,1,or 2)":
-                        if (qc[k] > 2) {
-                            data[k] = noDataValue;
-                        }
-                        break;
-                    case "Moderate (QA flag = 0 or 1)":
-                        if (qc[k] > 1) {
-                            data[k] = noDataValue;
-                        }
-                        break;
-                    case "Highest (QA flag = 0)":
-                        if (qc[k] > 0) {
-                            data[k] = noDataValue;
+                        int size = stream.getWindow().size();
+                        for (int k = 0; k < size; k++)
+                        {
+                            int value = data.getInt(k);
+                            // < 1 or > 32766 is no data value
+                            if ((qc.getInt(k) > maxQCFlag) || (value < 1) || (value > 32766)) {
+                                value = noDataValue;
+                            }
+                            filtered.setInt(k, value);
                         }
-                        break;
-                    }
-                    // < 1 or > 32766 is no data value
-                    if ((data[k] < 1) || (data[k] > 32766)) {
-                        data[k] = noDataValue;
+                        stream.write();
                     }
                 }
 
-                outputDS.GetRasterBand(1).WriteRaster(0, 0, xSize, ySize, data);
-                outputDS.GetRasterBand(1).SetNoDataValue(noDataValue);
-                outputDS.GetRasterBand(1).ComputeStatistics(false);
-                outputDS.delete();
+                dataDS.delete();
+                qcDS.delete();
+
+                outputBand.SetNoDataValue(noDataValue);
+                outputBand.ComputeStatistics(false);
+                profile.finish(outputDS);
             }
         }
         GdalUtils.errorCheck();
@@ -7,12 +7,13 @@ import java.util.Hashtable;
 import org.apache.commons.io.FilenameUtils;
 import org.gdal.gdal.Band;
 import org.gdal.gdal.Dataset;
-import org.gdal.gdal.gdal;
 import org.gdal.gdalconst.gdalconstConstants;
 
 import version2.prototype.processor.Filter;
 import version2.prototype.processor.ProcessData;
+import version2.prototype.util.GdalContext;
 import version2.prototype.util.GdalUtils;
+import version2.prototype.util.GeoTiffProfile;
 
 //@author Yi Liu
 
@@ -34,9 +35,7 @@ public class Modis_MYD11A1_C6Filter extends Filter{
     protected void filterByQCFlag(String qcLevel) throws Exception
     {
         // filter pixel by pixel
-        GdalUtils.register();
-
-        synchronized (GdalUtils.lockObject)
+        try (GdalContext gdalContext = GdalContext.open())
         {
             // order: day(band1), night(band5), day_qc(band2), night_qc(band6)
             Band [] bands = new Band[4];
@@ -47,7 +46,7 @@ public class Modis_MYD11A1_C6Filter extends Filter{
             for (File mInput : inputFiles)   // after Mozaic, they should be in separate bands
             {
                 String fName = mInput.getAbsolutePath();
-                inputDS = gdal.Open(fName);
+                inputDS = gdalContext.open(fName);
 
                 switch (FilenameUtils.getBaseName(fName))
                 {
@@ -80,8 +79,9 @@ public class Modis_MYD11A1_C6Filter extends Filter{
             }
 
             // name the output file as the same as the input's plus "day"
+            GeoTiffProfile profile = GeoTiffProfile.forStage(GeoTiffProfile.Stage.PROCESSOR);
             Dataset outputDS =
-                    gdal.GetDriverByName("GTiff").Create(outputFolder + File.separator + "day.tif",
+                    profile.create(outputFolder + File.separator + "day.tif",
                             xSize, ySize, 1, gdalconstConstants.GDT_Int32);
 
             double [] gTrans = inputDS.GetGeoTransform();
@@ -102,11 +102,11 @@ public class Modis_MYD11A1_C6Filter extends Filter{
 
             outputDS.GetRasterBand(1).SetNoDataValue(noDataValue);
             outputDS.GetRasterBand(1).ComputeStatistics(false);
-            outputDS.delete();
+            profile.finish(outputDS);
 
             // name the output file as the same as the input's plus "night"
             outputDS =
-                    gdal.GetDriverByName("GTiff").Create(outputFolder + File.separator + "night.tif",
+                    profile.create(outputFolder + File.separator + "night.tif",
                             xSize, ySize, 1,gdalconstConstants.GDT_Int32);
             outputDS.SetGeoTransform(gTrans);
             outputDS.SetProjection(proj);
@@ -118,7 +118,7 @@ public class Modis_MYD11A1_C6Filter extends Filter{
 
             outputDS.GetRasterBand(1).SetNoDataValue(noDataValue);
             outputDS.GetRasterBand(1).ComputeStatistics(false);
-            outputDS.delete();
+            profile.finish(outputDS);
 
         }
         GdalUtils.errorCheck();
@@ -1,25 +1,31 @@
 package version2.prototype.processor;
 
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import org.apache.commons.io.FileUtils;
+import org.gdal.gdal.Band;
 import org.gdal.gdal.Dataset;
 import org.gdal.gdal.gdal;
 import org.gdal.gdalconst.gdalconstConstants;
 
-import version2.prototype.util.GdalUtils;
+import version2.prototype.util.GdalContext;
+import version2.prototype.util.GeoTiffProfile;
+import version2.prototype.util.RasterBlockStream;
+import version2.prototype.util.RasterBuffer;
 
 
 /* rewrote by YL on March 11, 2017
  */
 
-// Mosaic tiles together using gdalwarp
+// Mosaic tiles together in-process with GDAL (one multi-band VRT over the tiles, copied to every band's GeoTIFF in one pass)
 public abstract class Mozaic {
 
     //locations for the input files. for this step, will only use inputFolders[0]
@@ -77,7 +83,7 @@ public abstract class Mozaic {
             }
         }
 
-        String [] bandFiles = bandNames(inputFiles);
+        List<List<String>> bandFiles = bandNames(inputFiles);
 
         mosaicTiles(bandFiles, bands);
 
@@ -107,69 +113,272 @@ public abstract class Mozaic {
     /* filename: files in the folder
      * sdsName: The name of the band, such as MOD_Grid_BRDF:Nadir_Reflectance_Band
      * band:  the input band
-     * return:  an array with each element for the files to be mosaiced
+     * return:  a list for each band with the subdatasets (one per tile) to be mosaiced
      */
-    private String[] bandNames(File[] filenames)
+    private List<List<String>> bandNames(File[] filenames) throws IOException
     {
-        Process p;
-
-        String [] bandNames = new String[bands.length] ;
+        List<List<String>> bandNames = new ArrayList<List<String>>();
+        for (int i = 0; i < bands.length; i++) {
+            bandNames.add(new ArrayList<String>());
+        }
+        Pattern pattern = Pattern.compile(bandpattern);
 
-        try {
+        try (GdalContext gdalContext = GdalContext.open()) {
             for (int i = filenames.length - 1; i >= 0; i--)
             {
-                // call the gdalinfo to list the HDF info including the sdsNames
-                String command = "./lib/gdal/gdalinfo " + filenames[i].getAbsolutePath();
-                p = Runtime.getRuntime().exec(command);
-                BufferedReader reader =
-                        new BufferedReader(new InputStreamReader(p.getInputStream()));
+                // list the subdatasets of the HDF, the same SUBDATASET_n_NAME=... lines gdalinfo prints
+                Dataset hdf = gdalContext.open(filenames[i].getAbsolutePath());
+                if (hdf == null) {
+                    throw new IOException("Can't open \"" + filenames[i].getAbsolutePath() + "\": " + gdal.GetLastErrorMsg());
+                }
 
-                String line = "";
                 int j = 0;
-
-                while ((line = reader.readLine())!= null) {
-                    Pattern pattern = Pattern.compile(bandpattern);
-                    Matcher matcher = pattern.matcher(line);
-
-                    if (matcher.find())
-                    {
-                        if (bandNames[j] == null) {
-                            bandNames[j] = " ";
+                @SuppressWarnings("unchecked")
+                List<String> subdatasets = hdf.GetMetadata_List("SUBDATASETS");
+                if (subdatasets != null) {
+                    for (String line : subdatasets) {
+                        Matcher matcher = pattern.matcher(line);
+
+                        if (matcher.find() && j < bands.length)
+                        {
+                            // add the tile's subdataset to the band
+                            bandNames.get(j++).add(line.substring(line.indexOf('=') + 1));
                         }
-                        // add bands to the string
-                        bandNames[j++] += line.substring(line.indexOf('=') + 1) + " ";
                     }
                 }
+                hdf.delete();
             }
-
-        } catch (Exception e) {
-            e.printStackTrace();
         }
 
         return bandNames;
     }
 
-    private void mosaicTiles(String [] bandNames, int bands[])
+    // Mosaics all bands through one multi-band VRT per tile grid, streamed once into every band's GeoTIFF. Bands whose tiles share a grid,
+    // data type and no data value (all of them for a single resolution product) are read through the same VRT in one pass.
+    private void mosaicTiles(List<List<String>> bandNames, int bands[]) throws Exception
     {
-        Process p;;
-        String outputFile;
-        try {
-            for (int i = bandNames.length - 1; i >= 0; i--)
+        try (GdalContext gdalContext = GdalContext.open()) {
+            List<TileGrid> grids = new ArrayList<TileGrid>();
+            List<List<Integer>> groups = new ArrayList<List<Integer>>();
+            Map<String, double[]> geometries = new HashMap<String, double[]>();
+            for (int i = bandNames.size() - 1; i >= 0; i--)
             {
-                outputFile = outputFolder + File.separator + "band" + String.valueOf(bands[i]) + ".tif";
-                // call the gdalinfo to list the HDF info including the sdsNames
-                String command = "./lib/gdal/gdalwarp --config GDAL_CACHEMAX 1000 -wm 1000 "
-                        + bandNames[i] + " " +outputFile;
-                p = Runtime.getRuntime().exec(command);
-                p.waitFor();
+                if (bandNames.get(i).isEmpty()) {
+                    System.out.println("Mozaic: no tiles found for band " + bands[i] + " in " + inputFolder.getPath());
+                    continue;
+                }
+
+                TileGrid grid = new TileGrid(gdalContext, bandNames.get(i), geometries);
+                int g = grids.indexOf(grid);
+                if (g < 0) {
+                    grids.add(grid);
+                    groups.add(new ArrayList<Integer>());
+                    g = grids.size() - 1;
+                }
+                groups.get(g).add(i);
             }
 
-        } catch (IOException | InterruptedException e) {
-            // TODO Auto-generated catch block
-            e.printStackTrace();
+            for (int g = 0; g < grids.size(); g++) {
+                mosaicGroup(gdalContext, grids.get(g), groups.get(g), bandNames, bands);
+            }
         }
     }
 
+    /* grid: the tile layout shared by the bands
+     * group: indices of the bands to mosaic
+     */
+    private void mosaicGroup(GdalContext gdalContext, TileGrid grid, List<Integer> group, List<List<String>> bandNames, int bands[]) throws IOException
+    {
+        List<List<String>> tiles = new ArrayList<List<String>>();
+        for (int i : group) {
+            tiles.add(bandNames.get(i));
+        }
+        Dataset vrt = gdalContext.track(gdal.Open(buildMosaicVrt(grid, tiles)));
+        if (vrt == null) {
+            throw new IOException("Can't build the mosaic of " + grid.transforms.length + " tiles in " + inputFolder.getPath() + ": " + gdal.GetLastErrorMsg());
+        }
 
+        GeoTiffProfile profile = GeoTiffProfile.forStage(GeoTiffProfile.Stage.PROCESSOR);
+        Band[] inputs = new Band[group.size()];
+        Band[] outputBands = new Band[group.size()];
+        Dataset[] outputs = new Dataset[group.size()];
+        for (int b = 0; b < group.size(); b++)
+        {
+            String outputFile = outputFolder + File.separator + "band" + String.valueOf(bands[group.get(b)]) + ".tif";
+            outputs[b] = gdalContext.track(profile.create(outputFile, vrt.GetRasterXSize(), vrt.GetRasterYSize(), 1, grid.dataType));
+            if (outputs[b] == null) {
+                throw new IOException("Can't write \"" + outputFile + "\": " + gdal.GetLastErrorMsg());
+            }
+            outputs[b].SetGeoTransform(vrt.GetGeoTransform());
+            outputs[b].SetProjection(vrt.GetProjectionRef());
+            if (grid.noData != null) {
+                outputs[b].GetRasterBand(1).SetNoDataValue(grid.noData);
+            }
+            inputs[b] = vrt.GetRasterBand(b + 1);
+            outputBands[b] = outputs[b].GetRasterBand(1);
+        }
 
-}
\ No newline at end of file
+        try (RasterBlockStream stream = new RasterBlockStream(inputs, outputBands)) {
+            while (stream.next()) {
+                int size = stream.getWindow().size();
+                for (int b = 0; b < inputs.length; b++) {
+                    RasterBuffer in = stream.getInput(b);
+                    RasterBuffer out = stream.getOutput(b);
+                    for (int p = 0; p < size; p++) {
+                        out.set(p, in.get(p));
+                    }
+                }
+                stream.write();
+            }
+        }
+
+        for (Dataset output : outputs) {
+            profile.finish(output);
+        }
+    }
+
+    /* The layout of one band's tiles: each tile's geotransform and size, and the first tile's projection, data type and no data value.
+     * Bands with equal layouts are mosaiced through the same VRT. The fields of an HDF-EOS grid share its geometry, so a tile is only opened
+     * for the first band of its grid; the other bands only open their first tile, for the data type and no data value.
+     */
+    private static final class TileGrid
+    {
+        final double[][] transforms;
+        final int[][] sizes;
+        final String projection;
+        final int dataType;
+        final Double noData;
+
+        TileGrid(GdalContext gdalContext, List<String> tiles, Map<String, double[]> geometries) throws IOException
+        {
+            transforms = new double[tiles.size()][];
+            sizes = new int[tiles.size()][];
+            String projection = null;
+            int dataType = gdalconstConstants.GDT_Unknown;
+            Double[] noData = new Double[1];
+            for (int t = 0; t < tiles.size(); t++)
+            {
+                String gridKey = getGridKey(tiles.get(t));
+                double[] geometry = gridKey != null ? geometries.get(gridKey) : null;
+                if (t > 0 && geometry != null) {
+                    transforms[t] = Arrays.copyOf(geometry, 6);
+                    sizes[t] = new int[] {(int) geometry[6], (int) geometry[7]};
+                    continue;
+                }
+
+                Dataset tile = gdalContext.open(tiles.get(t));
+                if (tile == null) {
+                    throw new IOException("Can't open \"" + tiles.get(t) + "\": " + gdal.GetLastErrorMsg());
+                }
+                transforms[t] = tile.GetGeoTransform();
+                sizes[t] = new int[] {tile.GetRasterXSize(), tile.GetRasterYSize()};
+                if (t == 0) {
+                    projection = tile.GetProjection();
+                    dataType = tile.GetRasterBand(1).getDataType();
+                    tile.GetRasterBand(1).GetNoDataValue(noData);
+                }
+                tile.delete();
+                if (gridKey != null) {
+                    geometry = Arrays.copyOf(transforms[t], 8);
+                    geometry[6] = sizes[t][0];
+                    geometry[7] = sizes[t][1];
+                    geometries.put(gridKey, geometry);
+                }
+            }
+            this.projection = projection;
+            this.dataType = dataType;
+            this.noData = noData[0];
+        }
+
+        // The subdataset name without its field, e.g. HDF4_EOS:EOS_GRID:"tile.hdf":MOD_Grid_BRDF, or null if it isn't an HDF-EOS grid field
+        private static String getGridKey(String subdataset)
+        {
+            if (!subdataset.startsWith("HDF4_EOS:EOS_GRID:")) {
+                return null;
+            }
+            int field = subdataset.lastIndexOf(':');
+            return field > subdataset.lastIndexOf('"') ? subdataset.substring(0, field) : null;
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            if (!(obj instanceof TileGrid)) {
+                return false;
+            }
+            TileGrid o = (TileGrid) obj;
+            return Arrays.deepEquals(transforms, o.transforms) && Arrays.deepEquals(sizes, o.sizes) && dataType == o.dataType
+                    && (projection == null ? o.projection == null : projection.equals(o.projection)) && (noData == null ? o.noData == null : noData.equals(o.noData));
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return Arrays.deepHashCode(sizes) * 31 + dataType;
+        }
+    }
+
+    /* Builds the XML of a VRT covering the union of the tiles on the first tile's grid, with one band per list of tiles. Each tile is placed
+     * as a source at its pixel offset (resampled by nearest neighbour if its resolution differs), which is what gdalwarp did for same-projection
+     * MODIS tiles without resampling every pixel through a warper.
+     */
+    private String buildMosaicVrt(TileGrid grid, List<List<String>> bandTiles)
+    {
+        double[][] transforms = grid.transforms;
+        int[][] sizes = grid.sizes;
+
+        double minX = Double.MAX_VALUE, maxX = -Double.MAX_VALUE;
+        double minY = Double.MAX_VALUE, maxY = -Double.MAX_VALUE;
+        for (int t = 0; t < transforms.length; t++)
+        {
+            double[] gt = transforms[t];
+            minX = Math.min(minX, gt[0]);
+            maxX = Math.max(maxX, gt[0] + sizes[t][0] * gt[1]);
+            maxY = Math.max(maxY, gt[3]);
+            minY = Math.min(minY, gt[3] + sizes[t][1] * gt[5]);
+        }
+
+        double resX = transforms[0][1];
+        double resY = transforms[0][5];
+        int width = (int) Math.round((maxX - minX) / resX);
+        int height = (int) Math.round((maxY - minY) / -resY);
+
+        StringBuilder xml = new StringBuilder();
+        xml.append("<VRTDataset rasterXSize=\"").append(width).append("\" rasterYSize=\"").append(height).append("\">");
+        xml.append("<SRS>").append(escapeXml(grid.projection)).append("</SRS>");
+        xml.append("<GeoTransform>").append(minX).append(", ").append(resX).append(", 0, ").append(maxY).append(", 0, ").append(resY).append("</GeoTransform>");
+        for (int b = 0; b < bandTiles.size(); b++)
+        {
+            List<String> tiles = bandTiles.get(b);
+            xml.append("<VRTRasterBand dataType=\"").append(gdal.GetDataTypeName(grid.dataType)).append("\" band=\"").append(b + 1).append("\">");
+            if (grid.noData != null) {
+                xml.append("<NoDataValue>").append(grid.noData).append("</NoDataValue>");
+            }
+            for (int t = 0; t < tiles.size(); t++)
+            {
+                double[] gt = transforms[t];
+                // a tile's no data pixels don't overwrite its neighbours, as with gdalwarp
+                String source = grid.noData != null ? "ComplexSource" : "SimpleSource";
+                xml.append("<").append(source).append(">");
+                xml.append("<SourceFilename relativeToVRT=\"0\">").append(escapeXml(tiles.get(t))).append("</SourceFilename>");
+                xml.append("<SourceBand>1</SourceBand>");
+                xml.append("<SrcRect xOff=\"0\" yOff=\"0\" xSize=\"").append(sizes[t][0]).append("\" ySize=\"").append(sizes[t][1]).append("\"/>");
+                xml.append("<DstRect xOff=\"").append(Math.round((gt[0] - minX) / resX)).append("\" yOff=\"").append(Math.round((gt[3] - maxY) / resY))
+                .append("\" xSize=\"").append(Math.round(sizes[t][0] * gt[1] / resX)).append("\" ySize=\"").append(Math.round(sizes[t][1] * gt[5] / resY)).append("\"/>");
+                if (grid.noData != null) {
+                    xml.append("<NODATA>").append(grid.noData).append("</NODATA>");
+                }
+                xml.append("</").append(source).append(">");
+            }
+            xml.append("</VRTRasterBand>");
+        }
+        xml.append("</VRTDataset>");
+
+        return xml.toString();
+    }
+
+    private static String escapeXml(String value)
+    {
+        return value.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;").replace("\"", "&quot;");
+    }
+}
@@ -0,0 +1,11 @@
+package version2.prototype.processor.NldasForcing;
+
+import version2.prototype.processor.ClipMask;
+import version2.prototype.processor.ProcessData;
+
+public class NldasForcingClipMask extends ClipMask {
+
+    public NldasForcingClipMask(ProcessData data, Boolean deleteInputDirectory) {
+        super(data, deleteInputDirectory);
+    }
+}
@@ -9,7 +9,6 @@ import java.util.Arrays;
 import java.util.List;
 
 import org.gdal.gdal.Dataset;
-import org.gdal.gdal.gdal;
 import org.gdal.gdalconst.gdalconstConstants;
 
 import version2.prototype.Config;
@@ -17,7 +16,9 @@ import version2.prototype.DataDate;
 import version2.prototype.ErrorLog;
 import version2.prototype.processor.Composite;
 import version2.prototype.processor.ProcessData;
-import version2.prototype.util.GdalUtils;
+import version2.prototype.util.GdalContext;
+import version2.prototype.util.GeoTiffProfile;
+import version2.prototype.util.RasterBuffer;
 
 public class NldasForcingComposite extends Composite
 {
@@ -48,8 +49,7 @@ public class NldasForcingComposite extends Composite
     @Override
     public void composeFiles()
     {
-        GdalUtils.register();
-        synchronized (GdalUtils.lockObject) {
+        try (GdalContext gdalContext = GdalContext.open()) {
 
             if(!(new File(outputFolder).exists())){
                 new File(outputFolder).mkdirs();
@@ -59,58 +59,79 @@ public class NldasForcingComposite extends Composite
 
             List<Dataset> inputDSs = new ArrayList<Dataset>();
             for (File input : inputFiles) {
-                inputDSs.add(gdal.Open(input.getPath()));
+                inputDSs.add(gdalContext.open(input.getPath()));
             }
+            GeoTiffProfile profile = GeoTiffProfile.forStage(GeoTiffProfile.Stage.PROCESSOR);
 
-            for(int band : mBands)
-            {
-                int rasterX = inputDSs.get(0).GetRasterXSize();
-                int rasterY = inputDSs.get(0).GetRasterYSize();
-
-                int outputs = 1;
-
-                if(band == 1) {
-                    // Used to differentiate Min--Mean/DegreeDays--Max Air Temp--other
-                    outputs = 3;
-                }
-                else if (band == 2)
+            try {
+                for(int band : mBands)
                 {
-                    outputs = 2;
-                }
+                    int rasterX = inputDSs.get(0).GetRasterXSize();
+                    int rasterY = inputDSs.get(0).GetRasterYSize();
 
-                for(int output = 0; output < outputs; output++)
-                {
-                    ArrayList<String> prefixList = GetFilePrefix(band, output);
+                    int outputs = 1;
 
-                    for(String prefix : prefixList)
+                    if(band == 1) {
+                        // Used to differentiate Min--Mean/DegreeDays--Max Air Temp--other
+                        outputs = 3;
+                    }
+                    else if (band == 2)
                     {
-                        File temp = new File(outputFolder + "\\" + prefix + ".tif");
-                        try {
-                            temp.createNewFile();
-                        } catch (IOException e) {
-                            ErrorLog.add(Config.getInstance(), "NldasForcingComposite.composeFiles error while creating new file.", e);
-                        }
+                        outputs = 2;
+                    }
 
-                        Dataset outputDS = gdal.GetDriverByName("GTiff").Create(
-                                temp.getAbsolutePath(),
-                                rasterX, rasterY,
-                                1,
-                                gdalconstConstants.GDT_Float32
-                                );
-
-                        outputDS.SetGeoTransform(inputDSs.get(0).GetGeoTransform());
-                        outputDS.SetProjection(inputDSs.get(0).GetProjection());
-                        outputDS.SetMetadata(inputDSs.get(0).GetMetadata_Dict());
-                        outputDS.GetRasterBand(1).WriteRaster(0, 0, rasterX, rasterY, GetOutputArray(band, output, inputDSs, rasterX, rasterY, prefix));
-                        outputDS.GetRasterBand(1).SetNoDataValue(noDataValue);
-                        outputDS.GetRasterBand(1).ComputeStatistics(true);
-
-                        outputDS.delete();
+                    for(int output = 0; output < outputs; output++)
+                    {
+                        ArrayList<String> prefixList = GetFilePrefix(band, output);
+
+                        for(String prefix : prefixList)
+                        {
+                            File temp = new File(outputFolder + "\\" + prefix + ".tif");
+                            try {
+                                temp.createNewFile();
+                            } catch (IOException e) {
+                                ErrorLog.add(Config.getInstance(), "NldasForcingComposite.composeFiles error while creating new file.", e);
+                            }
+
+                            Dataset outputDS = profile.create(
+                                    temp.getAbsolutePath(),
+                                    rasterX, rasterY,
+                                    1,
+                                    gdalconstConstants.GDT_Float32
+                                    );
+
+                            boolean finished = false;
+                            try {
+                                outputDS.SetGeoTransform(inputDSs.get(0).GetGeoTransform());
+                                outputDS.SetProjection(inputDSs.get(0).GetProjection());
+                                outputDS.SetMetadata(inputDSs.get(0).GetMetadata_Dict());
+                                try {
+                                    outputDS.GetRasterBand(1).WriteRaster(0, 0, rasterX, rasterY, GetOutputArray(band, output, inputDSs, rasterX, rasterY, prefix));
+                                } catch (IOException e) {
+                                    ErrorLog.add(Config.getInstance(), "NldasForcingComposite.composeFiles error while reading input bands, " + prefix + " not composited.", e);
+                                    continue;
+                                }
+                                outputDS.GetRasterBand(1).SetNoDataValue(noDataValue);
+                                outputDS.GetRasterBand(1).ComputeStatistics(true);
+
+                                profile.finish(outputDS);
+                                finished = true;
+                            } finally {
+                                if(!finished) {
+                                    // Don't leave an unfinished composite behind to be taken as a valid one
+                                    if(outputDS != null) {
+                                        outputDS.delete();
+                                    }
+                                    temp.delete();
+                                }
+                            }
+                        }
                     }
                 }
-            }
-            for (Dataset inputDS : inputDSs) {
-                inputDS.delete();
+            } finally {
+                for (Dataset inputDS : inputDSs) {
+                    inputDS.delete();
+                }
             }
         }
     }
@@ -163,191 +184,188 @@ public class NldasForcingComposite extends Composite
         return prefixList;
     }
 
-    private double[] GetOutputArray(int band, int output, List<Dataset> inputDSs, int rasterX, int rasterY, String prefix)
+    private double[] GetOutputArray(int band, int output, List<Dataset> inputDSs, int rasterX, int rasterY, String prefix) throws IOException
     {
         int size = inputDSs.size();
-        double[][] inputArrays = new double[size][rasterX * rasterY];
+        RasterBuffer[] inputArrays = null;
         double[] outputArray = new double[rasterX * rasterY];
         int length = outputArray.length;
         double sum;
 
         Arrays.fill(outputArray, 9999.0);
 
-        // AirTemp_Mean, Humidity Mean
-        //HeatingDegreeDays, FreezingDegreeDays, WNVAmplificationIndex, LymeDiseaseIndex, OverwinteringIndex
-        if ((band == 1 && output == 1) || (band == 2 && output == 0))
-        {
-            for(int index = 0; index < size; index++)
+        try {
+            // AirTemp_Mean, Humidity Mean
+            //HeatingDegreeDays, FreezingDegreeDays, WNVAmplificationIndex, LymeDiseaseIndex, OverwinteringIndex
+            if ((band == 1 && output == 1) || (band == 2 && output == 0))
             {
-                inputDSs.get(index).GetRasterBand(band).ReadRaster(0, 0, rasterX, rasterY, inputArrays[index]);
-            }
+                inputArrays = ReadBands(inputDSs, band);
 
-            // Always take the average
-            for(int pos = 0; pos < length; pos++)
-            {
-                sum = 0.0;
-                for (int i = 0; i < size; i++)
+                // Always take the average
+                for(int pos = 0; pos < length; pos++)
                 {
-                    // Get the proportional average for each input.
-                    if(inputArrays[i][pos] != 9999.0)
+                    sum = 0.0;
+                    for (int i = 0; i < size; i++)
                     {
-                        outputArray[pos] = sum + (inputArrays[i][pos]/size);
-                        sum = outputArray[pos];
+                        // Get the proportional average for each input.
+                        if(inputArrays[i].get(pos) != 9999.0)
+                        {
+                            outputArray[pos] = sum + (inputArrays[i].get(pos)/size);
+                            sum = outputArray[pos];
+                        }
                     }
                 }
-            }
 
 
-            if(band == 1)
-            {
-                // Convert the values from Kelvin to Celsius
-                //for(int i = 0; i < outputArray.length; i++) {
-                // Tc = Tk - 273.15
-                //    outputArray[i] = outputArray[i] - 273.15;
-                //}
-
-                if(prefix.equalsIgnoreCase("HeatingDegreeDays")) {
-                    outputArray = GetCumulativeHeatingDegreeDays(outputArray, prefix);
-                }
-                else if (prefix.equalsIgnoreCase("FreezingDegreeDays")) {
-                    outputArray = GetCumulativeFreezingDegreeDays(outputArray, prefix);
-                }
-                else if (prefix.equalsIgnoreCase("WNVAmplificationIndex"))
+                if(band == 1)
                 {
-                    outputArray = GetCumulativeWNVAmpDays(outputArray, prefix);
+                    // Convert the values from Kelvin to Celsius
+                    //for(int i = 0; i < outputArray.length; i++) {
+                    // Tc = Tk - 273.15
+                    //    outputArray[i] = outputArray[i] - 273.15;
+                    //}
+
+                    if(prefix.equalsIgnoreCase("HeatingDegreeDays")) {
+                        outputArray = GetCumulativeHeatingDegreeDays(outputArray, prefix);
+                    }
+                    else if (prefix.equalsIgnoreCase("FreezingDegreeDays")) {
+                        outputArray = GetCumulativeFreezingDegreeDays(outputArray, prefix);
+                    }
+                    else if (prefix.equalsIgnoreCase("WNVAmplificationIndex"))
+                    {
+                        outputArray = GetCumulativeWNVAmpDays(outputArray, prefix);
+                    }
+                    else if (prefix.equalsIgnoreCase("LymeDiseaseIndex"))
+                    {
+                        outputArray = GetCumulativeLymeDiseaseDays(outputArray, prefix);
+                    }
+                    else if (prefix.equalsIgnoreCase("OverwinteringIndex"))
+                    {
+                        outputArray = GetCumulativeOverwinteringDays(outputArray, prefix);
+                    }
                 }
-                else if (prefix.equalsIgnoreCase("LymeDiseaseIndex"))
-                {
-                    outputArray = GetCumulativeLymeDiseaseDays(outputArray, prefix);
+            }
+            //AirTemp_Min, AirTemp_Max
+            else if(band == 1)
+            {
+                if(output == 0) {
+                    outputArray = FindMinValues(inputDSs, rasterX, rasterY);
                 }
-                else if (prefix.equalsIgnoreCase("OverwinteringIndex"))
-                {
-                    outputArray = GetCumulativeOverwinteringDays(outputArray, prefix);
+                else if(output == 2) {
+                    outputArray = FindMaxValues(inputDSs, rasterX, rasterY);
                 }
             }
-        }
-        //AirTemp_Min, AirTemp_Max
-        else if(band == 1)
-        {
-            if(output == 0) {
-                outputArray = FindMinValues(inputDSs, rasterX, rasterY);
-            }
-            else if(output == 2) {
-                outputArray = FindMaxValues(inputDSs, rasterX, rasterY);
+            //Max_Heat_Index, Mean_Heat_Index, Relative_Humidity_Mean
+            else if(band == 2)
+            {
+                outputArray = FindRelativeHumidity(inputDSs, rasterX, rasterY, prefix);
             }
-        }
-        //Max_Heat_Index, Mean_Heat_Index, Relative_Humidity_Mean
-        else if(band == 2)
-        {
-            outputArray = FindRelativeHumidity(inputDSs, rasterX, rasterY, prefix);
-        }
-        //Max_Windspeedd, Mean_Windspeed
-        else if (band == 4)
-        {
-            outputArray = FindWindspeed(inputDSs, rasterX, rasterY, prefix);
-        }
-        //Precip_Total
-        else if(band == 10)
-        {
-            for(int index = 0; index < size; index++)
+            //Max_Windspeedd, Mean_Windspeed
+            else if (band == 4)
             {
-                inputDSs.get(index).GetRasterBand(band).ReadRaster(0, 0, rasterX, rasterY, inputArrays[index]);
+                outputArray = FindWindspeed(inputDSs, rasterX, rasterY, prefix);
             }
-
-            for(int pos = 0; pos < length; pos++)
+            //Precip_Total
+            else if(band == 10)
             {
-                // band 10 == precipitation hourly total, so we don't want the average but rather the total
-                // No conversion necessary because the
-                // density of water is approximately 1000 kg/m^3,
-                // so the total mass of a 1-mm layer of water covering an area of 1 m^2 is 1 kg.
-                sum = 0.0;
-                for (int i = 0; i < size; i++)
+                inputArrays = ReadBands(inputDSs, band);
+
+                for(int pos = 0; pos < length; pos++)
                 {
-                    if(inputArrays[i][pos] != 9999.0)
+                    // band 10 == precipitation hourly total, so we don't want the average but rather the total
+                    // No conversion necessary because the
+                    // density of water is approximately 1000 kg/m^3,
+                    // so the total mass of a 1-mm layer of water covering an area of 1 m^2 is 1 kg.
+                    sum = 0.0;
+                    for (int i = 0; i < size; i++)
                     {
-                        outputArray[pos] = sum + inputArrays[i][pos];
-                        sum = outputArray[pos];
+                        if(inputArrays[i].get(pos) != 9999.0)
+                        {
+                            outputArray[pos] = sum + inputArrays[i].get(pos);
+                            sum = outputArray[pos];
+                        }
                     }
                 }
             }
+        } finally {
+            ReleaseBands(inputArrays);
         }
 
         return outputArray;
     }
 
-    private double[] FindMinValues(List<Dataset> inputDSs, int rasterX, int rasterY)
+    private double[] FindMinValues(List<Dataset> inputDSs, int rasterX, int rasterY) throws IOException
     {
         int size = inputDSs.size();
-        double[][] inputArrays = new double[size][rasterX * rasterY];
         double[] outputArray = new double[rasterX * rasterY];
         int length = outputArray.length;
 
         Arrays.fill(outputArray, 9999.0);
 
-        for(int index = 0; index < size; index++) {
-            inputDSs.get(index).GetRasterBand(1).ReadRaster(0, 0, rasterX, rasterY, inputArrays[index]);
-        }
+        RasterBuffer[] inputArrays = ReadBands(inputDSs, 1);
 
-        for(int pos = 0; pos < length; pos++)
-        {
-            double minVal = inputArrays[0][pos];
-            for (int i = 0; i < size; i++) {
-                // Fill value is 9999.0
-                if(inputArrays[i][pos] != 9999.0 && inputArrays[i][pos] < minVal) {
-                    minVal = inputArrays[i][pos];
+        try {
+            for(int pos = 0; pos < length; pos++)
+            {
+                double minVal = inputArrays[0].get(pos);
+                for (int i = 0; i < size; i++) {
+                    // Fill value is 9999.0
+                    if(inputArrays[i].get(pos) != 9999.0 && inputArrays[i].get(pos) < minVal) {
+                        minVal = inputArrays[i].get(pos);
+                    }
                 }
+                outputArray[pos] = minVal;
             }
-            outputArray[pos] = minVal;
-        }
 
-        //for(int i = 0; i < outputArray.length; i++) {
-        // Tc = Tk - 273.15
-        //outputArray[i] = outputArray[i] - 273.15;
-        //}
+            //for(int i = 0; i < outputArray.length; i++) {
+            // Tc = Tk - 273.15
+            //outputArray[i] = outputArray[i] - 273.15;
+            //}
+        } finally {
+            ReleaseBands(inputArrays);
+        }
 
         return outputArray;
     }
 
-    private double[] FindMaxValues(List<Dataset> inputDSs, int rasterX, int rasterY)
+    private double[] FindMaxValues(List<Dataset> inputDSs, int rasterX, int rasterY) throws IOException
     {
         int size = inputDSs.size();
-        double[][] inputArrays = new double[size][rasterX * rasterY];
         double[] outputArray = new double[rasterX * rasterY];
         int length = outputArray.length;
 
         Arrays.fill(outputArray, 9999.0);
 
-        for(int index = 0; index < size; index++) {
-            inputDSs.get(index).GetRasterBand(1).ReadRaster(0, 0, rasterX, rasterY, inputArrays[index]);
-        }
+        RasterBuffer[] inputArrays = ReadBands(inputDSs, 1);
 
-        for(int pos = 0; pos < length; pos++)
-        {
-            double maxVal = inputArrays[0][pos];
-            for (int i = 0; i < size; i++) {
-                // Fill value is 9999.
-                if(inputArrays[i][pos] != 9999.0 && inputArrays[i][pos] > maxVal) {
-                    maxVal = inputArrays[i][pos];
+        try {
+            for(int pos = 0; pos < length; pos++)
+            {
+                double maxVal = inputArrays[0].get(pos);
+                for (int i = 0; i < size; i++) {
+                    // Fill value is 9999.
+                    if(inputArrays[i].get(pos) != 9999.0 && inputArrays[i].get(pos) > maxVal) {
+                        maxVal = inputArrays[i].get(pos);
+                    }
                 }
+                outputArray[pos] = maxVal;
             }
-            outputArray[pos] = maxVal;
-        }
 
-        //for(int i = 0; i < outputArray.length; i++) {
-        //    // Tc = Tk - 273.15
-        //outputArray[i] = outputArray[i] - 273.15;
-        //}
+            //for(int i = 0; i < outputArray.length; i++) {
+            //    // Tc = Tk - 273.15
+            //outputArray[i] = outputArray[i] - 273.15;
+            //}
+        } finally {
+            ReleaseBands(inputArrays);
+        }
 
         return outputArray;
     }
 
-    private double [] FindRelativeHumidity(List<Dataset> inputDSs, int rasterX, int rasterY, String prefix)
+    private double [] FindRelativeHumidity(List<Dataset> inputDSs, int rasterX, int rasterY, String prefix) throws IOException
     {
         int size = inputDSs.size();
-        double[][] PArrays = new double[size][rasterX * rasterY];
-        double[][] TArrays = new double[size][rasterX * rasterY];
         double[][] TArrays2 = new double[size][rasterX * rasterY];
-        double[][] SHArrays = new double[size][rasterX * rasterY];
         double[][] RHArray = new double[size][rasterX * rasterY];
         double[][] HIArray = new double[size][rasterX * rasterY];
         double[] outputArray = new double[rasterX * rasterY];
@@ -356,127 +374,132 @@ public class NldasForcingComposite extends Composite
 
         Arrays.fill(outputArray, 9999.0);
 
-        for(int index = 0; index < size; index++) {
-            inputDSs.get(index).GetRasterBand(1).ReadRaster(0, 0, rasterX, rasterY, TArrays[index]);
-            inputDSs.get(index).GetRasterBand(2).ReadRaster(0, 0, rasterX, rasterY, SHArrays[index]);
-            inputDSs.get(index).GetRasterBand(3).ReadRaster(0, 0, rasterX, rasterY, PArrays[index]);
-        }
-
+        RasterBuffer[] TArrays = null;
+        RasterBuffer[] SHArrays = null;
+        RasterBuffer[] PArrays = null;
 
-        for(int pos = 0; pos < length; pos++)
-        {
-            for (int i = 0; i < size; i++) {
-                if(TArrays2[i][pos] != 9999.0) {
-                    TArrays2[i][pos] = TArrays2[i][pos] + 273.15;
-                }
-                else
-                {
-                    TArrays2[i][pos] = TArrays2[i][pos];
-                }
-            }
-        }
+        try {
+            TArrays = ReadBands(inputDSs, 1);
+            SHArrays = ReadBands(inputDSs, 2);
+            PArrays = ReadBands(inputDSs, 3);
 
 
-        for(int pos = 0; pos < length; pos++)
-        {
-            for (int i = 0; i < size; i++) {
-                if(PArrays[i][pos] != 9999.0 && TArrays2[i][pos] != 9999.0 && SHArrays[i][pos] != 9999.0) {
-                    RHArray[i][pos] =0.263 * PArrays[i][pos] * SHArrays[i][pos]
-                            * (1 / (Math.exp((17.67 * (TArrays2[i][pos] - 273.15)) / (TArrays2[i][pos] - 29.75))));
-                }
-                else
-                {
-                    RHArray[i][pos] = 9999.0;
-                }
-            }
-        }
-
-        if(prefix.equalsIgnoreCase("Max_Heat_Index") | prefix.equalsIgnoreCase("Mean_Heat_Index"))
-        {
             for(int pos = 0; pos < length; pos++)
             {
                 for (int i = 0; i < size; i++) {
-                    if(RHArray[i][pos] != 9999.0) {
-                        RHArray[i][pos] = RHArray[i][pos] / 100;
+                    if(TArrays2[i][pos] != 9999.0) {
+                        TArrays2[i][pos] = TArrays2[i][pos] + 273.15;
                     }
                     else
                     {
-                        RHArray[i][pos] = RHArray[i][pos];
+                        TArrays2[i][pos] = TArrays2[i][pos];
                     }
                 }
             }
 
+
             for(int pos = 0; pos < length; pos++)
             {
                 for (int i = 0; i < size; i++) {
-                    if(RHArray[i][pos] != 9999.0 && TArrays[i][pos] != 9999.0 && TArrays[i][pos] > 20) {
-                        HIArray[i][pos] = -8.784695 + 1.61139411 * TArrays[i][pos] + 2.338549 * RHArray[i][pos]
-                                - 0.14611605 * TArrays[i][pos] * RHArray[i][pos] - 0.012308094 * (TArrays[i][pos] * TArrays[i][pos])
-                                - 0.016424828 * (RHArray[i][pos] * RHArray[i][pos]) + 0.002211732 * (TArrays[i][pos] * TArrays[i][pos])
-                                * RHArray[i][pos] + 0.00072546 * TArrays[i][pos] * (RHArray[i][pos] * RHArray[i][pos]) - 0.000003582
-                                * (TArrays[i][pos] * TArrays[i][pos]) * (RHArray[i][pos] * RHArray[i][pos]);
+                    if(PArrays[i].get(pos) != 9999.0 && TArrays2[i][pos] != 9999.0 && SHArrays[i].get(pos) != 9999.0) {
+                        RHArray[i][pos] =0.263 * PArrays[i].get(pos) * SHArrays[i].get(pos)
+                                * (1 / (Math.exp((17.67 * (TArrays2[i][pos] - 273.15)) / (TArrays2[i][pos] - 29.75))));
                     }
                     else
                     {
-                        HIArray[i][pos] = TArrays[i][pos];
+                        RHArray[i][pos] = 9999.0;
                     }
                 }
             }
-        }
 
+            if(prefix.equalsIgnoreCase("Max_Heat_Index") | prefix.equalsIgnoreCase("Mean_Heat_Index"))
+            {
+                for(int pos = 0; pos < length; pos++)
+                {
+                    for (int i = 0; i < size; i++) {
+                        if(RHArray[i][pos] != 9999.0) {
+                            RHArray[i][pos] = RHArray[i][pos] / 100;
+                        }
+                        else
+                        {
+                            RHArray[i][pos] = RHArray[i][pos];
+                        }
+                    }
+                }
 
-        if(prefix.equalsIgnoreCase("Max_Heat_Index"))
-        {
-            for(int pos = 0; pos < length; pos++)
+                for(int pos = 0; pos < length; pos++)
+                {
+                    for (int i = 0; i < size; i++) {
+                        if(RHArray[i][pos] != 9999.0 && TArrays[i].get(pos) != 9999.0 && TArrays[i].get(pos) > 20) {
+                            HIArray[i][pos] = -8.784695 + 1.61139411 * TArrays[i].get(pos) + 2.338549 * RHArray[i][pos]
+                                    - 0.14611605 * TArrays[i].get(pos) * RHArray[i][pos] - 0.012308094 * (TArrays[i].get(pos) * TArrays[i].get(pos))
+                                    - 0.016424828 * (RHArray[i][pos] * RHArray[i][pos]) + 0.002211732 * (TArrays[i].get(pos) * TArrays[i].get(pos))
+                                    * RHArray[i][pos] + 0.00072546 * TArrays[i].get(pos) * (RHArray[i][pos] * RHArray[i][pos]) - 0.000003582
+                                    * (TArrays[i].get(pos) * TArrays[i].get(pos)) * (RHArray[i][pos] * RHArray[i][pos]);
+                        }
+                        else
+                        {
+                            HIArray[i][pos] = TArrays[i].get(pos);
+                        }
+                    }
+                }
+            }
+
+
+            if(prefix.equalsIgnoreCase("Max_Heat_Index"))
             {
-                double maxVal = HIArray[0][pos];
-                for (int i = 0; i < size; i++) {
-                    if(HIArray[i][pos] != 9999.0 && HIArray[i][pos] > maxVal) {
-                        maxVal = HIArray[i][pos];
+                for(int pos = 0; pos < length; pos++)
+                {
+                    double maxVal = HIArray[0][pos];
+                    for (int i = 0; i < size; i++) {
+                        if(HIArray[i][pos] != 9999.0 && HIArray[i][pos] > maxVal) {
+                            maxVal = HIArray[i][pos];
+                        }
                     }
+                    outputArray[pos] = maxVal;
                 }
-                outputArray[pos] = maxVal;
             }
-        }
-        else if(prefix.equalsIgnoreCase("Mean_Heat_Index"))
-        {
-            for(int pos = 0; pos < length; pos++)
+            else if(prefix.equalsIgnoreCase("Mean_Heat_Index"))
             {
-                sum = 0.0;
-                for (int i = 0; i < size; i++) {
-                    if(HIArray[i][pos] != 9999.0) {
+                for(int pos = 0; pos < length; pos++)
+                {
+                    sum = 0.0;
+                    for (int i = 0; i < size; i++) {
+                        if(HIArray[i][pos] != 9999.0) {
 
-                        outputArray[pos] = sum + (HIArray[i][pos] /size);
-                        sum = outputArray[pos];
+                            outputArray[pos] = sum + (HIArray[i][pos] /size);
+                            sum = outputArray[pos];
+                        }
                     }
                 }
-            }
 
-        }
-        else
-        {
-            for(int pos = 0; pos < length; pos++)
+            }
+            else
             {
-                sum = 0.0;
-                for (int i = 0; i < size; i++) {
-                    if(RHArray[i][pos] != 9999.0) {
+                for(int pos = 0; pos < length; pos++)
+                {
+                    sum = 0.0;
+                    for (int i = 0; i < size; i++) {
+                        if(RHArray[i][pos] != 9999.0) {
 
-                        outputArray[pos] = sum + (RHArray[i][pos] /size);
-                        sum = outputArray[pos];
+                            outputArray[pos] = sum + (RHArray[i][pos] /size);
+                            sum = outputArray[pos];
+                        }
                     }
                 }
             }
+        } finally {
+            ReleaseBands(TArrays);
+            ReleaseBands(SHArrays);
+            ReleaseBands(PArrays);
         }
 
-
         return outputArray;
     }
 
-    private double[] FindWindspeed(List<Dataset> inputDSs, int rasterX, int rasterY, String prefix)
+    private double[] FindWindspeed(List<Dataset> inputDSs, int rasterX, int rasterY, String prefix) throws IOException
     {
         int size = inputDSs.size();
-        double[][] UArrays = new double[size][rasterX * rasterY];
-        double[][] VArrays = new double[size][rasterX * rasterY];
         double[][] calcArray = new double[size][rasterX * rasterY];
         double[] outputArray = new double[rasterX * rasterY];
         int length = outputArray.length;
@@ -484,57 +507,89 @@ public class NldasForcingComposite extends Composite
 
         Arrays.fill(outputArray, 9999.0);
 
-        for(int index = 0; index < size; index++) {
-            inputDSs.get(index).GetRasterBand(4).ReadRaster(0, 0, rasterX, rasterY, UArrays[index]);
-            inputDSs.get(index).GetRasterBand(5).ReadRaster(0, 0, rasterX, rasterY, VArrays[index]);
-        }
+        RasterBuffer[] UArrays = null;
+        RasterBuffer[] VArrays = null;
 
-        for(int pos = 0; pos < length; pos++)
-        {
-            for (int i = 0; i < size; i++) {
-                if(UArrays[i][pos] != 9999.0 && VArrays[i][pos] != 9999.0) {
-                    calcArray[i][pos] = Math.sqrt((UArrays[i][pos] * UArrays[i][pos]) + (VArrays[i][pos] * VArrays[i][pos]));
-                }
-                else
-                {
-                    calcArray[i][pos] = 9999.0;
-                }
-            }
-        }
+        try {
+            UArrays = ReadBands(inputDSs, 4);
+            VArrays = ReadBands(inputDSs, 5);
 
-        if(prefix.equalsIgnoreCase("Max_Windspeed"))
-        {
             for(int pos = 0; pos < length; pos++)
             {
-                double maxVal = calcArray[0][pos];
                 for (int i = 0; i < size; i++) {
-                    if(calcArray[i][pos] != 9999.0 && calcArray[i][pos] > maxVal) {
-                        maxVal = calcArray[i][pos];
+                    if(UArrays[i].get(pos) != 9999.0 && VArrays[i].get(pos) != 9999.0) {
+                        calcArray[i][pos] = Math.sqrt((UArrays[i].get(pos) * UArrays[i].get(pos)) + (VArrays[i].get(pos) * VArrays[i].get(pos)));
+                    }
+                    else
+                    {
+                        calcArray[i][pos] = 9999.0;
                     }
                 }
-                outputArray[pos] = maxVal;
             }
-        }
-        else
-        {
-            for(int pos = 0; pos < length; pos++)
+
+            if(prefix.equalsIgnoreCase("Max_Windspeed"))
             {
-                sum = 0.0;
+                for(int pos = 0; pos < length; pos++)
+                {
+                    double maxVal = calcArray[0][pos];
+                    for (int i = 0; i < size; i++) {
+                        if(calcArray[i][pos] != 9999.0 && calcArray[i][pos] > maxVal) {
+                            maxVal = calcArray[i][pos];
+                        }
+                    }
+                    outputArray[pos] = maxVal;
+                }
+            }
+            else
+            {
+                for(int pos = 0; pos < length; pos++)
+                {
+                    sum = 0.0;
 
-                for (int i = 0; i < size; i++) {
-                    if(calcArray[i][pos] != 9999.0) {
+                    for (int i = 0; i < size; i++) {
+                        if(calcArray[i][pos] != 9999.0) {
 
-                        outputArray[pos] = sum + (calcArray[i][pos] /size);
-                        sum = outputArray[pos];
+                            outputArray[pos] = sum + (calcArray[i][pos] /size);
+                            sum = outputArray[pos];
+                        }
                     }
                 }
             }
+        } finally {
+            ReleaseBands(UArrays);
+            ReleaseBands(VArrays);
         }
 
-
         return outputArray;
     }
 
+    // Reads the same band of every input in its native type (Float32) into pooled buffers instead of new double arrays
+    private RasterBuffer[] ReadBands(List<Dataset> inputDSs, int band) throws IOException
+    {
+        RasterBuffer[] buffers = new RasterBuffer[inputDSs.size()];
+        try {
+            for(int index = 0; index < buffers.length; index++) {
+                buffers[index] = RasterBuffer.readBand(inputDSs.get(index).GetRasterBand(band));
+            }
+        } catch (IOException e) {
+            ReleaseBands(buffers);
+            throw e;
+        }
+        return buffers;
+    }
+
+    private void ReleaseBands(RasterBuffer[] buffers)
+    {
+        if(buffers == null) {
+            return;
+        }
+        for(RasterBuffer buffer : buffers) {
+            if(buffer != null) {
+                buffer.release();
+            }
+        }
+    }
+
     private double[] GetCumulativeHeatingDegreeDays(double[] meanValues, String prefix)
     {
         int length = meanValues.length;
@@ -728,14 +783,17 @@ public class NldasForcingComposite extends Composite
         }
 
         if(yesterdayFile != null) {
-            Dataset ds = gdal.Open(yesterdayFile.getPath());
-            int rasterX = ds.GetRasterXSize();
-            int rasterY = ds.GetRasterYSize();
+            try (GdalContext gdalContext = GdalContext.open()) {
+                Dataset ds = gdalContext.open(yesterdayFile.getPath());
+                int rasterX = ds.GetRasterXSize();
+                int rasterY = ds.GetRasterYSize();
 
-            cumulative = new double[rasterX * rasterY];
-            ds.GetRasterBand(1).ReadRaster(0, 0, rasterX, rasterY, cumulative);
+                cumulative = new double[rasterX * rasterY];
+                ds.GetRasterBand(1).ReadRaster(0, 0, rasterX, rasterY, cumulative);
+                ds.delete();
+            }
         }
 
         return cumulative;
     }
-}
+}
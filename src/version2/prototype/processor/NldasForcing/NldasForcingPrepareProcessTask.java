@@ -38,17 +38,11 @@ public class NldasForcingPrepareProcessTask extends PrepareProcessTask {
                     "Composite", date.getYear(), date.getDayOfYear()));
             break;
         case 3:
-            // Reproject -> Mask
+            // Reproject -> ClipMask
             folders.add(String.format("%s%s" + File.separator + "%04d" + File.separator+"%03d",
                     FileSystem.GetProcessWorkerTempDirectoryPath(project.GetWorkingDir(), project.GetProjectName(), pPlugin.GetName(), ProcessName.PROCESSOR),
                     "Reproject", date.getYear(), date.getDayOfYear()));
             break;
-        case 4:
-            // Mask -> Clip
-            folders.add(String.format("%s%s" + File.separator + "%04d" + File.separator+"%03d",
-                    FileSystem.GetProcessWorkerTempDirectoryPath(project.GetWorkingDir(), project.GetProjectName(), pPlugin.GetName(), ProcessName.PROCESSOR),
-                    "Mask", date.getYear(), date.getDayOfYear()));
-            break;
         default:
             folders = null;
             break;
@@ -76,13 +70,7 @@ public class NldasForcingPrepareProcessTask extends PrepareProcessTask {
                     "Reproject", date.getYear(), date.getDayOfYear());
             break;
         case 3:
-            // Reproject -> Mask
-            outputFolder = String.format("%s%s" + File.separator + "%04d" + File.separator+"%03d",
-                    FileSystem.GetProcessWorkerTempDirectoryPath(project.GetWorkingDir(), project.GetProjectName(), pPlugin.GetName(), ProcessName.PROCESSOR),
-                    "Mask", date.getYear(), date.getDayOfYear());
-            break;
-        case 4:
-            // Mask -> Clip
+            // Reproject -> ClipMask (masking and clipping in one pass)
             outputFolder = String.format("%s%04d" + File.separator+"%03d",
                     FileSystem.GetProcessOutputDirectoryPath(project.GetWorkingDir(), project.GetProjectName(), pPlugin.GetName(), ProcessName.PROCESSOR),
                     date.getYear(), date.getDayOfYear());
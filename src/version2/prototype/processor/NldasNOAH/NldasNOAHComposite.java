@@ -6,14 +6,14 @@ import java.util.ArrayList;
 import java.util.Hashtable;
 
 import org.gdal.gdal.Dataset;
-import org.gdal.gdal.gdal;
 import org.gdal.gdalconst.gdalconstConstants;
 
 import version2.prototype.Config;
 import version2.prototype.ErrorLog;
 import version2.prototype.processor.Composite;
 import version2.prototype.processor.ProcessData;
-import version2.prototype.util.GdalUtils;
+import version2.prototype.util.GdalContext;
+import version2.prototype.util.GeoTiffProfile;
 
 public class NldasNOAHComposite extends Composite{
 
@@ -32,15 +32,13 @@ public class NldasNOAHComposite extends Composite{
     public void composeFiles() {
         // TODO Auto-generated method stub
 
-        GdalUtils.register();
-
-        synchronized(GdalUtils.lockObject)
+        try (GdalContext gdalContext = GdalContext.open())
         {
             // open file
             // read 10 bands and add to corresponding temp file
             // close file
 
-            Dataset initialize = gdal.Open(inputFiles[0].getPath());
+            Dataset initialize = gdalContext.open(inputFiles[0].getPath());
             int xSize = initialize.GetRasterXSize();
             int ySize = initialize.GetRasterYSize();
             initialize.delete();
@@ -48,7 +46,7 @@ public class NldasNOAHComposite extends Composite{
             ArrayList<double[]> tempArray = new ArrayList<double[]>();
 
             // add for geotransformation and projection
-            Dataset iDS = gdal.Open(inputFiles[0].getPath());
+            Dataset iDS = gdalContext.open(inputFiles[0].getPath());
             double [] geoTrans = iDS.GetGeoTransform();
             String projection = iDS.GetProjection();
             Hashtable inputMetaData = iDS.GetMetadata_Dict();
@@ -58,10 +56,11 @@ public class NldasNOAHComposite extends Composite{
             {
                 tempArray.add(new double[xSize*ySize]);
             }
+            GeoTiffProfile profile = GeoTiffProfile.forStage(GeoTiffProfile.Stage.PROCESSOR);
 
             for(File input: inputFiles)
             {
-                Dataset inputDS = gdal.Open(input.getPath());
+                Dataset inputDS = gdalContext.open(input.getPath());
                 double[] inputArray = new double[xSize*ySize];
                 int k = 0;
 
@@ -93,7 +92,7 @@ public class NldasNOAHComposite extends Composite{
                     ErrorLog.add(Config.getInstance(), "NldasNOAHComposite.composeFiles error while creating new file.", e);
                 }
 
-                Dataset outputDS = gdal.GetDriverByName("GTiff").Create(outputFile.getAbsolutePath(),
+                Dataset outputDS = profile.create(outputFile.getAbsolutePath(),
                         xSize, ySize, 1, gdalconstConstants.GDT_Float32);
 
                 outputDS.SetGeoTransform(geoTrans);
@@ -103,7 +102,7 @@ public class NldasNOAHComposite extends Composite{
                 outputDS.GetRasterBand(1).SetNoDataValue(noDataValue);
                 outputDS.GetRasterBand(1).ComputeStatistics(true);
 
-                outputDS.delete();
+                profile.finish(outputDS);
             }
 
         }
@@ -15,7 +15,6 @@ import java.util.Map.Entry;
 
 import javax.xml.parsers.ParserConfigurationException;
 
-import org.apache.commons.io.FileUtils;
 import org.xml.sax.SAXException;
 
 import version2.prototype.Config;
@@ -34,7 +33,9 @@ import version2.prototype.util.DatabaseCache;
 import version2.prototype.util.DatabaseConnection;
 import version2.prototype.util.DatabaseConnector;
 import version2.prototype.util.DownloadFileMetaData;
+import version2.prototype.util.FileHandOff;
 import version2.prototype.util.FileSystem;
+import version2.prototype.util.ReprojectionTable;
 import version2.prototype.util.Schemas;
 
 
@@ -140,136 +141,183 @@ public class ProcessorWorker extends ProcessWorker {
 
             String laststepOutputFolder = null;
 
-            // process the files for that date
+            // Intermediate step outputs are kept in memory when they fit. Find the last step reading each folder so it can be freed then.
+            IntermediateStorage storage = new IntermediateStorage(configInstance, projectInfoFile.GetProjectName() + "_" + pluginName + "_" + thisDay.getYear() + "_"
+                    + thisDay.getDayOfYear());
             String outputPath = String.format("%s"+ "%04d" + File.separator+"%03d",
                     outputFolder, thisDay.getYear(), thisDay.getDayOfYear());
-            for (Entry<Integer, String> step : processStep.entrySet())
-            {
-                Integer key = step.getKey();
-
-                Class<?> classProcess = null;
-                try {
-                    classProcess = Class.forName("version2.prototype.processor." + pluginName + "." + step.getValue());
-                    System.out.println(step.getValue());
-                } catch (ClassNotFoundException e) {
-                    ErrorLog.add(process, "Problem with reflection of classProcess '" + "version2.prototype.processor." + pluginName + "." + step.getValue() + "'.", e);
-                } catch (Exception e) {
-                    ErrorLog.add(process, "Problem with reflection of classProcess '" + "version2.prototype.processor." + pluginName + "." + step.getValue() + "'.", e);
-                }
-
-                Constructor<?> cnstProcess = null;
-                try {
-                    cnstProcess = classProcess.getConstructor(ProcessData.class, Boolean.class);
-                } catch (NoSuchMethodException | SecurityException e) {
-                    ErrorLog.add(process, "Problem with reflection of classProcess.", e);
-                } catch (Exception e) {
-                    ErrorLog.add(process, "Problem with reflection of classProcess.", e);
+            try {
+                Integer lastKey = null;
+                Map<String, Integer> lastUse = new HashMap<String, Integer>();
+                for (Integer key : processStep.keySet())
+                {
+                    if (lastKey == null || key > lastKey) {
+                        lastKey = key;
+                    }
+                    for (String folder : prepareTask.getInputFolders(key)) {
+                        Integer use = lastUse.get(folder);
+                        if (use == null || key > use) {
+                            lastUse.put(folder, key);
+                        }
+                    }
                 }
 
-                //copy the downloaded files to the input folders
-                if (key == 1)
+                // process the files for that date
+                for (Entry<Integer, String> step : processStep.entrySet())
                 {
-                    String [] inputFolders = prepareTask.getInputFolders(key);
+                    Integer key = step.getKey();
+
+                    Class<?> classProcess = null;
+                    try {
+                        classProcess = Class.forName("version2.prototype.processor." + pluginName + "." + step.getValue());
+                    } catch (ClassNotFoundException e) {
+                        ErrorLog.add(process, "Problem with reflection of classProcess '" + "version2.prototype.processor." + pluginName + "." + step.getValue() + "'.", e);
+                    } catch (Exception e) {
+                        ErrorLog.add(process, "Problem with reflection of classProcess '" + "version2.prototype.processor." + pluginName + "." + step.getValue() + "'.", e);
+                    }
 
-                    File dataInputFolder = new File(inputFolders[0]);
-                    File qcInputFolder = null;
-                    if (inputFolders.length > 1)    // it has a qc folder
-                    {
-                        qcInputFolder =  new File(inputFolders[1]);
+                    Constructor<?> cnstProcess = null;
+                    try {
+                        cnstProcess = classProcess.getConstructor(ProcessData.class, Boolean.class);
+                    } catch (NoSuchMethodException | SecurityException e) {
+                        ErrorLog.add(process, "Problem with reflection of classProcess.", e);
+                    } catch (Exception e) {
+                        ErrorLog.add(process, "Problem with reflection of classProcess.", e);
                     }
 
-                    for (DownloadFileMetaData dFile : entry.getValue())
+                    //copy the downloaded files to the input folders
+                    if (key == 1)
                     {
-                        //System.out.println("processorWorker: " + dFile.dataFilePath);
-                        if (dFile.dataName.equalsIgnoreCase("data"))
+                        String [] inputFolders = prepareTask.getInputFolders(key);
+
+                        File dataInputFolder = new File(inputFolders[0]);
+                        File qcInputFolder = null;
+                        if (inputFolders.length > 1)    // it has a qc folder
                         {
-                            try {
-                                FileUtils.copyFileToDirectory(new File(dFile.dataFilePath), dataInputFolder);
-                            } catch (IOException e) {
-                                ErrorLog.add(process, "Problem with copying of downloaded data.", e);
-                            } catch (Exception e) {
-                                ErrorLog.add(process, "Problem with copying of downloaded data.", e);
-                            }
+                            qcInputFolder =  new File(inputFolders[1]);
                         }
 
-                        if (dFile.dataName.equalsIgnoreCase("QC"))
+                        for (DownloadFileMetaData dFile : entry.getValue())
                         {
-                            try {
-                                FileUtils.copyFileToDirectory(new File(dFile.dataFilePath), qcInputFolder);
-                            } catch (IOException e) {
-                                ErrorLog.add(process, "Problem with copying of downloaded QC.", e);
-                            } catch (Exception e) {
-                                ErrorLog.add(process, "Problem with copying of downloaded QC.", e);
+                            //System.out.println("processorWorker: " + dFile.dataFilePath);
+                            if (dFile.dataName.equalsIgnoreCase("data"))
+                            {
+                                try {
+                                    // the download cache outlives the step folders, so a symbolic link is fine where a hard link isn't possible
+                                    FileHandOff.linkToDirectory(new File(dFile.dataFilePath), dataInputFolder, true);
+                                } catch (IOException e) {
+                                    ErrorLog.add(process, "Problem with copying of downloaded data.", e);
+                                } catch (Exception e) {
+                                    ErrorLog.add(process, "Problem with copying of downloaded data.", e);
+                                }
                             }
-                        }
 
+                            if (dFile.dataName.equalsIgnoreCase("QC"))
+                            {
+                                try {
+                                    FileHandOff.linkToDirectory(new File(dFile.dataFilePath), qcInputFolder, true);
+                                } catch (IOException e) {
+                                    ErrorLog.add(process, "Problem with copying of downloaded QC.", e);
+                                } catch (Exception e) {
+                                    ErrorLog.add(process, "Problem with copying of downloaded QC.", e);
+                                }
+                            }
+
+                        }
                     }
-                }
 
-                laststepOutputFolder = prepareTask.getOutputFolder(key);
+                    String [] diskInputFolders = prepareTask.getInputFolders(key);
+                    String diskOutputFolder = prepareTask.getOutputFolder(key);
+                    // only the last step and the processor output folder are always on disk
+                    if (!key.equals(lastKey) && !outputPath.equals(diskOutputFolder) && lastUse.containsKey(diskOutputFolder))
+                    {
+                        storage.place(diskOutputFolder, storage.sizeOf(diskInputFolders));
+                    }
+                    laststepOutputFolder = storage.getFolder(diskOutputFolder);
+
+                    Object process = null;
+                    try {
+                        ProcessData pData = new ProcessData(
+                                storage.getFolders(diskInputFolders),
+                                storage.getFolder(diskOutputFolder),
+                                prepareTask.getDataDate(),
+                                prepareTask.getQC(),
+                                prepareTask.getShapeFile(),
+                                prepareTask.getMaskFile(),
+                                prepareTask.getDataBands(),
+                                prepareTask.getQCBands(),
+                                prepareTask.getProjection(),
+                                prepareTask.getMaskResolution(),
+                                prepareTask.getDataResolution(),
+                                prepareTask.getClipOrNot(),
+                                prepareTask.getFreezingDate(),
+                                prepareTask.getHeatingDate(),
+                                prepareTask.getFreezingDegree(),
+                                prepareTask.getHeatingDegree(),
+                                pluginMetaData.NoDataValue
+                                );
+                        process = cnstProcess.newInstance(pData, this.process.GetClearIntermediateFilesFlag());
+                    } catch (InstantiationException | IllegalAccessException | IllegalArgumentException | InvocationTargetException e) {
+                        ErrorLog.add(this.process, "Problem with cnstProcess instantion.", (e.getCause() != null ? e.getCause() : e));
+                    } catch (Exception e) {
+                        ErrorLog.add(this.process, "Problem with cnstProcess instantion.", (e.getCause() != null ? e.getCause() : e));
+                    }
 
-                Object process = null;
-                try {
-                    ProcessData pData = new ProcessData(
-                            prepareTask.getInputFolders(key),
-                            prepareTask.getOutputFolder(key),
-                            prepareTask.getDataDate(),
-                            prepareTask.getQC(),
-                            prepareTask.getShapeFile(),
-                            prepareTask.getMaskFile(),
-                            prepareTask.getDataBands(),
-                            prepareTask.getQCBands(),
-                            prepareTask.getProjection(),
-                            prepareTask.getMaskResolution(),
-                            prepareTask.getDataResolution(),
-                            prepareTask.getClipOrNot(),
-                            prepareTask.getFreezingDate(),
-                            prepareTask.getHeatingDate(),
-                            prepareTask.getFreezingDegree(),
-                            prepareTask.getHeatingDegree(),
-                            pluginMetaData.NoDataValue
-                            );
-                    process = cnstProcess.newInstance(pData, this.process.GetClearIntermediateFilesFlag());
-                } catch (InstantiationException | IllegalAccessException | IllegalArgumentException | InvocationTargetException e) {
-                    ErrorLog.add(this.process, "Problem with cnstProcess instantion.", (e.getCause() != null ? e.getCause() : e));
-                } catch (Exception e) {
-                    ErrorLog.add(this.process, "Problem with cnstProcess instantion.", (e.getCause() != null ? e.getCause() : e));
-                }
+                    Method methodProcess;
+                    try {
+                        methodProcess = process.getClass().getMethod("run");
+                        methodProcess.invoke(process);
+                    } catch (NoSuchMethodException | SecurityException | IllegalAccessException | IllegalArgumentException | InvocationTargetException e) {
+                        ErrorLog.add(this.process, "Problem with calling run on Processor step '" + step.getValue() + "' for day " + thisDay + ".", e);
+                    } catch (Exception e) {
+                        ErrorLog.add(this.process, "Problem with calling run on Processor step '" + step.getValue() + "' for day " + thisDay + ".", e);
+                    }
 
-                Method methodProcess;
-                try {
-                    methodProcess = process.getClass().getMethod("run");
-                    methodProcess.invoke(process);
-                } catch (NoSuchMethodException | SecurityException | IllegalAccessException | IllegalArgumentException | InvocationTargetException e) {
-                    ErrorLog.add(this.process, "Problem with calling run on Processor step '" + step.getValue() + "' for day " + thisDay + ".", e);
-                } catch (Exception e) {
-                    ErrorLog.add(this.process, "Problem with calling run on Processor step '" + step.getValue() + "' for day " + thisDay + ".", e);
+                    // free in-memory inputs no later step reads, and move the output to disk if it turned out too large for memory
+                    try {
+                        storage.settle(diskOutputFolder);
+                    } catch (IOException e) {
+                        ErrorLog.add(this.process, "Problem moving intermediate files of step '" + step.getValue() + "' to disk.", e);
+                    }
+                    laststepOutputFolder = storage.getFolder(diskOutputFolder);
+                    for (String folder : diskInputFolders) {
+                        if (key.equals(lastUse.get(folder))) {
+                            storage.release(folder);
+                        }
+                    }
                 }
-            }
 
-            // check if the laststepOutputFolder is the  final outputFolder for the processor
-            // if not match, copy the files from the last step to the final outputfolder for  processor
-            if (!outputPath.equals(laststepOutputFolder))
-            {
-                File outputDir = new File(outputPath);
-                if(!(outputDir.exists()))
+                // check if the laststepOutputFolder is the  final outputFolder for the processor
+                // if not match, copy the files from the last step to the final outputfolder for  processor
+                if (!outputPath.equals(laststepOutputFolder))
                 {
-                    outputDir.mkdirs();
-                }
+                    File outputDir = new File(outputPath);
+                    if(!(outputDir.exists()))
+                    {
+                        outputDir.mkdirs();
+                    }
 
-                // copy the output files to the system output directory
-                if (laststepOutputFolder != null)
-                {
-                    for (File f: new File(laststepOutputFolder).listFiles()) {
-                        try {
-                            FileUtils.copyFileToDirectory(f, outputDir);
-                        } catch (IOException e) {
-                            ErrorLog.add(process, "Copying data to different directory.", e);
-                        } catch (Exception e) {
-                            ErrorLog.add(process, "Copying data to different directory.", e);
+                    // link (or copy) the output files to the system output directory
+                    if (laststepOutputFolder != null)
+                    {
+                        for (File f: new File(laststepOutputFolder).listFiles()) {
+                            try {
+                                FileHandOff.linkToDirectory(f, outputDir, false);
+                            } catch (IOException e) {
+                                ErrorLog.add(process, "Copying data to different directory.", e);
+                            } catch (Exception e) {
+                                ErrorLog.add(process, "Copying data to different directory.", e);
+                            }
                         }
                     }
                 }
+            } finally {
+                // also when a step failed, so the memory folders and their reservation aren't kept for the life of the process
+                try {
+                    storage.close();
+                } catch (IOException e) {
+                    ErrorLog.add(process, "Problem removing in-memory intermediate files.", e);
+                }
             }
 
             // remove the entire temp folder
@@ -317,6 +365,11 @@ public class ProcessorWorker extends ProcessWorker {
             }
         }
 
+        if(configInstance.getLogStatistics()) {
+            System.out.println(processWorkerName + " (" + pluginName + "): " + FileHandOff.getStatistics());
+            System.out.println(processWorkerName + " (" + pluginName + "): " + ClipMaskCache.getStatistics());
+            System.out.println(processWorkerName + " (" + pluginName + "): " + ReprojectionTable.getStatistics());
+        }
         return null;
     }
 
@@ -4,18 +4,16 @@ import org.gdal.gdal.Band;
 import org.gdal.gdal.Dataset;
 import org.gdal.gdal.gdal;
 
-import version2.prototype.util.GdalUtils;
+import version2.prototype.util.GdalContext;
 
 public class ReadTifFile
 {
     public static void main(String args[])
     {
-        GdalUtils.register();
-
-        synchronized (GdalUtils.lockObject)
+        try (GdalContext gdalContext = GdalContext.open())
         {
             String tifFile = "c:\\test\\TRMM\\output.tif";
-            Dataset baseDS= gdal.Open(tifFile);
+            Dataset baseDS= gdalContext.open(tifFile);
 
             Band baseBand = baseDS.GetRasterBand(1);
 
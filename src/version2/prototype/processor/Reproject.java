@@ -2,8 +2,9 @@ package version2.prototype.processor;
 
 import java.io.File;
 import org.apache.commons.io.FileUtils;
-
+
 import version2.prototype.Projection;
+import version2.prototype.util.FileHandOff;
 import version2.prototype.util.GdalUtils;
 
 /* Author: Y. L.
@@ -64,7 +65,12 @@ public abstract class Reproject {
                 if(oF.exists()) {
                     oF.delete();
                 }
-                FileUtils.copyFileToDirectory(f, outputDir);
+                // the input is only passed along, so move it if it is deleted afterwards anyway and link it otherwise
+                if(deleteInputDirectory) {
+                    FileHandOff.moveToDirectory(f, outputDir);
+                } else {
+                    FileHandOff.linkToDirectory(f, outputDir, false);
+                }
             }
         }
         else {
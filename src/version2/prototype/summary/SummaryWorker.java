@@ -2,6 +2,7 @@ package version2.prototype.summary;
 
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
 import java.sql.Connection;
@@ -10,7 +11,9 @@ import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.Objects;
 
 import version2.prototype.Config;
 import version2.prototype.ErrorLog;
@@ -24,16 +27,23 @@ import version2.prototype.ProjectInfoMetaData.ProjectInfoSummary;
 import version2.prototype.Scheduler.ProcessName;
 import version2.prototype.summary.temporal.MergeStrategy;
 import version2.prototype.summary.temporal.TemporalSummaryCalculator;
+import version2.prototype.summary.temporal.TemporalSummaryCompositionStrategy;
 import version2.prototype.summary.temporal.TemporalSummaryRasterFileStore;
+import version2.prototype.summary.zonal.SharedZonalResults;
 import version2.prototype.summary.zonal.SummariesCollection;
+import version2.prototype.summary.zonal.ZonalResultStore;
 import version2.prototype.summary.zonal.ZonalSummaryCalculator;
+import version2.prototype.summary.zonal.ZoneHierarchy;
+import version2.prototype.summary.zonal.ZoneRasterCache;
 import version2.prototype.util.DataFileMetaData;
 import version2.prototype.util.DatabaseCache;
 import version2.prototype.util.DatabaseConnection;
 import version2.prototype.util.DatabaseConnector;
 import version2.prototype.util.FileSystem;
 import version2.prototype.util.IndicesFileMetaData;
+import version2.prototype.util.SchemaIDCache;
 import version2.prototype.util.Schemas;
+import version2.prototype.util.ZonalResultSink;
 
 /**
  * @author michael.devos
@@ -91,8 +101,25 @@ public class SummaryWorker extends ProcessWorker {
             summaryInputMap.put(summary.GetID(), cachedFiles);
         }
 
+        // Summaries rolled up from a finer summary are derived from its results for each date instead of being computed from the rasters
+        Map<Integer, ArrayList<ProjectInfoSummary>> rollUps = new HashMap<Integer, ArrayList<ProjectInfoSummary>>();
+        for(ProjectInfoSummary summary : projectInfoFile.GetSummaries())
+        {
+            ProjectInfoSummary source = getRollUpSource(summary);
+            if(source != null) {
+                if(rollUps.get(source.GetID()) == null) {
+                    rollUps.put(source.GetID(), new ArrayList<ProjectInfoSummary>());
+                }
+                rollUps.get(source.GetID()).add(summary);
+            }
+        }
+
         for(ProjectInfoSummary summary: projectInfoFile.GetSummaries())
         {
+            if(getRollUpSource(summary) != null) {
+                continue;
+            }
+
             try{
                 // Check if doing temporal summarization
                 if(fileStores.get(summary.GetID()) != null && fileStores.get(summary.GetID()).compStrategy.maxNumberOfDaysInComposite() != pluginMetaData.DaysPerInputData)
@@ -135,20 +162,59 @@ public class SummaryWorker extends ProcessWorker {
             }
         }
 
-        File outputFile;
+        ArrayList<SummariesCollection> summariesCollections;
+        Map<Integer, ArrayList<SummariesCollection>> rollUpCollections = new HashMap<Integer, ArrayList<SummariesCollection>>();
+        Map<Integer, ZoneHierarchy> hierarchies = new HashMap<Integer, ZoneHierarchy>();
         for(ProjectInfoSummary summary: projectInfoFile.GetSummaries())
         {
+            if(getRollUpSource(summary) != null) {
+                continue;
+            }
+
+            // Resolve the summary calculations once, every file of this summary reuses them. Each index of a date needs its own collection.
+            summariesCollections = new ArrayList<SummariesCollection>();
+
+            // Share the results with other projects, unless summaries are rolled up from them: those need the calculated collections
+            SharedZonalResults sharedResults = null;
+            if(rollUps.get(summary.GetID()) == null) {
+                TemporalSummaryCompositionStrategy compStrategy = null;
+                if(fileStores.get(summary.GetID()) != null && fileStores.get(summary.GetID()).compStrategy.maxNumberOfDaysInComposite() != pluginMetaData.DaysPerInputData) {
+                    compStrategy = fileStores.get(summary.GetID()).compStrategy;
+                }
+                try {
+                    sharedResults = SharedZonalResults.forSummary(configInstance, projectInfoFile, pluginInfo, summary, pluginMetaData, compStrategy);
+                } catch (IOException e) {
+                    ErrorLog.add(process, "Problem setting up shared zonal summary results for summary " + summary.toString() + ", summarizing every date.", e);
+                }
+            }
+
+            // The index files of one date are summarized together in one pass over the zones
+            LinkedHashMap<String, ArrayList<IndicesFileMetaData>> dateGroups = new LinkedHashMap<String, ArrayList<IndicesFileMetaData>>();
             for(DataFileMetaData cachedFile : summaryInputMap.get(summary.GetID()))
+            {
+                cachedFileData = cachedFile.ReadMetaDataForSummary();
+                String date = String.format("%04d%03d", cachedFileData.year, cachedFileData.day);
+                if(dateGroups.get(date) == null) {
+                    dateGroups.put(date, new ArrayList<IndicesFileMetaData>());
+                }
+                dateGroups.get(date).add(cachedFileData);
+            }
+
+            for(ArrayList<IndicesFileMetaData> dateGroup : dateGroups.values())
             {
                 if(Thread.currentThread().isInterrupted()) {
                     con.close();
                     return null;
                 }
 
-                cachedFileData = cachedFile.ReadMetaDataForSummary();
+                cachedFileData = dateGroup.get(0);
                 try{
-                    outputFile = new File(FileSystem.GetProcessOutputDirectoryPath(projectInfoFile.GetWorkingDir(), projectInfoFile.GetProjectName(),
-                            pluginInfo.GetName(), ProcessName.SUMMARY) + String.format("%s/%s/%04d/%03d.csv", cachedFileData.indexNm, "Summary " + summary.GetID(), cachedFileData.year, cachedFileData.day));
+                    while(summariesCollections.size() < dateGroup.size()) {
+                        summariesCollections.add(new SummariesCollection(Config.getInstance().getSummaryCalculations()));
+                    }
+
+                    SummariesCollection[] groupCollections = summariesCollections.subList(0, dateGroup.size()).toArray(new SummariesCollection[dateGroup.size()]);
+                    File[] groupOutputFiles = getOutputFiles(summary, dateGroup);
                     ZonalSummaryCalculator zonalSummaryCal = new ZonalSummaryCalculator(
                             con,
                             process,
@@ -157,14 +223,15 @@ public class SummaryWorker extends ProcessWorker {
                             projectInfoFile.GetProjectName(),       // projectName
                             pluginInfo.GetName(),                   // pluginName
                             pluginMetaData.DaysPerInputData,        // daysPerInputData
-                            cachedFileData,                         // inputFile
-                            outputFile,                             // outTableFile
-                            new SummariesCollection(Config.getInstance().getSummaryCalculations()),     // summariesCollection
+                            dateGroup.toArray(new IndicesFileMetaData[dateGroup.size()]),                       // inputFiles
+                            groupOutputFiles,                       // outTableFiles
+                            groupCollections,                       // summariesCollections
                             summary,
                             pluginMetaData.NoDataValue,
                             fileStores.get(summary.GetID()),        // fileStore
-                            outputCache);
-                    zonalSummaryCal.calculate();
+                            outputCache,
+                            sharedResults);
+                    ArrayList<IndicesFileMetaData> summarized = zonalSummaryCal.calculate();
 
                     if(process.GetClearIntermediateFilesFlag())
                     {
@@ -179,7 +246,9 @@ public class SummaryWorker extends ProcessWorker {
                         }
                     }
 
-                    outputFiles.add(new DataFileMetaData(outputFile.getCanonicalPath(), cachedFileData.dateGroupID, cachedFileData.year, cachedFileData.day, cachedFileData.indexNm));
+                    addOutputFiles(dateGroup, groupOutputFiles, summarized, outputFiles);
+
+                    rollUp(con, summary, dateGroup, groupCollections, rollUps, rollUpCollections, hierarchies, outputFiles);
                 }catch(Exception e) {
                     if(cachedFileData != null) {
                         ErrorLog.add(process, "Problem during zonal summary calculation for summary " + summary.toString() + ", date {day of year=" + cachedFileData.day + ", year=" + cachedFileData.year + "}.", e);
@@ -210,10 +279,133 @@ public class SummaryWorker extends ProcessWorker {
             }
         }
 
+        // Results are only done once committed
+        try {
+            ZonalResultSink.getInstance().flush();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        if(configInstance.getLogStatistics()) {
+            System.out.println(processWorkerName + " (" + pluginInfo.GetName() + "): " + ZoneRasterCache.getStatistics());
+            System.out.println(processWorkerName + " (" + pluginInfo.GetName() + "): " + SchemaIDCache.getStatistics());
+            System.out.println(processWorkerName + " (" + pluginInfo.GetName() + "): " + ZonalResultSink.getStatistics());
+            System.out.println(processWorkerName + " (" + pluginInfo.GetName() + "): " + SharedZonalResults.getStatistics());
+        }
         con.close();
         return new ProcessWorkerReturn(outputFiles);
     }
 
+    /**
+     * Gets the summary a summary is rolled up from, if it's rolled up and can be. A summary can only be rolled up from another summary of the
+     * project with the same temporal summary, so both summarize the same rasters, and not in a cycle.
+     *
+     * @param summary
+     * @return the finer summary to roll the given summary up from, or null if the given summary is computed from the rasters
+     */
+    private ProjectInfoSummary getRollUpSource(ProjectInfoSummary summary) {
+        ProjectInfoSummary source = findRollUpSource(summary);
+
+        // Follow the chain up to a summary computed from the rasters, summaries in a cycle have none
+        ProjectInfoSummary ancestor = source;
+        for(int i=0; ancestor != null; i++) {
+            if(ancestor == summary || i > projectInfoFile.GetSummaries().size()) {
+                return null;
+            }
+            ancestor = findRollUpSource(ancestor);
+        }
+        return source;
+    }
+
+    private ProjectInfoSummary findRollUpSource(ProjectInfoSummary summary) {
+        if(summary.GetRollUpFromSummaryID() == null) {
+            return null;
+        }
+        for(ProjectInfoSummary other : projectInfoFile.GetSummaries()) {
+            if(other.GetID() == summary.GetRollUpFromSummaryID() && other.GetID() != summary.GetID()
+                    && Objects.equals(other.GetTemporalSummaryCompositionStrategyClassName(), summary.GetTemporalSummaryCompositionStrategyClassName())) {
+                return other;
+            }
+        }
+        return null;
+    }
+
+    // Derives the results of the summaries rolled up from the given one for a date, and of those rolled up from them in turn
+    private void rollUp(DatabaseConnection con, ProjectInfoSummary source, ArrayList<IndicesFileMetaData> dateGroup, SummariesCollection[] sourceCollections,
+            Map<Integer, ArrayList<ProjectInfoSummary>> rollUps, Map<Integer, ArrayList<SummariesCollection>> rollUpCollections, Map<Integer, ZoneHierarchy> hierarchies,
+            ArrayList<DataFileMetaData> outputFiles)
+    {
+        if(rollUps.get(source.GetID()) == null) {
+            return;
+        }
+
+        IndicesFileMetaData cachedFileData = dateGroup.get(0);
+        for(ProjectInfoSummary summary : rollUps.get(source.GetID()))
+        {
+            try{
+                ZoneHierarchy hierarchy = hierarchies.get(summary.GetID());
+                if(hierarchy == null) {
+                    hierarchy = ZoneHierarchy.read(source.GetZonalSummary().GetShapeFile(), source.GetZonalSummary().GetAreaCodeField(), summary.GetParentCodeField());
+                    hierarchies.put(summary.GetID(), hierarchy);
+                }
+
+                if(rollUpCollections.get(summary.GetID()) == null) {
+                    rollUpCollections.put(summary.GetID(), new ArrayList<SummariesCollection>());
+                }
+                ArrayList<SummariesCollection> summariesCollections = rollUpCollections.get(summary.GetID());
+                while(summariesCollections.size() < dateGroup.size()) {
+                    summariesCollections.add(new SummariesCollection(Config.getInstance().getSummaryCalculations()));
+                }
+                SummariesCollection[] groupCollections = summariesCollections.subList(0, dateGroup.size()).toArray(new SummariesCollection[dateGroup.size()]);
+
+                File[] groupOutputFiles = getOutputFiles(summary, dateGroup);
+                ZonalSummaryCalculator zonalSummaryCal = new ZonalSummaryCalculator(
+                        con,
+                        process,
+                        configInstance.getGlobalSchema(),
+                        projectInfoFile.GetWorkingDir(),
+                        projectInfoFile.GetProjectName(),       // projectName
+                        pluginInfo.GetName(),                   // pluginName
+                        pluginMetaData.DaysPerInputData,        // daysPerInputData
+                        dateGroup.toArray(new IndicesFileMetaData[dateGroup.size()]),                       // inputFiles
+                        groupOutputFiles,                       // outTableFiles
+                        groupCollections,                       // summariesCollections
+                        summary,
+                        pluginMetaData.NoDataValue,
+                        fileStores.get(summary.GetID()),        // fileStore
+                        outputCache,
+                        null);
+                ArrayList<IndicesFileMetaData> summarized = zonalSummaryCal.rollUp(sourceCollections, hierarchy);
+                addOutputFiles(dateGroup, groupOutputFiles, summarized, outputFiles);
+
+                rollUp(con, summary, dateGroup, groupCollections, rollUps, rollUpCollections, hierarchies, outputFiles);
+            }catch(Exception e) {
+                ErrorLog.add(process, "Problem during zonal summary roll up for summary " + summary.toString() + ", date {day of year=" + cachedFileData.day + ", year=" + cachedFileData.year + "}.", e);
+            }
+        }
+    }
+
+    private File[] getOutputFiles(ProjectInfoSummary summary, ArrayList<IndicesFileMetaData> dateGroup) {
+        File[] groupOutputFiles = new File[dateGroup.size()];
+        for(int i=0; i < dateGroup.size(); i++) {
+            IndicesFileMetaData indexFile = dateGroup.get(i);
+            groupOutputFiles[i] = new File(FileSystem.GetProcessOutputDirectoryPath(projectInfoFile.GetWorkingDir(), projectInfoFile.GetProjectName(),
+                    pluginInfo.GetName(), ProcessName.SUMMARY) + String.format("%s/%s/%04d", indexFile.indexNm, "Summary " + summary.GetID(), indexFile.year) + ZonalResultStore.FILE_EXTENSION);
+        }
+        return groupOutputFiles;
+    }
+
+    private void addOutputFiles(ArrayList<IndicesFileMetaData> dateGroup, File[] groupOutputFiles, ArrayList<IndicesFileMetaData> summarized, ArrayList<DataFileMetaData> outputFiles)
+            throws IOException
+    {
+        for(int i=0; i < dateGroup.size(); i++) {
+            IndicesFileMetaData indexFile = dateGroup.get(i);
+            if(summarized.contains(indexFile)) {
+                outputFiles.add(new DataFileMetaData(groupOutputFiles[i].getCanonicalPath(), indexFile.dateGroupID, indexFile.year, indexFile.day, indexFile.indexNm));
+            }
+        }
+    }
+
     @Override
     public boolean verifyResults() {
 
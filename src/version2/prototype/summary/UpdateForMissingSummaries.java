@@ -4,6 +4,7 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.FilenameFilter;
+import java.io.IOException;
 import java.io.PrintStream;
 import java.sql.Connection;
 import java.sql.DriverManager;
@@ -15,7 +16,9 @@ import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 
+import version2.prototype.summary.zonal.ZonalResultStore;
 import version2.prototype.util.Schemas;
 
 /**
@@ -281,12 +284,12 @@ public class UpdateForMissingSummaries {
                 //            });
 
                 String summaryRoot = indexRoot + summaryName + "\\";
-                String[] years = new File(summaryRoot).list(new FilenameFilter(){
+                String[] years = getYears(new File(summaryRoot).list(new FilenameFilter(){
                     @Override
                     public boolean accept(File dir, String name) {
-                        return new File(dir, name).isDirectory();
+                        return new File(dir, name).isDirectory() || name.endsWith(ZonalResultStore.FILE_EXTENSION);
                     }
-                });
+                }));
 
                 // Check if any year directories are missing.
                 boolean missing = false;
@@ -353,7 +356,7 @@ public class UpdateForMissingSummaries {
                             continue;
                         }
 
-                        if(!new File(yearRoot + String.format("%03d", validDay) + ".csv").exists())
+                        if(!hasSummary(summaryRoot, year, validDay))
                         {
                             missingDates.addDate(plugin, index, summaryName, Integer.parseInt(year), validDay);
                             fileOfMissingDatesContents.add(projectSchema + ", " + projectName + ", " + plugin + ", " + index + ", " + summaryName + ", " + year + ", " + validDay);
@@ -524,6 +527,38 @@ public class UpdateForMissingSummaries {
         return summariesMissing;
     }
 
+    // Year directories and year ZonalResultStore files of a summary, as years
+    private static String[] getYears(String[] names)
+    {
+        if(names == null) {
+            return null;
+        }
+        LinkedHashSet<String> years = new LinkedHashSet<String>();
+        for(String name : names) {
+            if(name.endsWith(ZonalResultStore.FILE_EXTENSION)) {
+                name = name.substring(0, name.length() - ZonalResultStore.FILE_EXTENSION.length());
+            }
+            years.add(name);
+        }
+        return years.toArray(new String[years.size()]);
+    }
+
+    // Whether the results of a date are in the year's ZonalResultStore, or in a table file written before results were consolidated
+    private static boolean hasSummary(String summaryRoot, String year, int day)
+    {
+        File storeFile = new File(summaryRoot + year + ZonalResultStore.FILE_EXTENSION);
+        if(storeFile.exists()) {
+            try {
+                if(ZonalResultStore.open(storeFile).contains(day)) {
+                    return true;
+                }
+            } catch (IOException e) {
+                System.err.println("ERROR: Failed to read '" + storeFile.getPath() + "': " + e.getMessage());
+            }
+        }
+        return new File(summaryRoot + year + "\\" + String.format("%03d", day) + ".csv").exists();
+    }
+
     public class MissingDates
     {
         private ArrayList<MissingDate> dates;
@@ -0,0 +1,45 @@
+package version2.prototype.summary.temporal;
+
+import java.io.File;
+import java.time.LocalDate;
+
+import version2.prototype.Config;
+import version2.prototype.Process;
+import version2.prototype.ProjectInfoMetaData.ProjectInfoFile;
+import version2.prototype.util.DataFileMetaData;
+import version2.prototype.util.DatabaseConnection;
+
+/**
+ * MergeStrategy that builds a composite as its files arrive instead of reading them all once it's complete. Each file is folded into an
+ * accumulator file kept for the composite, and completing the composite only writes it from the accumulator.
+ */
+public interface IncrementalMergeStrategy extends MergeStrategy {
+    /**
+     * Folds a raster file into a composite's accumulator.
+     *
+     * @param process
+     * @param rasterFile  - raster file to add to the composite
+     * @param accumulatorFile  - the composite's accumulator file
+     * @param first  - true if this is the composite's first file, any existing accumulator file is then replaced
+     * @throws Exception
+     */
+    void Accumulate(Process process, File rasterFile, File accumulatorFile, boolean first) throws Exception;
+
+    /**
+     * Writes a complete composite from its accumulator. Returns metadata about the created raster file.
+     *
+     * @param configInstance
+     * @param con
+     * @param process
+     * @param projectInfo
+     * @param pluginName  - current plugin's name
+     * @param indexNm  - current index name
+     * @param firstDate  - date of first data file in composite
+     * @param accumulatorFile  - the composite's accumulator file, holding all its files
+     * @param outputFilePath  - string path for the merged file
+     * @return metadata about single merged file created
+     * @throws Exception
+     */
+    DataFileMetaData Finish(Config configInstance, DatabaseConnection con, Process process, ProjectInfoFile projectInfo, String pluginName, String indexNm, LocalDate firstDate,
+            File accumulatorFile, String outputFilePath) throws Exception;
+}
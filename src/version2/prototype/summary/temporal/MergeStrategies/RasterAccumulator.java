@@ -0,0 +1,236 @@
+package version2.prototype.summary.temporal.MergeStrategies;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.gdal.gdal.Dataset;
+import org.gdal.gdalconst.gdalconstConstants;
+
+import version2.prototype.util.GdalContext;
+import version2.prototype.util.GdalUtils;
+import version2.prototype.util.GeoTiffProfile;
+
+/**
+ * Running per pixel statistics of the rasters of a temporal composite, kept in an accumulator GeoTIFF so a composite is built up one raster at
+ * a time as the rasters arrive. The accumulator has two double precision bands, the sum of the valid values and their count (SUM_BAND,
+ * COUNT_BAND); pixels without a valid value have a sum and count of 0. The georeferencing and data type of the first raster are kept with it
+ * for the composite written by finish(...).
+ *
+ * Rasters are read and the accumulator updated in place TILE_SIZE lines at a time, so memory use doesn't grow with the raster size and adding a
+ * raster only rewrites the accumulator once. The rasters folded in are recorded in the accumulator's metadata once their lines are flushed, and
+ * so is how far a failed add got, so adding a raster again neither counts it twice nor misses the lines already folded.
+ */
+public final class RasterAccumulator {
+    public static final int SUM_BAND = 1;
+    public static final int COUNT_BAND = 2;
+
+    private static final String DATA_TYPE_KEY = "EASTWEB_DATA_TYPE";
+    // Rasters folded in completely, and the lines already folded of rasters whose add failed, as "<lines>:<path>"
+    private static final String MEMBERS_KEY = "EASTWEB_MEMBERS";
+    private static final String PARTIAL_KEY = "EASTWEB_PARTIAL";
+    private static final String SEPARATOR = "|";
+
+    private RasterAccumulator() {
+    }
+
+    /**
+     * Folds a raster into an accumulator. A raster already folded in is skipped, one whose earlier add failed is folded from where it stopped.
+     *
+     * @param rasterFile  - raster to add, single band
+     * @param accumulatorFile  - accumulator to update
+     * @param first  - true to start the accumulator over with this raster, replacing any existing accumulator file
+     * @param noDataValue  - value of the raster's pixels without data
+     * @throws IOException  if a raster can't be opened, read or written, or the raster's size doesn't match the accumulator's
+     */
+    public static void add(File rasterFile, File accumulatorFile, boolean first, double noDataValue) throws IOException
+    {
+        try (GdalContext gdalContext = GdalContext.open()) {
+            Dataset rasterDs = gdalContext.open(rasterFile.getPath());
+            if(rasterDs == null) {
+                throw new IOException("Can't open raster file : " + rasterFile.getPath());
+            }
+            int xSize = rasterDs.GetRasterXSize();
+            int ySize = rasterDs.GetRasterYSize();
+
+            Dataset accDs;
+            if(first || !accumulatorFile.exists()) {
+                first = true;
+                accumulatorFile.delete();
+                accDs = gdalContext.track(GeoTiffProfile.TILED.create(accumulatorFile.getPath(), xSize, ySize, 2, gdalconstConstants.GDT_Float64));
+                if(accDs == null) {
+                    throw new IOException("Can't create accumulator file : " + accumulatorFile.getPath());
+                }
+                accDs.SetGeoTransform(rasterDs.GetGeoTransform());
+                accDs.SetProjection(rasterDs.GetProjectionRef());
+                accDs.SetMetadataItem(DATA_TYPE_KEY, Integer.toString(rasterDs.GetRasterBand(1).getDataType()));
+            } else {
+                accDs = gdalContext.open(accumulatorFile.getPath(), gdalconstConstants.GA_Update);
+                if(accDs == null) {
+                    throw new IOException("Can't open accumulator file : " + accumulatorFile.getPath());
+                }
+                if(accDs.GetRasterXSize() != xSize || accDs.GetRasterYSize() != ySize) {
+                    throw new IOException("Raster file " + rasterFile.getPath() + " is " + xSize + "x" + ySize + " but its accumulator " + accumulatorFile.getPath() + " is "
+                            + accDs.GetRasterXSize() + "x" + accDs.GetRasterYSize() + ".");
+                }
+            }
+
+            String member = rasterFile.getPath();
+            ArrayList<String> members = split(accDs.GetMetadataItem(MEMBERS_KEY));
+            if(members.contains(member)) {
+                return;
+            }
+            Map<String, Integer> partials = new LinkedHashMap<String, Integer>();
+            for(String partial : split(accDs.GetMetadataItem(PARTIAL_KEY))) {
+                int colon = partial.indexOf(':');
+                partials.put(partial.substring(colon + 1), Integer.parseInt(partial.substring(0, colon)));
+            }
+
+            int blockLines = Math.min(GeoTiffProfile.TILE_SIZE, ySize);
+            double[] values = new double[xSize * blockLines];
+            double[] sum = new double[values.length];
+            double[] count = new double[values.length];
+            int startLine = partials.containsKey(member) ? partials.get(member) : 0;
+            int folded = startLine;
+            try {
+                for(int y0=startLine; y0 < ySize; y0 += blockLines)
+                {
+                    int lines = Math.min(blockLines, ySize - y0);
+                    int length = xSize * lines;
+                    read(rasterDs, 1, y0, xSize, lines, values, rasterFile);
+                    if(first) {
+                        Arrays.fill(sum, 0, length, 0);
+                        Arrays.fill(count, 0, length, 0);
+                    } else {
+                        read(accDs, SUM_BAND, y0, xSize, lines, sum, accumulatorFile);
+                        read(accDs, COUNT_BAND, y0, xSize, lines, count, accumulatorFile);
+                    }
+
+                    for(int index=0; index < length; index++)
+                    {
+                        double value = values[index];
+                        if(value != noDataValue) {
+                            sum[index] += value;
+                            count[index] += 1;
+                        }
+                    }
+
+                    write(accDs, SUM_BAND, y0, xSize, lines, sum, accumulatorFile);
+                    write(accDs, COUNT_BAND, y0, xSize, lines, count, accumulatorFile);
+                    folded = y0 + lines;
+                }
+            } finally {
+                // Record the progress only after the lines it covers are written out
+                accDs.FlushCache();
+                if(folded == ySize) {
+                    members.add(member);
+                    partials.remove(member);
+                } else if(folded > 0) {
+                    partials.put(member, folded);
+                }
+                accDs.SetMetadataItem(MEMBERS_KEY, join(members));
+                ArrayList<String> partialList = new ArrayList<String>(partials.size());
+                for(Map.Entry<String, Integer> partial : partials.entrySet()) {
+                    partialList.add(partial.getValue() + ":" + partial.getKey());
+                }
+                accDs.SetMetadataItem(PARTIAL_KEY, join(partialList));
+                accDs.delete();
+            }
+
+            rasterDs.delete();
+            GdalUtils.errorCheck();
+        }
+    }
+
+    /**
+     * Writes the composite of an accumulator: the average or the sum of the valid values of each pixel. Average pixels without a valid value
+     * are set to the no data value, sum pixels are left at 0 as the full re-read merge did.
+     *
+     * @param accumulatorFile  - the composite's accumulator
+     * @param outputFilePath  - composite raster to write, replaced if it exists
+     * @param average  - true for the average, false for the sum
+     * @param noDataValue  - no data value of the composite
+     * @throws IOException  if the accumulator can't be read or the composite written
+     */
+    public static void finish(File accumulatorFile, String outputFilePath, boolean average, double noDataValue) throws IOException
+    {
+        new File(outputFilePath).delete();
+
+        try (GdalContext gdalContext = GdalContext.open()) {
+            Dataset accDs = gdalContext.open(accumulatorFile.getPath());
+            if(accDs == null) {
+                throw new IOException("Can't open accumulator file : " + accumulatorFile.getPath());
+            }
+            int xSize = accDs.GetRasterXSize();
+            int ySize = accDs.GetRasterYSize();
+            String dataType = accDs.GetMetadataItem(DATA_TYPE_KEY);
+
+            GeoTiffProfile profile = GeoTiffProfile.forStage(GeoTiffProfile.Stage.SUMMARY);
+            Dataset outDs = profile.create(outputFilePath, xSize, ySize, 1, dataType != null ? Integer.parseInt(dataType) : gdalconstConstants.GDT_Float64);
+            if(outDs == null) {
+                throw new IOException("Can't create composite file : " + outputFilePath);
+            }
+            outDs.SetGeoTransform(accDs.GetGeoTransform());
+            outDs.SetProjection(accDs.GetProjectionRef());
+
+            int blockLines = Math.min(GeoTiffProfile.TILE_SIZE, ySize);
+            double[] sum = new double[xSize * blockLines];
+            double[] count = new double[sum.length];
+            for(int y0=0; y0 < ySize; y0 += blockLines)
+            {
+                int lines = Math.min(blockLines, ySize - y0);
+                read(accDs, SUM_BAND, y0, xSize, lines, sum, accumulatorFile);
+                if(average) {
+                    read(accDs, COUNT_BAND, y0, xSize, lines, count, accumulatorFile);
+                    for(int index=0; index < xSize * lines; index++) {
+                        sum[index] = count[index] != 0 ? sum[index] / count[index] : noDataValue;
+                    }
+                }
+                outDs.GetRasterBand(1).WriteRaster(0, y0, xSize, lines, sum);
+            }
+            outDs.GetRasterBand(1).SetNoDataValue(noDataValue);
+
+            accDs.delete();
+            profile.finish(outDs);
+            GdalUtils.errorCheck();
+        }
+    }
+
+    private static ArrayList<String> split(String value)
+    {
+        ArrayList<String> items = new ArrayList<String>();
+        if(value != null && !value.isEmpty()) {
+            items.addAll(Arrays.asList(value.split("\\" + SEPARATOR)));
+        }
+        return items;
+    }
+
+    private static String join(ArrayList<String> items)
+    {
+        StringBuilder value = new StringBuilder();
+        for(String item : items) {
+            if(value.length() > 0) {
+                value.append(SEPARATOR);
+            }
+            value.append(item);
+        }
+        return value.toString();
+    }
+
+    private static void read(Dataset ds, int band, int y0, int xSize, int lines, double[] array, File file) throws IOException
+    {
+        if(ds.GetRasterBand(band).ReadRaster(0, y0, xSize, lines, array) != 0) {
+            throw new IOException("Can't read the Raster band : " + file.getPath());
+        }
+    }
+
+    private static void write(Dataset ds, int band, int y0, int xSize, int lines, double[] array, File file) throws IOException
+    {
+        if(ds.GetRasterBand(band).WriteRaster(0, y0, xSize, lines, array) != 0) {
+            throw new IOException("Can't write the Raster band : " + file.getPath());
+        }
+    }
+}
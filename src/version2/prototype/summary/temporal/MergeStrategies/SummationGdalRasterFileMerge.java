@@ -7,105 +7,62 @@ import java.io.File;
 import java.sql.Statement;
 import java.time.LocalDate;
 
-import org.gdal.gdal.Dataset;
-import org.gdal.gdal.gdal;
-
 import version2.prototype.Config;
-import version2.prototype.ErrorLog;
 import version2.prototype.Process;
 import version2.prototype.ProjectInfoMetaData.ProjectInfoFile;
-import version2.prototype.summary.temporal.MergeStrategy;
+import version2.prototype.summary.temporal.IncrementalMergeStrategy;
 import version2.prototype.util.DataFileMetaData;
 import version2.prototype.util.DatabaseConnection;
 import version2.prototype.util.GdalUtils;
 import version2.prototype.util.Schemas;
 
 /**
+ * Concrete MergeStrategy. Represents a merging based on sums of values in raster files. Files are accumulated as they arrive (see
+ * RasterAccumulator), so completing a composite doesn't read its files again.
+ *
  * @author michael.devos
  *
  */
-public class SummationGdalRasterFileMerge implements MergeStrategy {
+public class SummationGdalRasterFileMerge implements IncrementalMergeStrategy {
 
     @Override
     public DataFileMetaData Merge(Config configInstance, DatabaseConnection con, Process process, ProjectInfoFile projectInfo, String pluginName, String indexNm, LocalDate firstDate, File[] rasterFiles,
             String outputFilePath) throws Exception
     {
-        DataFileMetaData mergedFile = null;
-        GdalUtils.register();
-
-        new File(outputFilePath).delete();
-
-        synchronized (GdalUtils.lockObject) {
-            // Create output copy based on rasterFiles[0]
-            Dataset rasterDs = gdal.Open(rasterFiles[0].getPath());
-            GdalUtils.errorCheck();
-            Dataset sumRasterDs = gdal.GetDriverByName("GTiff").CreateCopy(outputFilePath, rasterDs);
-            GdalUtils.errorCheck();
-            rasterDs.delete();
-
-            // Populate avgArray with first file's data
-            int xSize = sumRasterDs.GetRasterXSize();
-            int ySize = sumRasterDs.GetRasterYSize();
-            double[] avgArray = new double[ySize * xSize];
-            if(sumRasterDs.GetRasterBand(1).ReadRaster(0, 0, xSize, ySize, avgArray) != 0) {
-                ErrorLog.add(process, "Can't read the Raster band : " + rasterFiles[0].getPath(), new Exception("Can't read the Raster band : " + rasterFiles[0].getPath()));
-            }
-
-            // Initialize arrays
-            int index;
-            double[] tempArray = new double[ySize * xSize];
-            int[] pixelsPerPos = new int[tempArray.length];
-            for(int y=0; y < ySize; y++)
-            {
-                for(int x=0; x < xSize; x++)
-                {
-                    index = y * xSize + x;
-                    avgArray[index] = 0;
-                    pixelsPerPos[index] = 0;
-                }
-            }
-
-            // Sum up values from the rest of the files
-            for(int i=1; i < rasterFiles.length; i++)
-            {
-                rasterDs = gdal.Open(rasterFiles[i].getPath());
-                if(rasterDs.GetRasterBand(1).ReadRaster(0, 0, xSize, ySize, tempArray) != 0) {
-                    ErrorLog.add(process, "Can't read the Raster band : " + rasterFiles[i].getPath(), new Exception("Can't read the Raster band : " + rasterFiles[i].getPath()));
-                }
-
-                for(int y=0; y < ySize; y++)
-                {
-                    for(int x=0; x < xSize; x++)
-                    {
-                        index = y * xSize + x;
-                        if(tempArray[index] != process.pluginMetaData.NoDataValue) {
-                            avgArray[index] += tempArray[index];
-                            pixelsPerPos[index] += 1;
-                        }
-                    }
-                }
-                rasterDs.delete();
+        // Accumulate all the files at once, into an accumulator only needed for this call
+        File accumulatorFile = new File(outputFilePath + ".acc.tif");
+        try {
+            for(int i=0; i < rasterFiles.length; i++) {
+                Accumulate(process, rasterFiles[i], accumulatorFile, i == 0);
             }
+            return Finish(configInstance, con, process, projectInfo, pluginName, indexNm, firstDate, accumulatorFile, outputFilePath);
+        } finally {
+            accumulatorFile.delete();
+        }
+    }
 
-            // Write averaged array to raster file
-            //            synchronized (GdalUtils.lockObject) {
-            sumRasterDs.GetRasterBand(1).WriteRaster(0, 0, xSize, ySize, avgArray);
-            sumRasterDs.GetRasterBand(1).SetNoDataValue(process.pluginMetaData.NoDataValue);
-            //            }
+    @Override
+    public void Accumulate(Process process, File rasterFile, File accumulatorFile, boolean first) throws Exception
+    {
+        GdalUtils.register();
+        RasterAccumulator.add(rasterFile, accumulatorFile, first, process.pluginMetaData.NoDataValue);
+    }
 
-            tempArray = null;
-            avgArray = null;
-            sumRasterDs.delete();
+    @Override
+    public DataFileMetaData Finish(Config configInstance, DatabaseConnection con, Process process, ProjectInfoFile projectInfo, String pluginName, String indexNm, LocalDate firstDate,
+            File accumulatorFile, String outputFilePath) throws Exception
+    {
+        GdalUtils.register();
+        RasterAccumulator.finish(accumulatorFile, outputFilePath, false, process.pluginMetaData.NoDataValue);
 
-            Statement stmt = con.createStatement();
-            try{
-                int dateGroupID = Schemas.getDateGroupID(configInstance.getGlobalSchema(), firstDate, stmt);
-                mergedFile = new DataFileMetaData(outputFilePath, dateGroupID, firstDate.getYear(), firstDate.getDayOfYear(), indexNm);
-            } finally {
-                stmt.close();
-            }
+        DataFileMetaData mergedFile = null;
+        Statement stmt = con.createStatement();
+        try{
+            int dateGroupID = Schemas.getDateGroupID(configInstance.getGlobalSchema(), firstDate, stmt);
+            mergedFile = new DataFileMetaData(outputFilePath, dateGroupID, firstDate.getYear(), firstDate.getDayOfYear(), indexNm);
+        } finally {
+            stmt.close();
         }
         return mergedFile;
     }
-
 }
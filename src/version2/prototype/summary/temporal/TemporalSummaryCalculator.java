@@ -99,6 +99,30 @@ public class TemporalSummaryCalculator {
         TemporalSummaryComposition tempComp;
         for(File inRaster : inputFileSet)
         {
+            if(mergeStrategy instanceof IncrementalMergeStrategy)
+            {
+                // Fold the file into its composite's accumulator now, completing the composite then needs no re-read of its files
+                final IncrementalMergeStrategy incrementalStrategy = (IncrementalMergeStrategy) mergeStrategy;
+                tempComp = fileStore.addFile(inRaster, new DataDate(inputFile.day, inputFile.year), daysPerInputData, inputFile.indexNm, process,
+                        new TemporalSummaryRasterFileStore.FileListener() {
+                    @Override
+                    public void fileAdded(File f, LocalDate startDate, boolean first) throws Exception {
+                        String outputFilePath = getOutputFilePath(startDate);
+                        new File(outputFilePath).mkdirs();
+                        incrementalStrategy.Accumulate(process, f, getAccumulatorFile(outputFilePath), first);
+                    }
+                });
+
+                if(tempComp != null)
+                {
+                    String outputFilePath = getOutputFilePath(tempComp.startDate);
+                    File accumulatorFile = getAccumulatorFile(outputFilePath);
+                    output = incrementalStrategy.Finish(configInstance, con, process, projectInfo, pluginName, inputFile.indexNm, tempComp.startDate, accumulatorFile, outputFilePath);
+                    accumulatorFile.delete();
+                }
+                continue;
+            }
+
             tempComp = fileStore.addFile(inRaster, new DataDate(inputFile.day, inputFile.year), daysPerInputData, inputFile.indexNm, process);
 
             if(tempComp != null)
@@ -107,16 +131,27 @@ public class TemporalSummaryCalculator {
                 for(FileDatePair fdPair : tempComp.files) {
                     files.add(fdPair.file);
                 }
-                String outputFilePath = FileSystem.GetProcessWorkerTempDirectoryPath(projectInfo.GetWorkingDir(), projectInfo.GetProjectName(), pluginName, ProcessName.SUMMARY) +
-                        "Summary " + summary.GetID() + "\\" + inputFile.indexNm + "\\" +
-                        String.format("%04d_%03d.tif",
-                                tempComp.startDate.getYear(),
-                                tempComp.startDate.getDayOfYear()
-                                );
+                String outputFilePath = getOutputFilePath(tempComp.startDate);
                 new File(outputFilePath).mkdirs();
                 output = mergeStrategy.Merge(configInstance, con, process, projectInfo, pluginName, inputFile.indexNm, tempComp.startDate, files.toArray(new File[0]), outputFilePath);
             }
         }
         return output;
     }
+
+    private String getOutputFilePath(LocalDate startDate)
+    {
+        return FileSystem.GetProcessWorkerTempDirectoryPath(projectInfo.GetWorkingDir(), projectInfo.GetProjectName(), pluginName, ProcessName.SUMMARY) +
+                "Summary " + summary.GetID() + "\\" + inputFile.indexNm + "\\" +
+                String.format("%04d_%03d.tif",
+                        startDate.getYear(),
+                        startDate.getDayOfYear()
+                        );
+    }
+
+    // The accumulator of a composite is kept next to the composite's output file
+    private static File getAccumulatorFile(String outputFilePath)
+    {
+        return new File(outputFilePath.substring(0, outputFilePath.length() - ".tif".length()) + ".acc.tif");
+    }
 }
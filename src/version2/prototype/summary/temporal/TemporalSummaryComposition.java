@@ -20,6 +20,11 @@ public class TemporalSummaryComposition {
     public final ArrayList<FileDatePair> files;
     private final TemporalSummaryCompositionStrategy strategy;
 
+    // Bookkeeping of TemporalSummaryRasterFileStore: files added but not yet handled by its listener, and the listener's per composition lock
+    int pendingFiles = 0;
+    boolean listenerStarted = false;
+    final Object listenerLock = new Object();
+
     /**
      * Creates a TemporalSummaryComposition object that will use the given strategy to create composites and initialized with a single FileDatePair.
      *
@@ -40,18 +45,21 @@ public class TemporalSummaryComposition {
      *
      * @param FDPair  - FileDatePair to add to file listing
      * @param process  - the owning/calling Process instance
+     * @return true if the file was added, false if the composite is already full or the file's date is before the composite's start
      */
-    public void addFilePair(FileDatePair FDPair, Process process)
+    public boolean addFilePair(FileDatePair FDPair, Process process)
     {
         if((strategy.getDaysInThisComposite(startDate) > files.size()) && (FDPair.date.getLocalDate().compareTo(startDate) >= 0))
         {
             files.add(FDPair);
             Collections.sort(files, new AscComp());
+            return true;
         } else {
             ErrorLog.add(process, "Failed to add raster file to temporal composite. File Date=" + FDPair.date.getLocalDate() + ". Composite info: {Size=" + files.size() + ", Completion Size=" +
                     strategy.getDaysInThisComposite(startDate) + ", Start Date=" + startDate + "}",
                     new Exception("Failed to add raster file to temporal composite. File Date=" + FDPair.date.getLocalDate() + ". Composite info: {Size=" + files.size() + ", Completion Size=" +
                             strategy.getDaysInThisComposite(startDate) + ", Start Date=" + startDate + "}"));
+            return false;
         }
     }
 
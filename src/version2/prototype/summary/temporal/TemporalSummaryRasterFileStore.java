@@ -22,6 +22,22 @@ public class TemporalSummaryRasterFileStore {
     public final TemporalSummaryCompositionStrategy compStrategy;
     private Map<String, ArrayList<TemporalSummaryComposition>> compositionsMap;
 
+    /**
+     * Receives the files added to compositions, e.g. to fold them into the composite as they arrive. It's called outside the store's lock, so
+     * files of different compositions are handled in parallel, but one file at a time per composition.
+     */
+    public interface FileListener {
+        /**
+         * Called for a file once its composition accepted it. If it throws, the file is taken out of the composition again.
+         *
+         * @param f  - raster file added
+         * @param startDate  - start date of the composition
+         * @param first  - true if the listener hasn't yet handled any file of the composition
+         * @throws Exception
+         */
+        void fileAdded(File f, LocalDate startDate, boolean first) throws Exception;
+    }
+
     /**
      * Creates a TemporalSummaryRasterFileStore utilizing the given composition strategy.
      *
@@ -45,43 +61,80 @@ public class TemporalSummaryRasterFileStore {
      * while removing used files from the storage.
      * @throws Exception
      */
-    public synchronized TemporalSummaryComposition addFile(File f, DataDate d, int daysPerInputData, String indexName, Process process) throws Exception
+    public TemporalSummaryComposition addFile(File f, DataDate d, int daysPerInputData, String indexName, Process process) throws Exception
     {
-        ArrayList<TemporalSummaryComposition> compositions = getCompositionList(indexName);
-        TemporalSummaryComposition modifiedComp = null;
+        return addFile(f, d, daysPerInputData, indexName, process, null);
+    }
+
+    /**
+     * Adds a file to the storage, telling a listener about it if it's added to a composition. A file already in its composition isn't added again.
+     * A composition is only returned as complete once the listener has handled all of its files.
+     *
+     * @param f  - raster file to add
+     * @param d  - Datadate associated to the raster file
+     * @param daysPerInputData
+     * @param indexName  - index the file was calculated from
+     * @param process  - calling Process instance
+     * @param listener  - called after the file is added to a composition, or null
+     * @return if file store can create a complete composite with the newly added file a new TemporalSummaryComposition is returned of the newly completed composite
+     * while removing used files from the storage.
+     * @throws Exception  if the listener fails, the file is taken out of its composition again then
+     */
+    public TemporalSummaryComposition addFile(File f, DataDate d, int daysPerInputData, String indexName, Process process, FileListener listener) throws Exception
+    {
+        ArrayList<TemporalSummaryComposition> compositions;
+        TemporalSummaryComposition comp = null;
+        FileDatePair newFDP = new FileDatePair(f, d);
         LocalDate lDate = compStrategy.getStartDate(d.getLocalDate());
-        int i;
-        boolean matched = false;
-        for(i=0; i < compositions.size(); i++) {
-            if(compositions.get(i).startDate.compareTo(lDate) == 0)
+
+        synchronized(this) {
+            compositions = getCompositionList(indexName);
+            for(TemporalSummaryComposition composition : compositions) {
+                if(composition.startDate.compareTo(lDate) == 0)
+                {
+                    comp = composition;
+                    break;
+                }
+            }
+
+            if(comp == null)
+            {
+                comp = new TemporalSummaryComposition(compStrategy, newFDP);
+                compositions.add(comp);
+            }
+            else if(comp.contains(newFDP) || !comp.addFilePair(newFDP, process))
             {
-                matched = true;
-                break;
+                return null;
             }
+            comp.pendingFiles++;
         }
 
-        if(matched)
-        {
-            FileDatePair newFDP = new FileDatePair(f, d);
-
-            if(!compositions.get(i).contains(newFDP)) {
-                compositions.get(i).addFilePair(newFDP, process);
-                if(compositions.get(i).compositeFull()) {
-                    modifiedComp = compositions.remove(i);
+        // The listener's work is done outside the store's lock, serialized per composition
+        boolean handled = false;
+        try {
+            if(listener != null) {
+                synchronized(comp.listenerLock) {
+                    listener.fileAdded(f, lDate, !comp.listenerStarted);
+                    comp.listenerStarted = true;
                 }
             }
-        }
-        else
-        {
-            TemporalSummaryComposition tempComp = new TemporalSummaryComposition(compStrategy, new FileDatePair(f, d));
-            if(compStrategy.getDaysInThisComposite(d.getLocalDate()) == 1) {
-                modifiedComp = tempComp;
-            } else {
-                compositions.add(tempComp);
+            handled = true;
+        } finally {
+            synchronized(this) {
+                comp.pendingFiles--;
+                if(!handled) {
+                    comp.files.remove(newFDP);
+                }
             }
         }
 
-        return modifiedComp;
+        // Whoever handles the last pending file of a full composition completes it
+        synchronized(this) {
+            if(comp.pendingFiles == 0 && comp.compositeFull() && compositions.remove(comp)) {
+                return comp;
+            }
+        }
+        return null;
     }
 
     private ArrayList<TemporalSummaryComposition> getCompositionList(String indexName)
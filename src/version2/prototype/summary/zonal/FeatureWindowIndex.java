@@ -0,0 +1,138 @@
+package version2.prototype.summary.zonal;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import version2.prototype.util.RasterWindow;
+
+/**
+ * R-tree over the pixel windows of a shape file's features on a zone grid, telling which parts of the grid hold any zone. The tree is packed
+ * once with the Sort-Tile-Recursive method (features sorted into vertical slices by x, each slice by y, then grouped NODE_CAPACITY at a time
+ * level by level) and never changes, so it is kept in plain arrays.
+ *
+ * The zonal statistics pass uses it to skip raster windows that no feature touches and to read only the part of a window that features
+ * do, which matters when a few small zones are spread over a large grid.
+ */
+final class FeatureWindowIndex {
+    /**
+     * Children per node.
+     */
+    public static final int NODE_CAPACITY = 16;
+
+    // Bounds per level, right and bottom exclusive. Level 0 holds the features; node j of level i + 1 bounds nodes
+    // j * NODE_CAPACITY to (j + 1) * NODE_CAPACITY - 1 of level i.
+    private final int[][] x0;
+    private final int[][] y0;
+    private final int[][] x1;
+    private final int[][] y1;
+
+    /**
+     * Creates a FeatureWindowIndex over the given feature windows.
+     *
+     * @param windows  - pixel window of each feature, within the zone grid
+     */
+    public FeatureWindowIndex(List<RasterWindow> windows)
+    {
+        RasterWindow[] leaves = windows.toArray(new RasterWindow[windows.size()]);
+
+        // Sort-Tile-Recursive ordering of the leaves
+        Arrays.sort(leaves, new Comparator<RasterWindow>() {
+            @Override
+            public int compare(RasterWindow a, RasterWindow b) {
+                return Long.compare(2L * a.xOff + a.width, 2L * b.xOff + b.width);
+            }
+        });
+        int nodes = (leaves.length + NODE_CAPACITY - 1) / NODE_CAPACITY;
+        int sliceSize = (int) Math.ceil(Math.sqrt(nodes)) * NODE_CAPACITY;
+        for(int start=0; start < leaves.length; start += sliceSize) {
+            Arrays.sort(leaves, start, Math.min(leaves.length, start + sliceSize), new Comparator<RasterWindow>() {
+                @Override
+                public int compare(RasterWindow a, RasterWindow b) {
+                    return Long.compare(2L * a.yOff + a.height, 2L * b.yOff + b.height);
+                }
+            });
+        }
+
+        int levels = 1;
+        for(int count = leaves.length; count > 1; count = (count + NODE_CAPACITY - 1) / NODE_CAPACITY) {
+            levels++;
+        }
+        x0 = new int[levels][];
+        y0 = new int[levels][];
+        x1 = new int[levels][];
+        y1 = new int[levels][];
+
+        x0[0] = new int[leaves.length];
+        y0[0] = new int[leaves.length];
+        x1[0] = new int[leaves.length];
+        y1[0] = new int[leaves.length];
+        for(int i=0; i < leaves.length; i++) {
+            x0[0][i] = leaves[i].xOff;
+            y0[0][i] = leaves[i].yOff;
+            x1[0][i] = leaves[i].xOff + leaves[i].width;
+            y1[0][i] = leaves[i].yOff + leaves[i].height;
+        }
+
+        for(int level=1; level < levels; level++)
+        {
+            int children = x0[level - 1].length;
+            int count = (children + NODE_CAPACITY - 1) / NODE_CAPACITY;
+            x0[level] = new int[count];
+            y0[level] = new int[count];
+            x1[level] = new int[count];
+            y1[level] = new int[count];
+            for(int j=0; j < count; j++) {
+                x0[level][j] = Integer.MAX_VALUE;
+                y0[level][j] = Integer.MAX_VALUE;
+                x1[level][j] = Integer.MIN_VALUE;
+                y1[level][j] = Integer.MIN_VALUE;
+                for(int c = j * NODE_CAPACITY; c < Math.min(children, (j + 1) * NODE_CAPACITY); c++) {
+                    x0[level][j] = Math.min(x0[level][j], x0[level - 1][c]);
+                    y0[level][j] = Math.min(y0[level][j], y0[level - 1][c]);
+                    x1[level][j] = Math.max(x1[level][j], x1[level - 1][c]);
+                    y1[level][j] = Math.max(y1[level][j], y1[level - 1][c]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Clips a window of the grid to the part of it features touch.
+     *
+     * @param window  - window of the zone grid
+     * @return the smallest window within the given one holding every pixel of it that a feature's window covers, or null if no feature
+     * touches the window
+     */
+    public RasterWindow clip(RasterWindow window)
+    {
+        int[] bounds = new int[] {Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MIN_VALUE, Integer.MIN_VALUE};
+        int top = x0.length - 1;
+        for(int j=0; j < x0[top].length; j++) {
+            visit(top, j, window.xOff, window.yOff, window.xOff + window.width, window.yOff + window.height, bounds);
+        }
+        if(bounds[0] >= bounds[2]) {
+            return null;
+        }
+        return new RasterWindow(bounds[0], bounds[1], bounds[2] - bounds[0], bounds[3] - bounds[1]);
+    }
+
+    // Widens bounds by the overlap of the query with each feature under node j of the level
+    private void visit(int level, int j, int qx0, int qy0, int qx1, int qy1, int[] bounds)
+    {
+        if(x0[level][j] >= qx1 || qx0 >= x1[level][j] || y0[level][j] >= qy1 || qy0 >= y1[level][j]) {
+            return;
+        }
+        if(level == 0) {
+            bounds[0] = Math.min(bounds[0], Math.max(qx0, x0[0][j]));
+            bounds[1] = Math.min(bounds[1], Math.max(qy0, y0[0][j]));
+            bounds[2] = Math.max(bounds[2], Math.min(qx1, x1[0][j]));
+            bounds[3] = Math.max(bounds[3], Math.min(qy1, y1[0][j]));
+            return;
+        }
+        int children = x0[level - 1].length;
+        for(int c = j * NODE_CAPACITY; c < Math.min(children, (j + 1) * NODE_CAPACITY); c++) {
+            visit(level - 1, c, qx0, qy0, qx1, qy1, bounds);
+        }
+    }
+}
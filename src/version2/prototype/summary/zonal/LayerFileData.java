@@ -5,23 +5,29 @@ package version2.prototype.summary.zonal;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Vector;
 
 import org.gdal.gdal.Band;
 import org.gdal.gdal.Dataset;
 import org.gdal.gdal.Transformer;
-import org.gdal.gdal.gdal;
-import org.gdal.gdalconst.gdalconstConstants;
 import org.gdal.ogr.Feature;
+import org.gdal.ogr.Geometry;
 import org.gdal.ogr.Layer;
 import org.gdal.osr.SpatialReference;
 
+import version2.prototype.ErrorLog;
+import version2.prototype.util.GdalContext;
 import version2.prototype.util.GdalUtils;
 import version2.prototype.util.IndicesFileMetaData;
+import version2.prototype.util.RasterWindow;
 
 /**
+ * Zonal statistics of one index raster over the areas of a summary's shape file.
+ *
  * @author michael.devos
  *
  */
@@ -34,45 +40,151 @@ public class LayerFileData {
     private Map<Integer, String> areas; // <AreaCode, AreaName>
     private Map<Integer, Double> countMap;
 
-    private Integer noDataValue;
-
-    public LayerFileData(IndicesFileMetaData inputFile, String shapeFilePath, Layer layer, String areaCodeField, String areaNameField, SummariesCollection summariesCollection, Dataset raster,
-            Integer noDataValue) throws IllegalArgumentException, UnsupportedOperationException, IOException
+    private LayerFileData(String areaCodeField, String areaNameField, SummariesCollection summariesCollection, Map<Integer, String> areas,
+            Map<Integer, Boolean> zoneReceivedValidData, Map<Integer, Double> countMap)
     {
         this.areaCodeField = areaCodeField;
         this.areaNameField = areaNameField;
         this.summariesCollection = summariesCollection;
-        zoneReceivedValidData = new HashMap<Integer, Boolean>();
-        this.noDataValue = noDataValue;
-        Dataset zoneRaster = null;
+        this.areas = areas;
+        this.zoneReceivedValidData = zoneReceivedValidData;
+        this.countMap = countMap;
+    }
+
+    /**
+     * Calculates the zonal statistics of the index rasters of one date. Rasters on the same grid are read together a block-aligned window at a
+     * time and each pixel's zone is looked up once for all of them, updating one accumulator per raster; rasters on different grids get a pass
+     * of their own. Windows no feature's envelope touches are skipped without being read.
+     *
+     * @param inputFiles  - the index rasters' metadata
+     * @param shapeFilePath  - path of the summary's shape file
+     * @param layer  - layer of the shape file
+     * @param areaCodeField  - field holding the area codes
+     * @param areaNameField  - field holding the area names
+     * @param summariesCollections  - one collection per raster, its results are that raster's statistics
+     * @param rasters  - the opened index rasters, in the order of inputFiles
+     * @param noDataValue  - value of the pixels to leave out
+     * @return one LayerFileData per raster, in the order of inputFiles
+     * @throws IllegalArgumentException
+     * @throws UnsupportedOperationException
+     * @throws IOException
+     */
+    @SuppressWarnings("try")
+    public static ArrayList<LayerFileData> calculate(IndicesFileMetaData[] inputFiles, String shapeFilePath, Layer layer, String areaCodeField, String areaNameField,
+            SummariesCollection[] summariesCollections, Dataset[] rasters, Integer noDataValue) throws IllegalArgumentException, UnsupportedOperationException, IOException
+    {
+        ZoneRasterCache.ZoneGrid[] zoneGrids = new ZoneRasterCache.ZoneGrid[rasters.length];
+        Map<Integer, String> areas;
+        double[] layerExtent;
+        ArrayList<double[]> envelopes;
+
+        // Everything touching the OGR layer is done while holding the exclusive GDAL lock, the statistics pass only reads rasters
+        try (GdalContext.Exclusive lock = GdalContext.exclusive()) {
+            for (int k=0; k < rasters.length; k++) {
+                // Validate inputs
+                if (!isSameProjection(rasters[k], layer)) {
+                    throw new IOException("\"" + inputFiles[k].dataFilePath + "\" isn't in same projection as \"" + shapeFilePath + "\"");
+                }
+
+                if (!isLayerSubsetOfRaster(layer, rasters[k])) {
+                    throw new IOException("\"" + shapeFilePath + "\" isn't a subset of \"" + inputFiles[k].dataFilePath + "\".");
+                }
+
+                // Get the zone raster, rasterized once per shapefile and grid
+                zoneGrids[k] = getZoneGrid(shapeFilePath, layer, areaCodeField, rasters[k].GetGeoTransform());
+
+                assert(rasters[k].GetRasterXSize() == zoneGrids[k].xSize);
+                assert(rasters[k].GetRasterYSize() == zoneGrids[k].ySize);
+            }
+
+            // Compile list of area codes and area names
+            areas = readAreas(layer, areaCodeField, areaNameField);
+
+            layerExtent = layer.GetExtent(); GdalUtils.errorCheck();
+            envelopes = readEnvelopes(layer);
+        }
 
-        // Validate inputs
-        if (!isSameProjection(raster, layer)) {
-            throw new IOException("\"" + inputFile.dataFilePath + "\" isn't in same projection as \"" + shapeFilePath + "\"");
+        // One running entry per area, pixels of zones outside the shapefile's area codes (the background) are skipped
+        ZoneIndex zones = new ZoneIndex(areas.keySet());
+        ZonalAccumulator[] accumulators = new ZonalAccumulator[rasters.length];
+        for (int k=0; k < rasters.length; k++) {
+            accumulators[k] = summariesCollections[k].createAccumulator(zones);
         }
 
-        if (!isLayerSubsetOfRaster(layer, raster)) {
-            throw new IOException("\"" + shapeFilePath + "\" isn't a subset of \"" + inputFile.dataFilePath + "\".");
+        // Group the rasters by grid, each group is summarized in one pass
+        LinkedHashMap<String, ArrayList<Integer>> grids = new LinkedHashMap<String, ArrayList<Integer>>();
+        for (int k=0; k < rasters.length; k++) {
+            String grid = rasters[k].GetRasterXSize() + "x" + rasters[k].GetRasterYSize() + "|" + Arrays.toString(rasters[k].GetGeoTransform());
+            if (grids.get(grid) == null) {
+                grids.put(grid, new ArrayList<Integer>());
+            }
+            grids.get(grid).add(k);
+        }
+        for (ArrayList<Integer> group : grids.values()) {
+            String[] groupPaths = new String[group.size()];
+            ZonalAccumulator[] groupAccumulators = new ZonalAccumulator[group.size()];
+            for (int g=0; g < group.size(); g++) {
+                groupPaths[g] = inputFiles[group.get(g)].dataFilePath;
+                groupAccumulators[g] = accumulators[group.get(g)];
+            }
+            Band blockBand = rasters[group.get(0)].GetRasterBand(1); GdalUtils.errorCheck();
+            ZoneRasterCache.ZoneGrid zoneGrid = zoneGrids[group.get(0)];
+            FeatureWindowIndex features = getFeatureWindows(envelopes, getZoneTransform(layerExtent, rasters[group.get(0)].GetGeoTransform(), zoneGrid.ySize), zoneGrid);
+            ZonalStatisticsTask.run(groupPaths, blockBand, zoneGrid, features, groupAccumulators, noDataValue);
         }
 
-        // Create the zone raster
-        zoneRaster = rasterize(layer, raster.GetGeoTransform());
+        return getResults(areaCodeField, areaNameField, summariesCollections, areas);
+    }
 
-        assert(raster.GetRasterXSize() == zoneRaster.GetRasterXSize());
-        assert(raster.GetRasterYSize() == zoneRaster.GetRasterYSize());
+    /**
+     * Derives the zonal statistics of a coarse summary from those of a finer summary already calculated for the same index rasters, by merging
+     * the accumulators of the fine zones into their parent zones. Neither the rasters nor a zone grid of the coarse layer are read.
+     *
+     * @param layer  - layer of the coarse summary's shape file
+     * @param areaCodeField  - field holding the coarse area codes
+     * @param areaNameField  - field holding the coarse area names
+     * @param hierarchy  - parent of each fine area
+     * @param childCollections  - the fine summary's collections, one per raster, holding the accumulators of their last pass
+     * @param summariesCollections  - one collection per raster for the coarse results, requesting the same summaries as the fine ones
+     * @return one LayerFileData per raster, in the order of the collections
+     * @throws IllegalArgumentException
+     * @throws UnsupportedOperationException
+     * @throws IOException
+     */
+    @SuppressWarnings("try")
+    public static ArrayList<LayerFileData> rollUp(Layer layer, String areaCodeField, String areaNameField, ZoneHierarchy hierarchy, SummariesCollection[] childCollections,
+            SummariesCollection[] summariesCollections) throws IllegalArgumentException, UnsupportedOperationException, IOException
+    {
+        Map<Integer, String> areas;
+        try (GdalContext.Exclusive lock = GdalContext.exclusive()) {
+            areas = readAreas(layer, areaCodeField, areaNameField);
+        }
 
-        // Calculate statistics
-        try {
-            countMap = calculateStatistics(raster, zoneRaster);
-        } catch(IllegalArgumentException | UnsupportedOperationException | IOException e) {
-            if(zoneRaster != null) {
-                zoneRaster.delete();
+        ZoneIndex zones = new ZoneIndex(areas.keySet());
+        int[] parentSlots = null;
+        for (int k=0; k < summariesCollections.length; k++) {
+            ZonalAccumulator children = childCollections[k].getAccumulator();
+            if (children == null) {
+                // The fine summary produced nothing for this raster, so neither does the coarse one
+                ErrorLog.add("No fine zonal statistics to roll up for raster " + k + "; its coarse statistics are left empty.", null);
+                summariesCollections[k].createAccumulator(zones);
+                continue;
+            }
+            if (parentSlots == null) {
+                // The fine collections of one pass share their ZoneIndex
+                parentSlots = hierarchy.getParentSlots(children.getZones(), zones);
             }
-            throw e;
+            summariesCollections[k].createAccumulator(zones).rollUp(children, parentSlots);
         }
 
-        // Compile list of area codes and area names
-        areas = new HashMap<Integer, String>();
+        return getResults(areaCodeField, areaNameField, summariesCollections, areas);
+    }
+
+    // Compiles the area codes and names of the layer, must be called holding the exclusive GDAL lock
+    private static Map<Integer, String> readAreas(Layer layer, String areaCodeField, String areaNameField) throws IllegalArgumentException,
+    UnsupportedOperationException, IOException
+    {
+        Map<Integer, String> areas = new HashMap<Integer, String>();
         layer.ResetReading(); GdalUtils.errorCheck();
         Feature feature = layer.GetNextFeature(); GdalUtils.errorCheck();
         int areaCode;
@@ -83,6 +195,67 @@ public class LayerFileData {
             areas.put(areaCode, areaName);
             feature = layer.GetNextFeature(); GdalUtils.errorCheck();
         }
+        return areas;
+    }
+
+    // Reads the envelope (minX, maxX, minY, maxY) of every feature with a geometry, must be called holding the exclusive GDAL lock
+    private static ArrayList<double[]> readEnvelopes(Layer layer) throws IllegalArgumentException, UnsupportedOperationException, IOException
+    {
+        ArrayList<double[]> envelopes = new ArrayList<double[]>();
+        layer.ResetReading(); GdalUtils.errorCheck();
+        Feature feature = layer.GetNextFeature(); GdalUtils.errorCheck();
+        while (feature != null) {
+            Geometry geometry = feature.GetGeometryRef(); GdalUtils.errorCheck();
+            if (geometry != null) {
+                double[] envelope = new double[4];
+                geometry.GetEnvelope(envelope); GdalUtils.errorCheck();
+                envelopes.add(envelope);
+            }
+            feature = layer.GetNextFeature(); GdalUtils.errorCheck();
+        }
+        return envelopes;
+    }
+
+    /**
+     * Maps feature envelopes to the pixel windows they cover on a zone grid and indexes them. A window takes every pixel the envelope reaches
+     * into, so it holds every pixel the feature can be burned on.
+     *
+     * @param envelopes  - feature envelopes in the layer's coordinates
+     * @param zoneTransform  - geotransform of the zone grid
+     * @param zoneGrid  - the zone grid
+     * @return index of the features' windows
+     */
+    private static FeatureWindowIndex getFeatureWindows(ArrayList<double[]> envelopes, double[] zoneTransform, ZoneRasterCache.ZoneGrid zoneGrid)
+    {
+        ArrayList<RasterWindow> windows = new ArrayList<RasterWindow>(envelopes.size());
+        RasterWindow grid = new RasterWindow(0, 0, zoneGrid.xSize, zoneGrid.ySize);
+        for (double[] envelope : envelopes) {
+            int x0 = (int) Math.floor((envelope[0] - zoneTransform[0]) / zoneTransform[1]);
+            int x1 = (int) Math.ceil((envelope[1] - zoneTransform[0]) / zoneTransform[1]);
+            int y0 = (int) Math.floor((zoneTransform[3] - envelope[3]) / Math.abs(zoneTransform[5]));
+            int y1 = (int) Math.ceil((zoneTransform[3] - envelope[2]) / Math.abs(zoneTransform[5]));
+            RasterWindow window = grid.intersection(new RasterWindow(x0, y0, Math.max(1, x1 - x0), Math.max(1, y1 - y0)));
+            if (window != null) {
+                windows.add(window);
+            }
+        }
+        return new FeatureWindowIndex(windows);
+    }
+
+    private static ArrayList<LayerFileData> getResults(String areaCodeField, String areaNameField, SummariesCollection[] summariesCollections, Map<Integer, String> areas)
+    {
+        ArrayList<LayerFileData> layerData = new ArrayList<LayerFileData>(summariesCollections.length);
+        for (int k=0; k < summariesCollections.length; k++) {
+            Map<Integer, Double> countMap = new HashMap<Integer, Double>(1);
+            for(SummaryNameResultPair pair : summariesCollections[k].getResults()){
+                if(pair.getSimpleName().equalsIgnoreCase("count")) {
+                    countMap = pair.getResult();
+                }
+            }
+            layerData.add(new LayerFileData(areaCodeField, areaNameField, summariesCollections[k], areas, summariesCollections[k].getAccumulator().getZoneReceivedValidData(),
+                    countMap));
+        }
+        return layerData;
     }
 
     public Map<Integer, Boolean> getZoneReceivedValidData()
@@ -125,13 +298,13 @@ public class LayerFileData {
      * @throws UnsupportedOperationException
      * @throws IllegalArgumentException
      */
-    private boolean isSameProjection(Dataset raster, Layer layer) throws IllegalArgumentException, UnsupportedOperationException, IOException {
+    private static boolean isSameProjection(Dataset raster, Layer layer) throws IllegalArgumentException, UnsupportedOperationException, IOException {
         SpatialReference rasterRef = new SpatialReference(raster.GetProjection()); GdalUtils.errorCheck();
         boolean same = layer.GetSpatialRef().IsSame(rasterRef) != 0; GdalUtils.errorCheck();
         return same;
     }
 
-    private boolean isLayerSubsetOfRaster(Layer layer, Dataset raster)
+    private static boolean isLayerSubsetOfRaster(Layer layer, Dataset raster)
             throws IllegalArgumentException, UnsupportedOperationException, IOException {
         double[] extent = layer.GetExtent(true); GdalUtils.errorCheck();
 
@@ -170,89 +343,34 @@ public class LayerFileData {
     }
 
     /**
-     * Rasterizes data creating Dataset object. Uses GDal library to do calculation.
+     * Gets the zone grid of the layer: the area codes burned on a grid with the layer's extent and the raster's pixel size. Rasterizing is left
+     * to ZoneRasterCache, which does it once per shapefile and grid.
      *
+     * @param shapeFilePath  - path of the layer's shape file
      * @param layer  - shape file
-     * @param transform  - raster data in single double array
-     * @return all data after rasterization
+     * @param areaCodeField  - field holding the area codes
+     * @param transform  - geotransform of the raster to summarize
+     * @return the zone grid
      * @throws IOException
      * @throws UnsupportedOperationException
      * @throws IllegalArgumentException
-     * @throws Exception
      */
-    private Dataset rasterize(Layer layer, double[] transform) throws IllegalArgumentException, UnsupportedOperationException, IOException {
-
-        // Create the raster to burn values into
+    private static ZoneRasterCache.ZoneGrid getZoneGrid(String shapeFilePath, Layer layer, String areaCodeField, double[] transform) throws IllegalArgumentException, UnsupportedOperationException, IOException {
         double[] layerExtent = layer.GetExtent(); GdalUtils.errorCheck();
 
-        Dataset zoneRaster = gdal.GetDriverByName("MEM").Create(
-                "",
-                (int) Math.ceil((layerExtent[1]-layerExtent[0]) / Math.abs(transform[1])),
-                (int) Math.ceil((layerExtent[3]-layerExtent[2]) / Math.abs(transform[5])),
-                1,
-                gdalconstConstants.GDT_UInt32
-                );
-        GdalUtils.errorCheck();
-
-        zoneRaster.SetProjection(layer.GetSpatialRef().ExportToWkt()); GdalUtils.errorCheck();
-        zoneRaster.SetGeoTransform(new double[] {
-                layerExtent[0], transform[1], 0,
-                layerExtent[2] + zoneRaster.GetRasterYSize()*Math.abs(transform[5]), 0, transform[5]
-        });
-        GdalUtils.errorCheck();
-
-        // Burn the values
-        Vector<String> options = new Vector<String>();
-        options.add("ATTRIBUTE=" + areaCodeField);
+        int xSize = (int) Math.ceil((layerExtent[1]-layerExtent[0]) / Math.abs(transform[1]));
+        int ySize = (int) Math.ceil((layerExtent[3]-layerExtent[2]) / Math.abs(transform[5]));
+        double[] zoneTransform = getZoneTransform(layerExtent, transform, ySize);
+        String projection = layer.GetSpatialRef().ExportToWkt(); GdalUtils.errorCheck();
 
-        gdal.RasterizeLayer(zoneRaster, new int[] {1}, layer, new double[] {}, options); GdalUtils.errorCheck();
-
-        return zoneRaster;
+        return ZoneRasterCache.get(shapeFilePath, layer, areaCodeField, xSize, ySize, zoneTransform, projection);
     }
 
-
-    private Map<Integer, Double> calculateStatistics(Dataset rasterDS, Dataset featureDS) throws IllegalArgumentException, UnsupportedOperationException, IOException {
-        // Calculate zonal statistics
-        Band zoneBand = featureDS.GetRasterBand(1); GdalUtils.errorCheck();
-        Band rasterBand = rasterDS.GetRasterBand(1); GdalUtils.errorCheck();
-
-        final int WIDTH = zoneBand.GetXSize(); GdalUtils.errorCheck();
-        final int HEIGHT = zoneBand.GetYSize(); GdalUtils.errorCheck();
-
-        int[] zoneArray = new int[WIDTH];
-        double[] rasterArray = new double[WIDTH];
-
-        Double[] noData = new Double[1];
-        rasterBand.GetNoDataValue(noData);
-        final ArrayList<Double> NO_DATA = new ArrayList<Double>();
-        //        NO_DATA.add(new Double(GdalUtils.NO_DATA));
-        NO_DATA.add(new Double(noDataValue));
-
-        for (int y=0; y<HEIGHT; y++) {
-            zoneBand.ReadRaster(0, y, WIDTH, 1, zoneArray); GdalUtils.errorCheck();
-            rasterBand.ReadRaster(0, y, WIDTH, 1, rasterArray); GdalUtils.errorCheck();
-
-            for (int i=0; i<WIDTH; i++) {
-                int zone = zoneArray[i];
-                Double value = rasterArray[i];
-                if (!NO_DATA.contains(value)) { // Neither are no data values
-                    summariesCollection.add(zone, value);
-                    zoneReceivedValidData.put(zone, true);
-                }
-                else if(zoneReceivedValidData.get(zone) == null) {
-                    zoneReceivedValidData.put(zone, false);
-                }
-            }
-        }
-
-        ArrayList<SummaryNameResultPair> results = summariesCollection.getResults();
-        Map<Integer, Double> countMap = new HashMap<Integer, Double>(1);
-        for(SummaryNameResultPair pair : results){
-            if(pair.getSimpleName().equalsIgnoreCase("count")) {
-                countMap = pair.getResult();
-            }
-        }
-
-        return countMap;
+    // Geotransform of a zone grid: the layer's extent at the raster's pixel size, anchored to the extent's lower left corner
+    private static double[] getZoneTransform(double[] layerExtent, double[] transform, int ySize) {
+        return new double[] {
+                layerExtent[0], transform[1], 0,
+                layerExtent[2] + ySize*Math.abs(transform[5]), 0, transform[5]
+        };
     }
 }
@@ -0,0 +1,242 @@
+package version2.prototype.summary.zonal;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.net.URISyntaxException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.CodeSource;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import version2.prototype.Config;
+import version2.prototype.PluginMetaData.PluginMetaDataCollection.PluginMetaData;
+import version2.prototype.ProjectInfoMetaData.ProjectInfoFile;
+import version2.prototype.ProjectInfoMetaData.ProjectInfoPlugin;
+import version2.prototype.ProjectInfoMetaData.ProjectInfoSummary;
+import version2.prototype.summary.temporal.TemporalSummaryCompositionStrategy;
+
+/**
+ * Zonal summary results shared between projects. Projects summarizing the same plugin data, processed the same way, over the same shapefile
+ * zones get the same results, so the first one to summarize a date publishes its table here and the others import it instead of summarizing
+ * the raster again.
+ *
+ * The results are keyed by everything their values depend on: the plugin and its QC level and tiles, the plugin's processing version (its
+ * process steps, indices and resolution, and the EASTWeb build running them), the projection, the contents of the master shapefile, the
+ * masking file and resolution, clipping, the degree day settings, the temporal composition, the contents of the summary shapefile with its
+ * area code and name fields, the summary calculations with RESULTS_VERSION, and the no data value. Each key gets its own directory under
+ * Config.getSharedZonalResultsDir(), named by the key's hash and holding the key itself in "key.txt", with one ZonalResultStore per index and
+ * year: &lt;hash&gt;/&lt;index&gt;/&lt;year&gt;.zrs.
+ *
+ * Composites that start before the project's start date are summarized from fewer days than another project's would be, so their results are
+ * neither imported nor published.
+ */
+public class SharedZonalResults {
+    /**
+     * Version of the zonal summary calculations. Increase it when a change alters their results, so results published before aren't imported.
+     */
+    public static final int RESULTS_VERSION = 1;
+
+    private static final AtomicLong imports = new AtomicLong();
+    private static final AtomicLong publishes = new AtomicLong();
+    private static final AtomicLong misses = new AtomicLong();
+
+    private final File directory;
+    private final LocalDate startDate;
+    private final TemporalSummaryCompositionStrategy compStrategy;
+
+    private SharedZonalResults(File directory, LocalDate startDate, TemporalSummaryCompositionStrategy compStrategy) {
+        this.directory = directory;
+        this.startDate = startDate;
+        this.compStrategy = compStrategy;
+    }
+
+    /**
+     * Gets the shared results of a project's summary.
+     *
+     * @param configInstance
+     * @param projectInfoFile  - the project
+     * @param pluginInfo  - the plugin whose indices are summarized
+     * @param summary  - the summary
+     * @param pluginMetaData  - the plugin's metadata
+     * @param compStrategy  - the summary's temporal composition strategy, or null if the plugin's data isn't composited
+     * @return the shared results, or null if there is no directory to share them in
+     * @throws IOException  if the shapefiles can't be read
+     */
+    public static SharedZonalResults forSummary(Config configInstance, ProjectInfoFile projectInfoFile, ProjectInfoPlugin pluginInfo, ProjectInfoSummary summary,
+            PluginMetaData pluginMetaData, TemporalSummaryCompositionStrategy compStrategy) throws IOException
+    {
+        String root = configInstance.getSharedZonalResultsDir();
+        if(root == null) {
+            return null;
+        }
+
+        ArrayList<String> tiles = pluginInfo.GetModisTiles() != null ? new ArrayList<String>(pluginInfo.GetModisTiles()) : new ArrayList<String>();
+        Collections.sort(tiles);
+
+        StringBuilder key = new StringBuilder();
+        key.append("plugin=").append(pluginInfo.GetName()).append('\n');
+        key.append("qc=").append(pluginInfo.GetQC()).append('\n');
+        key.append("tiles=").append(tiles).append('\n');
+        key.append("processSteps=").append(new TreeMap<Integer, String>(pluginMetaData.Processor.processStep)).append('\n');
+        key.append("indices=").append(pluginMetaData.Indices.indicesNames).append('\n');
+        key.append("resolution=").append(pluginMetaData.Resolution).append('\n');
+        key.append("build=").append(buildStamp()).append('\n');
+        key.append("projection=").append(projectInfoFile.GetProjection()).append('\n');
+        key.append("masterShapeFile=").append(ZoneRasterCache.contentHash(projectInfoFile.GetMasterShapeFile())).append('\n');
+        key.append("maskingFile=").append(fileStamp(projectInfoFile.GetMaskingFile())).append('\n');
+        key.append("maskingResolution=").append(projectInfoFile.GetMaskingResolution()).append('\n');
+        key.append("clipping=").append(projectInfoFile.GetClipping()).append('\n');
+        key.append("freezingDate=").append(projectInfoFile.GetFreezingDate()).append('\n');
+        key.append("coolingDegree=").append(projectInfoFile.GetCoolingDegree()).append('\n');
+        key.append("heatingDate=").append(projectInfoFile.GetHeatingDate()).append('\n');
+        key.append("heatingDegree=").append(projectInfoFile.GetHeatingDegree()).append('\n');
+        key.append("temporalSummary=").append(compStrategy != null ? compStrategy.getClass().getName() : "").append('\n');
+        key.append("shapeFile=").append(ZoneRasterCache.contentHash(summary.GetZonalSummary().GetShapeFile())).append('\n');
+        key.append("areaCodeField=").append(summary.GetZonalSummary().GetAreaCodeField()).append('\n');
+        key.append("areaNameField=").append(summary.GetZonalSummary().GetAreaNameField()).append('\n');
+        key.append("summaryCalculations=").append(configInstance.getSummaryCalculations()).append('\n');
+        key.append("resultsVersion=").append(RESULTS_VERSION).append('\n');
+        key.append("noDataValue=").append(pluginMetaData.NoDataValue).append('\n');
+
+        File directory = new File(root, ZoneRasterCache.hash(key.toString()));
+        File keyFile = new File(directory, "key.txt");
+        if(!keyFile.exists()) {
+            writeKey(directory, keyFile, key.toString());
+        }
+        return new SharedZonalResults(directory, projectInfoFile.GetStartDate(), compStrategy);
+    }
+
+    /**
+     * Checks whether the results of a date can be shared, i.e. don't depend on the project's start date.
+     *
+     * @param year
+     * @param day  - day of year
+     * @return false if the date's composite starts before the project's start date
+     */
+    public boolean isShareable(int year, int day)
+    {
+        if(compStrategy == null || startDate == null) {
+            return true;
+        }
+        try {
+            return !compStrategy.getStartDate(LocalDate.ofYearDay(year, day)).isBefore(startDate);
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    /**
+     * Gets the results another project published for an index and date.
+     *
+     * @param indexNm  - the index
+     * @param year
+     * @param day  - day of year
+     * @return the results, or null if none were published or the date isn't shareable
+     * @throws IOException
+     */
+    public ZonalResultStore.Table find(String indexNm, int year, int day) throws IOException
+    {
+        if(!isShareable(year, day)) {
+            return null;
+        }
+        File storeFile = getStoreFile(indexNm, year);
+        if(storeFile.exists()) {
+            ZonalResultStore store = ZonalResultStore.open(storeFile);
+            if(store.contains(day)) {
+                imports.incrementAndGet();
+                return store.read(day);
+            }
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * Publishes the results of an index and date for other projects to import. Nothing is published if the date isn't shareable.
+     *
+     * @param indexNm  - the index
+     * @param year
+     * @param day  - day of year
+     * @param table  - the results
+     * @throws IOException
+     */
+    public void publish(String indexNm, int year, int day, ZonalResultStore.Table table) throws IOException
+    {
+        if(!isShareable(year, day)) {
+            return;
+        }
+        File storeFile = getStoreFile(indexNm, year);
+        storeFile.getParentFile().mkdirs();
+        ZonalResultStore.open(storeFile).write(day, table);
+        publishes.incrementAndGet();
+    }
+
+    /**
+     * Summarizes the sharing since startup.
+     *
+     * @return human readable summary
+     */
+    public static String getStatistics()
+    {
+        return String.format("Shared zonal results: %d imported, %d published, %d not found", imports.get(), publishes.get(), misses.get());
+    }
+
+    private File getStoreFile(String indexNm, int year)
+    {
+        return new File(new File(directory, indexNm), String.format("%04d", year) + ZonalResultStore.FILE_EXTENSION);
+    }
+
+    // Writes to a temporary file first, so a project starting at the same time never reads a partly written key
+    private static void writeKey(File directory, File keyFile, String key) throws IOException
+    {
+        Files.createDirectories(directory.toPath());
+        File temp = File.createTempFile("key", ".tmp", directory);
+
+        try {
+            try (PrintWriter writer = new PrintWriter(temp, "UTF-8")) {
+                writer.print(key);
+            }
+
+            try {
+                Files.move(temp.toPath(), keyFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp.toPath(), keyFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (FileAlreadyExistsException e) {
+            // another project wrote the same key first
+        } finally {
+            Files.deleteIfExists(temp.toPath());
+        }
+    }
+
+    // Identifies the EASTWeb build by the jar or class directory it runs from, so an upgraded build doesn't import results of the old one
+    private static String buildStamp()
+    {
+        CodeSource source = SharedZonalResults.class.getProtectionDomain().getCodeSource();
+        if(source == null || source.getLocation() == null) {
+            return "";
+        }
+        try {
+            return fileStamp(new File(source.getLocation().toURI()).getPath());
+        } catch (URISyntaxException | IllegalArgumentException e) {
+            return source.getLocation().toString();
+        }
+    }
+
+    // Identifies a file by path, size and modification time, or "" if there is none
+    private static String fileStamp(String filePath)
+    {
+        if(filePath == null || filePath.isEmpty()) {
+            return "";
+        }
+        File f = new File(filePath);
+        return f.getAbsolutePath() + ":" + f.length() + ":" + f.lastModified();
+    }
+}
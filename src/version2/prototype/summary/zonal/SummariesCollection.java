@@ -3,11 +3,16 @@ package version2.prototype.summary.zonal;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
 import java.util.ArrayList;
+import java.util.EnumSet;
 
+import version2.prototype.summary.zonal.ZonalAccumulator.Statistic;
 import version2.prototype.summary.zonal.summaries.Count;
+import version2.prototype.summary.zonal.summaries.Histogram;
 import version2.prototype.summary.zonal.summaries.Max;
 import version2.prototype.summary.zonal.summaries.Mean;
+import version2.prototype.summary.zonal.summaries.Median;
 import version2.prototype.summary.zonal.summaries.Min;
+import version2.prototype.summary.zonal.summaries.Percentile;
 import version2.prototype.summary.zonal.summaries.SqrSum;
 import version2.prototype.summary.zonal.summaries.StdDev;
 import version2.prototype.summary.zonal.summaries.Sum;
@@ -16,6 +21,10 @@ import version2.prototype.summary.zonal.summaries.SummaryCalculation;
 /**
  * Represents a collection of registered summaries as SummaryCalculations facilitating interaction between summaries to share computations.
  *
+ * The dependencies between the requested summaries are resolved once, when the collection is created, into the set of primitive statistics
+ * the accumulators it creates keep. A collection is meant to be created once per project summary and reused for every raster summarized with
+ * it, each raster getting a fresh accumulator from createAccumulator(ZoneIndex).
+ *
  * @author michael.devos
  *
  */
@@ -23,7 +32,7 @@ public class SummariesCollection {
     /**
      * Creates a SummariesCollection object.
      *
-     * @param summaryNames  - case-sensitive names of the classes of SummaryCalculation objects to create
+     * @param summaryNames  - case-sensitive names of the classes of SummaryCalculation objects to create, followed by their parameters if they take any
      * @throws ClassNotFoundException
      * @throws NoSuchMethodException
      * @throws SecurityException
@@ -43,11 +52,8 @@ public class SummariesCollection {
         if(summaryNames.size() > 0){
             for(String name : summaryNames){
                 if(!name.equals("")){
-                    Class<?> summary =  Class.forName(canonicalPath + name);
-                    Constructor<?> summaryCons = summary.getConstructor(SummariesCollection.class);
-
                     if(registry.size() == 0){
-                        temp = (SummaryCalculation)summaryCons.newInstance(this);
+                        temp = newSummary(canonicalPath, name);
                         summaries.add(temp);
                         registry.add(new SummaryNameInstancePair(temp.getCanonicalName(), temp));
                     }
@@ -64,7 +70,7 @@ public class SummariesCollection {
                             summaries.add(temp);
                         }
                         else {
-                            temp = (SummaryCalculation)summaryCons.newInstance(this);
+                            temp = newSummary(canonicalPath, name);
                             summaries.add(temp);
                             registry.add(new SummaryNameInstancePair(temp.getCanonicalName(), temp));
                         }
@@ -72,6 +78,21 @@ public class SummariesCollection {
                 }
             }
         }
+
+        // The registry holds the requested summaries and all their dependencies, each once
+        statistics = EnumSet.noneOf(Statistic.class);
+        for(SummaryNameInstancePair pair : registry){
+            statistics.addAll(pair.getInstance().getRequiredStatistics());
+        }
+    }
+
+    /**
+     * Gets the primitive statistics the registered summaries and their dependencies need, in the order the accumulators keep them.
+     *
+     * @return copy of the resolved statistics
+     */
+    public EnumSet<Statistic> getRequiredStatistics(){
+        return EnumSet.copyOf(statistics);
     }
 
     /**
@@ -99,27 +120,39 @@ public class SummariesCollection {
     }
 
     /**
-     * Adds a new value into the collection by adding the value, at the specified index, into all distinct leaflet SummaryCalculation objects registered to the collection.
+     * Starts a summary pass over the given zones. The returned accumulator replaces any previous one and is what the registered summaries compute
+     * their results from. Callers streaming a raster add values to it directly by slot instead of going through add(int, double).
      *
-     * @param index  - index of given value
+     * @param zones  - the zones values will be added for
+     * @return the new accumulator, keeping only the statistics the registered summaries need
+     */
+    public ZonalAccumulator createAccumulator(ZoneIndex zones){
+        accumulator = new ZonalAccumulator(zones, statistics);
+        return accumulator;
+    }
+
+    /**
+     * Gets the accumulator of the current summary pass.
+     *
+     * @return the accumulator from the last createAccumulator(ZoneIndex) call, or null if none was created
+     */
+    public ZonalAccumulator getAccumulator(){
+        return accumulator;
+    }
+
+    /**
+     * Adds a new value into the collection at the specified zone. Values of zones outside the ZoneIndex given to createAccumulator(ZoneIndex) are ignored.
+     *
+     * @param index  - zone (area code) of given value
      * @param value  - double value to insert
      */
     public void add(int index, double value){
-        ArrayList<SummaryCalculation> leavesFromSummaries = new ArrayList<SummaryCalculation>();
-        ArrayList<SummaryCalculation> temp = null;
-        for(SummaryCalculation summary : summaries){
-            temp = summary.getDistinctLeaflets();
-            if(temp != null){
-                for(SummaryCalculation s : temp){
-                    if(!leavesFromSummaries.contains(s)) {
-                        leavesFromSummaries.add(s);
-                    }
-                }
-            }
+        if(accumulator == null) {
+            throw new IllegalStateException("createAccumulator(ZoneIndex) must be called before values are added.");
         }
-
-        for(SummaryCalculation summary : leavesFromSummaries){
-            summary.add(index, value);
+        int slot = accumulator.getZones().indexOf(index);
+        if(slot >= 0) {
+            accumulator.add(slot, value);
         }
     }
 
@@ -147,29 +180,70 @@ public class SummariesCollection {
     public ArrayList<SummaryNameResultPair> getResults(){
         ArrayList<SummaryNameResultPair> results = new ArrayList<SummaryNameResultPair>();
         for(SummaryCalculation summary : summaries){
-            results.add(new SummaryNameResultPair(summary.getClass().getSimpleName(), summary.getResult()));
+            results.add(new SummaryNameResultPair(summary.getName(), summary.getResult()));
         }
         return results;
     }
 
     /**
-     * Provides a list of the names of the framework supplied SummaryCalculation implementations.
+     * Provides a list of the names of the framework supplied SummaryCalculation implementations. Parameterized summaries are listed with an
+     * example of their parameters (Percentile90, Histogram0_100); other parameters are given after the class name the same way.
      *
      * @return String list of the provided SummaryCalculation implementation's canonical names
      */
     public static ArrayList<String> providedSummaryCalculations()
     {
-        ArrayList<String> list = new ArrayList<String>(7);
+        ArrayList<String> list = new ArrayList<String>(10);
         list.add(new Count(null).getCanonicalName());
+        list.add(new Histogram(null, "0_100").getCanonicalName());
         list.add(new Max(null).getCanonicalName());
         list.add(new Mean(null).getCanonicalName());
+        list.add(new Median(null).getCanonicalName());
         list.add(new Min(null).getCanonicalName());
+        list.add(new Percentile(null, "90").getCanonicalName());
         list.add(new SqrSum(null).getCanonicalName());
         list.add(new StdDev(null).getCanonicalName());
         list.add(new Sum(null).getCanonicalName());
         return list;
     }
 
+    // Creates the summary of the given name, either a class name or a class name followed by parameters (e.g. Percentile90, Histogramn10_0)
+    private SummaryCalculation newSummary(String canonicalPath, String name) throws ClassNotFoundException, NoSuchMethodException, InstantiationException,
+    IllegalAccessException, InvocationTargetException
+    {
+        try {
+            Class<?> summary = Class.forName(canonicalPath + name);
+            Constructor<?> summaryCons = summary.getConstructor(SummariesCollection.class);
+            return (SummaryCalculation)summaryCons.newInstance(this);
+        } catch(ClassNotFoundException e) {
+            // The parameters start at the first digit, or at the 'n' of a negative first parameter
+            int start = 0;
+            while(start < name.length() && !Character.isDigit(name.charAt(start))) {
+                start++;
+            }
+            if(start == 0 || start == name.length()) {
+                throw e;
+            }
+            if(name.charAt(start - 1) == 'n') {
+                try {
+                    return newParameterizedSummary(Class.forName(canonicalPath + name.substring(0, start - 1)), name.substring(start - 1));
+                } catch(ClassNotFoundException notNegative) {
+                    // the 'n' is part of the class name
+                }
+            }
+            return newParameterizedSummary(Class.forName(canonicalPath + name.substring(0, start)), name.substring(start));
+        }
+    }
+
+    private SummaryCalculation newParameterizedSummary(Class<?> summary, String parameters) throws NoSuchMethodException, InstantiationException,
+    IllegalAccessException, InvocationTargetException
+    {
+        Constructor<?> summaryCons = summary.getConstructor(SummariesCollection.class, String.class);
+        return (SummaryCalculation)summaryCons.newInstance(this, parameters);
+    }
+
     private ArrayList<SummaryNameInstancePair> registry;
     private ArrayList<SummaryCalculation> summaries;
+    private EnumSet<Statistic> statistics;
+    private ZonalAccumulator accumulator;
 }
@@ -0,0 +1,246 @@
+package version2.prototype.summary.zonal;
+
+import java.util.Arrays;
+
+/**
+ * Fixed size, mergeable sketch of a distribution of doubles (a merging t-digest) for quantile summaries. Values are buffered and
+ * periodically folded into a sorted list of weighted centroids; centroids near the median may absorb many values while those in the tails
+ * stay small, so extreme quantiles remain accurate. With the default compression the sketch never holds more than a few hundred centroids,
+ * whatever the number of values, and a few dozen values or fewer are kept exactly.
+ *
+ * Folding is deterministic: the same values added and merged in the same order give the same sketch.
+ */
+public final class TDigest {
+    /**
+     * Compression used by the zonal summaries. Higher keeps more centroids and is more accurate.
+     */
+    public static final double DEFAULT_COMPRESSION = 100;
+
+    private final double compression;
+    private double[] means;
+    private double[] weights;
+    private int centroids;
+    private final double[] buffer;
+    private int buffered;
+    private double totalWeight;     // weight of the centroids, not the buffer
+    private double min;
+    private double max;
+
+    /**
+     * Creates an empty TDigest with the default compression.
+     */
+    public TDigest() {
+        this(DEFAULT_COMPRESSION);
+    }
+
+    /**
+     * Creates an empty TDigest.
+     *
+     * @param compression  - accuracy parameter, the sketch keeps on the order of 2 * compression centroids
+     */
+    public TDigest(double compression) {
+        this.compression = compression;
+        int capacity = (int) Math.ceil(2 * compression) + 10;
+        means = new double[capacity];
+        weights = new double[capacity];
+        buffer = new double[capacity * 2];
+        centroids = 0;
+        buffered = 0;
+        totalWeight = 0;
+        min = Double.POSITIVE_INFINITY;
+        max = Double.NEGATIVE_INFINITY;
+    }
+
+    /**
+     * Adds a value.
+     *
+     * @param value  - value to add
+     */
+    public void add(double value) {
+        if(buffered == buffer.length) {
+            flush();
+        }
+        buffer[buffered++] = value;
+        if(value < min) {
+            min = value;
+        }
+        if(value > max) {
+            max = value;
+        }
+    }
+
+    /**
+     * Adds all values of another sketch to this one. The other sketch is flushed but otherwise left unchanged.
+     *
+     * @param other  - sketch to merge in
+     */
+    public void merge(TDigest other) {
+        flush();
+        other.flush();
+        if(other.centroids == 0) {
+            return;
+        }
+        fold(other.means, other.weights, other.centroids);
+        if(other.min < min) {
+            min = other.min;
+        }
+        if(other.max > max) {
+            max = other.max;
+        }
+    }
+
+    /**
+     * Gets the number of values added.
+     *
+     * @return number of values, including merged sketches
+     */
+    public double size() {
+        return totalWeight + buffered;
+    }
+
+    /**
+     * Estimates a quantile.
+     *
+     * @param q  - quantile from 0 to 1, 0.5 for the median
+     * @return the estimated value at the quantile, NaN if the sketch is empty
+     */
+    public double quantile(double q) {
+        flush();
+        if(centroids == 0) {
+            return Double.NaN;
+        }
+        q = Math.max(0, Math.min(1, q));
+        if(centroids == 1) {
+            return means[0];
+        }
+
+        double index = q * totalWeight;
+        // Each centroid's weight is centred on its mean, the ends are interpolated towards the exact minimum and maximum
+        if(index < weights[0] / 2) {
+            return min + (means[0] - min) * (index / (weights[0] / 2));
+        }
+        double cumulative = weights[0] / 2;
+        for(int i=0; i < centroids - 1; i++) {
+            double step = (weights[i] + weights[i + 1]) / 2;
+            if(cumulative + step > index) {
+                return means[i] + (means[i + 1] - means[i]) * ((index - cumulative) / step);
+            }
+            cumulative += step;
+        }
+        double last = weights[centroids - 1] / 2;
+        return Math.min(max, means[centroids - 1] + (max - means[centroids - 1]) * ((index - cumulative) / last));
+    }
+
+    /**
+     * Estimates the fraction of values below a value.
+     *
+     * @param x  - value to compare against
+     * @return estimated fraction of values less than x, from 0 to 1; NaN if the sketch is empty
+     */
+    public double cdf(double x) {
+        flush();
+        if(centroids == 0) {
+            return Double.NaN;
+        }
+        if(x <= min) {
+            return 0;
+        }
+        if(x > max) {
+            return 1;
+        }
+        if(centroids == 1) {
+            return max > min ? (x - min) / (max - min) : 1;
+        }
+
+        if(x < means[0]) {
+            return (weights[0] / 2) * ((x - min) / (means[0] - min)) / totalWeight;
+        }
+        double cumulative = weights[0] / 2;
+        for(int i=0; i < centroids - 1; i++) {
+            double step = (weights[i] + weights[i + 1]) / 2;
+            if(x < means[i + 1]) {
+                double span = means[i + 1] - means[i];
+                return (cumulative + (span > 0 ? step * ((x - means[i]) / span) : 0)) / totalWeight;
+            }
+            cumulative += step;
+        }
+        double span = max - means[centroids - 1];
+        double last = weights[centroids - 1] / 2;
+        return Math.min(1, (cumulative + (span > 0 ? last * ((x - means[centroids - 1]) / span) : last)) / totalWeight);
+    }
+
+    // Folds the buffered values into the centroids
+    private void flush() {
+        if(buffered == 0) {
+            return;
+        }
+        Arrays.sort(buffer, 0, buffered);
+        double[] ones = new double[buffered];
+        Arrays.fill(ones, 1);
+        int count = buffered;
+        buffered = 0;
+        fold(buffer, ones, count);
+    }
+
+    // Merges sorted weighted points with the centroids, both sorted by mean, and compresses the result: a centroid takes in the next point as
+    // long as it spans at most one unit of the k1 scale function k(q) = compression / (2 pi) * asin(2q - 1)
+    private void fold(double[] inMeans, double[] inWeights, int inCount) {
+        double total = totalWeight;
+        for(int i=0; i < inCount; i++) {
+            total += inWeights[i];
+        }
+
+        int capacity = Math.max(means.length, centroids + inCount);
+        double[] newMeans = new double[capacity];
+        double[] newWeights = new double[capacity];
+        int n = 0;
+
+        int a = 0;
+        int b = 0;
+        double weightBefore = 0;    // weight of the finished centroids
+        double curMean = 0;
+        double curWeight = 0;
+        while(a < centroids || b < inCount) {
+            double m;
+            double w;
+            if(b >= inCount || (a < centroids && means[a] <= inMeans[b])) {
+                m = means[a];
+                w = weights[a];
+                a++;
+            } else {
+                m = inMeans[b];
+                w = inWeights[b];
+                b++;
+            }
+
+            if(curWeight == 0) {
+                curMean = m;
+                curWeight = w;
+            } else if(k((weightBefore + curWeight + w) / total) - k(weightBefore / total) <= 1) {
+                curWeight += w;
+                curMean += (m - curMean) * (w / curWeight);
+            } else {
+                newMeans[n] = curMean;
+                newWeights[n] = curWeight;
+                n++;
+                weightBefore += curWeight;
+                curMean = m;
+                curWeight = w;
+            }
+        }
+        if(curWeight > 0) {
+            newMeans[n] = curMean;
+            newWeights[n] = curWeight;
+            n++;
+        }
+
+        means = newMeans;
+        weights = newWeights;
+        centroids = n;
+        totalWeight = total;
+    }
+
+    private double k(double q) {
+        return compression / (2 * Math.PI) * Math.asin(2 * Math.max(0, Math.min(1, q)) - 1);
+    }
+}
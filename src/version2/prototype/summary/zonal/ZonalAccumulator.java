@@ -0,0 +1,333 @@
+package version2.prototype.summary.zonal;
+
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Running per zone statistics of one zonal summary pass. Each pixel value updates the count, sum, sum of squares, minimum and maximum of its
+ * zone's slot in place, so memory stays at a few numbers per zone whatever the raster size. The SummaryCalculation objects of a
+ * SummariesCollection compute their results from these values.
+ *
+ * The spread of a zone's values is kept as the sum of squared differences from the zone's mean, updated with Welford's method and merged
+ * with Chan's formula. Deriving it from the sum of squares instead cancels catastrophically when the values are large next to their spread.
+ *
+ * Only the statistics the SummariesCollection's summaries need are kept. The others have no array and are skipped in add(int, double).
+ *
+ * Order statistics (median, percentiles, histograms) can't be computed from running sums, so for those each zone keeps a TDigest sketch of
+ * bounded size instead of its values. Sketches, like the sums, merge, so partial accumulators of row bands still combine.
+ *
+ * @author michael.devos
+ *
+ */
+public final class ZonalAccumulator {
+    /**
+     * The primitive running statistics an accumulator can keep for each zone.
+     */
+    public enum Statistic {
+        COUNT,
+        SUM,
+        SUM_SQR,
+        /**
+         * The sum of squared differences of each zone's values from their mean, for the variance.
+         */
+        M2,
+        MIN,
+        MAX,
+        /**
+         * A TDigest of each zone's values, for approximate quantiles and distribution counts.
+         */
+        SKETCH
+    }
+
+    private final ZoneIndex zones;
+    private final EnumSet<Statistic> statistics;
+    private final long[] count;
+    private final double[] sum;
+    private final double[] sumSqr;
+    private final double[] mean;    // kept with m2, the running mean Welford's update needs
+    private final double[] m2;
+    private final double[] min;
+    private final double[] max;
+    private final TDigest[] sketches;   // created on a zone's first value
+    private final boolean[] covered;
+
+    /**
+     * Creates a ZonalAccumulator keeping every statistic for every zone of the given index.
+     *
+     * @param zones  - zones to accumulate values for
+     */
+    public ZonalAccumulator(ZoneIndex zones) {
+        this(zones, EnumSet.allOf(Statistic.class));
+    }
+
+    /**
+     * Creates a ZonalAccumulator keeping the given statistics for every zone of the given index. The count is always kept, it tells which
+     * zones received valid data.
+     *
+     * @param zones  - zones to accumulate values for
+     * @param statistics  - statistics to keep
+     */
+    public ZonalAccumulator(ZoneIndex zones, EnumSet<Statistic> statistics) {
+        this.zones = zones;
+        this.statistics = EnumSet.copyOf(statistics);
+        this.statistics.add(Statistic.COUNT);
+        int size = zones.size();
+        count = new long[size];
+        sum = statistics.contains(Statistic.SUM) ? new double[size] : null;
+        sumSqr = statistics.contains(Statistic.SUM_SQR) ? new double[size] : null;
+        mean = statistics.contains(Statistic.M2) ? new double[size] : null;
+        m2 = mean != null ? new double[size] : null;
+        min = statistics.contains(Statistic.MIN) ? new double[size] : null;
+        max = statistics.contains(Statistic.MAX) ? new double[size] : null;
+        sketches = statistics.contains(Statistic.SKETCH) ? new TDigest[size] : null;
+        covered = new boolean[size];
+        if(min != null) {
+            Arrays.fill(min, Double.POSITIVE_INFINITY);
+        }
+        if(max != null) {
+            Arrays.fill(max, Double.NEGATIVE_INFINITY);
+        }
+    }
+
+    /**
+     * Adds a valid value to a zone.
+     *
+     * @param slot  - the zone's slot from ZoneIndex.indexOf(int)
+     * @param value  - value to add
+     */
+    public void add(int slot, double value) {
+        // The arrays are fixed for the whole pass, so these checks always go the same way
+        count[slot]++;
+        if(sum != null) {
+            sum[slot] += value;
+        }
+        if(sumSqr != null) {
+            sumSqr[slot] += value * value;
+        }
+        if(m2 != null) {
+            double delta = value - mean[slot];
+            mean[slot] += delta / count[slot];
+            m2[slot] += delta * (value - mean[slot]);
+        }
+        if(min != null && value < min[slot]) {
+            min[slot] = value;
+        }
+        if(max != null && value > max[slot]) {
+            max[slot] = value;
+        }
+        if(sketches != null) {
+            if(sketches[slot] == null) {
+                sketches[slot] = new TDigest();
+            }
+            sketches[slot].add(value);
+        }
+        covered[slot] = true;
+    }
+
+    /**
+     * Records a no data pixel in a zone. The zone counts as covered by the raster without any of its statistics changing.
+     *
+     * @param slot  - the zone's slot from ZoneIndex.indexOf(int)
+     */
+    public void addNoData(int slot) {
+        covered[slot] = true;
+    }
+
+    /**
+     * Adds the statistics of another accumulator over the same zones to this one, as if its values had been added here. Merging is
+     * associative, so partial accumulators of parts of a raster can be combined in any grouping; floating point sums and sketches only come
+     * out bit for bit the same when the grouping is the same.
+     *
+     * @param other  - accumulator over the same ZoneIndex keeping the same statistics
+     */
+    public void merge(ZonalAccumulator other) {
+        if(other.zones != zones || !other.statistics.equals(statistics)) {
+            throw new IllegalArgumentException("Only accumulators over the same zones keeping the same statistics can be merged.");
+        }
+        for(int slot=0; slot < count.length; slot++) {
+            mergeSlot(slot, other, slot);
+        }
+    }
+
+    /**
+     * Adds the statistics of an accumulator over finer zones to this one's coarser zones, each finer zone going to the zone containing it. The
+     * result is what accumulating the pixels of each coarse zone directly would give, provided the coarse zones are unions of the fine ones.
+     *
+     * @param children  - accumulator over the finer zones keeping the same statistics
+     * @param parentSlots  - for each of the children's slots, the slot of this accumulator's zone containing it, or -1 to leave it out
+     */
+    public void rollUp(ZonalAccumulator children, int[] parentSlots) {
+        if(!children.statistics.equals(statistics) || parentSlots.length != children.count.length) {
+            throw new IllegalArgumentException("Only accumulators keeping the same statistics can be rolled up, with a parent slot for every child slot.");
+        }
+        for(int childSlot=0; childSlot < parentSlots.length; childSlot++) {
+            if(parentSlots[childSlot] >= 0) {
+                mergeSlot(parentSlots[childSlot], children, childSlot);
+            }
+        }
+    }
+
+    /**
+     * Gets the zones this accumulator covers.
+     *
+     * @return the zone index
+     */
+    public ZoneIndex getZones() {
+        return zones;
+    }
+
+    /**
+     * Gets the statistics this accumulator keeps.
+     *
+     * @return copy of the kept statistics
+     */
+    public EnumSet<Statistic> getStatistics() {
+        return EnumSet.copyOf(statistics);
+    }
+
+    /**
+     * Gets the number of valid values added to a zone.
+     *
+     * @param slot  - the zone's slot
+     * @return count of valid values
+     */
+    public long getCount(int slot) {
+        return count[slot];
+    }
+
+    /**
+     * Gets the sum of the values added to a zone.
+     *
+     * @param slot  - the zone's slot
+     * @return sum of valid values
+     */
+    public double getSum(int slot) {
+        return kept(sum, Statistic.SUM)[slot];
+    }
+
+    /**
+     * Gets the sum of the squares of the values added to a zone.
+     *
+     * @param slot  - the zone's slot
+     * @return sum of squared valid values
+     */
+    public double getSumSqr(int slot) {
+        return kept(sumSqr, Statistic.SUM_SQR)[slot];
+    }
+
+    /**
+     * Gets the sum of the squared differences of the values added to a zone from their mean. Divided by the count it's the population
+     * variance.
+     *
+     * @param slot  - the zone's slot
+     * @return sum of squared differences from the mean, 0 if no value was added
+     */
+    public double getM2(int slot) {
+        return kept(m2, Statistic.M2)[slot];
+    }
+
+    /**
+     * Gets the smallest value added to a zone.
+     *
+     * @param slot  - the zone's slot
+     * @return minimum, positive infinity if no value was added
+     */
+    public double getMin(int slot) {
+        return kept(min, Statistic.MIN)[slot];
+    }
+
+    /**
+     * Gets the largest value added to a zone.
+     *
+     * @param slot  - the zone's slot
+     * @return maximum, negative infinity if no value was added
+     */
+    public double getMax(int slot) {
+        return kept(max, Statistic.MAX)[slot];
+    }
+
+    /**
+     * Estimates a quantile of the values added to a zone.
+     *
+     * @param slot  - the zone's slot
+     * @param q  - quantile from 0 to 1
+     * @return approximate value at the quantile, NaN if no value was added
+     */
+    public double getQuantile(int slot, double q) {
+        TDigest sketch = keptSketches()[slot];
+        return sketch != null ? sketch.quantile(q) : Double.NaN;
+    }
+
+    /**
+     * Estimates the fraction of the values added to a zone that are less than a given value.
+     *
+     * @param slot  - the zone's slot
+     * @param x  - value to compare against
+     * @return approximate fraction from 0 to 1, NaN if no value was added
+     */
+    public double getCdf(int slot, double x) {
+        TDigest sketch = keptSketches()[slot];
+        return sketch != null ? sketch.cdf(x) : Double.NaN;
+    }
+
+    /**
+     * Gets which zones the raster covered with at least one pixel, and whether any of those pixels held valid data.
+     *
+     * @return mapping of area code to true if the zone received valid data, false if only no data; zones the raster didn't cover are left out
+     */
+    public Map<Integer, Boolean> getZoneReceivedValidData() {
+        Map<Integer, Boolean> received = new HashMap<Integer, Boolean>();
+        for(int slot=0; slot < covered.length; slot++) {
+            if(covered[slot]) {
+                received.put(zones.getZone(slot), count[slot] > 0);
+            }
+        }
+        return received;
+    }
+
+    private void mergeSlot(int slot, ZonalAccumulator other, int otherSlot) {
+        if(m2 != null && other.count[otherSlot] > 0) {
+            double n = count[slot];
+            double otherN = other.count[otherSlot];
+            double delta = other.mean[otherSlot] - mean[slot];
+            mean[slot] += delta * otherN / (n + otherN);
+            m2[slot] += other.m2[otherSlot] + delta * delta * n * otherN / (n + otherN);
+        }
+        count[slot] += other.count[otherSlot];
+        if(sum != null) {
+            sum[slot] += other.sum[otherSlot];
+        }
+        if(sumSqr != null) {
+            sumSqr[slot] += other.sumSqr[otherSlot];
+        }
+        if(min != null && other.min[otherSlot] < min[slot]) {
+            min[slot] = other.min[otherSlot];
+        }
+        if(max != null && other.max[otherSlot] > max[slot]) {
+            max[slot] = other.max[otherSlot];
+        }
+        if(sketches != null && other.sketches[otherSlot] != null) {
+            if(sketches[slot] == null) {
+                sketches[slot] = new TDigest();
+            }
+            sketches[slot].merge(other.sketches[otherSlot]);
+        }
+        covered[slot] |= other.covered[otherSlot];
+    }
+
+    private static double[] kept(double[] values, Statistic statistic) {
+        if(values == null) {
+            throw new IllegalStateException(statistic + " isn't kept by this accumulator, the summary needing it didn't declare it.");
+        }
+        return values;
+    }
+
+    private TDigest[] keptSketches() {
+        if(sketches == null) {
+            throw new IllegalStateException(Statistic.SKETCH + " isn't kept by this accumulator, the summary needing it didn't declare it.");
+        }
+        return sketches;
+    }
+}
@@ -0,0 +1,114 @@
+package version2.prototype.summary.zonal;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+
+/**
+ * Exports zonal result stores to the table files written before results were consolidated: one CSV per date at
+ * &lt;index&gt;/Summary &lt;ID&gt;/&lt;year&gt;/&lt;day of year&gt;.csv, listing the zones that received valid data.
+ *
+ * Usage: ZonalResultCsvExporter &lt;store file or summary output directory&gt; [&lt;destination directory&gt;]
+ * Every store found under the given directory is exported, by default next to the store, otherwise to the same relative path under the
+ * destination directory.
+ */
+public class ZonalResultCsvExporter {
+
+    /**
+     * @param args
+     * @throws IOException
+     */
+    public static void main(String[] args) throws IOException {
+        if(args.length < 1) {
+            System.out.println("usage: ZonalResultCsvExporter <store file or summary output directory> [<destination directory>]");
+            return;
+        }
+        File source = new File(args[0]).getCanonicalFile();
+        File destination = args.length > 1 ? new File(args[1]).getCanonicalFile() : null;
+
+        File root = source.isDirectory() ? source : source.getParentFile();
+        int files = exportAll(source, root, destination);
+        System.out.println("Exported " + files + " table files.");
+    }
+
+    /**
+     * Writes the table file of every date in a store.
+     *
+     * @param storeFile  - the store of a year
+     * @param yearDirectory  - directory to write the year's table files to
+     * @return number of table files written
+     * @throws IOException
+     */
+    public static int export(File storeFile, File yearDirectory) throws IOException
+    {
+        ZonalResultStore store = ZonalResultStore.open(storeFile);
+        yearDirectory.mkdirs();
+        int files = 0;
+        for(int day : store.getDays()) {
+            writeTable(store.read(day), new File(yearDirectory, String.format("%03d.csv", day)));
+            files++;
+        }
+        return files;
+    }
+
+    /**
+     * Writes the results of a date in the table file layout.
+     *
+     * @param table  - the results
+     * @param tableFile  - the file to write
+     * @throws IOException
+     */
+    public static void writeTable(ZonalResultStore.Table table, File tableFile) throws IOException
+    {
+        try (PrintWriter writer = new PrintWriter(tableFile)) {
+            writer.print("Area Name, Area Code, ");
+            for(int i=0; i < table.summaryNames.length; i++)
+            {
+                if(i < table.summaryNames.length - 1) {
+                    writer.print(table.summaryNames[i] + ", ");
+                } else {
+                    writer.println(table.summaryNames[i]);
+                }
+            }
+
+            for(int zone=0; zone < table.areaCodes.length; zone++)
+            {
+                if(table.validData[zone]) {
+                    writer.print(table.areaNames[zone] + ", " + table.areaCodes[zone] + ", ");
+                    for(int i=0; i < table.values.length; i++) {
+                        if(i < table.values.length - 1) {
+                            writer.print(table.values[i][zone] + ", ");
+                        } else {
+                            writer.println(table.values[i][zone]);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private static int exportAll(File source, File root, File destination) throws IOException
+    {
+        if(source.isDirectory()) {
+            int files = 0;
+            File[] children = source.listFiles();
+            if(children != null) {
+                for(File child : children) {
+                    files += exportAll(child, root, destination);
+                }
+            }
+            return files;
+        }
+        if(!source.getName().endsWith(ZonalResultStore.FILE_EXTENSION)) {
+            return 0;
+        }
+
+        String year = source.getName().substring(0, source.getName().length() - ZonalResultStore.FILE_EXTENSION.length());
+        File directory = source.getParentFile();
+        if(destination != null) {
+            directory = new File(destination, root.toPath().relativize(directory.toPath()).toString());
+        }
+        System.out.println("Exporting " + source.getPath());
+        return export(source, new File(directory, year));
+    }
+}
@@ -0,0 +1,485 @@
+package version2.prototype.summary.zonal;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Consolidated output of the zonal summary results of one index and summary over one year, replacing the table file written per date. Each
+ * date's results are appended as one deflated block stored column by column (area codes, area names, then one column per summary), and a footer
+ * at the end of the file indexes the blocks by day of year, so the results of a date and zone are found with one seek into the file and a
+ * binary search of the block's area codes.
+ *
+ * File layout, big endian:
+ * <pre>
+ *   header   int MAGIC, int VERSION
+ *   blocks   one deflated Table per write
+ *   footer   int FOOTER_MAGIC, int entries, per entry: short day, long block offset, int block length
+ *   trailer  long footer offset, int MAGIC
+ * </pre>
+ * Writes only ever append: a new block, then a new footer and trailer after it. Rewriting a date leaves its old block unreferenced, and once
+ * unreferenced bytes outweigh the live ones the file is compacted into a new file moved over the old one. A write cut short leaves the
+ * previous footer in place, which is found again by scanning back for the last whole trailer.
+ *
+ * Stores are shared process wide, one per file, and every access to a store is synchronized on it. Only the MAX_OPEN_STORES most recently
+ * opened stores are kept; a store only holds its block index, which is read again if the file changed since, so a store dropped and opened
+ * again picks up where the old one left off.
+ */
+public final class ZonalResultStore {
+    /**
+     * Extension of the store files.
+     */
+    public static final String FILE_EXTENSION = ".zrs";
+
+    /**
+     * Unreferenced bytes tolerated before a file is compacted, as long as they don't outweigh the referenced ones.
+     */
+    public static final long COMPACTION_THRESHOLD = 1 << 20;
+
+    /**
+     * Stores kept open process wide, the least recently opened are dropped beyond this.
+     */
+    public static final int MAX_OPEN_STORES = 256;
+
+    private static final int MAGIC = 0x5A525331;            // "ZRS1"
+    private static final int FOOTER_MAGIC = 0x5A524958;     // "ZRIX"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+    private static final int TRAILER_SIZE = 12;
+    private static final int ENTRY_SIZE = 14;
+
+    private static final LinkedHashMap<String, ZonalResultStore> stores = new LinkedHashMap<String, ZonalResultStore>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, ZonalResultStore> eldest) {
+            return size() > MAX_OPEN_STORES;
+        }
+    };
+
+    private final File file;
+    private TreeMap<Integer, long[]> blocks;    // <day of year, {offset, length}>, null until loaded
+    private long length;                        // end of the last whole trailer
+    private long liveBytes;
+    private long fileLength;                    // file length when last loaded or written, to notice writes by other stores
+
+    private ZonalResultStore(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Gets the store of a file, creating the file on the first write.
+     *
+     * @param file  - the store file
+     * @return the store shared by all users of the file
+     * @throws IOException
+     */
+    public static ZonalResultStore open(File file) throws IOException
+    {
+        String path = file.getCanonicalPath();
+        synchronized(stores) {
+            ZonalResultStore store = stores.get(path);
+            if(store == null) {
+                store = new ZonalResultStore(new File(path));
+                stores.put(path, store);
+            }
+            return store;
+        }
+    }
+
+    /**
+     * Gets the store file.
+     *
+     * @return the file
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Writes the results of a date, replacing any already stored for it.
+     *
+     * @param day  - day of year of the results
+     * @param table  - the results
+     * @throws IOException  if the file can't be written or isn't a store
+     */
+    public synchronized void write(int day, Table table) throws IOException
+    {
+        load();
+        byte[] block = encode(table);
+
+        File directory = file.getParentFile();
+        if(directory != null) {
+            directory.mkdirs();
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            if(length == 0) {
+                raf.seek(0);
+                raf.writeInt(MAGIC);
+                raf.writeInt(VERSION);
+                length = HEADER_SIZE;
+            }
+            long offset = length;
+            raf.seek(offset);
+            raf.write(block);
+
+            TreeMap<Integer, long[]> newBlocks = new TreeMap<Integer, long[]>(blocks);
+            long[] previous = newBlocks.put(day, new long[] {offset, block.length});
+            raf.write(encodeFooter(newBlocks, offset + block.length));
+            raf.setLength(raf.getFilePointer());
+
+            length = raf.length();
+            fileLength = length;
+            blocks = newBlocks;
+            liveBytes += block.length - (previous != null ? previous[1] : 0);
+        }
+        long deadBytes = length - HEADER_SIZE - TRAILER_SIZE - 8 - (long) blocks.size() * ENTRY_SIZE - liveBytes;
+        if(deadBytes > COMPACTION_THRESHOLD && deadBytes > liveBytes) {
+            compact();
+        }
+    }
+
+    /**
+     * Gets the days of year that have results.
+     *
+     * @return the days, ascending
+     * @throws IOException
+     */
+    public synchronized SortedSet<Integer> getDays() throws IOException
+    {
+        load();
+        return new TreeSet<Integer>(blocks.keySet());
+    }
+
+    /**
+     * Checks whether a date has results.
+     *
+     * @param day  - day of year
+     * @return true if results are stored for the day
+     * @throws IOException
+     */
+    public synchronized boolean contains(int day) throws IOException
+    {
+        load();
+        return blocks.containsKey(day);
+    }
+
+    /**
+     * Reads the results of a date.
+     *
+     * @param day  - day of year
+     * @return the results, or null if none are stored for the day
+     * @throws IOException
+     */
+    public synchronized Table read(int day) throws IOException
+    {
+        load();
+        long[] block = blocks.get(day);
+        if(block == null) {
+            return null;
+        }
+
+        byte[] bytes = new byte[(int) block[1]];
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            raf.seek(block[0]);
+            raf.readFully(bytes);
+        }
+        return decode(bytes);
+    }
+
+    /**
+     * Gets the results of a zone on a date. The date's block is read on every call, use read(int) for many zones of a date.
+     *
+     * @param day  - day of year
+     * @param areaCode  - the zone's area code
+     * @return the zone's value of each summary, null where a summary has no value, or null if the date or zone has no results
+     * @throws IOException
+     */
+    public synchronized Map<String, Double> get(int day, int areaCode) throws IOException
+    {
+        Table table = read(day);
+        if(table == null) {
+            return null;
+        }
+        int zone = table.indexOf(areaCode);
+        if(zone < 0) {
+            return null;
+        }
+        Map<String, Double> values = new LinkedHashMap<String, Double>();
+        for(int s=0; s < table.summaryNames.length; s++) {
+            values.put(table.summaryNames[s], table.values[s][zone]);
+        }
+        return values;
+    }
+
+    // Reads the footer, or recovers the last whole one if the file ends in an unfinished write. Read again if the file was written by another
+    // store of it since.
+    private void load() throws IOException
+    {
+        if(blocks != null && file.length() == fileLength) {
+            return;
+        }
+        if(!file.exists() || file.length() == 0) {
+            blocks = new TreeMap<Integer, long[]>();
+            length = 0;
+            liveBytes = 0;
+            fileLength = 0;
+            return;
+        }
+
+        TreeMap<Integer, long[]> found = null;
+        long foundLength = 0;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            fileLength = raf.length();
+            if(fileLength < HEADER_SIZE || raf.readInt() != MAGIC || raf.readInt() != VERSION) {
+                throw new IOException("\"" + file.getPath() + "\" isn't a zonal result store.");
+            }
+
+            if(fileLength >= HEADER_SIZE + TRAILER_SIZE) {
+                raf.seek(fileLength - TRAILER_SIZE);
+                long footerOffset = raf.readLong();
+                if(raf.readInt() == MAGIC && footerOffset >= HEADER_SIZE && footerOffset < fileLength - TRAILER_SIZE) {
+                    byte[] footer = new byte[(int) (fileLength - TRAILER_SIZE - footerOffset)];
+                    raf.seek(footerOffset);
+                    raf.readFully(footer);
+                    found = decodeFooter(ByteBuffer.wrap(footer), 0, footer.length, footerOffset);
+                    foundLength = fileLength;
+                }
+            }
+
+            if(found == null) {
+                byte[] bytes = new byte[(int) fileLength];
+                raf.seek(0);
+                raf.readFully(bytes);
+                ByteBuffer buffer = ByteBuffer.wrap(bytes);
+                for(int end = bytes.length - TRAILER_SIZE; end >= HEADER_SIZE && found == null; end--) {
+                    if(buffer.getInt(end + 8) == MAGIC) {
+                        long footerOffset = buffer.getLong(end);
+                        if(footerOffset >= HEADER_SIZE && footerOffset < end) {
+                            found = decodeFooter(buffer, (int) footerOffset, end, footerOffset);
+                            foundLength = end + TRAILER_SIZE;
+                        }
+                    }
+                }
+                if(found == null) {
+                    found = new TreeMap<Integer, long[]>();
+                    foundLength = HEADER_SIZE;
+                }
+            }
+        }
+
+        blocks = found;
+        length = foundLength;
+        liveBytes = 0;
+        for(long[] block : blocks.values()) {
+            liveBytes += block[1];
+        }
+    }
+
+    // Rewrites the file with only the referenced blocks
+    private void compact() throws IOException
+    {
+        File temp = new File(file.getPath() + ".tmp");
+        TreeMap<Integer, long[]> newBlocks = new TreeMap<Integer, long[]>();
+        long newLength;
+        try (RandomAccessFile in = new RandomAccessFile(file, "r");
+                RandomAccessFile out = new RandomAccessFile(temp, "rw")) {
+            out.setLength(0);
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            for(Map.Entry<Integer, long[]> entry : blocks.entrySet()) {
+                byte[] bytes = new byte[(int) entry.getValue()[1]];
+                in.seek(entry.getValue()[0]);
+                in.readFully(bytes);
+                newBlocks.put(entry.getKey(), new long[] {out.getFilePointer(), bytes.length});
+                out.write(bytes);
+            }
+            out.write(encodeFooter(newBlocks, out.getFilePointer()));
+            newLength = out.getFilePointer();
+        }
+
+        try {
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        blocks = newBlocks;
+        length = newLength;
+        fileLength = newLength;
+    }
+
+    private static byte[] encodeFooter(TreeMap<Integer, long[]> blocks, long footerOffset)
+    {
+        ByteBuffer buffer = ByteBuffer.allocate(8 + blocks.size() * ENTRY_SIZE + TRAILER_SIZE);
+        buffer.putInt(FOOTER_MAGIC);
+        buffer.putInt(blocks.size());
+        for(Map.Entry<Integer, long[]> entry : blocks.entrySet()) {
+            buffer.putShort(entry.getKey().shortValue());
+            buffer.putLong(entry.getValue()[0]);
+            buffer.putInt((int) entry.getValue()[1]);
+        }
+        buffer.putLong(footerOffset);
+        buffer.putInt(MAGIC);
+        return buffer.array();
+    }
+
+    // Null if the bytes from start to end aren't a whole footer whose blocks lie before it
+    private static TreeMap<Integer, long[]> decodeFooter(ByteBuffer buffer, int start, int end, long footerOffset)
+    {
+        if(end - start < 8 || buffer.getInt(start) != FOOTER_MAGIC) {
+            return null;
+        }
+        int entries = buffer.getInt(start + 4);
+        if(entries < 0 || (long) entries * ENTRY_SIZE != end - start - 8) {
+            return null;
+        }
+        TreeMap<Integer, long[]> blocks = new TreeMap<Integer, long[]>();
+        for(int i=0; i < entries; i++) {
+            int entry = start + 8 + i * ENTRY_SIZE;
+            long offset = buffer.getLong(entry + 2);
+            int blockLength = buffer.getInt(entry + 10);
+            if(offset < HEADER_SIZE || blockLength < 0 || offset + blockLength > footerOffset) {
+                return null;
+            }
+            blocks.put((int) buffer.getShort(entry), new long[] {offset, blockLength});
+        }
+        return blocks;
+    }
+
+    private static byte[] encode(Table table) throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(new DeflaterOutputStream(bytes))) {
+            int zones = table.areaCodes.length;
+            out.writeInt(zones);
+            out.writeInt(table.summaryNames.length);
+            for(String summaryName : table.summaryNames) {
+                out.writeUTF(summaryName);
+            }
+            for(int zone=0; zone < zones; zone++) {
+                out.writeInt(table.areaCodes[zone]);
+            }
+            for(int zone=0; zone < zones; zone++) {
+                out.writeUTF(table.areaNames[zone] != null ? table.areaNames[zone] : "");
+            }
+            for(int zone=0; zone < zones; zone++) {
+                out.writeBoolean(table.validData[zone]);
+            }
+            for(Double[] column : table.values) {
+                for(int zone=0; zone < zones; zone++) {
+                    out.writeBoolean(column[zone] != null);
+                    if(column[zone] != null) {
+                        out.writeDouble(column[zone]);
+                    }
+                }
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    private static Table decode(byte[] block) throws IOException
+    {
+        try (DataInputStream in = new DataInputStream(new InflaterInputStream(new ByteArrayInputStream(block)))) {
+            int zones = in.readInt();
+            String[] summaryNames = new String[in.readInt()];
+            for(int s=0; s < summaryNames.length; s++) {
+                summaryNames[s] = in.readUTF();
+            }
+            int[] areaCodes = new int[zones];
+            for(int zone=0; zone < zones; zone++) {
+                areaCodes[zone] = in.readInt();
+            }
+            String[] areaNames = new String[zones];
+            for(int zone=0; zone < zones; zone++) {
+                areaNames[zone] = in.readUTF();
+            }
+            boolean[] validData = new boolean[zones];
+            for(int zone=0; zone < zones; zone++) {
+                validData[zone] = in.readBoolean();
+            }
+            Double[][] values = new Double[summaryNames.length][zones];
+            for(Double[] column : values) {
+                for(int zone=0; zone < zones; zone++) {
+                    column[zone] = in.readBoolean() ? in.readDouble() : null;
+                }
+            }
+            return new Table(summaryNames, areaCodes, areaNames, validData, values);
+        }
+    }
+
+    /**
+     * The zonal summary results of one date: per zone its area code and name, whether any of its pixels held valid data, and its value of each
+     * summary. Zones are kept in ascending area code order.
+     */
+    public static final class Table {
+        public final String[] summaryNames;
+        public final int[] areaCodes;
+        public final String[] areaNames;
+        public final boolean[] validData;
+        public final Double[][] values;     // [summary][zone], null where a zone has no value
+
+        /**
+         * Creates a Table, ordering the zones by area code.
+         *
+         * @param summaryNames  - names of the summaries
+         * @param areaCodes  - area code of each zone
+         * @param areaNames  - area name of each zone
+         * @param validData  - whether each zone received valid data
+         * @param values  - per summary, each zone's value
+         */
+        public Table(String[] summaryNames, int[] areaCodes, String[] areaNames, boolean[] validData, Double[][] values)
+        {
+            Integer[] order = new Integer[areaCodes.length];
+            for(int zone=0; zone < order.length; zone++) {
+                order[zone] = zone;
+            }
+            Arrays.sort(order, new Comparator<Integer>() {
+                @Override
+                public int compare(Integer a, Integer b) {
+                    return Integer.compare(areaCodes[a], areaCodes[b]);
+                }
+            });
+
+            this.summaryNames = summaryNames;
+            this.areaCodes = new int[order.length];
+            this.areaNames = new String[order.length];
+            this.validData = new boolean[order.length];
+            this.values = new Double[summaryNames.length][order.length];
+            for(int zone=0; zone < order.length; zone++) {
+                this.areaCodes[zone] = areaCodes[order[zone]];
+                this.areaNames[zone] = areaNames[order[zone]];
+                this.validData[zone] = validData[order[zone]];
+                for(int s=0; s < summaryNames.length; s++) {
+                    this.values[s][zone] = values[s][order[zone]];
+                }
+            }
+        }
+
+        /**
+         * Finds a zone.
+         *
+         * @param areaCode  - the zone's area code
+         * @return the zone's position, or a negative value if the table has no such zone
+         */
+        public int indexOf(int areaCode) {
+            return Arrays.binarySearch(areaCodes, areaCode);
+        }
+    }
+}
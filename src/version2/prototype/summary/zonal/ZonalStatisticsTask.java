@@ -0,0 +1,210 @@
+package version2.prototype.summary.zonal;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.EnumSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import org.gdal.gdal.Band;
+import org.gdal.gdal.Dataset;
+import org.gdal.gdalconst.gdalconstConstants;
+
+import version2.prototype.summary.zonal.ZonalAccumulator.Statistic;
+import version2.prototype.util.GdalContext;
+import version2.prototype.util.RasterBlockIterator;
+import version2.prototype.util.RasterBuffer;
+import version2.prototype.util.RasterWindow;
+
+/**
+ * Zonal statistics of rasters sharing one grid, computed on row bands in parallel. The grid is cut into bands of whole block rows, each band
+ * is summarized into partial accumulators (one per raster) on a worker of a process wide ForkJoinPool, and the partials are merged pairwise
+ * up the split tree.
+ *
+ * The band height and the split tree only depend on the grid, never on the number of threads or on scheduling, so the partial sums are always
+ * added in the same grouping and the results are bit for bit the same however many threads ran them. A grid of a single band is summarized on
+ * the calling thread.
+ *
+ * Only the parts of the grid that features touch are read: windows no feature's window overlaps are skipped, and the others are clipped to the
+ * overlap, so sparse shape files cost reads in proportion to the area they cover rather than their extent.
+ */
+final class ZonalStatisticsTask extends RecursiveTask<ZonalAccumulator[]> {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Fewest pixels a band is given; bands are then rounded up to whole block rows.
+     */
+    public static final int MIN_BAND_PIXELS = 1 << 20;
+
+    private static final ForkJoinPool pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+
+    private final String[] rasterPaths;
+    private final ZoneRasterCache.ZoneGrid zoneGrid;
+    private final FeatureWindowIndex features;
+    private final ZoneIndex zones;
+    private final EnumSet<Statistic> statistics;
+    private final double noData;
+    private final int blockXSize;
+    private final int blockYSize;
+    private final int bandRows;
+    private final int rowStart;
+    private final int rowEnd;
+
+    private ZonalStatisticsTask(String[] rasterPaths, ZoneRasterCache.ZoneGrid zoneGrid, FeatureWindowIndex features, ZoneIndex zones, EnumSet<Statistic> statistics,
+            double noData, int blockXSize, int blockYSize, int bandRows, int rowStart, int rowEnd)
+    {
+        this.rasterPaths = rasterPaths;
+        this.zoneGrid = zoneGrid;
+        this.features = features;
+        this.zones = zones;
+        this.statistics = statistics;
+        this.noData = noData;
+        this.blockXSize = blockXSize;
+        this.blockYSize = blockYSize;
+        this.bandRows = bandRows;
+        this.rowStart = rowStart;
+        this.rowEnd = rowEnd;
+    }
+
+    /**
+     * Summarizes rasters sharing one grid and adds the results to the given accumulators.
+     *
+     * @param rasterPaths  - files of the rasters, opened again on each worker since GDAL handles can't be shared between threads
+     * @param blockBand  - first band of the first raster, its block layout sets the band boundaries
+     * @param zoneGrid  - zone grid of the rasters' grid
+     * @param features  - windows of the layer's features on the zone grid
+     * @param accumulators  - one accumulator per raster, all over the same zones and keeping the same statistics
+     * @param noData  - value of the pixels to leave out
+     * @throws IOException  if a raster can't be opened or read
+     */
+    public static void run(String[] rasterPaths, Band blockBand, ZoneRasterCache.ZoneGrid zoneGrid, FeatureWindowIndex features, ZonalAccumulator[] accumulators,
+            double noData) throws IOException
+    {
+        int blockXSize = Math.max(1, Math.min(blockBand.GetBlockXSize(), zoneGrid.xSize));
+        int blockYSize = Math.max(1, Math.min(blockBand.GetBlockYSize(), zoneGrid.ySize));
+        int minRows = Math.max(1, MIN_BAND_PIXELS / Math.max(1, zoneGrid.xSize));
+        int bandRows = ((minRows + blockYSize - 1) / blockYSize) * blockYSize;
+
+        ZonalStatisticsTask task = new ZonalStatisticsTask(rasterPaths, zoneGrid, features, accumulators[0].getZones(), accumulators[0].getStatistics(), noData,
+                blockXSize, blockYSize, bandRows, 0, zoneGrid.ySize);
+        ZonalAccumulator[] partials;
+        try {
+            partials = zoneGrid.ySize <= bandRows ? task.summarizeBand() : pool.invoke(task);
+        } catch (RuntimeException e) {
+            // the pool may rethrow a copy of the worker's exception, so look for the IOException down the causes
+            for(Throwable cause = e; cause != null; cause = cause.getCause()) {
+                if(cause instanceof IOException) {
+                    throw (IOException) cause;
+                }
+            }
+            throw e;
+        }
+
+        for(int k=0; k < accumulators.length; k++) {
+            accumulators[k].merge(partials[k]);
+        }
+    }
+
+    /* (non-Javadoc)
+     * @see java.util.concurrent.RecursiveTask#compute()
+     */
+    @Override
+    protected ZonalAccumulator[] compute()
+    {
+        int bands = (rowEnd - rowStart + bandRows - 1) / bandRows;
+        if(bands <= 1) {
+            try {
+                return summarizeBand();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        int split = rowStart + (bands / 2) * bandRows;
+        ZonalStatisticsTask upper = new ZonalStatisticsTask(rasterPaths, zoneGrid, features, zones, statistics, noData, blockXSize, blockYSize, bandRows, rowStart, split);
+        ZonalStatisticsTask lower = new ZonalStatisticsTask(rasterPaths, zoneGrid, features, zones, statistics, noData, blockXSize, blockYSize, bandRows, split, rowEnd);
+        upper.fork();
+        ZonalAccumulator[] lowerResult = lower.compute();
+        ZonalAccumulator[] upperResult = upper.join();
+
+        // Always upper then lower, so the grouping of the sums doesn't depend on which half finished first
+        for(int k=0; k < upperResult.length; k++) {
+            upperResult[k].merge(lowerResult[k]);
+        }
+        return upperResult;
+    }
+
+    // Summarizes rows rowStart to rowEnd a block-aligned window at a time, with this thread's own handles on the rasters
+    private ZonalAccumulator[] summarizeBand() throws IOException
+    {
+        ZonalAccumulator[] partials = new ZonalAccumulator[rasterPaths.length];
+        for(int k=0; k < partials.length; k++) {
+            partials[k] = new ZonalAccumulator(zones, statistics);
+        }
+        if(features.clip(new RasterWindow(0, rowStart, zoneGrid.xSize, rowEnd - rowStart)) == null) {
+            return partials;
+        }
+
+        RasterBlockIterator windows = new RasterBlockIterator(zoneGrid.xSize, rowEnd - rowStart, blockXSize, blockYSize, RasterBlockIterator.DEFAULT_WINDOW_PIXELS);
+        Dataset[] rasters = new Dataset[rasterPaths.length];
+        Band[] bands = new Band[rasterPaths.length];
+        RasterBuffer[] buffers = new RasterBuffer[rasterPaths.length];
+
+        try (GdalContext gdalContext = GdalContext.open())
+        {
+            for(int k=0; k < rasterPaths.length; k++) {
+                rasters[k] = gdalContext.open(rasterPaths[k]);
+                if(rasters[k] == null) {
+                    throw new IOException("Failed to open \"" + rasterPaths[k] + "\".");
+                }
+                bands[k] = rasters[k].GetRasterBand(1);
+                buffers[k] = RasterBuffer.forBand(bands[k], windows.getMaxWindowSize());
+            }
+
+            for(RasterWindow bandWindow : windows)
+            {
+                RasterWindow window = features.clip(new RasterWindow(bandWindow.xOff, rowStart + bandWindow.yOff, bandWindow.width, bandWindow.height));
+                if(window == null) {
+                    continue;
+                }
+                for(int k=0; k < bands.length; k++) {
+                    if(buffers[k].read(bands[k], window) != gdalconstConstants.CE_None) {
+                        throw new IOException("Failed to read window " + window + " of \"" + rasterPaths[k] + "\".");
+                    }
+                }
+
+                for(int y=0; y < window.height; y++) {
+                    int row = (window.yOff + y) * zoneGrid.xSize + window.xOff;
+                    for(int x=0; x < window.width; x++) {
+                        int slot = zones.indexOf(zoneGrid.get(row + x));
+                        if(slot < 0) {
+                            continue;
+                        }
+                        int i = y * window.width + x;
+                        for(int k=0; k < buffers.length; k++) {
+                            double value = buffers[k].get(i);
+                            if(value != noData) {
+                                partials[k].add(slot, value);
+                            } else {
+                                partials[k].addNoData(slot);
+                            }
+                        }
+                    }
+                }
+            }
+        } finally {
+            for(RasterBuffer buffer : buffers) {
+                if(buffer != null) {
+                    buffer.release();
+                }
+            }
+            // on the calling thread the context is the caller's and stays open, so release the handles now
+            for(Dataset raster : rasters) {
+                if(raster != null) {
+                    raster.delete();
+                }
+            }
+        }
+        return partials;
+    }
+}
@@ -2,7 +2,6 @@ package version2.prototype.summary.zonal;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.PrintWriter;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.time.LocalDate;
@@ -13,7 +12,6 @@ import java.util.Set;
 import javax.xml.parsers.ParserConfigurationException;
 
 import org.gdal.gdal.Dataset;
-import org.gdal.gdal.gdal;
 import org.gdal.ogr.DataSource;
 import org.gdal.ogr.Layer;
 import org.gdal.ogr.ogr;
@@ -26,13 +24,16 @@ import version2.prototype.summary.temporal.TemporalSummaryCompositionStrategy;
 import version2.prototype.summary.temporal.TemporalSummaryRasterFileStore;
 import version2.prototype.util.DatabaseCache;
 import version2.prototype.util.DatabaseConnection;
+import version2.prototype.util.GdalContext;
 import version2.prototype.util.GdalUtils;
 import version2.prototype.util.GeneralUIEventObject;
 import version2.prototype.util.IndicesFileMetaData;
 import version2.prototype.util.Schemas;
 
 /**
- * Calculates the zonal summary for a given raster file using the defined SummariesCollection object.
+ * Calculates the zonal summary for given raster files using the defined SummariesCollection objects. The raster files are the index files of
+ * one date: they are summarized in one pass over the zones and each one's results are written to its index's ZonalResultStore of the year
+ * and uploaded as its index's results.
  *
  * @author michael.devos
  *
@@ -42,12 +43,12 @@ public class ZonalSummaryCalculator {
     private final Process process;
     @SuppressWarnings("unused")
     private final String workingDir;
-    private final IndicesFileMetaData inputFile;
+    private final IndicesFileMetaData[] inputFiles;
     private final String shapeFilePath;
-    private final File mTableFile;
+    private final File[] mTableFiles;
     private final String areaCodeField;
     private final String areaNameField;
-    private final SummariesCollection summariesCollection;
+    private final SummariesCollection[] summariesCollections;
     private final String globalSchema;
     private final String projectName;
     private final String pluginName;
@@ -56,6 +57,7 @@ public class ZonalSummaryCalculator {
     private final Integer noDataValue;
     private final TemporalSummaryRasterFileStore fileStore;
     private final DatabaseCache outputCache;
+    private final SharedZonalResults sharedResults;
 
     private Map<Integer, Boolean> zoneReceivedValidData;
     private static Integer invalidZoneCountTot = 0;
@@ -71,7 +73,7 @@ public class ZonalSummaryCalculator {
      * @param pluginName
      * @param daysPerInputData
      * @param inputFile
-     * @param outTableFile  - where to write output to
+     * @param outTableFile  - ZonalResultStore file to write output to
      * @param summariesCollection  - collection of summary calculations to run on raster data
      * @param summary
      * @param fileStore
@@ -79,16 +81,42 @@ public class ZonalSummaryCalculator {
      */
     public ZonalSummaryCalculator(DatabaseConnection con, Process process, String globalSchema, String workingDir, String projectName, String pluginName, int daysPerInputData, IndicesFileMetaData inputFile,
             File outTableFile, SummariesCollection summariesCollection, ProjectInfoSummary summary, Integer noDataValue, TemporalSummaryRasterFileStore fileStore, DatabaseCache outputCache)
+    {
+        this(con, process, globalSchema, workingDir, projectName, pluginName, daysPerInputData, new IndicesFileMetaData[] {inputFile}, new File[] {outTableFile},
+                new SummariesCollection[] {summariesCollection}, summary, noDataValue, fileStore, outputCache, null);
+    }
+
+    /**
+     * Creates a ZonalSummaryCalculator summarizing the index files of one date in a single pass.
+     * @param con
+     * @param process
+     * @param globalSchema
+     * @param workingDir
+     * @param projectName  - current project's name
+     * @param pluginName
+     * @param daysPerInputData
+     * @param inputFiles  - index files of one date
+     * @param outTableFiles  - ZonalResultStore file to write each input file's output to
+     * @param summariesCollections  - one collection of summary calculations per input file, none shared
+     * @param summary
+     * @param fileStore
+     * @param outputCache
+     * @param sharedResults  - results shared with other projects to import instead of summarizing and to publish what's summarized to, or null.
+     * Imported results don't fill the summariesCollections, so they can't be shared with a summary rolled up from this one.
+     */
+    public ZonalSummaryCalculator(DatabaseConnection con, Process process, String globalSchema, String workingDir, String projectName, String pluginName, int daysPerInputData,
+            IndicesFileMetaData[] inputFiles, File[] outTableFiles, SummariesCollection[] summariesCollections, ProjectInfoSummary summary, Integer noDataValue,
+            TemporalSummaryRasterFileStore fileStore, DatabaseCache outputCache, SharedZonalResults sharedResults)
     {
         this.con = con;
         this.process = process;
         this.workingDir = workingDir;
-        this.inputFile = inputFile;
-        mTableFile = outTableFile;
+        this.inputFiles = inputFiles;
+        mTableFiles = outTableFiles;
         shapeFilePath = summary.GetZonalSummary().GetShapeFile();
         areaCodeField = summary.GetZonalSummary().GetAreaCodeField();
         areaNameField = summary.GetZonalSummary().GetAreaNameField();
-        this.summariesCollection = summariesCollection;
+        this.summariesCollections = summariesCollections;
         this.globalSchema = globalSchema;
         this.projectName = projectName;
         this.pluginName = pluginName;
@@ -97,33 +125,74 @@ public class ZonalSummaryCalculator {
         this.noDataValue = noDataValue;
         this.fileStore = fileStore;
         this.outputCache = outputCache;
+        this.sharedResults = sharedResults;
 
         zoneReceivedValidData = new HashMap<Integer, Boolean>();
     }
 
     /**
-     * Run ZonalSummaryCalculator.
-     * @throws Exception
+     * Run ZonalSummaryCalculator. Input files whose results another project already shared are imported, the others summarized. Problems
+     * writing or uploading the results of one input file are logged and the other files' results still written.
+     * @return the input files whose results were written and uploaded
+     * @throws Exception  if the statistics couldn't be calculated
      */
-    public void calculate() throws Exception {
-        LayerFileData layerData = null;
+    @SuppressWarnings("try")
+    public ArrayList<IndicesFileMetaData> calculate() throws Exception {
+        ArrayList<IndicesFileMetaData> summarized = new ArrayList<IndicesFileMetaData>(inputFiles.length);
 
-        GdalUtils.register();
-        synchronized (GdalUtils.lockObject) {
-            Dataset raster = null;
+        // Import the results another project already computed from the same rasters, only the rest are summarized here
+        ArrayList<Integer> toCalculate = new ArrayList<Integer>(inputFiles.length);
+        for (int k=0; k < inputFiles.length; k++) {
+            ZonalResultStore.Table table = null;
+            if(sharedResults != null) {
+                try {
+                    table = sharedResults.find(inputFiles[k].indexNm, inputFiles[k].year, inputFiles[k].day);
+                } catch (IOException e) {
+                    ErrorLog.add(process, "Problem reading shared zonal summary results for index " + inputFiles[k].indexNm + ", date {day of year=" + inputFiles[k].day
+                            + ", year=" + inputFiles[k].year + "}, summarizing the raster instead.", e);
+                }
+            }
+            if(table != null) {
+                if(!storeResults(k, table)) {
+                    return summarized;
+                }
+                summarized.add(inputFiles[k]);
+            } else {
+                toCalculate.add(k);
+            }
+        }
+        if(toCalculate.size() == 0) {
+            return summarized;
+        }
+
+        int[] files = new int[toCalculate.size()];
+        IndicesFileMetaData[] calculateFiles = new IndicesFileMetaData[files.length];
+        SummariesCollection[] calculateCollections = new SummariesCollection[files.length];
+        for (int j=0; j < files.length; j++) {
+            files[j] = toCalculate.get(j);
+            calculateFiles[j] = inputFiles[files[j]];
+            calculateCollections[j] = summariesCollections[files[j]];
+        }
+
+        ArrayList<LayerFileData> layerData = null;
+        try (GdalContext gdalContext = GdalContext.open()) {
+            Dataset[] rasters = new Dataset[calculateFiles.length];
             DataSource layerSource = null;
             Layer layer = null;
-            Dataset zoneRaster = null;
             try {
                 // Open inputs
-                raster = gdal.Open(inputFile.dataFilePath);
-                GdalUtils.errorCheck();
-                layerSource = ogr.Open(shapeFilePath);
-                GdalUtils.errorCheck();
-                layer = layerSource.GetLayer(0);
+                for (int k=0; k < calculateFiles.length; k++) {
+                    rasters[k] = gdalContext.open(calculateFiles[k].dataFilePath);
+                    GdalUtils.errorCheck();
+                }
+                try (GdalContext.Exclusive lock = GdalContext.exclusive()) {
+                    layerSource = ogr.Open(shapeFilePath);
+                    GdalUtils.errorCheck();
+                    layer = layerSource.GetLayer(0);
+                }
 
                 // Get data from layer file
-                layerData = new LayerFileData(inputFile, shapeFilePath, layer, areaCodeField, areaNameField, summariesCollection, raster, noDataValue);
+                layerData = LayerFileData.calculate(calculateFiles, shapeFilePath, layer, areaCodeField, areaNameField, calculateCollections, rasters, noDataValue);
             }
             catch (IllegalArgumentException | UnsupportedOperationException | IOException e)
             {
@@ -131,10 +200,12 @@ public class ZonalSummaryCalculator {
             }
             finally
             {
-                try {
-                    if (raster != null) {
-                        raster.delete();
-                        GdalUtils.errorCheck();
+                try (GdalContext.Exclusive lock = GdalContext.exclusive()) {
+                    for (Dataset raster : rasters) {
+                        if (raster != null) {
+                            raster.delete();
+                            GdalUtils.errorCheck();
+                        }
                     }
                     if (layer != null) {
                         layer.delete(); GdalUtils.errorCheck();
@@ -142,122 +213,166 @@ public class ZonalSummaryCalculator {
                     if (layerSource != null) {
                         layerSource.delete(); GdalUtils.errorCheck();
                     }
-                    if (zoneRaster != null) {
-                        zoneRaster.delete(); GdalUtils.errorCheck();
-                    }
                 } catch (IllegalArgumentException | UnsupportedOperationException | IOException e) {
                     ErrorLog.add(process, "Problem with deleting Gdal related resources.", e);
                 }
             }
         }
 
-        if(layerData != null)
-        {
-            // Write the table
-            writeTable(layerData, layerData.getCountMap());
-
-            // Write to database
-            uploadResultsToDb(mTableFile, layerData, layerData.getCountMap(), areaCodeField, areaNameField, inputFile.indexNm, summary, fileStore, summariesCollection, inputFile.year, inputFile.day, process);
-        } else {
+        if(layerData == null) {
             throw new InstantiationException("Failed to get layer data.");
         }
+
+        summarized.addAll(writeResults(layerData, files));
+        return summarized;
     }
 
-    private void writeTable(LayerFileData layerData, Map<Integer, Double> countMap) throws IllegalArgumentException, UnsupportedOperationException, IOException {
-        // Write the table
-        String directory = mTableFile.getCanonicalPath().substring(0, mTableFile.getCanonicalPath().lastIndexOf("\\"));
-        new File(directory).mkdirs();
-        PrintWriter writer = new PrintWriter(mTableFile);
+    /**
+     * Run ZonalSummaryCalculator for a summary rolled up from a finer one. The finer summary's collections must hold the accumulators of the
+     * same input files, as left by its own ZonalSummaryCalculator; the results are written and uploaded as calculate() would.
+     * @param childCollections  - the finer summary's collections, one per input file
+     * @param hierarchy  - parent of each of the finer summary's areas in this summary's areas
+     * @return the input files whose results were written and uploaded
+     * @throws Exception  if the statistics couldn't be rolled up
+     */
+    @SuppressWarnings("try")
+    public ArrayList<IndicesFileMetaData> rollUp(SummariesCollection[] childCollections, ZoneHierarchy hierarchy) throws Exception {
+        ArrayList<LayerFileData> layerData = null;
 
-        ArrayList<SummaryNameResultPair> results = summariesCollection.getResults();
+        DataSource layerSource = null;
+        Layer layer = null;
+        try {
+            try (GdalContext.Exclusive lock = GdalContext.exclusive()) {
+                layerSource = ogr.Open(shapeFilePath);
+                GdalUtils.errorCheck();
+                layer = layerSource.GetLayer(0);
+            }
 
-        writer.print("Area Name, Area Code, ");
-        for(int i=0; i < results.size(); i++)
+            layerData = LayerFileData.rollUp(layer, areaCodeField, areaNameField, hierarchy, childCollections, summariesCollections);
+        }
+        catch (IllegalArgumentException | UnsupportedOperationException | IOException e)
         {
-            String name = results.get(i).getSimpleName();
-            if(i < results.size() - 1) {
-                writer.print(name + ", ");
-            } else {
-                writer.println(name);
+            ErrorLog.add(process, "Problem with rolling up zonal summaries.", e);
+        }
+        finally
+        {
+            try (GdalContext.Exclusive lock = GdalContext.exclusive()) {
+                if (layer != null) {
+                    layer.delete(); GdalUtils.errorCheck();
+                }
+                if (layerSource != null) {
+                    layerSource.delete(); GdalUtils.errorCheck();
+                }
+            } catch (IllegalArgumentException | UnsupportedOperationException | IOException e) {
+                ErrorLog.add(process, "Problem with deleting Gdal related resources.", e);
             }
         }
 
-        String areaName;
-        Map<Integer, String> areas = layerData.getAreas();
-        for(Integer areaCode : areas.keySet())
+        if(layerData == null) {
+            throw new InstantiationException("Failed to get layer data.");
+        }
+
+        int[] files = new int[inputFiles.length];
+        for (int k=0; k < files.length; k++) {
+            files[k] = k;
+        }
+        return writeResults(layerData, files);
+    }
+
+    // Writes and uploads the results of the input files, layerData.get(j) holding those of inputFiles[files[j]]
+    private ArrayList<IndicesFileMetaData> writeResults(ArrayList<LayerFileData> layerData, int[] files) {
+        ArrayList<IndicesFileMetaData> summarized = new ArrayList<IndicesFileMetaData>(files.length);
+        for (int j=0; j < files.length; j++)
         {
-            areaName = areas.get(areaCode);
-            if (countMap.get(areaCode) != null && countMap.get(areaCode) != 0) {
-                writer.print(areaName + ", " + areaCode + ", ");
-                for(int i=0; i < results.size(); i++){
-                    if(i < results.size() - 1) {
-                        writer.print(results.get(i).getResult().get(areaCode) + ", ");
-                    } else {
-                        writer.println(results.get(i).getResult().get(areaCode));
-                    }
+            int k = files[j];
+            ZonalResultStore.Table table = getTable(layerData.get(j), layerData.get(j).getCountMap(), summariesCollections[k]);
+            if(sharedResults != null) {
+                try {
+                    sharedResults.publish(inputFiles[k].indexNm, inputFiles[k].year, inputFiles[k].day, table);
+                } catch (IOException e) {
+                    ErrorLog.add(process, "Problem sharing zonal summary results for summary " + summary.toString() + ", index " + inputFiles[k].indexNm + ", date {day of year="
+                            + inputFiles[k].day + ", year=" + inputFiles[k].year + "}.", e);
                 }
             }
+            if(!storeResults(k, table)) {
+                break;
+            }
+            summarized.add(inputFiles[k]);
+        }
+        return summarized;
+    }
+
+    // Writes the results of an input file to its table and the database. False if interrupted, a failure is logged and true returned.
+    private boolean storeResults(int k, ZonalResultStore.Table table) {
+        try {
+            // Write the table
+            ZonalResultStore.open(mTableFiles[k]).write(inputFiles[k].day, table);
+
+            // Write to database
+            uploadResultsToDb(mTableFiles[k], inputFiles[k], table, inputFiles[k].indexNm, summary, fileStore, inputFiles[k].year, inputFiles[k].day, process);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (Exception e) {
+            ErrorLog.add(process, "Problem writing zonal summary results for summary " + summary.toString() + ", index " + inputFiles[k].indexNm + ", date {day of year="
+                    + inputFiles[k].day + ", year=" + inputFiles[k].year + "}.", e);
+        }
+        return true;
+    }
+
+    private ZonalResultStore.Table getTable(LayerFileData layerData, Map<Integer, Double> countMap, SummariesCollection summariesCollection) {
+        ArrayList<SummaryNameResultPair> results = summariesCollection.getResults();
+        Map<Integer, String> areas = layerData.getAreas();
+
+        String[] summaryNames = new String[results.size()];
+        for(int i=0; i < results.size(); i++) {
+            summaryNames[i] = results.get(i).getSimpleName();
         }
 
-        writer.close();
+        int[] areaCodes = new int[areas.size()];
+        String[] areaNames = new String[areas.size()];
+        boolean[] validData = new boolean[areas.size()];
+        Double[][] values = new Double[results.size()][areas.size()];
+        int zone = 0;
+        for(Integer areaCode : areas.keySet())
+        {
+            areaCodes[zone] = areaCode;
+            areaNames[zone] = areas.get(areaCode);
+            validData[zone] = countMap.get(areaCode) != null && countMap.get(areaCode) != 0;
+            for(int i=0; i < results.size(); i++) {
+                values[i][zone] = results.get(i).getResult().get(areaCode);
+            }
+            zone++;
+        }
+        return new ZonalResultStore.Table(summaryNames, areaCodes, areaNames, validData, values);
     }
 
-    private void uploadResultsToDb(File mTableFile, LayerFileData layerData, Map<Integer, Double> countMap, String areaCodeField, String areaNameField, String indexNm, ProjectInfoSummary summary,
-            TemporalSummaryRasterFileStore fileStore, SummariesCollection summariesCollection, int year, int day, Process process) throws IllegalArgumentException, UnsupportedOperationException,
-            IOException, ClassNotFoundException, ParserConfigurationException, SAXException, SQLException {
+    private void uploadResultsToDb(File mTableFile, IndicesFileMetaData inputFile, ZonalResultStore.Table table, String indexNm, ProjectInfoSummary summary,
+            TemporalSummaryRasterFileStore fileStore, int year, int day, Process process) throws IllegalArgumentException, UnsupportedOperationException,
+            IOException, ClassNotFoundException, ParserConfigurationException, SAXException, SQLException, InterruptedException {
         Statement stmt = con.createStatement();
         ArrayList<SummaryResult> newResults = new ArrayList<SummaryResult>();
-        ArrayList<SummaryNameResultPair> results = summariesCollection.getResults();
         Map<Integer, String> zoneNameMap = new HashMap<Integer, String>();
 
         int indexID = Schemas.getIndexID(globalSchema, indexNm, stmt);
-        int projectSummaryID;
-        int dateGroupID;
-        Integer areaCodeTemp = null;
-        Double value;
-        String areaName = null;
         String filePath = mTableFile.getCanonicalPath();
-        SummaryNameResultPair pair = null;
-        Map<Integer, Double> result = null;
         Map<String, Double> summaryAreaResult = null;
-        Map<Integer, String> areas = layerData.getAreas();
         try{
-            for(Integer areaCode : areas.keySet())
+            int projectSummaryID = Schemas.getProjectSummaryID(globalSchema, projectName, summary.GetID(), stmt);
+            int dateGroupID = Schemas.getDateGroupID(globalSchema, LocalDate.ofYearDay(year, day), stmt);
+            for(int zone=0; zone < table.areaCodes.length; zone++)
             {
-                areaCodeTemp = areaCode;
-                areaName = areas.get(areaCode);
                 summaryAreaResult = new HashMap<String, Double>();
-                if(zoneNameMap.get(areaCode) == null) {
-                    zoneNameMap.put(areaCode, areaName);
+                if(zoneNameMap.get(table.areaCodes[zone]) == null) {
+                    zoneNameMap.put(table.areaCodes[zone], table.areaNames[zone]);
                 }
 
-                if (countMap.get(areaCode) != null && countMap.get(areaCode) != 0)
+                // If there were no valid values for this area code then insert nulls
+                for(int i=0; i < table.summaryNames.length; i++)
                 {
-                    // Insert values
-                    projectSummaryID = Schemas.getProjectSummaryID(globalSchema, projectName, summary.GetID(), stmt);
-                    dateGroupID = Schemas.getDateGroupID(globalSchema, LocalDate.ofYearDay(year, day), stmt);
-                    for(int i=0; i < results.size(); i++)
-                    {
-                        pair = results.get(i);
-                        result = pair.getResult();
-                        value = result.get(areaCode);
-                        summaryAreaResult.put(pair.getSimpleName(), value);
-                    }
-                    newResults.add(new SummaryResult(projectSummaryID, areaName, areaCode, dateGroupID, indexID, filePath, summaryAreaResult));
-                }
-                // If there were no valid values for this area code then insert a null
-                else
-                {
-                    // Insert null values
-                    projectSummaryID = Schemas.getProjectSummaryID(globalSchema, projectName, summary.GetID(), stmt);
-                    dateGroupID = Schemas.getDateGroupID(globalSchema, LocalDate.ofYearDay(year, day), stmt);
-                    for(int i=0; i < results.size(); i++)
-                    {
-                        pair = results.get(i);
-                        summaryAreaResult.put(pair.getSimpleName(), null);
-                    }
-                    newResults.add(new SummaryResult(projectSummaryID, areaName, areaCode, dateGroupID, indexID, filePath, summaryAreaResult));
+                    summaryAreaResult.put(table.summaryNames[i], table.validData[zone] ? table.values[i][zone] : null);
                 }
+                newResults.add(new SummaryResult(projectSummaryID, table.areaNames[zone], table.areaCodes[zone], dateGroupID, indexID, filePath, summaryAreaResult));
             }
         } finally {
             stmt.close();
@@ -287,7 +402,7 @@ public class ZonalSummaryCalculator {
                     + "', Summary ID="+ summary.GetID() + ", date={year: " + year + ", day of year: " + day + "}"));
         }
 
-        outputCache.UploadResultsToDb(con, newResults, summary.GetID(), indexNm, compStrategy, year, day, process, daysPerInputData);
+        outputCache.UploadResultsToDb(newResults, summary.GetID(), indexNm, compStrategy, year, day, process, daysPerInputData);
     }
 
 }
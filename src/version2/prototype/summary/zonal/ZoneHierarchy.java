@@ -0,0 +1,99 @@
+package version2.prototype.summary.zonal;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.gdal.ogr.DataSource;
+import org.gdal.ogr.Feature;
+import org.gdal.ogr.Layer;
+import org.gdal.ogr.ogr;
+
+import version2.prototype.util.GdalContext;
+import version2.prototype.util.GdalUtils;
+
+/**
+ * Maps the areas of a fine zonal summary (e.g. counties) to the areas of a coarser one containing them (e.g. states). The mapping is read from
+ * the fine shape file, whose features carry the area code of their parent area in a field of their own, and is used to roll the fine summary's
+ * accumulators up into the coarse summary's without another pass over the rasters.
+ */
+public final class ZoneHierarchy {
+    private final Map<Integer, Integer> parents;    // <child area code, parent area code>
+
+    private ZoneHierarchy(Map<Integer, Integer> parents) {
+        this.parents = parents;
+    }
+
+    /**
+     * Reads the parent of every area of a shape file.
+     *
+     * @param shapeFilePath  - the fine summary's shape file
+     * @param areaCodeField  - field holding the fine area codes
+     * @param parentCodeField  - field holding the area code of each feature's parent area
+     * @return the hierarchy
+     * @throws IOException  if the shape file can't be read, or features of one area have different parents
+     * @throws IllegalArgumentException
+     * @throws UnsupportedOperationException
+     */
+    @SuppressWarnings("try")
+    public static ZoneHierarchy read(String shapeFilePath, String areaCodeField, String parentCodeField) throws IOException, IllegalArgumentException,
+    UnsupportedOperationException
+    {
+        Map<Integer, Integer> parents = new HashMap<Integer, Integer>();
+        try (GdalContext.Exclusive lock = GdalContext.exclusive()) {
+            DataSource layerSource = ogr.Open(shapeFilePath);
+            GdalUtils.errorCheck();
+            if(layerSource == null) {
+                throw new IOException("Failed to open \"" + shapeFilePath + "\".");
+            }
+            try {
+                Layer layer = layerSource.GetLayer(0); GdalUtils.errorCheck();
+                if(layer.FindFieldIndex(parentCodeField, 1) < 0) {
+                    throw new IOException("\"" + shapeFilePath + "\" has no field \"" + parentCodeField + "\".");
+                }
+
+                layer.ResetReading(); GdalUtils.errorCheck();
+                Feature feature = layer.GetNextFeature(); GdalUtils.errorCheck();
+                while (feature != null) {
+                    int areaCode = feature.GetFieldAsInteger(areaCodeField); GdalUtils.errorCheck();
+                    int parentCode = feature.GetFieldAsInteger(parentCodeField); GdalUtils.errorCheck();
+                    Integer previous = parents.put(areaCode, parentCode);
+                    if(previous != null && previous != parentCode) {
+                        throw new IOException("Area " + areaCode + " of \"" + shapeFilePath + "\" has features in areas " + previous + " and " + parentCode + " of its parent summary.");
+                    }
+                    feature = layer.GetNextFeature(); GdalUtils.errorCheck();
+                }
+                layer.delete();
+            } finally {
+                layerSource.delete();
+            }
+        }
+        return new ZoneHierarchy(parents);
+    }
+
+    /**
+     * Gets the area code of the parent area of an area.
+     *
+     * @param areaCode  - fine area code
+     * @return the parent's area code, or null if the area isn't in the shape file
+     */
+    public Integer getParent(int areaCode) {
+        return parents.get(areaCode);
+    }
+
+    /**
+     * Maps the slots of fine zones to the slots of their parent zones, for ZonalAccumulator.rollUp(ZonalAccumulator, int[]).
+     *
+     * @param children  - the fine zones
+     * @param parentZones  - the coarse zones
+     * @return for each slot of children, the slot of its parent in parentZones or -1 if it has none there
+     */
+    public int[] getParentSlots(ZoneIndex children, ZoneIndex parentZones) {
+        int[] parentSlots = new int[children.size()];
+        for(int slot=0; slot < parentSlots.length; slot++) {
+            Integer parent = parents.get(children.getZone(slot));
+            parentSlots[slot] = parent != null ? parentZones.indexOf(parent) : -1;
+        }
+        return parentSlots;
+    }
+}
@@ -0,0 +1,91 @@
+package version2.prototype.summary.zonal;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Maps the area codes of a shapefile to dense slots 0..size()-1, so per zone running values can be kept in plain arrays. Codes spanning a
+ * small range are looked up in a table indexed by the code itself, others by a binary search over the sorted codes.
+ *
+ * @author michael.devos
+ *
+ */
+public final class ZoneIndex {
+    /**
+     * Widest range of codes (largest minus smallest) looked up through a direct table.
+     */
+    public static final int MAX_TABLE_SPAN = 1 << 22;
+
+    private final int[] zones;      // slot -> zone, sorted ascending
+    private final int[] table;      // zone - minZone -> slot, or -1; null when the codes are too sparse
+    private final int minZone;
+
+    /**
+     * Creates a ZoneIndex over the given area codes. Duplicates are ignored.
+     *
+     * @param zoneCodes  - area codes of the shapefile's features
+     */
+    public ZoneIndex(Collection<Integer> zoneCodes) {
+        int[] codes = new int[zoneCodes.size()];
+        int n = 0;
+        for(Integer code : zoneCodes) {
+            codes[n++] = code;
+        }
+        Arrays.sort(codes);
+
+        // Drop duplicates
+        int size = 0;
+        for(int i=0; i < codes.length; i++) {
+            if(size == 0 || codes[i] != codes[size - 1]) {
+                codes[size++] = codes[i];
+            }
+        }
+        zones = Arrays.copyOf(codes, size);
+
+        if(size > 0 && (long) zones[size - 1] - zones[0] < MAX_TABLE_SPAN) {
+            minZone = zones[0];
+            table = new int[zones[size - 1] - minZone + 1];
+            Arrays.fill(table, -1);
+            for(int slot=0; slot < size; slot++) {
+                table[zones[slot] - minZone] = slot;
+            }
+        } else {
+            minZone = 0;
+            table = null;
+        }
+    }
+
+    /**
+     * Gets the slot of a zone.
+     *
+     * @param zone  - area code as burned into the zone raster
+     * @return the zone's slot, or -1 if the zone isn't one of the indexed area codes
+     */
+    public int indexOf(int zone) {
+        if(table != null) {
+            int offset = zone - minZone;
+            return (offset >= 0 && offset < table.length) ? table[offset] : -1;
+        }
+        int slot = Arrays.binarySearch(zones, zone);
+        return slot >= 0 ? slot : -1;
+    }
+
+    /**
+     * Gets the zone held in a slot.
+     *
+     * @param slot  - slot from 0 to size()-1
+     * @return the zone's area code
+     */
+    public int getZone(int slot) {
+        return zones[slot];
+    }
+
+    /**
+     * Gets the number of indexed zones.
+     *
+     * @return number of slots
+     */
+    public int size() {
+        return zones.length;
+    }
+}
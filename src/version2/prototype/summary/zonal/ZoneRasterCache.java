@@ -0,0 +1,406 @@
+package version2.prototype.summary.zonal;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Vector;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.gdal.gdal.Dataset;
+import org.gdal.gdal.gdal;
+import org.gdal.gdalconst.gdalconstConstants;
+import org.gdal.ogr.Layer;
+
+import version2.prototype.Config;
+import version2.prototype.ErrorLog;
+import version2.prototype.util.GdalUtils;
+
+/**
+ * Host wide cache of the zone grids zonal summaries burn from their shapefiles. Every file of a summary, and every project using the same
+ * shapefile on the same grid, needs the same grid of area codes, so it is rasterized once and kept as a file in the config's zone raster
+ * cache directory. Files are memory mapped when used, so workers share the pages and a grid costs no heap.
+ *
+ * Grids are keyed by a hash of the shapefile's contents (all its component files), the area code field, and the grid's size, geotransform and
+ * projection. Editing or replacing the shapefile changes the hash, so a grid is never reused for a changed shapefile; the grid of the old
+ * contents simply stops being looked up. The least recently used grids are unmapped once more than {@link #MAX_MAPPED_BYTES} are mapped.
+ */
+public final class ZoneRasterCache {
+    /**
+     * Largest number of grid bytes kept mapped or in memory.
+     */
+    public static final long MAX_MAPPED_BYTES = 512L << 20;
+
+    private static final int MAGIC = 0x45575a52;    // "EWZR"
+    private static final int VERSION = 1;
+    private static final int SAVE_BLOCK_BYTES = 1 << 20;
+    private static final String[] SHAPEFILE_PARTS = new String[] {".shp", ".shx", ".dbf", ".prj", ".cpg"};
+
+    private static final LinkedHashMap<String, ZoneGrid> grids = new LinkedHashMap<String, ZoneGrid>(16, 0.75f, true);
+    private static final Map<String, String> contentHashes = new HashMap<String, String>();
+    private static long mappedBytes = 0;
+    private static final AtomicLong memoryHits = new AtomicLong();
+    private static final AtomicLong fileLoads = new AtomicLong();
+    private static final AtomicLong rasterizations = new AtomicLong();
+
+    private ZoneRasterCache()
+    {
+    }
+
+    /**
+     * Area code of every pixel of a zone grid, row major. 0 where no feature was burned.
+     */
+    public static final class ZoneGrid {
+        /**
+         * Width in pixels.
+         */
+        public final int xSize;
+        /**
+         * Height in lines.
+         */
+        public final int ySize;
+        private final IntBuffer zones;
+
+        private ZoneGrid(int xSize, int ySize, IntBuffer zones)
+        {
+            this.xSize = xSize;
+            this.ySize = ySize;
+            this.zones = zones;
+        }
+
+        /**
+         * Gets the area code at a pixel.
+         *
+         * @param index  - pixel index, y * xSize + x
+         * @return the area code burned at the pixel
+         */
+        public int get(int index)
+        {
+            return zones.get(index);
+        }
+
+        private long sizeInBytes()
+        {
+            return (long) xSize * ySize * 4;
+        }
+    }
+
+    /**
+     * Gets the zone grid of a shapefile layer, loading or rasterizing and caching it if needed. The grid has the layer's extent and projection at
+     * the given pixel size. The caller must hold the exclusive GDAL lock, since rasterizing reads the OGR layer.
+     *
+     * @param shapeFilePath  - path of the layer's shapefile, its contents are part of the key
+     * @param layer  - opened layer of the shapefile
+     * @param areaCodeField  - field whose value is burned for each feature
+     * @param xSize  - grid width in pixels
+     * @param ySize  - grid height in lines
+     * @param geoTransform  - grid geotransform
+     * @param projection  - grid projection as WKT
+     * @return the zone grid
+     * @throws IOException  if the shapefile can't be read or rasterizing fails
+     */
+    public static ZoneGrid get(String shapeFilePath, Layer layer, String areaCodeField, int xSize, int ySize, double[] geoTransform, String projection)
+            throws IOException
+    {
+        String key = key(shapeFilePath, areaCodeField, xSize, ySize, geoTransform, projection);
+        synchronized(grids) {
+            ZoneGrid grid = grids.get(key);
+            if(grid != null) {
+                memoryHits.incrementAndGet();
+                return grid;
+            }
+        }
+
+        File file = null;
+        String dir = Config.getInstance().getZoneRasterCacheDir();
+        if(dir != null) {
+            file = new File(dir, hash(key) + ".zgrid");
+        }
+
+        ZoneGrid grid = null;
+        if(file != null && file.exists()) {
+            try {
+                grid = map(file, key);
+                if(grid != null) {
+                    fileLoads.incrementAndGet();
+                }
+            } catch (IOException e) {
+                ErrorLog.add(Config.getInstance(), "Problem reading zone grid '" + file.getPath() + "', rasterizing it again.", e);
+            }
+        }
+
+        if(grid == null) {
+            Dataset zoneRaster = rasterize(layer, areaCodeField, xSize, ySize, geoTransform, projection);
+            rasterizations.incrementAndGet();
+            try {
+                if(file != null) {
+                    try {
+                        save(file, key, zoneRaster);
+                        grid = map(file, key);
+                    } catch (IOException e) {
+                        ErrorLog.add(Config.getInstance(), "Problem writing zone grid '" + file.getPath() + "'.", e);
+                    }
+                }
+                if(grid == null) {
+                    grid = read(zoneRaster);
+                }
+            } finally {
+                zoneRaster.delete();
+            }
+        }
+
+        synchronized(grids) {
+            ZoneGrid old = grids.put(key, grid);
+            if(old != null) {
+                mappedBytes -= old.sizeInBytes();
+            }
+            mappedBytes += grid.sizeInBytes();
+
+            Iterator<ZoneGrid> it = grids.values().iterator();
+            while(mappedBytes > MAX_MAPPED_BYTES && it.hasNext()) {
+                ZoneGrid eldest = it.next();
+                if(eldest != grid) {
+                    mappedBytes -= eldest.sizeInBytes();
+                    it.remove();
+                }
+            }
+        }
+        return grid;
+    }
+
+    /**
+     * Drops every grid from memory. The files stay in the cache directory.
+     */
+    public static void clear()
+    {
+        synchronized(grids) {
+            grids.clear();
+            mappedBytes = 0;
+        }
+        synchronized(contentHashes) {
+            contentHashes.clear();
+        }
+    }
+
+    /**
+     * Summarizes the cache usage since startup.
+     *
+     * @return human readable summary
+     */
+    public static String getStatistics()
+    {
+        synchronized(grids) {
+            return String.format("Zone grids: %d reused from memory, %d mapped from disk, %d rasterized, %d mapped (%d MB)", memoryHits.get(), fileLoads.get(),
+                    rasterizations.get(), grids.size(), mappedBytes >> 20);
+        }
+    }
+
+    // Burns the layer into a MEM raster, to be deleted by the caller
+    private static Dataset rasterize(Layer layer, String areaCodeField, int xSize, int ySize, double[] geoTransform, String projection) throws IOException
+    {
+        Dataset zoneRaster = gdal.GetDriverByName("MEM").Create("", xSize, ySize, 1, gdalconstConstants.GDT_UInt32);
+        GdalUtils.errorCheck();
+        try {
+            zoneRaster.SetProjection(projection); GdalUtils.errorCheck();
+            zoneRaster.SetGeoTransform(geoTransform); GdalUtils.errorCheck();
+
+            // Burn the values
+            Vector<String> options = new Vector<String>();
+            options.add("ATTRIBUTE=" + areaCodeField);
+            gdal.RasterizeLayer(zoneRaster, new int[] {1}, layer, new double[] {}, options); GdalUtils.errorCheck();
+            return zoneRaster;
+        } catch (IOException | RuntimeException e) {
+            zoneRaster.delete();
+            throw e;
+        }
+    }
+
+    // Reads the rasterized zones into direct memory, for when there is no cache file to map
+    private static ZoneGrid read(Dataset zoneRaster) throws IOException
+    {
+        int xSize = zoneRaster.GetRasterXSize();
+        int ySize = zoneRaster.GetRasterYSize();
+        ByteBuffer zones = ByteBuffer.allocateDirect(xSize * ySize * 4).order(ByteOrder.nativeOrder());
+        if(zoneRaster.GetRasterBand(1).ReadRaster_Direct(0, 0, xSize, ySize, xSize, ySize, gdalconstConstants.GDT_UInt32, zones) != gdalconstConstants.CE_None) {
+            throw new IOException("Failed to read the rasterized zones: " + gdal.GetLastErrorMsg());
+        }
+        return new ZoneGrid(xSize, ySize, zones.asIntBuffer());
+    }
+
+    // Writes to a temporary file first, so other workers never map a partly written grid. The zones are streamed a few lines at a time, so
+    // writing a grid takes no copy of it.
+    private static void save(File file, String key, Dataset zoneRaster) throws IOException
+    {
+        int xSize = zoneRaster.GetRasterXSize();
+        int ySize = zoneRaster.GetRasterYSize();
+
+        File dir = file.getAbsoluteFile().getParentFile();
+        if(!dir.exists()) {
+            Files.createDirectories(dir.toPath());
+        }
+        File temp = File.createTempFile(file.getName(), ".tmp", dir);
+
+        try {
+            try (RandomAccessFile raf = new RandomAccessFile(temp, "rw"); FileChannel channel = raf.getChannel()) {
+                DataOutputStream header = new DataOutputStream(Channels.newOutputStream(channel));
+                header.writeInt(MAGIC);
+                header.writeInt(VERSION);
+                header.writeUTF(key);
+                header.writeInt(xSize);
+                header.writeInt(ySize);
+                header.flush();
+
+                int blockLines = Math.max(1, Math.min(ySize, SAVE_BLOCK_BYTES / (xSize * 4)));
+                ByteBuffer block = ByteBuffer.allocateDirect(xSize * blockLines * 4).order(ByteOrder.nativeOrder());
+                for(int y0=0; y0 < ySize; y0 += blockLines)
+                {
+                    int lines = Math.min(blockLines, ySize - y0);
+                    block.clear();
+                    if(zoneRaster.GetRasterBand(1).ReadRaster_Direct(0, y0, xSize, lines, xSize, lines, gdalconstConstants.GDT_UInt32, block) != gdalconstConstants.CE_None) {
+                        throw new IOException("Failed to read the rasterized zones: " + gdal.GetLastErrorMsg());
+                    }
+                    block.limit(xSize * lines * 4);
+                    while(block.hasRemaining()) {
+                        channel.write(block);
+                    }
+                }
+            }
+
+            try {
+                try {
+                    Files.move(temp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+                } catch (AtomicMoveNotSupportedException e) {
+                    Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                }
+            } catch (FileSystemException e) {
+                // Windows refuses to replace a file while it is mapped, as it is when another worker saved the same grid first. The existing file
+                // is kept; get() maps it if it holds this grid and reads the rasterized zones otherwise.
+                if(!file.exists()) {
+                    throw e;
+                }
+            }
+        } finally {
+            Files.deleteIfExists(temp.toPath());
+        }
+    }
+
+    // A changed shapefile gets a new file, so a mapped grid is only replaced when two workers save the same grid at once or its name collides.
+    // Windows won't replace a file while any process maps it, which save() tolerates by keeping the existing file.
+    private static ZoneGrid map(File file, String key) throws IOException
+    {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+            DataInputStream header = new DataInputStream(Channels.newInputStream(channel));
+            if(header.readInt() != MAGIC || header.readInt() != VERSION || !key.equals(header.readUTF())) {
+                return null;    // not this grid, it will be rasterized and replaced
+            }
+            int xSize = header.readInt();
+            int ySize = header.readInt();
+
+            long bodySize = (long) xSize * ySize * 4;
+            long bodyStart = channel.position();
+            if(channel.size() - bodyStart != bodySize) {
+                throw new IOException("Zone grid is truncated.");
+            }
+
+            // the mapping stays valid after the channel is closed
+            IntBuffer zones = channel.map(FileChannel.MapMode.READ_ONLY, bodyStart, bodySize).order(ByteOrder.nativeOrder()).asIntBuffer();
+            return new ZoneGrid(xSize, ySize, zones);
+        }
+    }
+
+    private static String key(String shapeFilePath, String areaCodeField, int xSize, int ySize, double[] geoTransform, String projection) throws IOException
+    {
+        StringBuilder key = new StringBuilder();
+        key.append(contentHash(shapeFilePath));
+        key.append('|').append(areaCodeField);
+        key.append('|').append(xSize).append('x').append(ySize);
+        key.append('|').append(Arrays.toString(geoTransform));
+        key.append('|').append(projection);
+        return key.toString();
+    }
+
+    // Hash of the contents of all the files making up the shapefile. Remembered per path, size and modification time, so the files are only
+    // read again when one of them changes.
+    static String contentHash(String shapeFilePath) throws IOException
+    {
+        String base = shapeFilePath.replaceAll("\\.[^.\\\\/]*$", "");
+        StringBuilder stamp = new StringBuilder();
+        for(String part : SHAPEFILE_PARTS) {
+            File f = new File(base + part);
+            if(f.exists()) {
+                stamp.append(f.getAbsolutePath()).append(':').append(f.length()).append(':').append(f.lastModified()).append('|');
+            }
+        }
+
+        synchronized(contentHashes) {
+            String hash = contentHashes.get(stamp.toString());
+            if(hash != null) {
+                return hash;
+            }
+        }
+
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+        byte[] buffer = new byte[1 << 16];
+        for(String part : SHAPEFILE_PARTS) {
+            File f = new File(base + part);
+            if(!f.exists()) {
+                continue;
+            }
+            digest.update(part.getBytes("UTF-8"));
+            try (InputStream in = new FileInputStream(f)) {
+                int read;
+                while((read = in.read(buffer)) > 0) {
+                    digest.update(buffer, 0, read);
+                }
+            }
+        }
+        String hash = toHex(digest.digest());
+
+        synchronized(contentHashes) {
+            contentHashes.put(stamp.toString(), hash);
+        }
+        return hash;
+    }
+
+    static String hash(String key)
+    {
+        try {
+            return toHex(MessageDigest.getInstance("SHA-1").digest(key.getBytes("UTF-8")));
+        } catch (NoSuchAlgorithmException | IOException e) {
+            return Integer.toHexString(key.hashCode());
+        }
+    }
+
+    static String toHex(byte[] bytes)
+    {
+        StringBuilder hex = new StringBuilder();
+        for(byte b : bytes) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+}
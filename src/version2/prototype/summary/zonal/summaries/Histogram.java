@@ -0,0 +1,56 @@
+package version2.prototype.summary.zonal.summaries;
+
+import java.util.EnumSet;
+
+import version2.prototype.summary.zonal.SummariesCollection;
+import version2.prototype.summary.zonal.ZonalAccumulator;
+import version2.prototype.summary.zonal.ZonalAccumulator.Statistic;
+
+/**
+ * Represents one histogram bin summary based on indexed double values: the number of a zone's values from a lower bound (inclusive) to an upper
+ * bound (exclusive). The bounds are given after the name, e.g. Histogram0_100 or Histogramn10p5_0 for -10.5 to 0. As each summary is one result
+ * column, a histogram is configured as one Histogram summary per bin.
+ *
+ * Counts are estimated from a bounded size sketch of each zone's values and rounded to whole values, so they are approximate; values equal to a
+ * bound may be split between the two bins sharing it.
+ *
+ * @author michael.devos
+ *
+ */
+public class Histogram extends SummaryCalculation {
+    private final double lower;
+    private final double upper;
+
+    /**
+     * Creates a Histogram object representing a histogram bin summary.
+     *
+     * @param col  - the SummariesCollection to register itself to
+     * @param parameters  - the bin's lower and upper bound separated by '_'
+     */
+    public Histogram(SummariesCollection col, String parameters) {
+        super(col, parameters);
+        double[] values = getParameters();
+        if(values.length != 2 || !(values[0] < values[1])) {
+            throw new IllegalArgumentException("Summary \"" + getName() + "\" needs a lower and a greater upper bound, e.g. Histogram0_100.");
+        }
+        lower = values[0];
+        upper = values[1];
+    }
+
+    /* (non-Javadoc)
+     * @see version2.prototype.summary.zonal.summaries.SummaryCalculation#getRequiredStatistics()
+     */
+    @Override
+    public EnumSet<Statistic> getRequiredStatistics() {
+        return EnumSet.of(Statistic.COUNT, Statistic.SKETCH);
+    }
+
+    /* (non-Javadoc)
+     * @see version2.prototype.summary.zonal.summaries.SummaryCalculation#calculate(version2.prototype.summary.zonal.ZonalAccumulator, int)
+     */
+    @Override
+    protected Double calculate(ZonalAccumulator accumulator, int slot) {
+        double fraction = accumulator.getCdf(slot, upper) - accumulator.getCdf(slot, lower);
+        return (double) Math.round(accumulator.getCount(slot) * fraction);
+    }
+}
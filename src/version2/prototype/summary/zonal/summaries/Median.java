@@ -0,0 +1,42 @@
+package version2.prototype.summary.zonal.summaries;
+
+import java.util.EnumSet;
+
+import version2.prototype.summary.zonal.SummariesCollection;
+import version2.prototype.summary.zonal.ZonalAccumulator;
+import version2.prototype.summary.zonal.ZonalAccumulator.Statistic;
+
+/**
+ * Represents a median summary based on indexed double values. The median is estimated from a bounded size sketch of each zone's values, it
+ * is interpolated between the values for small zones and approximate for large ones.
+ *
+ * @author michael.devos
+ *
+ */
+public class Median extends SummaryCalculation {
+
+    /**
+     * Creates a Median object representing a median summary.
+     *
+     * @param col  - the SummariesCollection to register itself to
+     */
+    public Median(SummariesCollection col) {
+        super(col);
+    }
+
+    /* (non-Javadoc)
+     * @see version2.prototype.summary.zonal.summaries.SummaryCalculation#getRequiredStatistics()
+     */
+    @Override
+    public EnumSet<Statistic> getRequiredStatistics() {
+        return EnumSet.of(Statistic.SKETCH);
+    }
+
+    /* (non-Javadoc)
+     * @see version2.prototype.summary.zonal.summaries.SummaryCalculation#calculate(version2.prototype.summary.zonal.ZonalAccumulator, int)
+     */
+    @Override
+    protected Double calculate(ZonalAccumulator accumulator, int slot) {
+        return accumulator.getQuantile(slot, 0.5);
+    }
+}
@@ -0,0 +1,49 @@
+package version2.prototype.summary.zonal.summaries;
+
+import java.util.EnumSet;
+
+import version2.prototype.summary.zonal.SummariesCollection;
+import version2.prototype.summary.zonal.ZonalAccumulator;
+import version2.prototype.summary.zonal.ZonalAccumulator.Statistic;
+
+/**
+ * Represents a percentile summary based on indexed double values. The percentile is given after the name, e.g. Percentile90 or Percentile99p9
+ * for the 99.9th percentile, and is estimated from a bounded size sketch of each zone's values.
+ *
+ * @author michael.devos
+ *
+ */
+public class Percentile extends SummaryCalculation {
+    private final double quantile;
+
+    /**
+     * Creates a Percentile object representing a percentile summary.
+     *
+     * @param col  - the SummariesCollection to register itself to
+     * @param parameters  - the percentile, from 0 to 100
+     */
+    public Percentile(SummariesCollection col, String parameters) {
+        super(col, parameters);
+        double[] values = getParameters();
+        if(values.length != 1 || !(values[0] >= 0 && values[0] <= 100)) {
+            throw new IllegalArgumentException("Summary \"" + getName() + "\" needs a single percentile from 0 to 100, e.g. Percentile90.");
+        }
+        quantile = values[0] / 100;
+    }
+
+    /* (non-Javadoc)
+     * @see version2.prototype.summary.zonal.summaries.SummaryCalculation#getRequiredStatistics()
+     */
+    @Override
+    public EnumSet<Statistic> getRequiredStatistics() {
+        return EnumSet.of(Statistic.SKETCH);
+    }
+
+    /* (non-Javadoc)
+     * @see version2.prototype.summary.zonal.summaries.SummaryCalculation#calculate(version2.prototype.summary.zonal.ZonalAccumulator, int)
+     */
+    @Override
+    protected Double calculate(ZonalAccumulator accumulator, int slot) {
+        return accumulator.getQuantile(slot, quantile);
+    }
+}
@@ -1,9 +1,10 @@
 package version2.prototype.summary.zonal.summaries;
 
-import java.util.ArrayList;
-import java.util.Map;
+import java.util.EnumSet;
 
 import version2.prototype.summary.zonal.SummariesCollection;
+import version2.prototype.summary.zonal.ZonalAccumulator;
+import version2.prototype.summary.zonal.ZonalAccumulator.Statistic;
 
 /**
  * Represents a summation summary based on indexed double values.
@@ -23,32 +24,18 @@ public class Sum extends SummaryCalculation {
     }
 
     /* (non-Javadoc)
-     * @see version2.prototype.summary.summaries.SummaryCalculation#put(int, double)
+     * @see version2.prototype.summary.zonal.summaries.SummaryCalculation#getRequiredStatistics()
      */
     @Override
-    public void put(int index, double value) {
-        if(resultMap.get(index) == null) {
-            resultMap.put(index, value);
-        } else {
-            resultMap.put(index, resultMap.get(index) + value);
-        }
+    public EnumSet<Statistic> getRequiredStatistics() {
+        return EnumSet.of(Statistic.SUM);
     }
 
     /* (non-Javadoc)
-     * @see version2.prototype.summary.summaries.SummaryCalculation#getResult()
+     * @see version2.prototype.summary.zonal.summaries.SummaryCalculation#calculate(version2.prototype.summary.zonal.ZonalAccumulator, int)
      */
     @Override
-    public Map<Integer, Double> getResult() {
-        return resultMap;
-    }
-
-    /* (non-Javadoc)
-     * @see version2.prototype.summary.summaries.SummaryCalculation#getDistinctLeaflets()
-     */
-    @Override
-    public ArrayList<SummaryCalculation> getDistinctLeaflets() {
-        ArrayList<SummaryCalculation> temp = new ArrayList<SummaryCalculation>();
-        temp.add(this);
-        return temp;
+    protected Double calculate(ZonalAccumulator accumulator, int slot) {
+        return accumulator.getSum(slot);
     }
 }
@@ -1,36 +1,57 @@
 package version2.prototype.summary.zonal.summaries;
 
-import java.util.ArrayList;
+import java.util.EnumSet;
 import java.util.HashMap;
-import java.util.LinkedList;
 import java.util.Map;
 
 import version2.prototype.summary.zonal.SummariesCollection;
+import version2.prototype.summary.zonal.ZonalAccumulator;
+import version2.prototype.summary.zonal.ZonalAccumulator.Statistic;
+import version2.prototype.summary.zonal.ZoneIndex;
 
 /**
  * Abstract summary definition. Implementing classes are to define a calculation of a summary for double values. Classes won't be allowed to be instantiated multiple
  * times but will share their results with all requiring classes registered within a SummariesCollection object.
  *
+ * Values aren't kept per summary. The SummariesCollection's ZonalAccumulator keeps the running count, sum, sum of squares, minimum and maximum of
+ * every zone, and implementing classes compute their result for a zone from those in calculate(ZonalAccumulator, int). Summaries reading the
+ * accumulator directly declare the statistics they read in getRequiredStatistics(), summaries built on other summaries register those as
+ * dependencies. The SummariesCollection resolves both once and has the accumulator keep only what is needed.
+ *
+ * A summary may take numeric parameters appended to its name, e.g. "Percentile90" or "Histogram0_100". Parameters are separated by '_',
+ * with 'n' standing for a minus sign and 'p' for the decimal point ("Histogramn10p5_0" is -10.5 to 0). Each distinct set of parameters is
+ * a separate summary with its own name and result column.
+ *
  * @author michael.devos
  *
  */
 public abstract class SummaryCalculation {
     private final String canonicalName;
+    private final String name;
+    private final String parameters;
     private final SummariesCollection col;
-    private Map<Integer, LinkedList<Double>> valuesMap;
-    protected Map<Integer, Double> resultMap;
 
     /**
      * Create a SummaryCalculation. Registers this instance to the given SummariesCollection object along with all its dependencies. Implementing classes have to take
-     * care of defining the dependencies and the calculation this instance will do with acquired doubles.
+     * care of defining the dependencies and the calculation this instance will do with the accumulated values.
      *
      * @param col
      */
     public SummaryCalculation(SummariesCollection col){
-        canonicalName = this.getClass().getCanonicalName();
+        this(col, "");
+    }
+
+    /**
+     * Create a parameterized SummaryCalculation. Registers this instance to the given SummariesCollection object along with all its dependencies.
+     *
+     * @param col
+     * @param parameters  - parameters as they follow the class name in the summary's name, e.g. "99p9" for Percentile99p9
+     */
+    protected SummaryCalculation(SummariesCollection col, String parameters){
+        canonicalName = this.getClass().getCanonicalName() + parameters;
+        name = this.getClass().getSimpleName() + parameters;
+        this.parameters = parameters;
         this.col = col;
-        valuesMap = new HashMap<Integer, LinkedList<Double>>();
-        resultMap = new HashMap<Integer, Double>();
         registerDependencies();
     }
 
@@ -42,31 +63,46 @@ public abstract class SummaryCalculation {
     protected void registerDependencies(){    }
 
     /**
-     * Adds the specified value to the calculation map at the given index. Values don't necessarily replace previously added values at the same indices.
-     * What happens is determined by the calculation being implemented by subclasses.
+     * Gets the accumulator statistics this summary reads itself, not counting those of its registered dependencies. Summaries reading the
+     * accumulator in calculate(ZonalAccumulator, int) override this method.
      *
-     * @param index  - index within the map the value is to be added to. All indices should be initialized to zero.
-     * @param value  - value to add to the specified index
+     * @return statistics read by this summary, empty by default
+     */
+    public EnumSet<Statistic> getRequiredStatistics(){
+        return EnumSet.noneOf(Statistic.class);
+    }
+
+    /**
+     * Get the resulting calculation for every zone that received at least one valid value.
+     *
+     * @return returns a HashMap object containing results to this objects calculation to each index
      */
-    public final void add(int index, double value)
+    public final Map<Integer, Double> getResult()
     {
-        if(valuesMap.get(index) == null) {
-            LinkedList<Double> temp = new LinkedList<Double>();
-            temp.add(value);
-            valuesMap.put(index, temp);
+        Map<Integer, Double> resultMap = new HashMap<Integer, Double>();
+        ZonalAccumulator accumulator = col != null ? col.getAccumulator() : null;
+        if(accumulator == null) {
+            return resultMap;
         }
-        else {
-            valuesMap.get(index).add(value);
+
+        ZoneIndex zones = accumulator.getZones();
+        for(int slot=0; slot < zones.size(); slot++)
+        {
+            if(accumulator.getCount(slot) > 0) {
+                resultMap.put(zones.getZone(slot), calculate(accumulator, slot));
+            }
         }
-        put(index, value);
+        return resultMap;
     }
 
     /**
-     * Get the resulting calculation.
+     * Calculates this summary for one zone. Only called for zones that received at least one valid value.
      *
-     * @return returns a HashMap object containing results to this objects calculation to each index
+     * @param accumulator  - running statistics of the zones
+     * @param slot  - the zone's slot in the accumulator
+     * @return the zone's summary value, or null if it can't be calculated
      */
-    public abstract Map<Integer, Double> getResult();
+    protected abstract Double calculate(ZonalAccumulator accumulator, int slot);
 
     /**
      * A full name to this calculation. Not to be abbreviated. SummaryCalculations are looked up in SummariesCollections using this value.
@@ -78,41 +114,38 @@ public abstract class SummaryCalculation {
     }
 
     /**
-     * Returns a copy of the map of the values added to this SummaryCalculation. Values are listed in a LinkedList. WARNING: This is only
-     * added to in the leaflet SummaryCalculations (the SummaryCalculations whom are returned by a call to getDistinctLeaflets() by one of
-     * the SummaryCalculation objects in the SummariesCollection and/or whom implement put(int, double)).
+     * The name of this calculation as given in the configuration and used for its result column.
      *
-     * @return HashMap<Integer, LinkedList<Double>> object representing all values add to the calculation and their assigned indices
+     * @return simple class name of the implementing SummaryCalculation followed by its parameters
      */
-    public final Map<Integer, LinkedList<Double>> getValuesMap()
-    {
-        //        return new HashMap<Integer, LinkedList<Double>>(valuesMap);
-        return valuesMap;
+    public String getName(){
+        return name;
     }
 
     /**
-     * Gets the list of SummaryCalculation objects that are this object's dependencies. Must return the list of unique dependencies amongst all of its dependencies and
-     * itself. Only SummaryCalculation objects that have no dependencies are to be included in this list (hence distinct leaflets, or leaves of the tree structure).
-     * These can be found from dependencies by finding SummaryCalculation objects which return a list of only themselves for this method.
-     *
-     * Only SummaryCalculation objects returned here will have their put(int, double) method called. Others are expected to use these calculations in their getResult() method.
+     * Gets the numeric parameters this calculation was created with.
      *
-     * @return list of SummaryCalculation objects used by this SummaryCalculation which are dependent on no other SummaryCalculations
-     * (calling this method on those returned yields an empty or null list).
+     * @return parameters in the order they appear in the name, empty if there are none
+     * @throws IllegalArgumentException  if a parameter isn't a number
      */
-    public abstract ArrayList<SummaryCalculation> getDistinctLeaflets();
-
-    /**
-     * Implementing classes override this method to handle calculations needing to be done on a per value basis and the valuesMap gotten by the getValuesMap() method is insufficient.
-     * SummaryCalculation objects who returns an empty or null list with getDistinctLeaflets() (in other words uses no other SummaryCalculation object within itself) must implement
-     * this method. Others, may make an empty method to handle the implementation. Internally the values should be stored in a Map<Integer, Double> type awaiting the call of getResult.
-     *
-     * Only SummaryCalculation objects returned by getDistinctLeaflets() will have their put(int, double) method called. Others are expected to use these calculations in their getResult() method.
-     *
-     * @param index  - index within the map the value is to be added to. All indices should be initialized to zero.
-     * @param value  - value to add to the specified index
-     */
-    protected abstract void put(int index, double value);
+    protected final double[] getParameters()
+    {
+        if(parameters.isEmpty()) {
+            return new double[0];
+        }
+        String[] parts = parameters.split("_", -1);
+        double[] values = new double[parts.length];
+        for(int i=0; i < parts.length; i++)
+        {
+            String part = parts[i].startsWith("n") ? "-" + parts[i].substring(1) : parts[i];
+            try {
+                values[i] = Double.parseDouble(part.replace('p', '.'));
+            } catch(NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid parameter \"" + parts[i] + "\" in summary \"" + name + "\".", e);
+            }
+        }
+        return values;
+    }
 
     /**
      * Gets the SummariesCollection object used in the creation of this SummaryCalculation.
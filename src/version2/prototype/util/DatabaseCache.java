@@ -646,8 +646,8 @@ public class DatabaseCache extends Observable{
 
     /**
      * Uploads summary results to the database as the "cache" update for summary as there is no actual cache to be used by it but results are stored in the database for UI retrieval. Summary calculators are
-     * expected to produce result files which the mTableFile refers to.
-     * @param con
+     * expected to produce result files which the mTableFile refers to. The results are queued to the ZonalResultSink, which commits them together with marking
+     * the input cache rows processed; the summary progress is updated once they are committed.
      * @param newResults
      * @param summaryIDNum
      * @param indexNm
@@ -656,120 +656,40 @@ public class DatabaseCache extends Observable{
      * @param day
      * @param process
      * @param daysPerInputData
-     * @throws IllegalArgumentException
-     * @throws UnsupportedOperationException
-     * @throws IOException
-     * @throws ClassNotFoundException
-     * @throws ParserConfigurationException
-     * @throws SAXException
-     * @throws SQLException
+     * @throws InterruptedException  if interrupted while waiting for room in the sink's queue, the results aren't uploaded
      */
-    public void UploadResultsToDb(Connection con, ArrayList<SummaryResult> newResults, int summaryIDNum, String indexNm, TemporalSummaryCompositionStrategy compStrategy, int year, int day,
-            Process process, int daysPerInputData) throws IllegalArgumentException, UnsupportedOperationException, IOException, ClassNotFoundException, ParserConfigurationException, SAXException,
-    SQLException {
+    public void UploadResultsToDb(ArrayList<SummaryResult> newResults, final int summaryIDNum, String indexNm, final TemporalSummaryCompositionStrategy compStrategy, final int year,
+            final int day, Process process, final int daysPerInputData) throws InterruptedException {
         if(newResults.size() == 0) {
             return;
         }
 
-        Statement stmt = con.createStatement();
-        PreparedStatement pStmt = null;
-        //        final boolean previousAutoCommit = conn.getAutoCommit();
-
         System.out.println("Uploading summary results in project '" + projectName + "' for plugin '" + pluginName + "' of index '" + indexNm + "' (Year: " + year + ", Day: " + day + ").");
 
-        try {
-            con.setTransactionIsolation(Connection.TRANSACTION_SERIALIZABLE);
-
-            StringBuilder insertUpdate = new StringBuilder("INSERT INTO \"%s\".\"ZonalStat\" ("
-                    + "\"ProjectSummaryID\", "
-                    + "\"AreaName\", "
-                    + "\"AreaCode\", "
-                    + "\"DateGroupID\", "
-                    + "\"IndexID\", "
-                    + "\"FilePath\""
-                    );
-            for(String summarySimpleName : newResults.get(0).summaryResults.keySet())
-            {
-                insertUpdate.append(", \"" + summarySimpleName + "\"");
-            }
-            insertUpdate.append(") VALUES (" +
-                    "?" +   // 1. ProjectSummaryID
-                    ",?" +  // 2. AreaName
-                    ",?" +  // 3. AreaCode
-                    ",?" +  // 4. DateGroupID
-                    ",?" +  // 5. IndexID
-                    ",?");  // 6. FilePath
-            for(@SuppressWarnings("unused") String summarySimpleName : newResults.get(0).summaryResults.keySet())
-            {
-                insertUpdate.append(",?");
-            }
-            insertUpdate.append(")");
-
-            pStmt = con.prepareStatement(String.format(insertUpdate.toString(), mSchemaName));
-
-            int i;
-            for(SummaryResult newResult : newResults)
-            {
-                pStmt.setInt(1, newResult.projectSummaryID);
-                pStmt.setString(2, newResult.areaName);
-                pStmt.setInt(3, newResult.areaCode);
-                pStmt.setInt(4, newResult.dateGroupID);
-                pStmt.setInt(5, newResult.indexID);
-                pStmt.setString(6, newResult.filePath);
-
-                i = 0;
-                for(Double value : newResult.summaryResults.values())
-                {
-                    if(value == null) {
-                        pStmt.setNull(7 + i++, java.sql.Types.DOUBLE);
-                    } else if(value == Double.NEGATIVE_INFINITY) {
-                        pStmt.setDouble(7 + i++, Double.MIN_VALUE);
-                    } else if(value == Double.POSITIVE_INFINITY) {
-                        pStmt.setDouble(7 + i++, Double.MAX_VALUE);
-                    } else {
-                        pStmt.setDouble(7 + i++, value);
-                    }
+        final int dateGroupID = newResults.get(0).dateGroupID;
+        final int rowCount = newResults.size();
+        ZonalResultSink.getInstance().submit(mSchemaName, newResults, new ZonalResultSink.Completion() {
+            @Override
+            public void beforeCommit(Statement stmt) throws SQLException {
+                if(compStrategy != null) {
+                    Schemas.setProcessedComposite(globalSchema, mSchemaName, setProcessedForTableName, year, day, compStrategy.getDaysInThisComposite(LocalDate.ofYearDay(year, day)), stmt);
+                } else {
+                    Schemas.setProcessed(mSchemaName, setProcessedForTableName, dateGroupID, stmt);
                 }
-                pStmt.addBatch();
             }
 
-            //            conn.setAutoCommit(false);
-            int[] changesMade = pStmt.executeBatch();
-            boolean updateSuccessful = true;
-            for(i=0; i < changesMade.length; i++) {
-                if(changesMade[i] <= 0) {
-                    updateSuccessful = false;
-                    break;
-                }
-            }
-            if(!updateSuccessful) {
-                ErrorLog.add(processCachingFor, scheduler, "Summary db insert failed for date: Year=" + year + ", DayOfYear=" + day + ". Warnings=\"" + pStmt.getWarnings().toString(),
-                        new Exception("Summary db insert failed for date: Year=" + year + ", DayOfYear=" + day + "."));
+            @Override
+            public void afterCommit(Statement stmt) throws SQLException {
+                // Update progress bar
+                scheduler.UpdateSummaryProgress(summaryIDNum, compStrategy, daysPerInputData, pluginInfo, stmt);
             }
-            //            conn.commit();
 
-            stmt.execute("UPDATE \"" + mSchemaName + "\".\"ZonalStat\" SET \"TimeStamp\"=now() WHERE \"TimeStamp\" is null;");
-
-            // Update progress bar
-            scheduler.UpdateSummaryProgress(summaryIDNum, compStrategy, daysPerInputData, pluginInfo, stmt);
-            if(compStrategy != null) {
-                Schemas.setProcessedComposite(globalSchema, mSchemaName, setProcessedForTableName, year, day, compStrategy.getDaysInThisComposite(LocalDate.ofYearDay(year, day)), stmt);
-            } else {
-                Schemas.setProcessed(mSchemaName, setProcessedForTableName, newResults.get(0).dateGroupID, stmt);
-            }
-            //            scheduler.NotifyUI(new GeneralUIEventObject(this, null));
-        }
-        catch (SQLException e) {
-            //ErrorLog.add(process, "Problem in ZonalSummaryCalculator.uploadResultsToDb executing zonal summaries results.", e);
-            //            conn.rollback();
-        }
-        finally {
-            //            conn.setAutoCommit(previousAutoCommit);
-            stmt.close();
-            if(pStmt != null) {
-                pStmt.close();
+            @Override
+            public void failed(Exception e) {
+                ErrorLog.add(processCachingFor, scheduler, "Summary db insert failed for date: Year=" + year + ", DayOfYear=" + day + ". None of the " + rowCount
+                        + " rows were inserted.", e);
             }
-        }
+        });
     }
 
     /**
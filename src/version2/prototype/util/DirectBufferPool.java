@@ -0,0 +1,217 @@
+package version2.prototype.util;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Thread-local pool of direct ByteBuffers for GDAL raster I/O (ReadRaster_Direct/WriteRaster_Direct). Buffers are kept in power of two size
+ * classes so a window or band of about the same size reuses the same off-heap memory from one file to the next instead of allocating a new
+ * Java array, which keeps long backfills from churning the young generation.
+ *
+ * Buffers are confined to the thread that acquired them: release a buffer on that thread once it is no longer used. A buffer that isn't
+ * released is simply garbage collected.
+ *
+ * Process wide counters report how many requests were served from the pool and how many bytes that avoided allocating.
+ */
+public final class DirectBufferPool {
+    /**
+     * Smallest size class, in bytes.
+     */
+    public static final int MIN_BUFFER_SIZE = 1 << 12;
+    /**
+     * Largest number of idle buffers kept per size class per thread.
+     */
+    public static final int MAX_IDLE_PER_CLASS = 32;
+    /**
+     * Largest number of idle bytes kept per thread. Buffers released beyond this are dropped.
+     */
+    public static final long MAX_IDLE_BYTES = 256L << 20;
+
+    private static final int SIZE_CLASSES = 32;
+
+    // Statistics, process wide
+    private static final AtomicLong acquisitions = new AtomicLong();
+    private static final AtomicLong poolHits = new AtomicLong();
+    private static final AtomicLong allocations = new AtomicLong();
+    private static final AtomicLong allocatedBytes = new AtomicLong();
+    private static final AtomicLong reusedBytes = new AtomicLong();
+    private static final AtomicLong discards = new AtomicLong();
+
+    private static final ThreadLocal<DirectBufferPool> pools = new ThreadLocal<DirectBufferPool>() {
+        @Override
+        protected DirectBufferPool initialValue() {
+            return new DirectBufferPool();
+        }
+    };
+
+    private final List<ArrayDeque<ByteBuffer>> idle;
+    private long idleBytes;
+    private final long[] threadStats;     // {acquisitions, pool hits, allocated bytes, reused bytes}
+
+    private DirectBufferPool()
+    {
+        idle = new ArrayList<ArrayDeque<ByteBuffer>>(SIZE_CLASSES);
+        for(int i=0; i < SIZE_CLASSES; i++) {
+            idle.add(new ArrayDeque<ByteBuffer>());
+        }
+        idleBytes = 0;
+        threadStats = new long[4];
+    }
+
+    /**
+     * Borrows a native byte order direct buffer with at least the requested capacity from the calling thread's pool. The buffer's position is
+     * 0 and its limit is the requested size.
+     *
+     * @param bytes  - number of bytes needed
+     * @return a direct ByteBuffer to return with {@link #release(ByteBuffer)}
+     */
+    public static ByteBuffer acquire(int bytes)
+    {
+        if(bytes < 0) {
+            throw new IllegalArgumentException("Buffer size must not be negative: " + bytes);
+        }
+        return pools.get().take(bytes);
+    }
+
+    /**
+     * Returns a buffer from {@link #acquire(int)} to the calling thread's pool. The buffer must not be used afterwards.
+     *
+     * @param buffer  - buffer to return, may be null
+     */
+    public static void release(ByteBuffer buffer)
+    {
+        if(buffer != null && buffer.isDirect()) {
+            pools.get().give(buffer);
+        }
+    }
+
+    private ByteBuffer take(int bytes)
+    {
+        int sizeClass = sizeClass(bytes);
+        ByteBuffer buffer = idle.get(sizeClass).pollFirst();
+
+        acquisitions.incrementAndGet();
+        threadStats[0]++;
+        if(buffer != null) {
+            idleBytes -= buffer.capacity();
+            poolHits.incrementAndGet();
+            reusedBytes.addAndGet(bytes);
+            threadStats[1]++;
+            threadStats[3] += bytes;
+        } else {
+            int capacity = (int) Math.min(Integer.MAX_VALUE, 1L << sizeClass);
+            buffer = ByteBuffer.allocateDirect(capacity).order(ByteOrder.nativeOrder());
+            allocations.incrementAndGet();
+            allocatedBytes.addAndGet(capacity);
+            threadStats[2] += capacity;
+        }
+
+        buffer.clear();
+        buffer.limit(bytes);
+        return buffer;
+    }
+
+    private void give(ByteBuffer buffer)
+    {
+        int sizeClass = sizeClass(buffer.capacity());
+        if((1L << sizeClass) != buffer.capacity() || idle.get(sizeClass).size() >= MAX_IDLE_PER_CLASS || idleBytes + buffer.capacity() > MAX_IDLE_BYTES) {
+            discards.incrementAndGet();
+            return;
+        }
+        idle.get(sizeClass).offerFirst(buffer);
+        idleBytes += buffer.capacity();
+    }
+
+    private static int sizeClass(int bytes)
+    {
+        if(bytes <= MIN_BUFFER_SIZE) {
+            return Integer.numberOfTrailingZeros(MIN_BUFFER_SIZE);
+        }
+        return 32 - Integer.numberOfLeadingZeros(bytes - 1);
+    }
+
+    /**
+     * Gets the number of buffers handed out since startup.
+     *
+     * @return buffer acquisitions
+     */
+    public static long getAcquisitions()
+    {
+        return acquisitions.get();
+    }
+
+    /**
+     * Gets the number of acquisitions served by reusing a pooled buffer.
+     *
+     * @return pool hits
+     */
+    public static long getPoolHits()
+    {
+        return poolHits.get();
+    }
+
+    /**
+     * Gets the number of direct buffers allocated since startup.
+     *
+     * @return buffer allocations
+     */
+    public static long getAllocations()
+    {
+        return allocations.get();
+    }
+
+    /**
+     * Gets the number of bytes of direct memory allocated since startup.
+     *
+     * @return allocated bytes
+     */
+    public static long getAllocatedBytes()
+    {
+        return allocatedBytes.get();
+    }
+
+    /**
+     * Gets the number of bytes served from reused buffers, i.e. the allocation the pool avoided.
+     *
+     * @return reused bytes
+     */
+    public static long getReusedBytes()
+    {
+        return reusedBytes.get();
+    }
+
+    /**
+     * Gets the number of released buffers dropped because the pool was full.
+     *
+     * @return discarded buffers
+     */
+    public static long getDiscards()
+    {
+        return discards.get();
+    }
+
+    /**
+     * Summarizes the calling thread's pool usage since the last call to this method, then resets the thread's counters.
+     *
+     * @return human readable summary, or null if the thread didn't use the pool
+     */
+    public static String drainThreadStatistics()
+    {
+        long[] threadStats = pools.get().threadStats;
+        if(threadStats[0] == 0) {
+            return null;
+        }
+        String summary = String.format("Raster buffer pool: %d acquisitions, %d reused, %d MB allocated, %d MB reused (process total: %d acquisitions, %d reused, "
+                + "%d MB allocated, %d MB reused, %d discarded)", threadStats[0], threadStats[1], threadStats[2] >> 20, threadStats[3] >> 20, getAcquisitions(),
+                getPoolHits(), getAllocatedBytes() >> 20, getReusedBytes() >> 20, getDiscards());
+        threadStats[0] = 0;
+        threadStats[1] = 0;
+        threadStats[2] = 0;
+        threadStats[3] = 0;
+        return summary;
+    }
+}
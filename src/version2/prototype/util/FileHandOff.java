@@ -0,0 +1,181 @@
+package version2.prototype.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Passes a file from one processing folder to another without rewriting its contents where possible. Steps that only forward their inputs
+ * (Reproject without projection, Mask or Clip when skipped, the copy of downloads into the first step and of the last step's output) use
+ * this instead of copying, which on a large archive would otherwise write every file two or three extra times.
+ *
+ * <ul>
+ * <li>{@link #link(File, File, boolean)} shares the source: a hard link, then optionally a symbolic link, then a copy. Use it when the source
+ * must stay where it is.</li>
+ * <li>{@link #move(File, File)} hands the source over: an atomic rename, then a plain move, then a copy and delete. Use it when the source
+ * would be deleted right afterwards.</li>
+ * </ul>
+ *
+ * Copying is only the fallback for when the folders are on different file systems (or the file system has no links). An existing target is
+ * replaced. Hand-offs are counted per method so the savings can be seen in the logs.
+ */
+public final class FileHandOff {
+    /**
+     * How a file was handed off.
+     */
+    public enum Method {
+        HARD_LINK,
+        SYMBOLIC_LINK,
+        MOVE,
+        COPY
+    }
+
+    private static final AtomicLong[] counts = new AtomicLong[] {new AtomicLong(), new AtomicLong(), new AtomicLong(), new AtomicLong()};
+    private static final AtomicLong copiedBytes = new AtomicLong();
+
+    private FileHandOff()
+    {
+    }
+
+    /**
+     * Makes the source file available at the target path while leaving the source in place.
+     *
+     * @param source  - existing file
+     * @param target  - path to make the file available at, replaced if it exists
+     * @param allowSymbolicLink  - true if a symbolic link may be used when a hard link can't. Only allow it when the source outlives the target.
+     * @return how the file was handed off
+     * @throws IOException  if the file couldn't be linked or copied
+     */
+    public static Method link(File source, File target, boolean allowSymbolicLink) throws IOException
+    {
+        Path src = source.toPath();
+        Path dest = prepareTarget(target);
+
+        try {
+            Files.createLink(dest, src);
+            return count(Method.HARD_LINK, 0);
+        } catch (IOException | UnsupportedOperationException | SecurityException e) {
+            // different file system or no hard links, try the next method
+        }
+
+        if(allowSymbolicLink) {
+            try {
+                Files.createSymbolicLink(dest, src.toAbsolutePath());
+                return count(Method.SYMBOLIC_LINK, 0);
+            } catch (IOException | UnsupportedOperationException | SecurityException e) {
+                // symbolic links unsupported or not permitted (e.g. Windows without the privilege)
+            }
+        }
+
+        Files.copy(src, dest, StandardCopyOption.REPLACE_EXISTING);
+        return count(Method.COPY, source.length());
+    }
+
+    /**
+     * Links the source file into a directory under the same name. See {@link #link(File, File, boolean)}.
+     *
+     * @param source  - existing file
+     * @param directory  - directory to link the file into, created if needed
+     * @param allowSymbolicLink  - true if a symbolic link may be used when a hard link can't
+     * @return how the file was handed off
+     * @throws IOException  if the file couldn't be linked or copied
+     */
+    public static Method linkToDirectory(File source, File directory, boolean allowSymbolicLink) throws IOException
+    {
+        return link(source, new File(directory, source.getName()), allowSymbolicLink);
+    }
+
+    /**
+     * Moves the source file to the target path.
+     *
+     * @param source  - existing file, gone afterwards
+     * @param target  - path to move the file to, replaced if it exists
+     * @return how the file was handed off
+     * @throws IOException  if the file couldn't be moved or copied
+     */
+    public static Method move(File source, File target) throws IOException
+    {
+        Path src = source.toPath();
+        Path dest = prepareTarget(target);
+        long size = source.length();
+
+        try {
+            Files.move(src, dest, StandardCopyOption.ATOMIC_MOVE);
+            return count(Method.MOVE, 0);
+        } catch (AtomicMoveNotSupportedException e) {
+            // different file system, a plain move copies and deletes
+        }
+
+        Files.move(src, dest, StandardCopyOption.REPLACE_EXISTING);
+        return count(Method.COPY, size);
+    }
+
+    /**
+     * Moves the source file into a directory under the same name. See {@link #move(File, File)}.
+     *
+     * @param source  - existing file, gone afterwards
+     * @param directory  - directory to move the file into, created if needed
+     * @return how the file was handed off
+     * @throws IOException  if the file couldn't be moved or copied
+     */
+    public static Method moveToDirectory(File source, File directory) throws IOException
+    {
+        return move(source, new File(directory, source.getName()));
+    }
+
+    /**
+     * Gets the number of files handed off by the given method since startup.
+     *
+     * @param method  - hand-off method
+     * @return number of files
+     */
+    public static long getCount(Method method)
+    {
+        return counts[method.ordinal()].get();
+    }
+
+    /**
+     * Gets the number of bytes that had to be copied because no link or rename was possible.
+     *
+     * @return copied bytes
+     */
+    public static long getCopiedBytes()
+    {
+        return copiedBytes.get();
+    }
+
+    /**
+     * Summarizes the hand-offs since startup.
+     *
+     * @return human readable summary
+     */
+    public static String getStatistics()
+    {
+        return String.format("File hand-off: %d hard links, %d symbolic links, %d moves, %d copies (%d MB copied)", getCount(Method.HARD_LINK),
+                getCount(Method.SYMBOLIC_LINK), getCount(Method.MOVE), getCount(Method.COPY), getCopiedBytes() >> 20);
+    }
+
+    private static Path prepareTarget(File target) throws IOException
+    {
+        File parent = target.getAbsoluteFile().getParentFile();
+        if(parent != null && !parent.exists()) {
+            Files.createDirectories(parent.toPath());
+        }
+        Path dest = target.toPath();
+        Files.deleteIfExists(dest);
+        return dest;
+    }
+
+    private static Method count(Method method, long bytes)
+    {
+        counts[method.ordinal()].incrementAndGet();
+        if(bytes > 0) {
+            copiedBytes.addAndGet(bytes);
+        }
+        return method;
+    }
+}
@@ -0,0 +1,260 @@
+package version2.prototype.util;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.gdal.gdal.Dataset;
+import org.gdal.gdal.gdal;
+import org.gdal.gdalconst.gdalconstConstants;
+
+/**
+ * Thread-confined GDAL execution context. Replaces the old process-wide GdalUtils lock object.
+ *
+ * Each thread doing GDAL work opens a context, and every Dataset handle opened or created through it belongs to that thread alone and is
+ * released when the outermost context on the thread is closed. Raster reads and writes on those handles need no locking so ProcessWorkers
+ * run their GDAL work concurrently. Operations that aren't reentrant in GDAL/OGR (driver registration and OGR shapefile access) must be
+ * done while holding {@link #exclusive()}, which records how long callers waited for it.
+ *
+ * <pre>
+ * try (GdalContext gdalContext = GdalContext.open()) {
+ *     Dataset input = gdalContext.open(path);
+ *     try (GdalContext.Exclusive lock = GdalContext.exclusive()) {
+ *         // OGR work
+ *     }
+ * }
+ * </pre>
+ *
+ * The Exclusive handle is only held, never referenced in the block, so methods taking the lock are annotated @SuppressWarnings("try").
+ *
+ * Contexts nest: opening a context on a thread that already has one returns the same instance, and its handles are released when the
+ * outermost one closes.
+ */
+public final class GdalContext implements AutoCloseable {
+    private static final ThreadLocal<GdalContext> current = new ThreadLocal<GdalContext>();
+    private static final ReentrantLock exclusiveLock = new ReentrantLock();
+
+    // Lock statistics, process wide
+    private static final AtomicLong lockAcquisitions = new AtomicLong();
+    private static final AtomicLong contendedAcquisitions = new AtomicLong();
+    private static final AtomicLong lockWaitNanos = new AtomicLong();
+    private static final AtomicLong maxLockWaitNanos = new AtomicLong();
+
+    // Lock statistics, per thread
+    private static final ThreadLocal<long[]> threadLockWait = new ThreadLocal<long[]>() {
+        @Override
+        protected long[] initialValue() {
+            return new long[2];     // {acquisitions, wait nanos}
+        }
+    };
+
+    private final Thread owner;
+    private final ArrayList<Dataset> datasets;
+    private int depth;
+
+    private GdalContext(Thread owner)
+    {
+        this.owner = owner;
+        datasets = new ArrayList<Dataset>();
+        depth = 0;
+    }
+
+    /**
+     * Opens (or re-enters) the GDAL context for the calling thread. GDAL drivers are registered if that hasn't happened yet.
+     *
+     * @return the calling thread's GdalContext
+     */
+    public static GdalContext open()
+    {
+        GdalUtils.register();
+
+        GdalContext context = current.get();
+        if(context == null) {
+            context = new GdalContext(Thread.currentThread());
+            current.set(context);
+        }
+        context.depth++;
+        return context;
+    }
+
+    /**
+     * Acquires the process-wide lock for GDAL/OGR operations that cannot run concurrently. Hold it only around those operations, never around
+     * raster reads or writes. The lock is reentrant.
+     *
+     * @return handle that releases the lock when closed
+     */
+    public static Exclusive exclusive()
+    {
+        long waited = 0;
+        if(!exclusiveLock.tryLock()) {
+            long start = System.nanoTime();
+            exclusiveLock.lock();
+            waited = System.nanoTime() - start;
+            contendedAcquisitions.incrementAndGet();
+        }
+
+        lockAcquisitions.incrementAndGet();
+        lockWaitNanos.addAndGet(waited);
+        long max = maxLockWaitNanos.get();
+        while(waited > max && !maxLockWaitNanos.compareAndSet(max, waited)) {
+            max = maxLockWaitNanos.get();
+        }
+
+        long[] threadStats = threadLockWait.get();
+        threadStats[0]++;
+        threadStats[1] += waited;
+
+        return new Exclusive();
+    }
+
+    /**
+     * Opens a raster read only. The handle belongs to this context.
+     *
+     * @param path  - path or GDAL connection string of the raster
+     * @return the opened Dataset, or null if GDAL couldn't open it
+     */
+    public Dataset open(String path)
+    {
+        return open(path, gdalconstConstants.GA_ReadOnly);
+    }
+
+    /**
+     * Opens a raster with the given access. The handle belongs to this context.
+     *
+     * @param path  - path or GDAL connection string of the raster
+     * @param access  - gdalconstConstants.GA_ReadOnly or gdalconstConstants.GA_Update
+     * @return the opened Dataset, or null if GDAL couldn't open it
+     */
+    public Dataset open(String path, int access)
+    {
+        checkOwner();
+        return track(gdal.Open(path, access));
+    }
+
+    /**
+     * Hands ownership of a Dataset created elsewhere (e.g. by Driver.Create) to this context so it is released with it.
+     *
+     * @param ds  - dataset to track, may be null
+     * @return the given dataset
+     */
+    public Dataset track(Dataset ds)
+    {
+        checkOwner();
+        if(ds != null) {
+            datasets.add(ds);
+        }
+        return ds;
+    }
+
+    /* (non-Javadoc)
+     * @see java.lang.AutoCloseable#close()
+     */
+    @Override
+    public void close()
+    {
+        checkOwner();
+        if(--depth > 0) {
+            return;
+        }
+
+        // Dataset.delete() is a no-op on handles the caller already released
+        for(int i=datasets.size() - 1; i >= 0; i--) {
+            datasets.get(i).delete();
+        }
+        datasets.clear();
+        current.remove();
+    }
+
+    /**
+     * Gets the number of times the exclusive lock has been acquired since startup.
+     *
+     * @return exclusive lock acquisitions
+     */
+    public static long getLockAcquisitions()
+    {
+        return lockAcquisitions.get();
+    }
+
+    /**
+     * Gets the number of exclusive lock acquisitions that had to wait for another thread.
+     *
+     * @return contended exclusive lock acquisitions
+     */
+    public static long getContendedAcquisitions()
+    {
+        return contendedAcquisitions.get();
+    }
+
+    /**
+     * Gets the total time threads have spent waiting for the exclusive lock.
+     *
+     * @param unit  - unit to report the time in
+     * @return total wait time
+     */
+    public static long getLockWaitTime(TimeUnit unit)
+    {
+        return unit.convert(lockWaitNanos.get(), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Gets the longest single wait for the exclusive lock.
+     *
+     * @param unit  - unit to report the time in
+     * @return longest wait time
+     */
+    public static long getMaxLockWaitTime(TimeUnit unit)
+    {
+        return unit.convert(maxLockWaitNanos.get(), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Summarizes the exclusive lock usage of the calling thread since the last call to this method, then resets the thread's counters.
+     *
+     * @return human readable summary, or null if the thread didn't use the exclusive lock
+     */
+    public static String drainThreadLockStatistics()
+    {
+        long[] threadStats = threadLockWait.get();
+        if(threadStats[0] == 0) {
+            return null;
+        }
+        String summary = String.format("GDAL exclusive lock: %d acquisitions, %d ms waiting (process total: %d acquisitions, %d contended, %d ms waiting, %d ms longest wait)",
+                threadStats[0], TimeUnit.NANOSECONDS.toMillis(threadStats[1]), getLockAcquisitions(), getContendedAcquisitions(), getLockWaitTime(TimeUnit.MILLISECONDS),
+                getMaxLockWaitTime(TimeUnit.MILLISECONDS));
+        threadStats[0] = 0;
+        threadStats[1] = 0;
+        return summary;
+    }
+
+    private void checkOwner()
+    {
+        if(Thread.currentThread() != owner) {
+            throw new IllegalStateException("GdalContext owned by thread '" + owner.getName() + "' used from thread '" + Thread.currentThread().getName() + "'.");
+        }
+    }
+
+    /**
+     * Handle to the held exclusive GDAL lock. Closing it releases the lock.
+     */
+    public static final class Exclusive implements AutoCloseable {
+        private boolean released;
+
+        private Exclusive()
+        {
+            released = false;
+        }
+
+        /* (non-Javadoc)
+         * @see java.lang.AutoCloseable#close()
+         */
+        @Override
+        public void close()
+        {
+            if(!released) {
+                released = true;
+                exclusiveLock.unlock();
+            }
+        }
+    }
+}
@@ -28,17 +28,16 @@ public class GdalUtils {
 
     //    public static final int NO_VALUE = -99999;
     //    public static final float NO_DATA = Float.intBitsToFloat(0xff7fffff);       // float(-3.4028234663852886E38)
+    private static volatile boolean sRegistered = false;
+
     /**
-     * All GDAL operations should be done while holding a lock on this object.
-     * GDAL is "not completely thread-safe", so this may be critical.
+     * Registers the GDAL and OGR drivers once per process. Driver registration isn't reentrant so it's done while holding the exclusive
+     * GdalContext lock. GDAL work itself should be done inside a GdalContext.
      */
-    public static final Object lockObject = new Object();
-
-    private static boolean sRegistered = false;
-
+    @SuppressWarnings("try")
     public static void register() {
         if (!sRegistered) {
-            synchronized (lockObject) {
+            try (GdalContext.Exclusive lock = GdalContext.exclusive()) {
                 if (!sRegistered) {
                     ogr.RegisterAll();
                     gdal.AllRegister();
@@ -51,7 +50,8 @@ public class GdalUtils {
 
     /**
      * Checks for exceptions reported to the GDAL error reporting system and
-     * maps them to Java exceptions or errors.
+     * maps them to Java exceptions or errors. GDAL keeps the last error per
+     * thread so this only sees errors raised by the calling thread.
      *
      * @throws IOException
      *             CPLE_AppDefined, CPLE_FileIO, CPLE_OpenFailed,
@@ -63,28 +63,26 @@ public class GdalUtils {
      */
     public static void errorCheck() throws IOException,
     IllegalArgumentException, UnsupportedOperationException {
-        synchronized (lockObject) {
-            int type = gdal.GetLastErrorType();
-            if (type != gdalconstConstants.CE_None) {
-                int number = gdal.GetLastErrorNo();
-                String message = gdal.GetLastErrorMsg();
-                gdal.ErrorReset();
+        int type = gdal.GetLastErrorType();
+        if (type != gdalconstConstants.CE_None) {
+            int number = gdal.GetLastErrorNo();
+            String message = gdal.GetLastErrorMsg();
+            gdal.ErrorReset();
 
-                if (number == gdalconstConstants.CPLE_AppDefined
-                        || number == gdalconstConstants.CPLE_FileIO
-                        || number == gdalconstConstants.CPLE_OpenFailed
-                        || number == gdalconstConstants.CPLE_NoWriteAccess
-                        || number == gdalconstConstants.CPLE_UserInterrupt) {
-                    throw new IOException(message);
-                } else if (number == gdalconstConstants.CPLE_OutOfMemory) {
-                    throw new OutOfMemoryError(message);
-                } else if (number == gdalconstConstants.CPLE_IllegalArg) {
-                    throw new IllegalArgumentException(message);
-                } else if (number == gdalconstConstants.CPLE_NotSupported) {
-                    throw new UnsupportedOperationException(message);
-                } else if (number == gdalconstConstants.CPLE_AssertionFailed) {
-                    throw new AssertionError(message);
-                }
+            if (number == gdalconstConstants.CPLE_AppDefined
+                    || number == gdalconstConstants.CPLE_FileIO
+                    || number == gdalconstConstants.CPLE_OpenFailed
+                    || number == gdalconstConstants.CPLE_NoWriteAccess
+                    || number == gdalconstConstants.CPLE_UserInterrupt) {
+                throw new IOException(message);
+            } else if (number == gdalconstConstants.CPLE_OutOfMemory) {
+                throw new OutOfMemoryError(message);
+            } else if (number == gdalconstConstants.CPLE_IllegalArg) {
+                throw new IllegalArgumentException(message);
+            } else if (number == gdalconstConstants.CPLE_NotSupported) {
+                throw new UnsupportedOperationException(message);
+            } else if (number == gdalconstConstants.CPLE_AssertionFailed) {
+                throw new AssertionError(message);
             }
         }
     }
@@ -109,13 +107,13 @@ public class GdalUtils {
      * @throws ConfigReadException
      *             *
      **/
+    @SuppressWarnings("try")
     public static void project(File input, String masterShapeFile, Projection projection, File output, Integer noDataValue) {
         assert (masterShapeFile != null);
-        GdalUtils.register();
 
-        synchronized (GdalUtils.lockObject) {
+        try (GdalContext gdalContext = GdalContext.open()) {
             // Load input file and features
-            Dataset inputDS = gdal.Open(input.getPath());
+            Dataset inputDS = gdalContext.open(input.getPath());
             if(inputDS != null)
             {
                 // System.out.println(inputDS.GetProjectionRef().toString());
@@ -129,51 +127,59 @@ public class GdalUtils {
                 }
                  */
 
-                List<DataSource> features = new ArrayList<DataSource>();
-                features.add(ogr.Open(new File(masterShapeFile).getPath()));
+                double left, right, bottom, top;
+                String outputProjection;
+                try (GdalContext.Exclusive lock = GdalContext.exclusive()) {
+                    List<DataSource> features = new ArrayList<DataSource>();
+                    features.add(ogr.Open(new File(masterShapeFile).getPath()));
 
 
-                // Find union of extents
-                double[] extent = features.get(0).GetLayer(0).GetExtent(); // Ordered:
-                // left,
-                // right,
-                // bottom,
-                // top
-                // System.out.println(Arrays.toString(extent));
-                double left = extent[0];
-                double right = extent[1];
-                double bottom = extent[2];
-                double top = extent[3];
-                for (int i = 1; i < features.size(); i++) {
-                    extent = features.get(i).GetLayer(0).GetExtent();
-                    if (extent[0] < left) {
-                        left = extent[0];
-                    } else if (extent[1] > right) {
-                        right = extent[1];
-                    } else if (extent[2] < bottom) {
-                        bottom = extent[2];
-                    } else if (extent[3] > top) {
-                        top = extent[3];
+                    // Find union of extents
+                    double[] extent = features.get(0).GetLayer(0).GetExtent(); // Ordered:
+                    // left,
+                    // right,
+                    // bottom,
+                    // top
+                    // System.out.println(Arrays.toString(extent));
+                    left = extent[0];
+                    right = extent[1];
+                    bottom = extent[2];
+                    top = extent[3];
+                    for (int i = 1; i < features.size(); i++) {
+                        extent = features.get(i).GetLayer(0).GetExtent();
+                        if (extent[0] < left) {
+                            left = extent[0];
+                        } else if (extent[1] > right) {
+                            right = extent[1];
+                        } else if (extent[2] < bottom) {
+                            bottom = extent[2];
+                        } else if (extent[3] > top) {
+                            top = extent[3];
+                        }
+                    }
+                    outputProjection = features.get(0).GetLayer(0).GetSpatialRef().ExportToWkt();
+
+                    for (DataSource feature : features) {
+                        feature.delete();
                     }
                 }
 
                 // Project to union of extents
-                Dataset outputDS =
-                        gdal.GetDriverByName("GTiff").Create(
+                GeoTiffProfile profile = GeoTiffProfile.forStage(GeoTiffProfile.Stage.PROCESSOR);
+                Dataset outputDS = gdalContext.track(
+                        profile.create(
                                 output.getPath(),
                                 (int) Math.ceil((right - left)
                                         / (projection.getPixelSize())),
                                 (int) Math.ceil((top - bottom)
                                         / (projection.getPixelSize())),
-                                1, gdalconstConstants.GDT_Float32);
+                                1, gdalconstConstants.GDT_Float32));
 
                 // TODO: get projection from project info, and get transform from
                 // shape file
                 // SpatialReference outputRef = new SpatialReference();
                 // outputRef.ImportFromWkt(wkt);
                 outputDS.GetRasterBand(1).SetNoDataValue(noDataValue);
-                String outputProjection =
-                        features.get(0).GetLayer(0).GetSpatialRef().ExportToWkt();
                 outputDS.SetProjection(outputProjection);
                 outputDS.SetGeoTransform(new double[] { left,
                         (projection.getPixelSize()), 0, top, 0,
@@ -192,9 +198,20 @@ public class GdalUtils {
                 case CUBIC_CONVOLUTION:
                     resampleAlg = gdalconstConstants.GRA_CubicSpline;
                 }
-                gdal.ReprojectImage(inputDS, outputDS, null, null, resampleAlg);
+                // every date shares the source and project grids, so use the cached pixel mapping where the resampling allows it
+                ReprojectionTable table = inputDS.GetRasterCount() == 1 ? ReprojectionTable.get(inputDS, outputDS, resampleAlg) : null;
+                if (table != null) {
+                    try {
+                        table.apply(inputDS.GetRasterBand(1), outputDS.GetRasterBand(1), noDataValue);
+                    } catch (IOException e) {
+                        ErrorLog.add(Config.getInstance(), "Problem reprojecting '" + input.getPath() + "' with the cached reprojection table.", e);
+                        gdal.ReprojectImage(inputDS, outputDS, null, null, resampleAlg);
+                    }
+                } else {
+                    gdal.ReprojectImage(inputDS, outputDS, null, null, resampleAlg);
+                }
                 outputDS.GetRasterBand(1).ComputeStatistics(false);
-                outputDS.delete();
+                profile.finish(outputDS);
                 inputDS.delete();
             }
         }
@@ -215,20 +232,20 @@ public class GdalUtils {
         imageFactory.openDataset(gd.getGrids().get(0));
         BufferedImage image = imageFactory.getNextImage(true);
 
-        GdalUtils.register();
-        synchronized (GdalUtils.lockObject) {
+        try (GdalContext gdalContext = GdalContext.open()) {
 
             Raster raster = image.getData();
             int xSize=raster.getWidth();
             int ySize=raster.getHeight();
 
             //write to a tiff file
-            Dataset outputDS = gdal.GetDriverByName("GTiff").Create(
+            GeoTiffProfile profile = GeoTiffProfile.forStage(GeoTiffProfile.Stage.PROCESSOR);
+            Dataset outputDS = gdalContext.track(profile.create(
                     outFile,
                     xSize, ySize,
                     1,
                     gdalconstConstants.GDT_Float32
-                    );
+                    ));
 
             double[] array = new double[xSize];
             for (int row=0; row<ySize; row++)
@@ -246,7 +263,7 @@ public class GdalUtils {
             // set coordinate system
             outputDS.SetProjection(projectionStr);
             outputDS.GetRasterBand(1).ComputeStatistics(false);
-            outputDS.delete();
+            profile.finish(outputDS);
 
             image.flush();
             gd.close();
@@ -0,0 +1,312 @@
+package version2.prototype.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Hashtable;
+import java.util.Vector;
+
+import org.gdal.gdal.Band;
+import org.gdal.gdal.ColorTable;
+import org.gdal.gdal.Dataset;
+import org.gdal.gdal.Driver;
+import org.gdal.gdal.gdal;
+import org.gdal.gdalconst.gdalconstConstants;
+
+import version2.prototype.Config;
+import version2.prototype.ErrorLog;
+
+/**
+ * Creation options for the GeoTIFFs EASTWeb writes. Each stage (processor, indices, temporal summary) has its profile set in the config's
+ * GeoTiff section, and every GTiff Create/CreateCopy goes through {@link #create(String, int, int, int, int)} or
+ * {@link #createCopy(String, Dataset)} of that profile and ends with {@link #finish(Dataset)} instead of Dataset.delete().
+ *
+ * <ul>
+ * <li>STRIPED: the driver defaults, striped and uncompressed.</li>
+ * <li>TILED: 256x256 tiles, uncompressed. Fast windowed reads for intermediate files.</li>
+ * <li>DEFLATE, LZW, ZSTD: tiled and compressed, with the horizontal predictor for integer types and the floating point predictor for
+ * floating point types. ZSTD needs a GDAL built with it and falls back to DEFLATE otherwise.</li>
+ * <li>COG: DEFLATE with overviews, rewritten on {@link #finish(Dataset)} so the overviews come before the full resolution data, the Cloud
+ * Optimized GeoTIFF layout.</li>
+ * </ul>
+ *
+ * Every profile but STRIPED sets BIGTIFF=IF_SAFER, so compressed rasters that might pass 4 GB are written as BigTIFF.
+ */
+public enum GeoTiffProfile {
+    STRIPED(false, null, false),
+    TILED(true, null, false),
+    DEFLATE(true, "DEFLATE", false),
+    LZW(true, "LZW", false),
+    ZSTD(true, "ZSTD", false),
+    COG(true, "DEFLATE", true);
+
+    /**
+     * Tile width and height of the tiled profiles.
+     */
+    public static final int TILE_SIZE = 256;
+
+    /**
+     * The stages with their own profile.
+     */
+    public enum Stage {
+        PROCESSOR,
+        INDICES,
+        SUMMARY
+    }
+
+    private static Boolean zstdSupported = null;
+
+    private final boolean tiled;
+    private final String compression;
+    private final boolean cloudOptimized;
+
+    private GeoTiffProfile(boolean tiled, String compression, boolean cloudOptimized)
+    {
+        this.tiled = tiled;
+        this.compression = compression;
+        this.cloudOptimized = cloudOptimized;
+    }
+
+    /**
+     * Gets the profile configured for a stage. Unknown names fall back to TILED with an error logged.
+     *
+     * @param stage  - stage writing the files
+     * @return the stage's profile
+     */
+    public static GeoTiffProfile forStage(Stage stage)
+    {
+        Config configInstance = Config.getInstance();
+        String name;
+        switch(stage)
+        {
+        case INDICES:
+            name = configInstance.getIndicesGeoTiffProfile();
+            break;
+        case SUMMARY:
+            name = configInstance.getSummaryGeoTiffProfile();
+            break;
+        default:
+            name = configInstance.getProcessorGeoTiffProfile();
+            break;
+        }
+        return forName(name);
+    }
+
+    /**
+     * Gets a profile by name, ignoring case. Unknown names fall back to TILED with an error logged.
+     *
+     * @param name  - profile name
+     * @return the profile
+     */
+    public static GeoTiffProfile forName(String name)
+    {
+        if(name == null || name.isEmpty()) {
+            return TILED;
+        }
+        try {
+            return valueOf(name.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            ErrorLog.add(Config.getInstance(), "Unknown GeoTIFF profile '" + name + "', using TILED.", e);
+            return TILED;
+        }
+    }
+
+    /**
+     * Gets the GTiff creation options of this profile for the given data type.
+     *
+     * @param dataType  - one of the gdalconstConstants.GDT_* constants
+     * @return creation options, empty for STRIPED
+     */
+    public Vector<String> getCreationOptions(int dataType)
+    {
+        Vector<String> options = new Vector<String>();
+        if(tiled) {
+            options.add("TILED=YES");
+            options.add("BLOCKXSIZE=" + TILE_SIZE);
+            options.add("BLOCKYSIZE=" + TILE_SIZE);
+            options.add("BIGTIFF=IF_SAFER");
+        }
+        String method = getCompression();
+        if(method != null) {
+            options.add("COMPRESS=" + method);
+            options.add("PREDICTOR=" + (isFloatingPoint(dataType) ? 3 : 2));
+            if(method.equals("DEFLATE")) {
+                options.add("ZLEVEL=6");
+            }
+        }
+        return options;
+    }
+
+    /**
+     * Gets the compression this profile really uses, with ZSTD replaced by DEFLATE where GDAL lacks it.
+     *
+     * @return the GTiff COMPRESS value, or null for none
+     */
+    public String getCompression()
+    {
+        if("ZSTD".equals(compression) && !isZstdSupported()) {
+            return "DEFLATE";
+        }
+        return compression;
+    }
+
+    /**
+     * Gets whether {@link #finish(Dataset)} builds overviews and rewrites the file as a Cloud Optimized GeoTIFF.
+     *
+     * @return true for COG
+     */
+    public boolean isCloudOptimized()
+    {
+        return cloudOptimized;
+    }
+
+    /**
+     * Creates a GeoTIFF with this profile's options.
+     *
+     * @param path  - file to create
+     * @param xSize  - width in pixels
+     * @param ySize  - height in lines
+     * @param bandCount  - number of bands
+     * @param dataType  - one of the gdalconstConstants.GDT_* constants
+     * @return the new dataset, or null if GDAL failed to create it
+     */
+    public Dataset create(String path, int xSize, int ySize, int bandCount, int dataType)
+    {
+        return gdal.GetDriverByName("GTiff").Create(path, xSize, ySize, bandCount, dataType, getCreationOptions(dataType));
+    }
+
+    /**
+     * Copies a dataset to a GeoTIFF with this profile's options.
+     *
+     * @param path  - file to create
+     * @param source  - dataset to copy
+     * @return the new dataset, or null if GDAL failed to create it
+     */
+    public Dataset createCopy(String path, Dataset source)
+    {
+        int dataType = source.GetRasterCount() > 0 ? source.GetRasterBand(1).getDataType() : gdalconstConstants.GDT_Byte;
+        return gdal.GetDriverByName("GTiff").CreateCopy(path, source, getCreationOptions(dataType));
+    }
+
+    /**
+     * Copies what CreateCopy would copy of a band besides its pixels: no data value, scale and offset, unit, color interpretation, color
+     * table, description and metadata. For outputs made with {@link #create(String, int, int, int, int)} that stand in for a copy.
+     *
+     * @param source  - band to copy from
+     * @param target  - band to copy to
+     */
+    public static void copyBandProperties(Band source, Band target)
+    {
+        Double[] value = new Double[1];
+        source.GetNoDataValue(value);
+        if(value[0] != null) {
+            target.SetNoDataValue(value[0]);
+        }
+        value[0] = null;
+        source.GetScale(value);
+        if(value[0] != null && value[0] != 1.0) {
+            target.SetScale(value[0]);
+        }
+        value[0] = null;
+        source.GetOffset(value);
+        if(value[0] != null && value[0] != 0.0) {
+            target.SetOffset(value[0]);
+        }
+        String unit = source.GetUnitType();
+        if(unit != null && !unit.isEmpty()) {
+            target.SetUnitType(unit);
+        }
+        target.SetRasterColorInterpretation(source.GetRasterColorInterpretation());
+        ColorTable colors = source.GetRasterColorTable();
+        if(colors != null) {
+            target.SetRasterColorTable(colors);
+        }
+        String description = source.GetDescription();
+        if(description != null && !description.isEmpty()) {
+            target.SetDescription(description);
+        }
+        Hashtable<?, ?> metadata = source.GetMetadata_Dict();
+        if(metadata != null && !metadata.isEmpty()) {
+            target.SetMetadata(metadata);
+        }
+    }
+
+    /**
+     * Closes a dataset written with this profile. For COG the overviews are built and the file is rewritten with them in front; failing that
+     * the file is left as written and the error logged. For the other profiles this is Dataset.delete().
+     *
+     * @param ds  - dataset from {@link #create(String, int, int, int, int)} or {@link #createCopy(String, Dataset)}, released afterwards
+     */
+    public void finish(Dataset ds)
+    {
+        if(ds == null) {
+            return;
+        }
+        if(!cloudOptimized) {
+            ds.delete();
+            return;
+        }
+
+        String path = ds.GetDescription();
+        File temp = new File(path + ".cog.tmp");
+        try {
+            int[] levels = overviewLevels(ds.GetRasterXSize(), ds.GetRasterYSize());
+            if(levels.length > 0) {
+                String resampling = isFloatingPoint(ds.GetRasterBand(1).getDataType()) ? "AVERAGE" : "NEAREST";
+                ds.BuildOverviews(resampling, levels);
+            }
+            ds.FlushCache();
+
+            Vector<String> options = getCreationOptions(ds.GetRasterBand(1).getDataType());
+            options.add("COPY_SRC_OVERVIEWS=YES");
+            Dataset copy = gdal.GetDriverByName("GTiff").CreateCopy(temp.getPath(), ds, options);
+            if(copy == null) {
+                throw new IOException("GDAL failed to write '" + temp.getPath() + "': " + gdal.GetLastErrorMsg());
+            }
+            copy.delete();
+            ds.delete();
+
+            try {
+                Files.move(temp.toPath(), new File(path).toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp.toPath(), new File(path).toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            ErrorLog.add(Config.getInstance(), "Problem writing '" + path + "' as a Cloud Optimized GeoTIFF, left as written.", e);
+            ds.delete();
+            temp.delete();
+        }
+    }
+
+    // Power of two reductions down to about one tile
+    private static int[] overviewLevels(int xSize, int ySize)
+    {
+        ArrayList<Integer> levels = new ArrayList<Integer>();
+        for(int level = 2; Math.max(xSize, ySize) / level >= TILE_SIZE; level *= 2) {
+            levels.add(level);
+        }
+        int[] result = new int[levels.size()];
+        for(int i=0; i < result.length; i++) {
+            result[i] = levels.get(i);
+        }
+        return result;
+    }
+
+    private static boolean isFloatingPoint(int dataType)
+    {
+        return dataType == gdalconstConstants.GDT_Float32 || dataType == gdalconstConstants.GDT_Float64;
+    }
+
+    private static synchronized boolean isZstdSupported()
+    {
+        if(zstdSupported == null) {
+            Driver driver = gdal.GetDriverByName("GTiff");
+            String creationOptions = driver != null ? driver.GetMetadataItem("DMD_CREATIONOPTIONLIST") : null;
+            zstdSupported = creationOptions != null && creationOptions.contains("ZSTD");
+        }
+        return zstdSupported;
+    }
+}
@@ -0,0 +1,143 @@
+package version2.prototype.util;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.gdal.gdal.Band;
+
+/**
+ * Walks a raster in windows aligned to its native block layout. A window is a whole number of blocks (clipped at the right and bottom
+ * edges) grouped until it holds roughly {@link #DEFAULT_WINDOW_PIXELS} pixels, so a striped GeoTIFF is read a band of strips at a time and a
+ * tiled one a group of tiles at a time. Windows are returned left to right, top to bottom.
+ *
+ * Buffers sized with {@link #getMaxWindowSize()} can hold any window this iterator returns, so memory use depends on the block size rather
+ * than the raster size.
+ */
+public class RasterBlockIterator implements Iterator<RasterWindow>, Iterable<RasterWindow> {
+    /**
+     * Default number of pixels to group into one window (2 MB as doubles).
+     */
+    public static final int DEFAULT_WINDOW_PIXELS = 1 << 18;
+
+    private final int xSize;
+    private final int ySize;
+    private final int windowWidth;
+    private final int windowHeight;
+    private int nextX;
+    private int nextY;
+
+    /**
+     * Creates a RasterBlockIterator following the block layout of the given band.
+     *
+     * @param band  - band whose size and block size define the windows
+     */
+    public RasterBlockIterator(Band band)
+    {
+        this(band.getXSize(), band.getYSize(), band.GetBlockXSize(), band.GetBlockYSize(), DEFAULT_WINDOW_PIXELS);
+    }
+
+    /**
+     * Creates a RasterBlockIterator for a raster of the given size and block layout.
+     *
+     * @param xSize  - raster width in pixels
+     * @param ySize  - raster height in lines
+     * @param blockXSize  - native block width
+     * @param blockYSize  - native block height
+     * @param windowPixels  - approximate number of pixels to group into one window. A window is never smaller than one block.
+     */
+    public RasterBlockIterator(int xSize, int ySize, int blockXSize, int blockYSize, int windowPixels)
+    {
+        this.xSize = xSize;
+        this.ySize = ySize;
+
+        blockXSize = Math.max(1, Math.min(blockXSize, xSize));
+        blockYSize = Math.max(1, Math.min(blockYSize, ySize));
+        int blocksPerWindow = Math.max(1, windowPixels / (blockXSize * blockYSize));
+
+        // Group blocks horizontally first (striped rasters have a single block across), then vertically
+        int blocksAcross = (xSize + blockXSize - 1) / blockXSize;
+        int windowBlocksX = Math.min(blocksAcross, blocksPerWindow);
+        int windowBlocksY = Math.max(1, blocksPerWindow / windowBlocksX);
+
+        windowWidth = Math.min(xSize, windowBlocksX * blockXSize);
+        windowHeight = Math.min(ySize, windowBlocksY * blockYSize);
+        nextX = 0;
+        nextY = 0;
+    }
+
+    /**
+     * Gets the largest number of pixels a returned window can hold.
+     *
+     * @return maximum window size in pixels
+     */
+    public int getMaxWindowSize()
+    {
+        return windowWidth * windowHeight;
+    }
+
+    /**
+     * Gets the raster width this iterator covers.
+     *
+     * @return width in pixels
+     */
+    public int getXSize()
+    {
+        return xSize;
+    }
+
+    /**
+     * Gets the raster height this iterator covers.
+     *
+     * @return height in lines
+     */
+    public int getYSize()
+    {
+        return ySize;
+    }
+
+    /* (non-Javadoc)
+     * @see java.util.Iterator#hasNext()
+     */
+    @Override
+    public boolean hasNext()
+    {
+        return nextY < ySize && xSize > 0;
+    }
+
+    /* (non-Javadoc)
+     * @see java.util.Iterator#next()
+     */
+    @Override
+    public RasterWindow next()
+    {
+        if(!hasNext()) {
+            throw new NoSuchElementException();
+        }
+
+        RasterWindow window = new RasterWindow(nextX, nextY, Math.min(windowWidth, xSize - nextX), Math.min(windowHeight, ySize - nextY));
+        nextX += windowWidth;
+        if(nextX >= xSize) {
+            nextX = 0;
+            nextY += windowHeight;
+        }
+        return window;
+    }
+
+    /* (non-Javadoc)
+     * @see java.util.Iterator#remove()
+     */
+    @Override
+    public void remove()
+    {
+        throw new UnsupportedOperationException();
+    }
+
+    /* (non-Javadoc)
+     * @see java.lang.Iterable#iterator()
+     */
+    @Override
+    public Iterator<RasterWindow> iterator()
+    {
+        return this;
+    }
+}
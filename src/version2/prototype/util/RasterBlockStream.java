@@ -0,0 +1,158 @@
+package version2.prototype.util;
+
+import java.io.IOException;
+
+import org.gdal.gdal.Band;
+import org.gdal.gdalconst.gdalconstConstants;
+
+/**
+ * Streams matching windows from any number of input bands and to any number of output bands of the same size. Windows follow the native
+ * block layout of the first input band (see {@link RasterBlockIterator}), and one buffer per band is reused for every window. Each buffer
+ * holds its band's native data type (see {@link RasterBuffer}) in pooled off-heap memory that is returned when the stream is closed.
+ *
+ * <pre>
+ * try (RasterBlockStream stream = new RasterBlockStream(new Band[] {red, nir}, new Band[] {ndvi})) {
+ *     while(stream.next()) {
+ *         RasterBuffer r = stream.getInput(0), n = stream.getInput(1), out = stream.getOutput(0);
+ *         for(int i=0; i &lt; stream.getWindow().size(); i++) { out.set(i, ...); }
+ *         stream.write();
+ *     }
+ * }
+ * </pre>
+ *
+ * Only the first getWindow().size() values of each buffer belong to the current window.
+ */
+public class RasterBlockStream implements AutoCloseable {
+    private final Band[] inputs;
+    private final Band[] outputs;
+    private final RasterBlockIterator windows;
+    private final RasterBuffer[] inputBuffers;
+    private final RasterBuffer[] outputBuffers;
+    private RasterWindow window;
+
+    /**
+     * Creates a RasterBlockStream over the given bands.
+     *
+     * @param inputs  - bands to read, may be empty
+     * @param outputs  - bands to write, may be empty
+     * @throws IllegalArgumentException  if there are no bands or the bands differ in size
+     */
+    public RasterBlockStream(Band[] inputs, Band[] outputs) throws IllegalArgumentException
+    {
+        this.inputs = inputs != null ? inputs : new Band[0];
+        this.outputs = outputs != null ? outputs : new Band[0];
+
+        Band layout = this.inputs.length > 0 ? this.inputs[0] : (this.outputs.length > 0 ? this.outputs[0] : null);
+        if(layout == null) {
+            throw new IllegalArgumentException("RasterBlockStream needs at least one band.");
+        }
+        windows = new RasterBlockIterator(layout);
+
+        for(Band band : this.inputs) {
+            checkSize(band);
+        }
+        for(Band band : this.outputs) {
+            checkSize(band);
+        }
+
+        inputBuffers = new RasterBuffer[this.inputs.length];
+        for(int i=0; i < this.inputs.length; i++) {
+            inputBuffers[i] = RasterBuffer.forBand(this.inputs[i], windows.getMaxWindowSize());
+        }
+        outputBuffers = new RasterBuffer[this.outputs.length];
+        for(int i=0; i < this.outputs.length; i++) {
+            outputBuffers[i] = RasterBuffer.forBand(this.outputs[i], windows.getMaxWindowSize());
+        }
+        window = null;
+    }
+
+    /**
+     * Advances to the next window and reads it from every input band.
+     *
+     * @return false when the whole raster has been streamed
+     * @throws IOException  if GDAL fails to read a window
+     */
+    public boolean next() throws IOException
+    {
+        if(!windows.hasNext()) {
+            window = null;
+            return false;
+        }
+
+        window = windows.next();
+        for(int i=0; i < inputs.length; i++) {
+            if(inputBuffers[i].read(inputs[i], window) != gdalconstConstants.CE_None) {
+                throw new IOException("Failed to read window " + window + " of input band " + i + ".");
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Writes the current window of every output band from its buffer.
+     *
+     * @throws IOException  if GDAL fails to write a window
+     */
+    public void write() throws IOException
+    {
+        for(int i=0; i < outputs.length; i++) {
+            if(outputBuffers[i].write(outputs[i], window) != gdalconstConstants.CE_None) {
+                throw new IOException("Failed to write window " + window + " of output band " + i + ".");
+            }
+        }
+    }
+
+    /**
+     * Gets the current window.
+     *
+     * @return the window last read by next(), or null before the first and after the last
+     */
+    public RasterWindow getWindow()
+    {
+        return window;
+    }
+
+    /**
+     * Gets the buffer holding the current window of an input band.
+     *
+     * @param index  - index of the band in the inputs given to the constructor
+     * @return the input buffer, row-major within the window
+     */
+    public RasterBuffer getInput(int index)
+    {
+        return inputBuffers[index];
+    }
+
+    /**
+     * Gets the buffer to fill for the current window of an output band.
+     *
+     * @param index  - index of the band in the outputs given to the constructor
+     * @return the output buffer, row-major within the window
+     */
+    public RasterBuffer getOutput(int index)
+    {
+        return outputBuffers[index];
+    }
+
+    /**
+     * Returns the window buffers to the {@link DirectBufferPool}. Must be called on the thread that created the stream.
+     */
+    @Override
+    public void close()
+    {
+        for(RasterBuffer buffer : inputBuffers) {
+            buffer.release();
+        }
+        for(RasterBuffer buffer : outputBuffers) {
+            buffer.release();
+        }
+    }
+
+    private void checkSize(Band band)
+    {
+        if(band.getXSize() != windows.getXSize() || band.getYSize() != windows.getYSize()) {
+            throw new IllegalArgumentException("RasterBlockStream bands must all be " + windows.getXSize() + "x" + windows.getYSize() + " but one is " + band.getXSize() + "x"
+                    + band.getYSize() + ".");
+        }
+    }
+}
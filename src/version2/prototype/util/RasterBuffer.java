@@ -0,0 +1,485 @@
+package version2.prototype.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+
+import org.gdal.gdal.Band;
+import org.gdal.gdal.gdal;
+import org.gdal.gdalconst.gdalconstConstants;
+
+/**
+ * Pixel buffer that reads and writes a band in its native GDAL data type instead of converting everything to double. An Int16 MODIS band is
+ * held as shorts, a Float32 NLDAS band as floats, and so on, so a window costs 2 or 4 bytes per pixel rather than 8 and GDAL doesn't
+ * have to convert on the way in or out.
+ *
+ * Values are accessed through {@link #get(int)}/{@link #set(int, double)}, or {@link #getInt(int)}/{@link #setInt(int, int)} for integer
+ * kernels that shouldn't pay for a round trip through double. Unsigned types (Byte, UInt16) are returned unsigned. These are the raw stored
+ * values; {@link #getScaled(int)} applies the band's scale and offset.
+ *
+ * Writing a value that doesn't fit the buffer type rounds it to the nearest integer and clamps it to the type's range, as GDAL does.
+ *
+ * The pixels live in a direct ByteBuffer borrowed from {@link DirectBufferPool} and are moved with ReadRaster_Direct/WriteRaster_Direct, so
+ * no Java array is allocated per read. Call {@link #release()} on the thread that created the buffer when done with it.
+ */
+public abstract class RasterBuffer {
+    protected final int dataType;
+    protected final int capacity;
+    protected ByteBuffer bytes;
+    protected double scale;
+    protected double offset;
+
+    protected RasterBuffer(int dataType, int capacity)
+    {
+        this.dataType = dataType;
+        this.capacity = capacity;
+        bytes = DirectBufferPool.acquire(capacity * (gdal.GetDataTypeSize(dataType) / 8));
+        scale = 1;
+        offset = 0;
+    }
+
+    /**
+     * Reads a whole band into a new buffer of its native data type.
+     *
+     * @param band  - band to read
+     * @return the filled buffer, to be released by the caller
+     * @throws IOException  if GDAL fails to read the band
+     */
+    public static RasterBuffer readBand(Band band) throws IOException
+    {
+        RasterBuffer buffer = forBand(band, band.getXSize() * band.getYSize());
+        if(buffer.read(band, new RasterWindow(0, 0, band.getXSize(), band.getYSize())) != gdalconstConstants.CE_None) {
+            buffer.release();
+            throw new IOException("Failed to read band " + band.GetBand() + ".");
+        }
+        return buffer;
+    }
+
+    /**
+     * Creates a buffer in the band's native data type, carrying the band's scale and offset.
+     *
+     * @param band  - band the buffer will read or write
+     * @param capacity  - number of pixels the buffer holds
+     * @return a RasterBuffer matching the band
+     */
+    public static RasterBuffer forBand(Band band, int capacity)
+    {
+        RasterBuffer buffer = create(band.getDataType(), capacity);
+
+        Double[] value = new Double[1];
+        band.GetScale(value);
+        if(value[0] != null) {
+            buffer.scale = value[0];
+        }
+        value[0] = null;
+        band.GetOffset(value);
+        if(value[0] != null) {
+            buffer.offset = value[0];
+        }
+        return buffer;
+    }
+
+    /**
+     * Creates a buffer for the given GDAL data type. Types without a narrower Java representation (UInt32, the complex types) get a double
+     * buffer.
+     *
+     * @param dataType  - one of the gdalconstConstants.GDT_* constants
+     * @param capacity  - number of pixels the buffer holds
+     * @return a RasterBuffer for the type
+     */
+    public static RasterBuffer create(int dataType, int capacity)
+    {
+        if(dataType == gdalconstConstants.GDT_Byte) {
+            return new ByteArray(capacity);
+        }
+        if(dataType == gdalconstConstants.GDT_Int16) {
+            return new ShortArray(capacity, false);
+        }
+        if(dataType == gdalconstConstants.GDT_UInt16) {
+            return new ShortArray(capacity, true);
+        }
+        if(dataType == gdalconstConstants.GDT_Int32) {
+            return new IntArray(capacity);
+        }
+        if(dataType == gdalconstConstants.GDT_Float32) {
+            return new FloatArray(capacity);
+        }
+        return new DoubleArray(capacity);
+    }
+
+    /**
+     * Reads a window of the band into the start of this buffer.
+     *
+     * @param band  - band to read
+     * @param window  - window to read, no larger than the capacity
+     * @return the GDAL CPLErr code
+     */
+    public int read(Band band, RasterWindow window)
+    {
+        return band.ReadRaster_Direct(window.xOff, window.yOff, window.width, window.height, window.width, window.height, dataType, bytes);
+    }
+
+    /**
+     * Writes the start of this buffer to a window of the band.
+     *
+     * @param band  - band to write
+     * @param window  - window to write, no larger than the capacity
+     * @return the GDAL CPLErr code
+     */
+    public int write(Band band, RasterWindow window)
+    {
+        return band.WriteRaster_Direct(window.xOff, window.yOff, window.width, window.height, window.width, window.height, dataType, bytes);
+    }
+
+    /**
+     * Returns the pixel memory to the calling thread's {@link DirectBufferPool}. The buffer must not be used afterwards.
+     */
+    public void release()
+    {
+        DirectBufferPool.release(bytes);
+        bytes = null;
+    }
+
+    /**
+     * Gets the raw stored value at an index.
+     *
+     * @param index  - pixel index in the buffer
+     * @return the value
+     */
+    public abstract double get(int index);
+
+    /**
+     * Sets the raw stored value at an index.
+     *
+     * @param index  - pixel index in the buffer
+     * @param value  - new value
+     */
+    public abstract void set(int index, double value);
+
+    /**
+     * Gets the raw stored value at an index as an int, truncating fractional values.
+     *
+     * @param index  - pixel index in the buffer
+     * @return the value
+     */
+    public abstract int getInt(int index);
+
+    /**
+     * Sets the raw stored value at an index from an int.
+     *
+     * @param index  - pixel index in the buffer
+     * @param value  - new value
+     */
+    public abstract void setInt(int index, int value);
+
+    /**
+     * Gets the value at an index with the band's scale and offset applied.
+     *
+     * @param index  - pixel index in the buffer
+     * @return value * scale + offset
+     */
+    public double getScaled(int index)
+    {
+        return get(index) * scale + offset;
+    }
+
+    /**
+     * Gets the GDAL data type of this buffer.
+     *
+     * @return one of the gdalconstConstants.GDT_* constants
+     */
+    public int getDataType()
+    {
+        return dataType;
+    }
+
+    /**
+     * Gets the number of pixels this buffer holds.
+     *
+     * @return buffer capacity
+     */
+    public int getCapacity()
+    {
+        return capacity;
+    }
+
+    /**
+     * Gets the scale applied by {@link #getScaled(int)}.
+     *
+     * @return scale, 1 if the band has none
+     */
+    public double getScale()
+    {
+        return scale;
+    }
+
+    /**
+     * Gets the offset applied by {@link #getScaled(int)}.
+     *
+     * @return offset, 0 if the band has none
+     */
+    public double getOffset()
+    {
+        return offset;
+    }
+
+    private static int clamp(double value, int min, int max)
+    {
+        if(value != value) {    // NaN
+            return 0;
+        }
+        long rounded = Math.round(value);
+        return rounded < min ? min : (rounded > max ? max : (int) rounded);
+    }
+
+    /**
+     * Buffer for GDT_Byte (unsigned 8 bit) bands.
+     */
+    public static final class ByteArray extends RasterBuffer {
+        private ByteArray(int capacity)
+        {
+            super(gdalconstConstants.GDT_Byte, capacity);
+        }
+
+        /**
+         * Gets the pixel buffer. Values are stored unsigned, read them with (get(i) &amp; 0xff).
+         *
+         * @return the pixel buffer, indexed from 0
+         */
+        public ByteBuffer getBuffer()
+        {
+            return bytes;
+        }
+
+        @Override
+        public double get(int index)
+        {
+            return bytes.get(index) & 0xff;
+        }
+
+        @Override
+        public void set(int index, double value)
+        {
+            bytes.put(index, (byte) clamp(value, 0, 255));
+        }
+
+        @Override
+        public int getInt(int index)
+        {
+            return bytes.get(index) & 0xff;
+        }
+
+        @Override
+        public void setInt(int index, int value)
+        {
+            bytes.put(index, (byte) (value < 0 ? 0 : (value > 255 ? 255 : value)));
+        }
+    }
+
+    /**
+     * Buffer for GDT_Int16 and GDT_UInt16 bands.
+     */
+    public static final class ShortArray extends RasterBuffer {
+        private final ShortBuffer view;
+        private final boolean unsigned;
+        private final int min;
+        private final int max;
+
+        private ShortArray(int capacity, boolean unsigned)
+        {
+            super(unsigned ? gdalconstConstants.GDT_UInt16 : gdalconstConstants.GDT_Int16, capacity);
+            view = bytes.asShortBuffer();
+            this.unsigned = unsigned;
+            min = unsigned ? 0 : Short.MIN_VALUE;
+            max = unsigned ? 0xffff : Short.MAX_VALUE;
+        }
+
+        /**
+         * Gets the pixel buffer. UInt16 values are stored unsigned, read them with (get(i) &amp; 0xffff).
+         *
+         * @return the pixel buffer, indexed from 0
+         */
+        public ShortBuffer getBuffer()
+        {
+            return view;
+        }
+
+        /**
+         * Gets whether the values are unsigned (GDT_UInt16).
+         *
+         * @return true for GDT_UInt16, false for GDT_Int16
+         */
+        public boolean isUnsigned()
+        {
+            return unsigned;
+        }
+
+        @Override
+        public double get(int index)
+        {
+            return unsigned ? view.get(index) & 0xffff : view.get(index);
+        }
+
+        @Override
+        public void set(int index, double value)
+        {
+            view.put(index, (short) clamp(value, min, max));
+        }
+
+        @Override
+        public int getInt(int index)
+        {
+            return unsigned ? view.get(index) & 0xffff : view.get(index);
+        }
+
+        @Override
+        public void setInt(int index, int value)
+        {
+            view.put(index, (short) (value < min ? min : (value > max ? max : value)));
+        }
+    }
+
+    /**
+     * Buffer for GDT_Int32 bands.
+     */
+    public static final class IntArray extends RasterBuffer {
+        private final IntBuffer view;
+
+        private IntArray(int capacity)
+        {
+            super(gdalconstConstants.GDT_Int32, capacity);
+            view = bytes.asIntBuffer();
+        }
+
+        /**
+         * Gets the pixel buffer.
+         *
+         * @return the pixel buffer, indexed from 0
+         */
+        public IntBuffer getBuffer()
+        {
+            return view;
+        }
+
+        @Override
+        public double get(int index)
+        {
+            return view.get(index);
+        }
+
+        @Override
+        public void set(int index, double value)
+        {
+            view.put(index, clamp(value, Integer.MIN_VALUE, Integer.MAX_VALUE));
+        }
+
+        @Override
+        public int getInt(int index)
+        {
+            return view.get(index);
+        }
+
+        @Override
+        public void setInt(int index, int value)
+        {
+            view.put(index, value);
+        }
+    }
+
+    /**
+     * Buffer for GDT_Float32 bands.
+     */
+    public static final class FloatArray extends RasterBuffer {
+        private final FloatBuffer view;
+
+        private FloatArray(int capacity)
+        {
+            super(gdalconstConstants.GDT_Float32, capacity);
+            view = bytes.asFloatBuffer();
+        }
+
+        /**
+         * Gets the pixel buffer.
+         *
+         * @return the pixel buffer, indexed from 0
+         */
+        public FloatBuffer getBuffer()
+        {
+            return view;
+        }
+
+        @Override
+        public double get(int index)
+        {
+            return view.get(index);
+        }
+
+        @Override
+        public void set(int index, double value)
+        {
+            view.put(index, (float) value);
+        }
+
+        @Override
+        public int getInt(int index)
+        {
+            return (int) view.get(index);
+        }
+
+        @Override
+        public void setInt(int index, int value)
+        {
+            view.put(index, value);
+        }
+    }
+
+    /**
+     * Buffer for GDT_Float64 bands and any type without a narrower representation.
+     */
+    public static final class DoubleArray extends RasterBuffer {
+        private final DoubleBuffer view;
+
+        private DoubleArray(int capacity)
+        {
+            super(gdalconstConstants.GDT_Float64, capacity);
+            view = bytes.asDoubleBuffer();
+        }
+
+        /**
+         * Gets the pixel buffer.
+         *
+         * @return the pixel buffer, indexed from 0
+         */
+        public DoubleBuffer getBuffer()
+        {
+            return view;
+        }
+
+        @Override
+        public double get(int index)
+        {
+            return view.get(index);
+        }
+
+        @Override
+        public void set(int index, double value)
+        {
+            view.put(index, value);
+        }
+
+        @Override
+        public int getInt(int index)
+        {
+            return (int) view.get(index);
+        }
+
+        @Override
+        public void setInt(int index, int value)
+        {
+            view.put(index, value);
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package version2.prototype.util;
+
+/**
+ * Immutable rectangle of pixels within a raster, in pixel/line coordinates.
+ */
+public final class RasterWindow {
+    /**
+     * Pixel offset of the window's left edge.
+     */
+    public final int xOff;
+    /**
+     * Line offset of the window's top edge.
+     */
+    public final int yOff;
+    /**
+     * Width of the window in pixels.
+     */
+    public final int width;
+    /**
+     * Height of the window in lines.
+     */
+    public final int height;
+
+    /**
+     * Creates a RasterWindow.
+     *
+     * @param xOff  - pixel offset of the left edge
+     * @param yOff  - line offset of the top edge
+     * @param width  - width in pixels
+     * @param height  - height in lines
+     */
+    public RasterWindow(int xOff, int yOff, int width, int height)
+    {
+        this.xOff = xOff;
+        this.yOff = yOff;
+        this.width = width;
+        this.height = height;
+    }
+
+    /**
+     * Gets the number of pixels in the window.
+     *
+     * @return width * height
+     */
+    public int size()
+    {
+        return width * height;
+    }
+
+    /**
+     * Checks whether this window and another share at least one pixel.
+     *
+     * @param other  - window of the same raster
+     * @return true if the windows overlap
+     */
+    public boolean intersects(RasterWindow other)
+    {
+        return xOff < other.xOff + other.width && other.xOff < xOff + width && yOff < other.yOff + other.height && other.yOff < yOff + height;
+    }
+
+    /**
+     * Gets the pixels this window shares with another.
+     *
+     * @param other  - window of the same raster
+     * @return the overlap, or null if the windows don't overlap
+     */
+    public RasterWindow intersection(RasterWindow other)
+    {
+        if(!intersects(other)) {
+            return null;
+        }
+        int x0 = Math.max(xOff, other.xOff);
+        int y0 = Math.max(yOff, other.yOff);
+        int x1 = Math.min(xOff + width, other.xOff + other.width);
+        int y1 = Math.min(yOff + height, other.yOff + other.height);
+        return new RasterWindow(x0, y0, x1 - x0, y1 - y0);
+    }
+
+    /* (non-Javadoc)
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString()
+    {
+        return "[" + xOff + ", " + yOff + ", " + width + "x" + height + "]";
+    }
+}
@@ -24,10 +24,11 @@ public class ReadShapefile {
      * postcondition: a datasource object is created to for the input shapefile
      */
 
+    @SuppressWarnings("try")
     public ReadShapefile(String filename) throws ShapefileException{
         if (filename != null){
             GdalUtils.register();
-            synchronized (GdalUtils.lockObject) {
+            try (GdalContext.Exclusive lock = GdalContext.exclusive()) {
                 shapefile = ogr.Open(filename);
                 if (shapefile == null){
                     throw new ShapefileException("The shape file " + filename + " cannot be properly opened.");
@@ -46,9 +47,10 @@ public class ReadShapefile {
      *              store all of them in each featureNameList element
      *              Store the numeric ones in each numericFeatureList element
      */
+    @SuppressWarnings("try")
     private void ProcessFeatures()
     {
-        synchronized (GdalUtils.lockObject) {
+        try (GdalContext.Exclusive lock = GdalContext.exclusive()) {
             // System.out.println("ShapeFile count: " + shapefile.GetLayerCount());
             for (int iLayer=0; iLayer<shapefile.GetLayerCount(); iLayer++) {
                 // System.out.println("Test_Layer: " + iLayer);
@@ -0,0 +1,505 @@
+package version2.prototype.util;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.gdal.gdal.Band;
+import org.gdal.gdal.Dataset;
+import org.gdal.gdal.Transformer;
+import org.gdal.gdalconst.gdalconstConstants;
+
+import version2.prototype.Config;
+import version2.prototype.ErrorLog;
+
+/**
+ * Precomputed source to destination pixel mapping for reprojecting one grid onto another. Every date of a plugin arrives on the same source
+ * grid and is projected onto the same project grid, so the coordinate transform of every destination pixel is computed once per (source
+ * grid, destination grid, resampling) and reprojecting a date becomes a gather over the table.
+ *
+ * Tables are kept in a process wide cache of at most {@link #MAX_CACHED_BYTES} and persisted to the configured reprojection cache directory
+ * (see {@link Config#getReprojectionCacheDir()}), so later runs and other workers load them instead of computing them. The file name is a
+ * hash of the grids and resampling, and the full key is stored in the file and checked on load.
+ *
+ * Nearest neighbour and bilinear resampling are supported; {@link #get(Dataset, Dataset, int)} returns null for anything else so the caller
+ * can fall back to gdal.ReprojectImage. Source no data values are skipped like the warper does, and destination pixels outside the source
+ * get the destination no data value. Reprojecting reads only the part of the source each destination window maps to, so memory use doesn't
+ * grow with the source raster size.
+ */
+public final class ReprojectionTable {
+    /**
+     * Largest number of table bytes kept in memory.
+     */
+    public static final long MAX_CACHED_BYTES = 256L << 20;
+
+    private static final int MAGIC = 0x45575254;    // "EWRT"
+    private static final int VERSION = 1;
+
+    private static final LinkedHashMap<String, ReprojectionTable> tables = new LinkedHashMap<String, ReprojectionTable>(16, 0.75f, true);
+    private static long cachedBytes = 0;
+    private static final AtomicLong memoryHits = new AtomicLong();
+    private static final AtomicLong fileLoads = new AtomicLong();
+    private static final AtomicLong computations = new AtomicLong();
+
+    private final int resampleAlg;
+    private final int srcXSize;
+    private final int srcYSize;
+    private final int dstXSize;
+    private final int dstYSize;
+    // Per destination pixel: source pixel index (top left neighbour for bilinear), -1 if outside the source
+    private final int[] index;
+    // Bilinear only: per destination pixel, weight of the right and lower neighbours
+    private final float[] xWeight;
+    private final float[] yWeight;
+
+    private ReprojectionTable(int resampleAlg, int srcXSize, int srcYSize, int dstXSize, int dstYSize, int[] index, float[] xWeight, float[] yWeight)
+    {
+        this.resampleAlg = resampleAlg;
+        this.srcXSize = srcXSize;
+        this.srcYSize = srcYSize;
+        this.dstXSize = dstXSize;
+        this.dstYSize = dstYSize;
+        this.index = index;
+        this.xWeight = xWeight;
+        this.yWeight = yWeight;
+    }
+
+    /**
+     * Gets the table mapping the source dataset's grid onto the destination dataset's grid, from memory, from the cache directory or by
+     * computing it. Both datasets must have their geotransform and projection set.
+     *
+     * @param srcDS  - dataset to reproject
+     * @param dstDS  - dataset to reproject onto
+     * @param resampleAlg  - gdalconstConstants.GRA_NearestNeighbour or GRA_Bilinear
+     * @return the table, or null if the resampling isn't supported
+     */
+    public static ReprojectionTable get(Dataset srcDS, Dataset dstDS, int resampleAlg)
+    {
+        if(resampleAlg != gdalconstConstants.GRA_NearestNeighbour && resampleAlg != gdalconstConstants.GRA_Bilinear) {
+            return null;
+        }
+
+        String key = key(srcDS, dstDS, resampleAlg);
+        synchronized(tables) {
+            ReprojectionTable table = tables.get(key);
+            if(table != null) {
+                memoryHits.incrementAndGet();
+                return table;
+            }
+        }
+
+        File file = null;
+        String dir = Config.getInstance().getReprojectionCacheDir();
+        if(dir != null) {
+            file = new File(dir, hash(key) + ".rpt");
+        }
+
+        ReprojectionTable table = null;
+        if(file != null && file.exists()) {
+            try {
+                table = load(file, key);
+                if(table != null) {
+                    fileLoads.incrementAndGet();
+                }
+            } catch (IOException e) {
+                ErrorLog.add(Config.getInstance(), "Problem reading reprojection table '" + file.getPath() + "', recomputing it.", e);
+            }
+        }
+
+        if(table == null) {
+            table = compute(srcDS, dstDS, resampleAlg);
+            computations.incrementAndGet();
+            if(file != null) {
+                try {
+                    table.save(file, key);
+                } catch (IOException e) {
+                    ErrorLog.add(Config.getInstance(), "Problem writing reprojection table '" + file.getPath() + "'.", e);
+                }
+            }
+        }
+
+        synchronized(tables) {
+            ReprojectionTable old = tables.put(key, table);
+            if(old != null) {
+                cachedBytes -= old.sizeInBytes();
+            }
+            cachedBytes += table.sizeInBytes();
+
+            Iterator<ReprojectionTable> it = tables.values().iterator();
+            while(cachedBytes > MAX_CACHED_BYTES && it.hasNext()) {
+                ReprojectionTable eldest = it.next();
+                if(eldest != table) {
+                    cachedBytes -= eldest.sizeInBytes();
+                    it.remove();
+                }
+            }
+        }
+        return table;
+    }
+
+    /**
+     * Reprojects a source band onto a destination band of the grids this table was made for.
+     *
+     * @param srcBand  - band to read, on the source grid
+     * @param dstBand  - band to write, on the destination grid
+     * @param noDataValue  - value written where there is no source data
+     * @throws IOException  if GDAL fails to read or write
+     */
+    public void apply(Band srcBand, Band dstBand, double noDataValue) throws IOException
+    {
+        if(srcBand.getXSize() != srcXSize || srcBand.getYSize() != srcYSize || dstBand.getXSize() != dstXSize || dstBand.getYSize() != dstYSize) {
+            throw new IllegalArgumentException("Bands don't match the grids of the reprojection table.");
+        }
+
+        Double[] value = new Double[1];
+        srcBand.GetNoDataValue(value);
+        boolean hasSrcNoData = value[0] != null;
+        double srcNoData = hasSrcNoData ? value[0] : 0;
+
+        RasterBlockIterator windows = new RasterBlockIterator(dstBand);
+        RasterBuffer dst = RasterBuffer.forBand(dstBand, windows.getMaxWindowSize());
+        RasterBuffer src = null;
+
+        try {
+            for(RasterWindow window : windows)
+            {
+                RasterWindow srcWindow = getSourceWindow(window);
+                if(srcWindow != null) {
+                    if(src == null || src.getCapacity() < srcWindow.size()) {
+                        if(src != null) {
+                            src.release();
+                        }
+                        src = RasterBuffer.forBand(srcBand, srcWindow.size());
+                    }
+                    if(src.read(srcBand, srcWindow) != gdalconstConstants.CE_None) {
+                        throw new IOException("Failed to read window " + srcWindow + " of the band to reproject.");
+                    }
+                }
+
+                for(int y=0; y < window.height; y++)
+                {
+                    int row = (window.yOff + y) * dstXSize + window.xOff;
+                    for(int x=0; x < window.width; x++)
+                    {
+                        int i = row + x;
+                        int s = index[i];
+                        double v;
+                        if(s < 0) {
+                            v = noDataValue;
+                        } else {
+                            int sx = s % srcXSize;
+                            int sy = s / srcXSize;
+                            if(xWeight == null) {
+                                v = src.get((sy - srcWindow.yOff) * srcWindow.width + sx - srcWindow.xOff);
+                                if(hasSrcNoData && v == srcNoData) {
+                                    v = noDataValue;
+                                }
+                            } else {
+                                v = bilinear(src, srcWindow, sx, sy, xWeight[i], yWeight[i], hasSrcNoData, srcNoData, noDataValue);
+                            }
+                        }
+                        dst.set(y * window.width + x, v);
+                    }
+                }
+
+                if(dst.write(dstBand, window) != gdalconstConstants.CE_None) {
+                    throw new IOException("Failed to write window " + window + " of the reprojected band.");
+                }
+            }
+        } finally {
+            if(src != null) {
+                src.release();
+            }
+            dst.release();
+        }
+    }
+
+    // Bounds of the source pixels a destination window reads, bilinear neighbours included, or null if it reads none
+    private RasterWindow getSourceWindow(RasterWindow window)
+    {
+        int minX = Integer.MAX_VALUE;
+        int minY = Integer.MAX_VALUE;
+        int maxX = -1;
+        int maxY = -1;
+        for(int y=0; y < window.height; y++)
+        {
+            int row = (window.yOff + y) * dstXSize + window.xOff;
+            for(int x=0; x < window.width; x++)
+            {
+                int s = index[row + x];
+                if(s >= 0) {
+                    int sx = s % srcXSize;
+                    int sy = s / srcXSize;
+                    minX = Math.min(minX, sx);
+                    maxX = Math.max(maxX, sx);
+                    minY = Math.min(minY, sy);
+                    maxY = Math.max(maxY, sy);
+                }
+            }
+        }
+        if(maxX < 0) {
+            return null;
+        }
+        if(xWeight != null) {
+            maxX = Math.min(srcXSize - 1, maxX + 1);
+            maxY = Math.min(srcYSize - 1, maxY + 1);
+        }
+        return new RasterWindow(minX, minY, maxX - minX + 1, maxY - minY + 1);
+    }
+
+    // Weighted mean of the four neighbours, leaving out source no data and renormalizing the rest
+    private double bilinear(RasterBuffer src, RasterWindow srcWindow, int sx, int sy, float fx, float fy, boolean hasSrcNoData, double srcNoData, double noDataValue)
+    {
+        int s = (sy - srcWindow.yOff) * srcWindow.width + sx - srcWindow.xOff;
+        int right = sx + 1 < srcXSize ? 1 : 0;
+        int down = sy + 1 < srcYSize ? srcWindow.width : 0;
+
+        double sum = 0;
+        double weights = 0;
+        double w;
+
+        w = (1 - fx) * (1 - fy);
+        double v = src.get(s);
+        if(w > 0 && !(hasSrcNoData && v == srcNoData)) { sum += v * w; weights += w; }
+        w = fx * (1 - fy);
+        v = src.get(s + right);
+        if(w > 0 && !(hasSrcNoData && v == srcNoData)) { sum += v * w; weights += w; }
+        w = (1 - fx) * fy;
+        v = src.get(s + down);
+        if(w > 0 && !(hasSrcNoData && v == srcNoData)) { sum += v * w; weights += w; }
+        w = fx * fy;
+        v = src.get(s + down + right);
+        if(w > 0 && !(hasSrcNoData && v == srcNoData)) { sum += v * w; weights += w; }
+
+        return weights > 0 ? sum / weights : noDataValue;
+    }
+
+    /**
+     * Gets the memory the table takes.
+     *
+     * @return size in bytes
+     */
+    public long sizeInBytes()
+    {
+        return index.length * 4L + (xWeight != null ? xWeight.length * 8L : 0);
+    }
+
+    /**
+     * Gets the resampling the table was made for.
+     *
+     * @return gdalconstConstants.GRA_NearestNeighbour or GRA_Bilinear
+     */
+    public int getResampleAlg()
+    {
+        return resampleAlg;
+    }
+
+    /**
+     * Drops every table held in memory. Tables persisted to disk are kept.
+     */
+    public static void clear()
+    {
+        synchronized(tables) {
+            tables.clear();
+            cachedBytes = 0;
+        }
+    }
+
+    /**
+     * Summarizes the table usage since startup.
+     *
+     * @return human readable summary
+     */
+    public static String getStatistics()
+    {
+        synchronized(tables) {
+            return String.format("Reprojection tables: %d reused from memory, %d loaded from disk, %d computed, %d cached (%d MB)", memoryHits.get(), fileLoads.get(),
+                    computations.get(), tables.size(), cachedBytes >> 20);
+        }
+    }
+
+    private static ReprojectionTable compute(Dataset srcDS, Dataset dstDS, int resampleAlg)
+    {
+        int srcXSize = srcDS.GetRasterXSize();
+        int srcYSize = srcDS.GetRasterYSize();
+        int dstXSize = dstDS.GetRasterXSize();
+        int dstYSize = dstDS.GetRasterYSize();
+        boolean bilinear = resampleAlg == gdalconstConstants.GRA_Bilinear;
+
+        int[] index = new int[dstXSize * dstYSize];
+        float[] xWeight = bilinear ? new float[index.length] : null;
+        float[] yWeight = bilinear ? new float[index.length] : null;
+
+        Transformer transformer = new Transformer(srcDS, dstDS, null);
+        double[][] points = new double[dstXSize][3];
+        int[] success = new int[dstXSize];
+
+        // Transform the centre of every destination pixel back to source pixel/line coordinates, a row at a time
+        for(int y=0; y < dstYSize; y++)
+        {
+            for(int x=0; x < dstXSize; x++) {
+                points[x][0] = x + 0.5;
+                points[x][1] = y + 0.5;
+                points[x][2] = 0;
+            }
+            transformer.TransformPoints(1, points, success);
+
+            int row = y * dstXSize;
+            for(int x=0; x < dstXSize; x++)
+            {
+                double px = points[x][0];
+                double py = points[x][1];
+                if(success[x] == 0 || Double.isNaN(px) || Double.isNaN(py) || px < 0 || py < 0 || px >= srcXSize || py >= srcYSize) {
+                    index[row + x] = -1;
+                    continue;
+                }
+
+                if(bilinear) {
+                    // neighbours are found from pixel centres, clamped at the edges
+                    double cx = Math.max(0, Math.min(srcXSize - 1, px - 0.5));
+                    double cy = Math.max(0, Math.min(srcYSize - 1, py - 0.5));
+                    int sx = (int) cx;
+                    int sy = (int) cy;
+                    index[row + x] = sy * srcXSize + sx;
+                    xWeight[row + x] = (float) (cx - sx);
+                    yWeight[row + x] = (float) (cy - sy);
+                } else {
+                    index[row + x] = ((int) py) * srcXSize + (int) px;
+                }
+            }
+        }
+        transformer.delete();
+
+        return new ReprojectionTable(resampleAlg, srcXSize, srcYSize, dstXSize, dstYSize, index, xWeight, yWeight);
+    }
+
+    // Writes to a temporary file first, so other workers never load a partly written table
+    private void save(File file, String key) throws IOException
+    {
+        File dir = file.getAbsoluteFile().getParentFile();
+        if(!dir.exists()) {
+            Files.createDirectories(dir.toPath());
+        }
+        File temp = File.createTempFile(file.getName(), ".tmp", dir);
+
+        try {
+            try (RandomAccessFile raf = new RandomAccessFile(temp, "rw"); FileChannel channel = raf.getChannel()) {
+                DataOutputStream header = new DataOutputStream(Channels.newOutputStream(channel));
+                header.writeInt(MAGIC);
+                header.writeInt(VERSION);
+                header.writeUTF(key);
+                header.writeInt(resampleAlg);
+                header.writeInt(srcXSize);
+                header.writeInt(srcYSize);
+                header.writeInt(dstXSize);
+                header.writeInt(dstYSize);
+                header.writeBoolean(xWeight != null);
+                header.flush();
+
+                ByteBuffer body = ByteBuffer.allocate((int) sizeInBytes()).order(ByteOrder.nativeOrder());
+                body.asIntBuffer().put(index);
+                if(xWeight != null) {
+                    body.position(index.length * 4);
+                    body.asFloatBuffer().put(xWeight).put(yWeight);
+                }
+                body.position(0);
+                while(body.hasRemaining()) {
+                    channel.write(body);
+                }
+            }
+
+            try {
+                Files.move(temp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temp.toPath());
+        }
+    }
+
+    private static ReprojectionTable load(File file, String key) throws IOException
+    {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+            DataInputStream header = new DataInputStream(Channels.newInputStream(channel));
+            if(header.readInt() != MAGIC || header.readInt() != VERSION || !key.equals(header.readUTF())) {
+                return null;    // not this table, it will be recomputed and replaced
+            }
+            int resampleAlg = header.readInt();
+            int srcXSize = header.readInt();
+            int srcYSize = header.readInt();
+            int dstXSize = header.readInt();
+            int dstYSize = header.readInt();
+            boolean bilinear = header.readBoolean();
+
+            int pixels = dstXSize * dstYSize;
+            long bodySize = pixels * (bilinear ? 12L : 4L);
+            long bodyStart = channel.position();
+            if(channel.size() - bodyStart != bodySize) {
+                throw new IOException("Reprojection table is truncated.");
+            }
+
+            // read rather than map, a mapped file can't be replaced on Windows until the mapping is collected
+            ByteBuffer body = ByteBuffer.allocate((int) bodySize).order(ByteOrder.nativeOrder());
+            while(body.hasRemaining()) {
+                if(channel.read(body) < 0) {
+                    throw new IOException("Reprojection table is truncated.");
+                }
+            }
+            body.position(0);
+            int[] index = new int[pixels];
+            body.asIntBuffer().get(index);
+            float[] xWeight = null;
+            float[] yWeight = null;
+            if(bilinear) {
+                xWeight = new float[pixels];
+                yWeight = new float[pixels];
+                body.position(pixels * 4);
+                body.asFloatBuffer().get(xWeight).get(yWeight);
+            }
+            return new ReprojectionTable(resampleAlg, srcXSize, srcYSize, dstXSize, dstYSize, index, xWeight, yWeight);
+        }
+    }
+
+    private static String key(Dataset srcDS, Dataset dstDS, int resampleAlg)
+    {
+        StringBuilder key = new StringBuilder();
+        key.append(srcDS.GetRasterXSize()).append('x').append(srcDS.GetRasterYSize());
+        key.append('|').append(Arrays.toString(srcDS.GetGeoTransform()));
+        key.append('|').append(srcDS.GetProjectionRef());
+        key.append("->").append(dstDS.GetRasterXSize()).append('x').append(dstDS.GetRasterYSize());
+        key.append('|').append(Arrays.toString(dstDS.GetGeoTransform()));
+        key.append('|').append(dstDS.GetProjectionRef());
+        key.append('|').append(resampleAlg);
+        return key.toString();
+    }
+
+    private static String hash(String key)
+    {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(key.getBytes("UTF-8"));
+            StringBuilder hex = new StringBuilder();
+            for(byte b : digest) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException | IOException e) {
+            return Integer.toHexString(key.hashCode());
+        }
+    }
+}
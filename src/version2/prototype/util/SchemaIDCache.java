@@ -0,0 +1,190 @@
+package version2.prototype.util;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Process wide cache of the IDs of the global schema's lookup rows (DateGroup, Index, Project, ProjectSummary, Plugin,
+ * TemporalSummaryCompositionStrategy), so the Schemas getters only go to the database the first time a row is asked for. IDs are cached as
+ * soon as they are read or inserted (write-through) and stay valid as these rows are never updated; only deleting a project removes rows, and
+ * its entries are then dropped with invalidate(String, String).
+ *
+ * Lookups that find no row aren't cached, the row may be added later. The tables are small (DateGroup grows by a row a day) so entries are
+ * never evicted.
+ */
+public final class SchemaIDCache {
+    private static final ConcurrentHashMap<String, Integer> ids = new ConcurrentHashMap<String, Integer>();
+    private static final AtomicLong hits = new AtomicLong();
+    private static final AtomicLong misses = new AtomicLong();
+    private static final AtomicLong preloaded = new AtomicLong();
+
+    private SchemaIDCache() {
+    }
+
+    /**
+     * Builds the cache key of a row.
+     *
+     * @param globalEASTWebSchema  - schema holding the table
+     * @param table  - lookup table name
+     * @param key  - the row's natural key, e.g. "2016-123" for a DateGroup
+     * @return the cache key
+     */
+    public static String key(String globalEASTWebSchema, String table, String key)
+    {
+        return globalEASTWebSchema + "\u0000" + table + "\u0000" + key;
+    }
+
+    /**
+     * Gets a cached ID, counting the lookup as a hit or a miss.
+     *
+     * @param key  - key from key(String, String, String)
+     * @return the ID, or null if it isn't cached
+     */
+    public static Integer get(String key)
+    {
+        Integer ID = ids.get(key);
+        if(ID != null) {
+            hits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+        }
+        return ID;
+    }
+
+    /**
+     * Caches an ID read from or just inserted into the database.
+     *
+     * @param key  - key from key(String, String, String)
+     * @param ID  - the row's ID, not cached if it's null or negative (no row found)
+     * @return the given ID
+     */
+    public static Integer put(String key, Integer ID)
+    {
+        if(ID != null && ID >= 0) {
+            ids.put(key, ID);
+        }
+        return ID;
+    }
+
+    /**
+     * Drops the cached IDs of a table, e.g. after rows were deleted from it.
+     *
+     * @param globalEASTWebSchema  - schema holding the table
+     * @param table  - lookup table name
+     */
+    public static void invalidate(String globalEASTWebSchema, String table)
+    {
+        String prefix = key(globalEASTWebSchema, table, "");
+        Iterator<String> it = ids.keySet().iterator();
+        while(it.hasNext()) {
+            if(it.next().startsWith(prefix)) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Creates the DateGroup rows of a date range that don't exist yet and caches the IDs of all of them, in two statements.
+     *
+     * @param globalEASTWebSchema  - schema holding the DateGroup table
+     * @param startDate  - first date of the range
+     * @param endDate  - last date of the range
+     * @param stmt
+     * @throws SQLException
+     */
+    public static void preloadDateGroups(String globalEASTWebSchema, LocalDate startDate, LocalDate endDate, Statement stmt) throws SQLException
+    {
+        if(globalEASTWebSchema == null || startDate == null || endDate == null || endDate.isBefore(startDate)) {
+            return;
+        }
+
+        stmt.executeUpdate(String.format(
+                "INSERT INTO \"%1$s\".\"DateGroup\" (\"Year\", \"DayOfYear\") " +
+                        "SELECT CAST(EXTRACT(YEAR FROM d) AS integer), CAST(EXTRACT(DOY FROM d) AS integer) " +
+                        "FROM generate_series(DATE '%2$s', DATE '%3$s', INTERVAL '1 day') AS d " +
+                        "WHERE NOT EXISTS (SELECT 1 FROM \"%1$s\".\"DateGroup\" g WHERE g.\"Year\" = CAST(EXTRACT(YEAR FROM d) AS integer) " +
+                        "AND g.\"DayOfYear\" = CAST(EXTRACT(DOY FROM d) AS integer));",
+                        globalEASTWebSchema, startDate, endDate));
+
+        ResultSet rs = stmt.executeQuery(String.format(
+                "SELECT MIN(\"DateGroupID\") AS \"DateGroupID\", \"Year\", \"DayOfYear\" FROM \"%1$s\".\"DateGroup\" " +
+                        "WHERE \"Year\" * 1000 + \"DayOfYear\" BETWEEN %2$d AND %3$d GROUP BY \"Year\", \"DayOfYear\";",
+                        globalEASTWebSchema, startDate.getYear() * 1000 + startDate.getDayOfYear(), endDate.getYear() * 1000 + endDate.getDayOfYear()));
+        try {
+            while(rs.next()) {
+                put(key(globalEASTWebSchema, "DateGroup", rs.getInt("Year") + "-" + rs.getInt("DayOfYear")), rs.getInt("DateGroupID"));
+                preloaded.incrementAndGet();
+            }
+        } finally {
+            rs.close();
+        }
+    }
+
+    /**
+     * Caches the IDs of all Index rows.
+     *
+     * @param globalEASTWebSchema  - schema holding the Index table
+     * @param stmt
+     * @throws SQLException
+     */
+    public static void preloadIndices(String globalEASTWebSchema, Statement stmt) throws SQLException
+    {
+        if(globalEASTWebSchema == null) {
+            return;
+        }
+
+        ResultSet rs = stmt.executeQuery("SELECT \"IndexID\", \"Name\" FROM \"" + globalEASTWebSchema + "\".\"Index\";");
+        try {
+            while(rs.next()) {
+                put(key(globalEASTWebSchema, "Index", rs.getString("Name")), rs.getInt("IndexID"));
+                preloaded.incrementAndGet();
+            }
+        } finally {
+            rs.close();
+        }
+    }
+
+    /**
+     * Caches the IDs of the ProjectSummary rows of a project.
+     *
+     * @param globalEASTWebSchema  - schema holding the ProjectSummary table
+     * @param projectID  - the project's ID
+     * @param stmt
+     * @throws SQLException
+     */
+    public static void preloadProjectSummaries(String globalEASTWebSchema, int projectID, Statement stmt) throws SQLException
+    {
+        if(globalEASTWebSchema == null || projectID < 0) {
+            return;
+        }
+
+        ResultSet rs = stmt.executeQuery("SELECT \"ProjectSummaryID\", \"SummaryIDNum\" FROM \"" + globalEASTWebSchema + "\".\"ProjectSummary\" WHERE \"ProjectID\" = "
+                + projectID + ";");
+        try {
+            while(rs.next()) {
+                put(key(globalEASTWebSchema, "ProjectSummary", projectID + "-" + rs.getInt("SummaryIDNum")), rs.getInt("ProjectSummaryID"));
+                preloaded.incrementAndGet();
+            }
+        } finally {
+            rs.close();
+        }
+    }
+
+    /**
+     * Summarizes the cache usage since startup.
+     *
+     * @return human readable summary
+     */
+    public static String getStatistics()
+    {
+        long hitCount = hits.get();
+        long missCount = misses.get();
+        return String.format("Schema IDs: %d hits, %d misses (%.1f%% hit), %d preloaded, %d cached", hitCount, missCount,
+                hitCount + missCount > 0 ? 100.0 * hitCount / (hitCount + missCount) : 0.0, preloaded.get(), ids.size());
+    }
+}
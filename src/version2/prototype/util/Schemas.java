@@ -130,6 +130,11 @@ public class Schemas {
             createProcessorExpectedTotalOutput(globalEASTWebSchema, stmt, createTablesWithForeignKeyReferences);
             createIndicesExpectedTotalOutput(globalEASTWebSchema, stmt, createTablesWithForeignKeyReferences);
             createSummaryExpectedTotalOutput(globalEASTWebSchema, stmt, createTablesWithForeignKeyReferences);
+
+            // Resolve the IDs the project's processes will look up: its dates up to today, the indices and its summaries
+            SchemaIDCache.preloadDateGroups(globalEASTWebSchema, projectMetaData.GetStartDate(), LocalDate.now(), stmt);
+            SchemaIDCache.preloadIndices(globalEASTWebSchema, stmt);
+            SchemaIDCache.preloadProjectSummaries(globalEASTWebSchema, getProjectID(globalEASTWebSchema, projectMetaData.GetProjectName(), stmt), stmt);
         }
         catch(SQLException e)
         {
@@ -177,9 +182,7 @@ public class Schemas {
         }
 
         int projectID = getProjectID(globalEASTWebSchema, projectName, stmt);
-        String selectQuery = String.format("SELECT \"ProjectSummaryID\" FROM \"%1$s\".\"ProjectSummary\" WHERE \"ProjectID\" = " + projectID + " AND \"SummaryIDNum\" = " + summaryNumID + ";",
-                globalEASTWebSchema);
-        return getID(selectQuery, "ProjectSummaryID", stmt);
+        return getProjectSummaryID(globalEASTWebSchema, projectID, summaryNumID, stmt);
     }
 
     public static int getProjectSummaryID(final String globalEASTWebSchema, final Integer projectID, final Integer summaryNumID, final Statement stmt) throws SQLException
@@ -188,9 +191,15 @@ public class Schemas {
             return -1;
         }
 
+        String key = SchemaIDCache.key(globalEASTWebSchema, "ProjectSummary", projectID + "-" + summaryNumID);
+        Integer cached = SchemaIDCache.get(key);
+        if(cached != null) {
+            return cached;
+        }
+
         String selectQuery = String.format("SELECT \"ProjectSummaryID\" FROM \"%1$s\".\"ProjectSummary\" WHERE \"ProjectID\" = " + projectID + " AND \"SummaryIDNum\" = " + summaryNumID + ";",
                 globalEASTWebSchema);
-        return getID(selectQuery, "ProjectSummaryID", stmt);
+        return SchemaIDCache.put(key, getID(selectQuery, "ProjectSummaryID", stmt));
     }
 
     public static boolean addProjectSummaryID(final String globalEASTWebSchema, final String projectName, final Integer summaryNumID, final String areaNameField, final String shapeFilePath,
@@ -226,15 +235,21 @@ public class Schemas {
             return -1;
         }
 
+        String key = SchemaIDCache.key(globalEASTWebSchema, "DateGroup", lDate.getYear() + "-" + lDate.getDayOfYear());
+        Integer cached = SchemaIDCache.get(key);
+        if(cached != null) {
+            return cached;
+        }
+
         String selectQuery = String.format("SELECT \"DateGroupID\" FROM \"%1$s\".\"DateGroup\" " +
-                "WHERE \"Year\"=" + lDate.getYear() + " AND \"DayOfYear\"=" + lDate.getDayOfYear() + ";",
+                "WHERE \"Year\"=" + lDate.getYear() + " AND \"DayOfYear\"=" + lDate.getDayOfYear() + " ORDER BY \"DateGroupID\";",
                 globalEASTWebSchema
                 );
         String insertQuery = String.format(
                 "INSERT INTO \"%1$s\".\"DateGroup\" (\"Year\", \"DayOfYear\") VALUES (" + lDate.getYear() + "," + lDate.getDayOfYear() + ");",
                 globalEASTWebSchema
                 );
-        return getOrInsertIfMissingID(selectQuery, "DateGroupID", insertQuery, stmt);
+        return SchemaIDCache.put(key, getOrInsertIfMissingID(selectQuery, "DateGroupID", insertQuery, stmt));
     }
 
     public static Integer getIndexID(final String globalEASTWebSchema, final String indexNm, final Statement stmt) throws SQLException {
@@ -242,6 +257,12 @@ public class Schemas {
             return null;
         }
 
+        String key = SchemaIDCache.key(globalEASTWebSchema, "Index", indexNm);
+        Integer cached = SchemaIDCache.get(key);
+        if(cached != null) {
+            return cached;
+        }
+
         String selectQuery = String.format("SELECT \"IndexID\" FROM \"%1$s\".\"Index\" " +
                 "WHERE \"Name\" like '" + escapeUnderScoresAndPercents(indexNm) + "';",
                 globalEASTWebSchema
@@ -250,7 +271,7 @@ public class Schemas {
                 "INSERT INTO \"%1$s\".\"Index\" (\"Name\") VALUES ('" + indexNm + "');",
                 globalEASTWebSchema
                 );
-        return getOrInsertIfMissingID(selectQuery, "IndexID", insertQuery, stmt);
+        return SchemaIDCache.put(key, getOrInsertIfMissingID(selectQuery, "IndexID", insertQuery, stmt));
     }
 
     public static int getGlobalDownloaderID(final String globalEASTWebSchema, final String pluginName, final String dataName, final Statement stmt) throws SQLException,
@@ -277,11 +298,17 @@ public class Schemas {
             return -1;
         }
 
+        String key = SchemaIDCache.key(globalEASTWebSchema, "Plugin", pluginName);
+        Integer cached = SchemaIDCache.get(key);
+        if(cached != null) {
+            return cached;
+        }
+
         String selectQuery = String.format("SELECT \"PluginID\" FROM \"%1$s\".\"Plugin\" " +
                 "WHERE \"Name\" like '" + escapeUnderScoresAndPercents(pluginName) + "';",
                 globalEASTWebSchema
                 );
-        return getID(selectQuery, "PluginID", stmt);
+        return SchemaIDCache.put(key, getID(selectQuery, "PluginID", stmt));
     }
 
     public static int getDownloadID(final String globalEASTWebSchema, final Integer globalDownloaderID, final Integer dateGroupID, final Statement stmt) throws ClassNotFoundException, SQLException,
@@ -303,11 +330,17 @@ public class Schemas {
             return -1;
         }
 
+        String key = SchemaIDCache.key(globalEASTWebSchema, "Project", projectName);
+        Integer cached = SchemaIDCache.get(key);
+        if(cached != null) {
+            return cached;
+        }
+
         String selectQuery = String.format("SELECT \"ProjectID\" FROM \"%1$s\".\"Project\" " +
                 "WHERE \"Name\" like '" + escapeUnderScoresAndPercents(projectName) + "';",
                 globalEASTWebSchema
                 );
-        return getID(selectQuery, "ProjectID", stmt);
+        return SchemaIDCache.put(key, getID(selectQuery, "ProjectID", stmt));
     }
 
     public static Integer getTemporalSummaryCompositionStrategyID(final String globalEASTWebSchema, final String temporalSummaryCompositionStrategyClassName, final Statement stmt) throws SQLException {
@@ -320,11 +353,17 @@ public class Schemas {
             //            temporalSummaryCompositionStrategyClassName = "";
         }
 
+        String key = SchemaIDCache.key(globalEASTWebSchema, "TemporalSummaryCompositionStrategy", temporalSummaryCompositionStrategyClassName);
+        Integer cached = SchemaIDCache.get(key);
+        if(cached != null) {
+            return cached;
+        }
+
         String selectQuery = String.format("SELECT \"TemporalSummaryCompositionStrategyID\" FROM \"%1$s\".\"TemporalSummaryCompositionStrategy\" " +
                 "WHERE \"Name\" like '" + escapeUnderScoresAndPercents(temporalSummaryCompositionStrategyClassName) + "';",
                 globalEASTWebSchema
                 );
-        return getID(selectQuery, "TemporalSummaryCompositionStrategyID", stmt);
+        return SchemaIDCache.put(key, getID(selectQuery, "TemporalSummaryCompositionStrategyID", stmt));
     }
 
     public static LocalDate getLatestDateInIndicesCache(final String globalEASTWebSchema, final String projectSchema, Statement stmt) throws SQLException
@@ -439,7 +478,7 @@ public class Schemas {
                         "('" + pluginName + "', " + daysPerInputFile + ", " + filesPerDay + ");",
                         globalEASTWebSchema
                 );
-        return getOrInsertIfMissingID(selectQuery, "PluginID", insertQuery, stmt);
+        return SchemaIDCache.put(SchemaIDCache.key(globalEASTWebSchema, "Plugin", pluginName), getOrInsertIfMissingID(selectQuery, "PluginID", insertQuery, stmt));
     }
 
     private static int addProject(final String globalEASTWebSchema, final String projectName, final Integer dateGroupID, final Statement stmt) throws SQLException {
@@ -704,6 +743,20 @@ public class Schemas {
         if(rs != null) {
             rs.close();
         }
+
+        // Unique key that results are upserted on. Duplicate rows left by earlier runs are dropped first, keeping the latest of each.
+        rs = stmt.executeQuery("SELECT indexname FROM pg_indexes WHERE schemaname='" + mSchemaName + "' and indexname='ZonalStat_Key';");
+        boolean keyExists = rs != null && rs.next();
+        if(rs != null) {
+            rs.close();
+        }
+        if(!keyExists)
+        {
+            stmt.executeUpdate(String.format("DELETE FROM \"%1$s\".\"ZonalStat\" A USING \"%1$s\".\"ZonalStat\" B WHERE A.\"ProjectSummaryID\"=B.\"ProjectSummaryID\" "
+                    + "AND A.\"DateGroupID\"=B.\"DateGroupID\" AND A.\"IndexID\"=B.\"IndexID\" AND A.\"AreaCode\"=B.\"AreaCode\" AND A.\"ZonalStatID\" < B.\"ZonalStatID\";",
+                    mSchemaName));
+            stmt.executeUpdate("CREATE UNIQUE INDEX IF NOT EXISTS \"ZonalStat_Key\" ON \"" + mSchemaName + "\".\"ZonalStat\" (" + ZonalStatLoader.KEY_COLUMNS + ");");
+        }
     }
 
     private static void createIndexTableIfNotExists(final String globalEASTWebSchema, final Statement stmt) throws SQLException {
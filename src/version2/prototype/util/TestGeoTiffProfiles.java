@@ -0,0 +1,92 @@
+package version2.prototype.util;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.gdal.gdal.Band;
+import org.gdal.gdal.Dataset;
+import org.gdal.gdal.gdal;
+
+/**
+ * Benchmark of the GeoTIFF output profiles. Each input raster (e.g. an NLDAS composite and a MODIS mosaic) is rewritten with every profile,
+ * then read back a block-aligned window at a time as the later stages do, and the write time, read time and file size are printed.
+ *
+ * Usage: TestGeoTiffProfiles &lt;output directory&gt; &lt;raster&gt; [&lt;raster&gt; ...]
+ */
+public class TestGeoTiffProfiles
+{
+    private static final int RUNS = 3;
+
+    static public void main(String [ ] args)
+    {
+        if (args.length < 2) {
+            System.out.println("Usage: TestGeoTiffProfiles <output directory> <raster> [<raster> ...]");
+            return;
+        }
+
+        GdalUtils.register();
+        File outputDir = new File(args[0]);
+        outputDir.mkdirs();
+
+        for (int i = 1; i < args.length; i++)
+        {
+            File input = new File(args[i]);
+            try (GdalContext gdalContext = GdalContext.open())
+            {
+                Dataset source = gdalContext.open(input.getPath());
+                if (source == null) {
+                    System.out.println("Can't open " + input.getPath());
+                    continue;
+                }
+
+                System.out.println(String.format("%s: %dx%d, %d band(s), %s, %d KB", input.getName(), source.GetRasterXSize(), source.GetRasterYSize(),
+                        source.GetRasterCount(), gdal.GetDataTypeName(source.GetRasterBand(1).getDataType()), input.length() >> 10));
+                System.out.println(String.format("  %-8s %12s %12s %12s %12s %8s", "profile", "write ms", "write MB/s", "read ms", "read MB/s", "size KB"));
+
+                double rawMB = (double) source.GetRasterXSize() * source.GetRasterYSize() * source.GetRasterCount()
+                        * (gdal.GetDataTypeSize(source.GetRasterBand(1).getDataType()) / 8) / (1 << 20);
+
+                for (GeoTiffProfile profile : GeoTiffProfile.values())
+                {
+                    File output = new File(outputDir, profile.name().toLowerCase() + "_" + input.getName().replaceAll("\\.[^.]*$", "") + ".tif");
+                    long writeNanos = Long.MAX_VALUE;
+                    long readNanos = Long.MAX_VALUE;
+
+                    // best of a few runs to keep the file system cache out of the comparison
+                    for (int run = 0; run < RUNS; run++)
+                    {
+                        output.delete();
+                        long start = System.nanoTime();
+                        profile.finish(profile.createCopy(output.getPath(), source));
+                        writeNanos = Math.min(writeNanos, System.nanoTime() - start);
+
+                        start = System.nanoTime();
+                        readAll(gdalContext, output);
+                        readNanos = Math.min(readNanos, System.nanoTime() - start);
+                    }
+
+                    System.out.println(String.format("  %-8s %12.1f %12.1f %12.1f %12.1f %8d", profile.name(), writeNanos / 1e6, rawMB / (writeNanos / 1e9),
+                            readNanos / 1e6, rawMB / (readNanos / 1e9), output.length() >> 10));
+                }
+                source.delete();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    // Reads every band window by window, the way the processor and summary stages read their inputs
+    private static void readAll(GdalContext gdalContext, File file) throws IOException
+    {
+        Dataset ds = gdalContext.open(file.getPath());
+        for (int b = 1; b <= ds.GetRasterCount(); b++)
+        {
+            try (RasterBlockStream stream = new RasterBlockStream(new Band[] {ds.GetRasterBand(b)}, null)) {
+                while (stream.next()) {
+                    stream.getInput(0).get(0);
+                }
+            }
+        }
+        ds.delete();
+    }
+}
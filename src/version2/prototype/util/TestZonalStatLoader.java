@@ -0,0 +1,167 @@
+package version2.prototype.util;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import version2.prototype.summary.zonal.SummaryResult;
+
+/**
+ * Benchmark of the ZonalStat upload paths. Uploads of synthetic zonal results (one date and index of a summary over a number of zones) are
+ * inserted into a scratch ZonalStat table with the original upload of DatabaseCache.UploadResultsToDb (a SERIALIZABLE plain INSERT batch
+ * followed by the UPDATE of the null TimeStamps), with the ZonalStatLoader PreparedStatement batch and with COPY, and the time and rows per
+ * second of each are printed. The scratch schema is dropped afterwards.
+ *
+ * Usage: TestZonalStatLoader &lt;jdbc url&gt; &lt;user&gt; &lt;password&gt; [&lt;zones per upload&gt; [&lt;uploads&gt;]]
+ * e.g. TestZonalStatLoader jdbc:postgresql://localhost:5432/eastweb postgres secret 3000 20
+ */
+public class TestZonalStatLoader
+{
+    private static final String SCHEMA = "zonalstat_loader_benchmark";
+    private static final String[] SUMMARIES = {"Count", "Max", "Mean", "Min", "SqrSum", "StdDev", "Sum"};
+    private static final int RUNS = 3;
+
+    static public void main(String [ ] args)
+    {
+        if (args.length < 3) {
+            System.out.println("Usage: TestZonalStatLoader <jdbc url> <user> <password> [<zones per upload> [<uploads>]]");
+            return;
+        }
+        int zones = args.length > 3 ? Integer.parseInt(args[3]) : 3000;
+        int uploads = args.length > 4 ? Integer.parseInt(args[4]) : 20;
+
+        try (Connection con = DriverManager.getConnection(args[0], args[1], args[2]))
+        {
+            Statement stmt = con.createStatement();
+            stmt.execute("DROP SCHEMA IF EXISTS \"" + SCHEMA + "\" CASCADE;");
+            stmt.execute("CREATE SCHEMA \"" + SCHEMA + "\";");
+            StringBuilder create = new StringBuilder("CREATE TABLE \"" + SCHEMA + "\".\"ZonalStat\" (\"ZonalStatID\" serial PRIMARY KEY, "
+                    + "\"ProjectSummaryID\" integer NOT NULL, \"DateGroupID\" integer NOT NULL, \"IndexID\" integer NOT NULL, \"AreaCode\" integer NOT NULL, "
+                    + "\"AreaName\" varchar(255) NOT NULL, \"FilePath\" varchar(255) NOT NULL");
+            for (String summary : SUMMARIES) {
+                create.append(", \"" + summary + "\" double precision");
+            }
+            create.append(", \"TimeStamp\" timestamp without time zone);");
+            stmt.execute(create.toString());
+            stmt.execute("CREATE UNIQUE INDEX \"ZonalStat_Key\" ON \"" + SCHEMA + "\".\"ZonalStat\" (" + ZonalStatLoader.KEY_COLUMNS + ");");
+
+            ArrayList<ArrayList<SummaryResult>> batches = new ArrayList<ArrayList<SummaryResult>>(uploads);
+            Random random = new Random(1);
+            for (int u = 0; u < uploads; u++) {
+                batches.add(createResults(random, zones, u));
+            }
+
+            System.out.println(String.format("%d uploads of %d rows (%d summaries)", uploads, zones, SUMMARIES.length));
+            System.out.println(String.format("  %-8s %12s %12s", "path", "total ms", "rows/s"));
+            for (String path : new String[] {"original", "batch", "copy"})
+            {
+                if (path.equals("copy") && !ZonalStatLoader.canCopy(con)) {
+                    System.out.println("  copy     not supported by this connection");
+                    continue;
+                }
+
+                // best of a few runs, each into an empty table
+                long nanos = Long.MAX_VALUE;
+                for (int run = 0; run < RUNS; run++)
+                {
+                    stmt.execute("TRUNCATE \"" + SCHEMA + "\".\"ZonalStat\";");
+                    long start = System.nanoTime();
+                    for (ArrayList<SummaryResult> batch : batches)
+                    {
+                        int inserted;
+                        if (path.equals("original")) {
+                            inserted = insertOriginal(con, SCHEMA, batch);
+                        } else if (path.equals("copy")) {
+                            inserted = ZonalStatLoader.copy(con, SCHEMA, batch);
+                        } else {
+                            inserted = ZonalStatLoader.insertBatch(con, SCHEMA, batch);
+                        }
+                        if (inserted != batch.size()) {
+                            System.out.println("  " + path + ": inserted " + inserted + " of " + batch.size() + " rows");
+                        }
+                    }
+                    nanos = Math.min(nanos, System.nanoTime() - start);
+                }
+                System.out.println(String.format("  %-8s %12.1f %12.0f", path, nanos / 1e6, (double) uploads * zones / (nanos / 1e9)));
+            }
+            con.setTransactionIsolation(Connection.TRANSACTION_READ_COMMITTED);
+
+            stmt.execute("DROP SCHEMA \"" + SCHEMA + "\" CASCADE;");
+            stmt.close();
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+    }
+
+    // The upload as DatabaseCache.UploadResultsToDb did it before ZonalStatLoader: serializable, auto-committed, a plain INSERT batch, then
+    // the TimeStamp UPDATE scanning ZonalStat
+    private static int insertOriginal(Connection con, String schemaName, List<SummaryResult> results) throws SQLException
+    {
+        con.setTransactionIsolation(Connection.TRANSACTION_SERIALIZABLE);
+
+        StringBuilder insert = new StringBuilder("INSERT INTO \"" + schemaName + "\".\"ZonalStat\" (\"ProjectSummaryID\", \"AreaName\", \"AreaCode\", \"DateGroupID\", "
+                + "\"IndexID\", \"FilePath\"");
+        for (String summaryName : results.get(0).summaryResults.keySet()) {
+            insert.append(", \"" + summaryName + "\"");
+        }
+        insert.append(") VALUES (?,?,?,?,?,?");
+        for (int i = 0; i < results.get(0).summaryResults.size(); i++) {
+            insert.append(",?");
+        }
+        insert.append(")");
+
+        int inserted = 0;
+        try (PreparedStatement pStmt = con.prepareStatement(insert.toString()); Statement stmt = con.createStatement())
+        {
+            for (SummaryResult result : results)
+            {
+                pStmt.setInt(1, result.projectSummaryID);
+                pStmt.setString(2, result.areaName);
+                pStmt.setInt(3, result.areaCode);
+                pStmt.setInt(4, result.dateGroupID);
+                pStmt.setInt(5, result.indexID);
+                pStmt.setString(6, result.filePath);
+                int i = 7;
+                for (Double value : result.summaryResults.values())
+                {
+                    if (value == null) {
+                        pStmt.setNull(i++, java.sql.Types.DOUBLE);
+                    } else {
+                        pStmt.setDouble(i++, value);
+                    }
+                }
+                pStmt.addBatch();
+            }
+            for (int changes : pStmt.executeBatch()) {
+                if (changes > 0) {
+                    inserted++;
+                }
+            }
+            stmt.execute("UPDATE \"" + schemaName + "\".\"ZonalStat\" SET \"TimeStamp\"=now() WHERE \"TimeStamp\" is null;");
+        }
+        return inserted;
+    }
+
+    // Results of one upload: every zone of one summary, date and index
+    private static ArrayList<SummaryResult> createResults(Random random, int zones, int upload)
+    {
+        ArrayList<SummaryResult> results = new ArrayList<SummaryResult>(zones);
+        for (int zone = 0; zone < zones; zone++)
+        {
+            Map<String, Double> values = new LinkedHashMap<String, Double>();
+            for (String summary : SUMMARIES) {
+                // a few zones without valid data upload nulls
+                values.put(summary, zone % 50 == 0 ? null : random.nextDouble() * 1000);
+            }
+            results.add(new SummaryResult(1, "Area \"" + zone + "\", woreda", 100000 + zone, upload, 1, "C:\\EASTWeb\\Summary 1\\" + upload + ".csv", values));
+        }
+        return results;
+    }
+}
@@ -0,0 +1,373 @@
+package version2.prototype.util;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import version2.prototype.Config;
+import version2.prototype.ErrorLog;
+import version2.prototype.summary.zonal.SummaryResult;
+
+/**
+ * Process wide writer of zonal summary results. Summary workers submit each upload and carry on computing while a single writer thread, with
+ * its own database connection, commits the uploads queued by all workers together: it takes what's queued, waiting up to GROUP_LINGER_MS for
+ * more, until GROUP_ROWS rows are gathered, and upserts them with one ZonalStatLoader call per project schema in one transaction.
+ *
+ * An upload's Completion runs its beforeCommit in that same transaction, so whatever it marks (e.g. the cache rows as processed) is committed
+ * with the results or not at all, and its afterCommit once the transaction is committed. If the COPY of a group fails, the group is rolled
+ * back and written again with the PreparedStatement batch. If a group fails otherwise, its uploads are retried one per transaction so only
+ * those that fail themselves are reported failed.
+ *
+ * The queue holds at most QUEUE_CAPACITY uploads; submitting to a full queue blocks until the writer catches up, which keeps workers from
+ * getting ahead of the database.
+ */
+public final class ZonalResultSink {
+    /**
+     * Uploads queued before submit blocks.
+     */
+    public static final int QUEUE_CAPACITY = 64;
+
+    /**
+     * Rows committed together at most, unless a single upload is larger.
+     */
+    public static final int GROUP_ROWS = 50000;
+
+    /**
+     * Milliseconds the writer waits for more uploads to join a group.
+     */
+    public static final long GROUP_LINGER_MS = 50;
+
+    private static final ZonalResultSink instance = new ZonalResultSink();
+
+    private final ArrayBlockingQueue<Upload> queue = new ArrayBlockingQueue<Upload>(QUEUE_CAPACITY);
+    private final Object progressLock = new Object();
+    private long submitted = 0;
+    private long finished = 0;
+    private Thread writer;
+    private DatabaseConnection con;
+
+    private final AtomicLong uploads = new AtomicLong();
+    private final AtomicLong rows = new AtomicLong();
+    private final AtomicLong commits = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong blockedSubmits = new AtomicLong();
+
+    /**
+     * Actions tied to the commit of an upload.
+     */
+    public interface Completion {
+        /**
+         * Runs in the transaction committing the upload, after its rows are written.
+         *
+         * @param stmt  - statement of the transaction
+         * @throws SQLException  to fail the upload
+         */
+        void beforeCommit(Statement stmt) throws SQLException;
+
+        /**
+         * Runs once the upload is committed.
+         *
+         * @param stmt  - statement on the writer's connection
+         * @throws SQLException
+         */
+        void afterCommit(Statement stmt) throws SQLException;
+
+        /**
+         * Runs if the upload couldn't be committed, nothing of it was.
+         *
+         * @param e  - the cause
+         */
+        void failed(Exception e);
+    }
+
+    private static final class Upload {
+        final String schemaName;
+        final List<SummaryResult> results;
+        final Completion completion;
+
+        Upload(String schemaName, List<SummaryResult> results, Completion completion) {
+            this.schemaName = schemaName;
+            this.results = results;
+            this.completion = completion;
+        }
+    }
+
+    private ZonalResultSink() {
+    }
+
+    /**
+     * Gets the process wide sink.
+     *
+     * @return the sink
+     */
+    public static ZonalResultSink getInstance() {
+        return instance;
+    }
+
+    /**
+     * Queues results to be upserted into a project's ZonalStat table, blocking while the queue is full.
+     *
+     * @param schemaName  - the project's schema
+     * @param results  - rows to write, all with the same summaries
+     * @param completion  - actions tied to the commit of the rows, or null
+     * @throws InterruptedException  if interrupted while the queue is full, the results aren't queued
+     */
+    public void submit(String schemaName, List<SummaryResult> results, Completion completion) throws InterruptedException
+    {
+        Upload upload = new Upload(schemaName, new ArrayList<SummaryResult>(results), completion);
+        synchronized(this) {
+            if(writer == null || !writer.isAlive()) {
+                writer = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        write();
+                    }
+                }, "ZonalResultSink");
+                writer.setDaemon(true);
+                writer.start();
+            }
+        }
+
+        synchronized(progressLock) {
+            submitted++;
+        }
+        if(!queue.offer(upload)) {
+            blockedSubmits.incrementAndGet();
+            try {
+                queue.put(upload);
+            } catch (InterruptedException e) {
+                synchronized(progressLock) {
+                    submitted--;
+                    progressLock.notifyAll();
+                }
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Waits until every upload submitted before the call is committed or has failed.
+     *
+     * @throws InterruptedException
+     */
+    public void flush() throws InterruptedException
+    {
+        synchronized(progressLock) {
+            long target = submitted;
+            while(finished < target) {
+                progressLock.wait();
+            }
+        }
+    }
+
+    /**
+     * Summarizes the writes since startup.
+     *
+     * @return human readable summary
+     */
+    public static String getStatistics()
+    {
+        long commitCount = instance.commits.get();
+        return String.format("Zonal result sink: %d uploads, %d rows in %d commits (%.0f rows per commit), %d failed, %d submits blocked on a full queue",
+                instance.uploads.get(), instance.rows.get(), commitCount, commitCount > 0 ? (double) instance.rows.get() / commitCount : 0.0, instance.failures.get(),
+                instance.blockedSubmits.get());
+    }
+
+    private void write()
+    {
+        ArrayList<Upload> group = new ArrayList<Upload>();
+        while(true)
+        {
+            try {
+                group.clear();
+                group.add(queue.take());
+                int groupRows = group.get(0).results.size();
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(GROUP_LINGER_MS);
+                while(groupRows < GROUP_ROWS) {
+                    Upload next = queue.poll(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+                    if(next == null) {
+                        break;
+                    }
+                    group.add(next);
+                    groupRows += next.results.size();
+                }
+
+                try {
+                    commit(group);
+                } catch (Exception e) {
+                    // Isolate the uploads that fail on their own
+                    for(Upload upload : group) {
+                        ArrayList<Upload> single = new ArrayList<Upload>(1);
+                        single.add(upload);
+                        try {
+                            commit(single);
+                        } catch (Exception e1) {
+                            failures.incrementAndGet();
+                            if(upload.completion != null) {
+                                upload.completion.failed(e1);
+                            } else {
+                                ErrorLog.add(Config.getInstance(), "Problem writing zonal summary results to schema \"" + upload.schemaName + "\".", e1);
+                            }
+                        }
+                    }
+                }
+
+                synchronized(progressLock) {
+                    finished += group.size();
+                    progressLock.notifyAll();
+                }
+            } catch (InterruptedException e) {
+                // Nothing is left to commit what was taken or queued, so fail it rather than leave flush() waiting on it
+                queue.drainTo(group);
+                for(Upload upload : group) {
+                    failures.incrementAndGet();
+                    if(upload.completion != null) {
+                        upload.completion.failed(e);
+                    } else {
+                        ErrorLog.add(Config.getInstance(), "Zonal summary results for schema \"" + upload.schemaName + "\" not written, the writer was interrupted.", e);
+                    }
+                }
+                synchronized(progressLock) {
+                    finished += group.size();
+                    progressLock.notifyAll();
+                }
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Throwable e) {
+                ErrorLog.add(Config.getInstance(), "Problem in zonal result sink.", e);
+                synchronized(progressLock) {
+                    finished += group.size();
+                    progressLock.notifyAll();
+                }
+            }
+        }
+    }
+
+    // Upserts a group's rows and runs its completions' beforeCommit in one transaction, then their afterCommit
+    private void commit(ArrayList<Upload> group) throws SQLException
+    {
+        // Rows by schema and summaries, a later upload of the same zone, date, index and summary replaces an earlier one
+        Map<String, Map<String, SummaryResult>> tables = new LinkedHashMap<String, Map<String, SummaryResult>>();
+        Map<String, String> schemas = new LinkedHashMap<String, String>();
+        for(Upload upload : group) {
+            for(SummaryResult result : upload.results) {
+                String table = upload.schemaName + "\u0000" + result.summaryResults.keySet();
+                if(tables.get(table) == null) {
+                    tables.put(table, new LinkedHashMap<String, SummaryResult>());
+                    schemas.put(table, upload.schemaName);
+                }
+                tables.get(table).put(result.projectSummaryID + "-" + result.dateGroupID + "-" + result.indexID + "-" + result.areaCode, result);
+            }
+        }
+
+        try {
+            upsert(group, tables, schemas, true);
+        } catch (CopyFailedException e) {
+            ErrorLog.add(Config.getInstance(), "Problem copying zonal summary results, writing them with a batch insert instead.", e.getCause());
+            upsert(group, tables, schemas, false);
+        }
+
+        commits.incrementAndGet();
+        for(Upload upload : group) {
+            uploads.incrementAndGet();
+            rows.addAndGet(upload.results.size());
+        }
+
+        // The group is committed, problems from here on don't fail it
+        for(Upload upload : group) {
+            if(upload.completion != null) {
+                try {
+                    Statement stmt = con.createStatement();
+                    try {
+                        upload.completion.afterCommit(stmt);
+                    } finally {
+                        stmt.close();
+                    }
+                } catch (SQLException e) {
+                    ErrorLog.add(Config.getInstance(), "Problem after writing zonal summary results to schema \"" + upload.schemaName + "\".", e);
+                }
+            }
+        }
+    }
+
+    // Writes the rows with COPY if allowed and the connection supports it, else with the batch, and runs the completions' beforeCommit, all in
+    // one transaction that is rolled back unless it commits
+    private void upsert(ArrayList<Upload> group, Map<String, Map<String, SummaryResult>> tables, Map<String, String> schemas, boolean allowCopy) throws SQLException
+    {
+        if(con == null) {
+            con = DatabaseConnector.getConnection();
+            if(con == null) {
+                throw new SQLException("No database connection for the zonal result sink.");
+            }
+        }
+
+        Statement stmt = null;
+        boolean committed = false;
+        try {
+            con.setTransactionIsolation(Connection.TRANSACTION_READ_COMMITTED);
+            con.setAutoCommit(false);
+            stmt = con.createStatement();
+            boolean copy = allowCopy && ZonalStatLoader.canCopy(con);
+            for(String table : tables.keySet()) {
+                ArrayList<SummaryResult> results = new ArrayList<SummaryResult>(tables.get(table).values());
+                if(copy) {
+                    try {
+                        ZonalStatLoader.copyInTransaction(con, schemas.get(table), results);
+                    } catch (SQLException | RuntimeException e) {
+                        throw new CopyFailedException(e);
+                    }
+                } else {
+                    ZonalStatLoader.insertBatch(con, schemas.get(table), results);
+                }
+            }
+            for(Upload upload : group) {
+                if(upload.completion != null) {
+                    upload.completion.beforeCommit(stmt);
+                }
+            }
+            con.commit();
+            committed = true;
+            con.setAutoCommit(true);
+        } finally {
+            if(stmt != null) {
+                try {
+                    stmt.close();
+                } catch (SQLException e) {
+                    // a broken connection is dropped by the rollback
+                }
+            }
+            if(!committed) {
+                // Whatever failed, rows of this group must not be left in the transaction for the next commit
+                rollback();
+            }
+        }
+    }
+
+    // Rolls back the open transaction, dropping the connection if that fails so the next group gets a new one
+    private void rollback()
+    {
+        try {
+            con.rollback();
+            con.setAutoCommit(true);
+        } catch (SQLException e) {
+            con.close();
+            con = null;
+        }
+    }
+
+    // Failure of the COPY itself, as opposed to the rest of the transaction
+    private static final class CopyFailedException extends SQLException {
+        private static final long serialVersionUID = 1L;
+
+        CopyFailedException(Throwable cause) {
+            super(cause.getMessage(), cause);
+        }
+    }
+}
@@ -0,0 +1,262 @@
+package version2.prototype.util;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
+
+import version2.prototype.summary.zonal.SummaryResult;
+
+/**
+ * Upserts zonal summary results into a project's ZonalStat table. Two paths are provided:
+ * <ul>
+ * <li>copy: the rows are streamed as CSV through the PostgreSQL COPY protocol into a temporary staging table, then moved into ZonalStat with
+ * a single INSERT ... SELECT, all in one transaction. One round trip carries all rows and the server parses them in bulk.</li>
+ * <li>insertBatch: a PreparedStatement batch of one INSERT per row, for connections that aren't PostgreSQL's own.</li>
+ * </ul>
+ * Both write the same values: null for missing results and, as before, Double.MIN_VALUE and Double.MAX_VALUE for negative and positive infinity.
+ * A row whose KEY_COLUMNS match an existing row replaces that row's values (INSERT ... ON CONFLICT DO UPDATE on the table's unique index), so
+ * summaries can be re-run and concurrent uploads need neither a pre-delete nor serializable transactions.
+ */
+public final class ZonalStatLoader {
+    /**
+     * Bytes of CSV buffered before being sent to the server.
+     */
+    public static final int COPY_BUFFER_SIZE = 1 << 16;
+
+    /**
+     * Columns of ZonalStat's unique key, one row per zone, date, index and summary.
+     */
+    public static final String KEY_COLUMNS = "\"ProjectSummaryID\", \"DateGroupID\", \"IndexID\", \"AreaCode\"";
+
+    private static final String STAGING_TABLE = "ZonalStatStaging";
+
+    private ZonalStatLoader() {
+    }
+
+    /**
+     * Checks whether the copy path can be used on a connection.
+     *
+     * @param con  - connection to check, may be a pooled or wrapped connection
+     * @return true if the connection unwraps to a PostgreSQL connection
+     */
+    public static boolean canCopy(Connection con)
+    {
+        try {
+            return con.isWrapperFor(PGConnection.class);
+        } catch (SQLException | AbstractMethodError e) {
+            return false;
+        }
+    }
+
+    /**
+     * Upserts results through a COPY into a staging table, merged into ZonalStat in one statement. The rows get the current time as TimeStamp.
+     * Either all rows are written or none.
+     *
+     * @param con  - connection to a PostgreSQL database
+     * @param schemaName  - schema of the ZonalStat table
+     * @param results  - rows to write, all with the same summaries and no two with the same key
+     * @return number of rows inserted or updated
+     * @throws SQLException  if the copy or the merge fails, after rolling back
+     */
+    public static int copy(Connection con, String schemaName, List<SummaryResult> results) throws SQLException
+    {
+        if(results.size() == 0) {
+            return 0;
+        }
+
+        boolean previousAutoCommit = con.getAutoCommit();
+        con.setAutoCommit(false);
+        try {
+            int inserted = copyInTransaction(con, schemaName, results);
+            con.commit();
+            return inserted;
+        } catch (SQLException e) {
+            con.rollback();
+            throw e;
+        } finally {
+            con.setAutoCommit(previousAutoCommit);
+        }
+    }
+
+    /**
+     * Upserts results as copy(Connection, String, List) does, within the connection's current transaction and without committing it, so
+     * several calls can be committed together.
+     *
+     * @param con  - connection to a PostgreSQL database, with auto-commit off
+     * @param schemaName  - schema of the ZonalStat table
+     * @param results  - rows to write, all with the same summaries and no two with the same key
+     * @return number of rows inserted or updated
+     * @throws SQLException
+     */
+    public static int copyInTransaction(Connection con, String schemaName, List<SummaryResult> results) throws SQLException
+    {
+        if(results.size() == 0) {
+            return 0;
+        }
+        ArrayList<String> summaryNames = new ArrayList<String>(results.get(0).summaryResults.keySet());
+        String columns = getColumns(summaryNames);
+
+        Statement stmt = con.createStatement();
+        try {
+            StringBuilder create = new StringBuilder("CREATE TEMPORARY TABLE \"" + STAGING_TABLE + "\" (\"ProjectSummaryID\" integer, \"AreaName\" varchar(255), "
+                    + "\"AreaCode\" integer, \"DateGroupID\" integer, \"IndexID\" integer, \"FilePath\" varchar(255)");
+            for(String summaryName : summaryNames) {
+                create.append(", \"" + summaryName + "\" double precision");
+            }
+            create.append(") ON COMMIT DROP;");
+            stmt.execute(create.toString());
+
+            CopyIn copyIn = con.unwrap(PGConnection.class).getCopyAPI().copyIn("COPY \"" + STAGING_TABLE + "\" (" + columns + ") FROM STDIN WITH CSV");
+            try {
+                StringBuilder csv = new StringBuilder(COPY_BUFFER_SIZE + 1024);
+                for(SummaryResult result : results)
+                {
+                    csv.append(result.projectSummaryID).append(',');
+                    appendQuoted(csv, result.areaName).append(',');
+                    csv.append(result.areaCode).append(',');
+                    csv.append(result.dateGroupID).append(',');
+                    csv.append(result.indexID).append(',');
+                    appendQuoted(csv, result.filePath);
+                    for(String summaryName : summaryNames) {
+                        csv.append(',');
+                        Double value = result.summaryResults.get(summaryName);
+                        if(value != null) {     // an empty unquoted field is NULL
+                            csv.append(toStoredValue(value));
+                        }
+                    }
+                    csv.append('\n');
+
+                    if(csv.length() >= COPY_BUFFER_SIZE) {
+                        byte[] bytes = csv.toString().getBytes(StandardCharsets.UTF_8);
+                        copyIn.writeToCopy(bytes, 0, bytes.length);
+                        csv.setLength(0);
+                    }
+                }
+                byte[] bytes = csv.toString().getBytes(StandardCharsets.UTF_8);
+                copyIn.writeToCopy(bytes, 0, bytes.length);
+                copyIn.endCopy();
+            } finally {
+                if(copyIn.isActive()) {
+                    copyIn.cancelCopy();
+                }
+            }
+
+            int inserted = stmt.executeUpdate("INSERT INTO \"" + schemaName + "\".\"ZonalStat\" (" + columns + ", \"TimeStamp\") SELECT " + columns + ", now() FROM \""
+                    + STAGING_TABLE + "\"" + getUpsertClause(summaryNames) + ";");
+            stmt.execute("DROP TABLE \"" + STAGING_TABLE + "\";");
+            return inserted;
+        } finally {
+            stmt.close();
+        }
+    }
+
+    /**
+     * Upserts results with a batch of INSERT statements. The rows get the current time as TimeStamp.
+     *
+     * @param con  - connection to the database
+     * @param schemaName  - schema of the ZonalStat table
+     * @param results  - rows to write, all with the same summaries
+     * @return number of rows reported inserted or updated
+     * @throws SQLException
+     */
+    public static int insertBatch(Connection con, String schemaName, List<SummaryResult> results) throws SQLException
+    {
+        if(results.size() == 0) {
+            return 0;
+        }
+        ArrayList<String> summaryNames = new ArrayList<String>(results.get(0).summaryResults.keySet());
+
+        StringBuilder insert = new StringBuilder("INSERT INTO \"" + schemaName + "\".\"ZonalStat\" (" + getColumns(summaryNames) + ", \"TimeStamp\") VALUES (?,?,?,?,?,?");
+        for(int i=0; i < summaryNames.size(); i++) {
+            insert.append(",?");
+        }
+        insert.append(", now())" + getUpsertClause(summaryNames));
+
+        PreparedStatement pStmt = con.prepareStatement(insert.toString());
+        try {
+            for(SummaryResult result : results)
+            {
+                pStmt.setInt(1, result.projectSummaryID);
+                pStmt.setString(2, result.areaName);
+                pStmt.setInt(3, result.areaCode);
+                pStmt.setInt(4, result.dateGroupID);
+                pStmt.setInt(5, result.indexID);
+                pStmt.setString(6, result.filePath);
+                for(int i=0; i < summaryNames.size(); i++)
+                {
+                    Double value = result.summaryResults.get(summaryNames.get(i));
+                    if(value == null) {
+                        pStmt.setNull(7 + i, java.sql.Types.DOUBLE);
+                    } else {
+                        pStmt.setDouble(7 + i, toStoredValue(value));
+                    }
+                }
+                pStmt.addBatch();
+            }
+
+            int inserted = 0;
+            for(int changes : pStmt.executeBatch()) {
+                if(changes > 0) {
+                    inserted += changes;
+                }
+            }
+            return inserted;
+        } finally {
+            pStmt.close();
+        }
+    }
+
+    private static String getColumns(List<String> summaryNames)
+    {
+        StringBuilder columns = new StringBuilder("\"ProjectSummaryID\", \"AreaName\", \"AreaCode\", \"DateGroupID\", \"IndexID\", \"FilePath\"");
+        for(String summaryName : summaryNames) {
+            columns.append(", \"" + summaryName + "\"");
+        }
+        return columns.toString();
+    }
+
+    // Replaces the values of the row already holding a key with those of the new row
+    private static String getUpsertClause(List<String> summaryNames)
+    {
+        StringBuilder clause = new StringBuilder(" ON CONFLICT (" + KEY_COLUMNS + ") DO UPDATE SET \"AreaName\" = EXCLUDED.\"AreaName\", \"FilePath\" = EXCLUDED.\"FilePath\"");
+        for(String summaryName : summaryNames) {
+            clause.append(", \"" + summaryName + "\" = EXCLUDED.\"" + summaryName + "\"");
+        }
+        clause.append(", \"TimeStamp\" = EXCLUDED.\"TimeStamp\"");
+        return clause.toString();
+    }
+
+    // Infinities aren't stored, the extreme doubles stand in for them
+    private static double toStoredValue(double value)
+    {
+        if(value == Double.NEGATIVE_INFINITY) {
+            return Double.MIN_VALUE;
+        } else if(value == Double.POSITIVE_INFINITY) {
+            return Double.MAX_VALUE;
+        }
+        return value;
+    }
+
+    private static StringBuilder appendQuoted(StringBuilder csv, String value)
+    {
+        if(value == null) {
+            return csv;
+        }
+        csv.append('"');
+        for(int i=0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if(c == '"') {
+                csv.append('"');
+            }
+            csv.append(c);
+        }
+        return csv.append('"');
+    }
+}